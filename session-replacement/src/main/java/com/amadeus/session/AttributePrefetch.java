@@ -0,0 +1,293 @@
+package com.amadeus.session;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.amadeus.session.SessionConfiguration.PrefetchMode;
+
+/**
+ * Decides which session attributes should be retrieved from repository together with session meta data. The
+ * decision is based on {@link PrefetchMode} configured in {@link SessionConfiguration}.
+ * <p>
+ * In {@link PrefetchMode#ADAPTIVE} mode, the class keeps, for each context (usually servlet path), a table of how
+ * often each attribute is read by requests in that context. An attribute is prefetched when it was read by at least
+ * {@link #PREFETCH_THRESHOLD} of recent requests. The frequencies decay: every time the number of requests in a context
+ * reaches {@link #DECAY_PERIOD}, all counts of that context are halved, and attributes that are no longer read are
+ * eventually forgotten. Number of contexts and of attributes per context is bounded; when there are too many contexts,
+ * the least recently used one is dropped.
+ */
+public class AttributePrefetch {
+  /**
+   * Maximum number of contexts for which attributes are learned.
+   */
+  static final int MAX_CONTEXTS = 256;
+
+  /**
+   * Maximum number of attributes learned per context.
+   */
+  static final int MAX_ATTRIBUTES_PER_CONTEXT = 64;
+
+  /**
+   * Number of requests in a context after which read counts of the context are halved.
+   */
+  static final int DECAY_PERIOD = 32;
+
+  /**
+   * Minimal fraction of requests in a context that read an attribute for the attribute to be prefetched.
+   */
+  static final double PREFETCH_THRESHOLD = 0.25;
+
+  /**
+   * Attributes whose decayed read count falls below this value are forgotten.
+   */
+  private static final double MIN_READS = 0.5;
+
+  private final PrefetchMode mode;
+
+  private final Selection configured;
+
+  private final ConcurrentMap<String, ReadFrequencies> learned = new ConcurrentHashMap<>();
+
+  /**
+   * Decaying read frequencies of attributes in one context.
+   */
+  private static final class ReadFrequencies {
+    private double requests;
+    private final Map<String, Double> reads = new HashMap<>();
+    private volatile long lastUsed;
+
+    /**
+     * Counts new request in the context and returns attributes that were read frequently by previous requests.
+     *
+     * @return set of frequently read attributes
+     */
+    synchronized Set<String> requestStarted() {
+      lastUsed = System.nanoTime();
+      Set<String> frequent = new HashSet<>();
+      for (Map.Entry<String, Double> entry : reads.entrySet()) {
+        if (entry.getValue() >= requests * PREFETCH_THRESHOLD) {
+          frequent.add(entry.getKey());
+        }
+      }
+      requests++;
+      if (requests >= DECAY_PERIOD) {
+        decay();
+      }
+      return frequent;
+    }
+
+    /**
+     * Counts read of the attribute.
+     *
+     * @param attribute
+     *          the name of the attribute
+     */
+    synchronized void attributeRead(String attribute) {
+      Double count = reads.get(attribute);
+      if (count != null) {
+        reads.put(attribute, Math.min(count + 1, requests));
+      } else if (reads.size() < MAX_ATTRIBUTES_PER_CONTEXT) {
+        reads.put(attribute, Math.min(1.0, requests));
+      }
+    }
+
+    /**
+     * Halves all counts and drops attributes that are rarely read.
+     */
+    private void decay() {
+      requests /= 2;
+      Iterator<Map.Entry<String, Double>> it = reads.entrySet().iterator();
+      while (it.hasNext()) {
+        Map.Entry<String, Double> entry = it.next();
+        double count = entry.getValue() / 2;
+        if (count < MIN_READS) {
+          it.remove();
+        } else {
+          entry.setValue(count);
+        }
+      }
+    }
+  }
+
+  /**
+   * Describes attributes that should be retrieved together with session meta data.
+   */
+  public static final class Selection {
+    /**
+     * No attribute should be prefetched.
+     */
+    public static final Selection NONE = new Selection(false, Collections.<String> emptySet());
+
+    /**
+     * All attributes should be prefetched.
+     */
+    public static final Selection ALL = new Selection(true, Collections.<String> emptySet());
+
+    private final boolean all;
+
+    private final Set<String> attributes;
+
+    /**
+     * Creates selection of the given attributes.
+     *
+     * @param attributes
+     *          names of attributes to prefetch
+     */
+    public Selection(Set<String> attributes) {
+      this(false, attributes);
+    }
+
+    private Selection(boolean all, Set<String> attributes) {
+      this.all = all;
+      this.attributes = attributes;
+    }
+
+    /**
+     * Returns <code>true</code> if all attributes should be prefetched.
+     *
+     * @return <code>true</code> if all attributes should be prefetched
+     */
+    public boolean isAll() {
+      return all;
+    }
+
+    /**
+     * Returns <code>true</code> if no attribute should be prefetched.
+     *
+     * @return <code>true</code> if nothing should be prefetched
+     */
+    public boolean isEmpty() {
+      return !all && attributes.isEmpty();
+    }
+
+    /**
+     * Returns names of attributes to prefetch. Not relevant if {@link #isAll()} is <code>true</code>.
+     *
+     * @return names of attributes to prefetch
+     */
+    public Set<String> getAttributes() {
+      return attributes;
+    }
+  }
+
+  /**
+   * Creates prefetch policy based on session configuration.
+   *
+   * @param configuration
+   *          the session configuration
+   */
+  public AttributePrefetch(SessionConfiguration configuration) {
+    mode = configuration.getPrefetchMode() == null ? PrefetchMode.NONE : configuration.getPrefetchMode();
+    if (mode == PrefetchMode.ALL) {
+      configured = Selection.ALL;
+    } else if (mode == PrefetchMode.NONE || configuration.getPrefetchAttributes() == null) {
+      configured = Selection.NONE;
+    } else {
+      configured = new Selection(configuration.getPrefetchAttributes());
+    }
+  }
+
+  /**
+   * Returns attributes that should be retrieved together with session meta data. In {@link PrefetchMode#ADAPTIVE}
+   * mode, this also counts a request in the given context.
+   *
+   * @param context
+   *          the context of the retrieval (e.g. servlet path), may be <code>null</code>
+   * @return selection of attributes to prefetch
+   */
+  public Selection attributesFor(String context) {
+    if (mode != PrefetchMode.ADAPTIVE || context == null) {
+      return configured;
+    }
+    ReadFrequencies frequencies = frequencies(context);
+    Set<String> names = frequencies.requestStarted();
+    if (names.isEmpty()) {
+      return configured;
+    }
+    names.addAll(configured.getAttributes());
+    return new Selection(Collections.unmodifiableSet(names));
+  }
+
+  /**
+   * Called when request reads an attribute for the first time. In {@link PrefetchMode#ADAPTIVE} mode, the read is
+   * counted in the frequency table of the context.
+   *
+   * @param context
+   *          the context of the retrieval (e.g. servlet path), may be <code>null</code>
+   * @param attribute
+   *          the name of the attribute
+   */
+  public void attributeRead(String context, String attribute) {
+    if (mode != PrefetchMode.ADAPTIVE || context == null) {
+      return;
+    }
+    ReadFrequencies frequencies = learned.get(context);
+    if (frequencies != null) {
+      frequencies.attributeRead(attribute);
+    }
+  }
+
+  /**
+   * Returns frequency table for the context, creating it if needed. If there are too many contexts, the least
+   * recently used one is removed.
+   *
+   * @param context
+   *          the context
+   * @return frequency table of the context
+   */
+  private ReadFrequencies frequencies(String context) {
+    ReadFrequencies frequencies = learned.get(context);
+    if (frequencies == null) {
+      if (learned.size() >= MAX_CONTEXTS) {
+        evictLeastRecentlyUsed();
+      }
+      ReadFrequencies newFrequencies = new ReadFrequencies();
+      frequencies = learned.putIfAbsent(context, newFrequencies);
+      if (frequencies == null) {
+        frequencies = newFrequencies;
+      }
+    }
+    return frequencies;
+  }
+
+  /**
+   * Removes context that was not used for the longest time.
+   */
+  private void evictLeastRecentlyUsed() {
+    String oldest = null;
+    long oldestUse = Long.MAX_VALUE;
+    for (Map.Entry<String, ReadFrequencies> entry : learned.entrySet()) {
+      if (entry.getValue().lastUsed - oldestUse < 0 || oldest == null) {
+        oldest = entry.getKey();
+        oldestUse = entry.getValue().lastUsed;
+      }
+    }
+    if (oldest != null) {
+      learned.remove(oldest);
+    }
+  }
+
+  /**
+   * Returns number of contexts for which read frequencies are kept.
+   *
+   * @return number of contexts
+   */
+  int contexts() {
+    return learned.size();
+  }
+
+  /**
+   * Returns configured prefetch mode.
+   *
+   * @return the prefetch mode
+   */
+  public PrefetchMode getMode() {
+    return mode;
+  }
+}
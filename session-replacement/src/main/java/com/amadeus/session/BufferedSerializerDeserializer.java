@@ -0,0 +1,31 @@
+package com.amadeus.session;
+
+/**
+ * Serializer that can serialize into buffers taken from a {@link SerializationBufferPool} and deserialize part of an
+ * array. Serializers that wrap such serializer (e.g. {@link EncryptingSerializerDeserializer}) transform the
+ * serialized form without copying it to an intermediate array.
+ */
+interface BufferedSerializerDeserializer extends SerializerDeserializer {
+  /**
+   * Serializes object into a pooled buffer. Caller must release the buffer using
+   * {@link SerializationBufferPool.Buffer#release()} once it no longer uses its content.
+   *
+   * @param value
+   *          the object to serialize
+   * @return buffer containing serialized object
+   */
+  SerializationBufferPool.Buffer serializeToBuffer(Object value);
+
+  /**
+   * Deserializes object from part of byte array.
+   *
+   * @param data
+   *          array containing serialized form of the object
+   * @param offset
+   *          start of serialized form
+   * @param length
+   *          length of serialized form
+   * @return deserialized object
+   */
+  Object deserialize(byte[] data, int offset, int length);
+}
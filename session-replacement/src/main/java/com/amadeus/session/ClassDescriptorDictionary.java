@@ -0,0 +1,30 @@
+package com.amadeus.session;
+
+/**
+ * Implementations of this interface store serialized class descriptors shared by all nodes using the same session
+ * namespace. {@link CompactSerializerDeserializer} writes only the identifier of the class descriptor in serialized
+ * attributes, and uses the dictionary to retrieve the descriptor when attributes are deserialized.
+ * <p>
+ * {@link SessionRepository} implementations that share sessions between nodes should implement this interface.
+ */
+public interface ClassDescriptorDictionary {
+  /**
+   * Returns class descriptor with given identifier.
+   *
+   * @param id
+   *          identifier of the class descriptor
+   * @return serialized class descriptor or <code>null</code> if there is no descriptor with the identifier
+   */
+  byte[] getClassDescriptor(long id);
+
+  /**
+   * Stores class descriptor. Identifiers are derived from the content of descriptor, so if descriptor with the same
+   * identifier was already stored, it is not changed.
+   *
+   * @param id
+   *          identifier of the class descriptor
+   * @param descriptor
+   *          serialized class descriptor
+   */
+  void storeClassDescriptor(long id, byte[] descriptor);
+}
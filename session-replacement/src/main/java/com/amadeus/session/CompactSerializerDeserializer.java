@@ -0,0 +1,384 @@
+package com.amadeus.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Serialization/deserialization logic that produces more compact output than {@link JdkSerializerDeserializer}.
+ * <p>
+ * Strings, integers, longs, doubles and booleans are written as one type byte followed by the value. Other objects are
+ * written using JDK serialization, but instead of full class descriptor, only 8 byte identifier of the descriptor is
+ * written. The descriptors are stored once in a {@link ClassDescriptorDictionary} shared by all nodes of the namespace
+ * (usually the session repository), and are cached locally. The identifier is derived from the content of the
+ * descriptor, so a new version of a class gets a new identifier.
+ * <p>
+ * If the descriptor can't be stored in the dictionary, the object is written using standard JDK serialization.
+ * Values written using standard JDK serialization, including those written by {@link JdkSerializerDeserializer}, can
+ * always be deserialized.
+ * <p>
+ * The implementation measures the number of bytes that were serialized or deserialized using same metrics as
+ * {@link JdkSerializerDeserializer}, and, like it, reuses buffers from a {@link SerializationBufferPool} when
+ * {@link SessionConfiguration#SERIALIZATION_BUFFERS} is configured.
+ * </p>
+ */
+public class CompactSerializerDeserializer implements BufferedSerializerDeserializer {
+  private static final Logger logger = LoggerFactory.getLogger(CompactSerializerDeserializer.class);
+
+  static final byte NULL = 0;
+  static final byte STRING = 1;
+  static final byte INTEGER = 2;
+  static final byte LONG = 3;
+  static final byte DOUBLE = 4;
+  static final byte BOOLEAN = 5;
+  static final byte OBJECT = 6;
+
+  /**
+   * First two bytes of standard JDK serialization stream.
+   */
+  private static final byte[] JDK_STREAM_MAGIC = { (byte)0xac, (byte)0xed };
+
+  private SerializationBufferPool buffers = new SerializationBufferPool(0);
+  private final ConcurrentMap<Class<?>, Long> writtenDescriptors = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Long, ObjectStreamClass> readDescriptors = new ConcurrentHashMap<>();
+
+  private SessionManager sessionManager;
+  private ClassDescriptorDictionary dictionary;
+  private Counter serializedData;
+  private Counter deserializedData;
+  private Histogram serializedHistogram;
+  private Histogram deserializedHistogram;
+
+  /**
+   * Dictionary that is used when session repository doesn't provide one. Such dictionary is only valid for data that
+   * is not shared with other nodes.
+   */
+  private static class LocalDictionary implements ClassDescriptorDictionary {
+    private final ConcurrentMap<Long, byte[]> descriptors = new ConcurrentHashMap<>();
+
+    @Override
+    public byte[] getClassDescriptor(long id) {
+      return descriptors.get(id);
+    }
+
+    @Override
+    public void storeClassDescriptor(long id, byte[] descriptor) {
+      descriptors.putIfAbsent(id, descriptor);
+    }
+  }
+
+  /**
+   * Thrown when class descriptor could not be stored in dictionary.
+   */
+  private static class DescriptorNotStoredException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    DescriptorNotStoredException(Throwable cause) {
+      super(cause);
+    }
+  }
+
+  /**
+   * Object stream that replaces class descriptors with their identifiers.
+   */
+  private class CompactObjectOutputStream extends ObjectOutputStream {
+    CompactObjectOutputStream(OutputStream out) throws IOException {
+      super(out);
+    }
+
+    @Override
+    protected void writeStreamHeader() throws IOException {
+      // Stream header is not written, type byte identifies the content
+    }
+
+    @Override
+    protected void writeClassDescriptor(ObjectStreamClass desc) throws IOException {
+      writeLong(descriptorId(desc));
+    }
+  }
+
+  /**
+   * Object stream that reads class descriptors from dictionary.
+   */
+  private class CompactObjectInputStream extends ClassLoaderObjectInputStream {
+    CompactObjectInputStream(ClassLoader classLoader, InputStream in) throws IOException {
+      super(classLoader, in);
+    }
+
+    @Override
+    protected void readStreamHeader() throws IOException {
+      // Stream header is not written, type byte identifies the content
+    }
+
+    @Override
+    protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+      return descriptor(readLong());
+    }
+  }
+
+  @Override
+  public byte[] serialize(Object value) {
+    byte[] ba = writePrimitive(value);
+    if (ba == null) {
+      SerializationBufferPool.Buffer bos = serializeToBuffer(value);
+      try {
+        return bos.toByteArray();
+      } finally {
+        bos.release();
+      }
+    }
+    // Incrementing metrics
+    serializedData.inc(ba.length);
+    serializedHistogram.update(ba.length);
+    return ba;
+  }
+
+  @Override
+  public SerializationBufferPool.Buffer serializeToBuffer(Object value) {
+    SerializationBufferPool.Buffer bos = buffers.acquire();
+    try {
+      byte[] ba = writePrimitive(value);
+      if (ba != null) {
+        bos.write(ba);
+      } else {
+        writeObject(value, bos);
+      }
+      // Incrementing metrics
+      serializedData.inc(bos.size());
+      serializedHistogram.update(bos.size());
+      return bos;
+    } catch (IOException e) {
+      bos.release();
+      throw new IllegalStateException("Unable to serialize object. See stacktrace for more information.", e);
+    } catch (RuntimeException e) {
+      bos.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Returns serialized form of primitive values and strings, or <code>null</code> if value must be written as object.
+   */
+  private byte[] writePrimitive(Object value) {
+    if (value == null) {
+      return new byte[] { NULL };
+    }
+    if (value instanceof String && !hasSurrogates((String)value)) {
+      byte[] utf8 = ((String)value).getBytes(StandardCharsets.UTF_8);
+      return ByteBuffer.allocate(1 + utf8.length).put(STRING).put(utf8).array();
+    }
+    if (value instanceof Integer) {
+      return ByteBuffer.allocate(1 + Integer.SIZE / Byte.SIZE).put(INTEGER).putInt((Integer)value).array();
+    }
+    if (value instanceof Long) {
+      return ByteBuffer.allocate(1 + Long.SIZE / Byte.SIZE).put(LONG).putLong((Long)value).array();
+    }
+    if (value instanceof Double) {
+      return ByteBuffer.allocate(1 + Double.SIZE / Byte.SIZE).put(DOUBLE).putDouble((Double)value).array();
+    }
+    if (value instanceof Boolean) {
+      return new byte[] { BOOLEAN, (byte)((Boolean)value ? 1 : 0) };
+    }
+    return null;
+  }
+
+  private void writeObject(Object value, SerializationBufferPool.Buffer bos) throws IOException {
+    try {
+      bos.write(OBJECT);
+      try (ObjectOutputStream out = new CompactObjectOutputStream(bos)) {
+        out.writeObject(value);
+      }
+    } catch (DescriptorNotStoredException e) {
+      logger.warn("Unable to store class descriptor, using standard serialization for {}", value.getClass(), e);
+      bos.reset();
+      try (ObjectOutputStream out = new ObjectOutputStream(bos)) {
+        out.writeObject(value);
+      }
+    }
+  }
+
+  /**
+   * Modified UTF-8 used by JDK serialization preserves unpaired surrogates, while standard UTF-8 doesn't. Strings with
+   * surrogates are written as objects.
+   */
+  private static boolean hasSurrogates(String value) {
+    for (int i = 0; i < value.length(); i++) {
+      if (Character.isSurrogate(value.charAt(i))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public Object deserialize(byte[] data) {
+    if (data == null) {
+      return null;
+    }
+    return deserialize(data, 0, data.length);
+  }
+
+  @Override
+  public Object deserialize(byte[] data, int offset, int length) {
+    try {
+      Object obj = read(data, offset, length);
+      // Incrementing metrics
+      deserializedData.inc(length);
+      deserializedHistogram.update(length);
+      return obj;
+    } catch (IOException | ClassNotFoundException e) {
+      throw new IllegalStateException("Unable to deserialize object. See stacktrace for more information.", e);
+    }
+  }
+
+  private Object read(byte[] data, int offset, int length) throws IOException, ClassNotFoundException {
+    if (length >= JDK_STREAM_MAGIC.length && data[offset] == JDK_STREAM_MAGIC[0]
+        && data[offset + 1] == JDK_STREAM_MAGIC[1]) {
+      try (ObjectInputStream is = new ClassLoaderObjectInputStream(classLoader(),
+          buffers.input(data, offset, length))) {
+        return is.readObject();
+      }
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(data, offset + 1, length - 1);
+    switch (data[offset]) {
+    case NULL:
+      return null;
+    case STRING:
+      return new String(data, offset + 1, length - 1, StandardCharsets.UTF_8);
+    case INTEGER:
+      return buffer.getInt();
+    case LONG:
+      return buffer.getLong();
+    case DOUBLE:
+      return buffer.getDouble();
+    case BOOLEAN:
+      return data[offset + 1] != 0;
+    case OBJECT:
+      try (ObjectInputStream is = new CompactObjectInputStream(classLoader(),
+          buffers.input(data, offset + 1, length - 1))) {
+        return is.readObject();
+      }
+    default:
+      throw new IOException("Unknown type of serialized data: " + data[offset]);
+    }
+  }
+
+  /**
+   * For deserializing objects we use specific class loader of the session manager to insure it was the same one used
+   * when creating serialized objects.
+   */
+  private ClassLoader classLoader() {
+    ClassLoader classLoader = sessionManager.getSessionClassLoader();
+    if (classLoader == null) {
+      classLoader = Thread.currentThread().getContextClassLoader();
+    }
+    return classLoader;
+  }
+
+  /**
+   * Returns identifier of the class descriptor. If descriptor was not used before by this instance, it is stored in
+   * dictionary.
+   *
+   * @param desc
+   *          the class descriptor
+   * @return identifier of the descriptor
+   * @throws IOException
+   *           if descriptor couldn't be serialized or stored
+   */
+  long descriptorId(ObjectStreamClass desc) throws IOException {
+    Long id = writtenDescriptors.get(desc.forClass());
+    if (id != null) {
+      return id;
+    }
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bos)) {
+      out.writeObject(desc);
+    }
+    byte[] serialized = bos.toByteArray();
+    id = idOf(serialized);
+    try {
+      dictionary.storeClassDescriptor(id, serialized);
+    } catch (RuntimeException e) {
+      throw new DescriptorNotStoredException(e);
+    }
+    readDescriptors.putIfAbsent(id, desc);
+    writtenDescriptors.put(desc.forClass(), id);
+    return id;
+  }
+
+  /**
+   * Returns class descriptor with given identifier. Descriptor is retrieved from dictionary if it is not cached.
+   *
+   * @param id
+   *          identifier of the descriptor
+   * @return the class descriptor
+   * @throws IOException
+   *           if descriptor is not in dictionary or it couldn't be deserialized
+   * @throws ClassNotFoundException
+   *           if the class of descriptor couldn't be loaded
+   */
+  ObjectStreamClass descriptor(long id) throws IOException, ClassNotFoundException {
+    ObjectStreamClass desc = readDescriptors.get(id);
+    if (desc != null) {
+      return desc;
+    }
+    byte[] serialized = dictionary.getClassDescriptor(id);
+    if (serialized == null) {
+      throw new IOException("Class descriptor " + Long.toHexString(id) + " is not in dictionary");
+    }
+    try (ObjectInputStream is = new ClassLoaderObjectInputStream(classLoader(), new ByteArrayInputStream(serialized))) {
+      desc = (ObjectStreamClass)is.readObject();
+    }
+    readDescriptors.putIfAbsent(id, desc);
+    return desc;
+  }
+
+  /**
+   * Computes identifier from first 8 bytes of SHA-1 digest of serialized descriptor.
+   */
+  private static long idOf(byte[] serialized) {
+    try {
+      return ByteBuffer.wrap(MessageDigest.getInstance("SHA-1").digest(serialized)).getLong();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-1 digest is not available", e);
+    }
+  }
+
+  @Override
+  public void setSessionManager(SessionManager sessionManager) {
+    this.sessionManager = sessionManager;
+    SessionRepository repository = sessionManager.getRepository();
+    if (repository instanceof ClassDescriptorDictionary) {
+      dictionary = (ClassDescriptorDictionary)repository;
+    } else {
+      dictionary = new LocalDictionary();
+    }
+    MetricRegistry metrics = sessionManager.getMetrics();
+    serializedData = metrics.counter("com.amadeus.session.serialized.bytes");
+    deserializedData = metrics.counter("com.amadeus.session.deserialized.bytes");
+    serializedHistogram = metrics.histogram("com.amadeus.session.serialized.distribution");
+    deserializedHistogram = metrics.histogram("com.amadeus.session.deserialized.distribution");
+    SessionConfiguration configuration = sessionManager.getConfiguration();
+    if (configuration != null) {
+      buffers = new SerializationBufferPool(configuration.getSerializationBuffers());
+    }
+  }
+}
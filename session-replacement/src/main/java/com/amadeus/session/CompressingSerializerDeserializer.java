@@ -0,0 +1,233 @@
+package com.amadeus.session;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Compresses session data before storing it in session repository. Only data whose serialized size is at least the
+ * threshold configured in {@link SessionConfiguration#COMPRESSION_THRESHOLD} is compressed, and it is stored
+ * compressed only if this reduces its size. The implementation delegates serializing and deserializing to a wrapped
+ * {@link SerializerDeserializer}.
+ * <p>
+ * Compressed data starts with one header byte followed by uncompressed length and deflate stream. Data that was not
+ * compressed is stored as is, so values stored before compression was activated remain readable. If uncompressed data
+ * happens to start with one of header bytes, another header byte is prepended to it.
+ * <p>
+ * The size of compressed data is measured in <code>com.amadeus.session.serialized.compressed.distribution</code>
+ * histogram, while the uncompressed size is measured in <code>com.amadeus.session.serialized.distribution</code> by
+ * the wrapped instance. Compression ratio, in percents of uncompressed size, is measured in
+ * <code>com.amadeus.session.serialized.compression.ratio</code> histogram.
+ * <p>
+ * Data is compressed from and decompressed into buffers of a {@link SerializationBufferPool}, so that serialized data
+ * is not copied between wrapped serializer, compression and encryption.
+ */
+public class CompressingSerializerDeserializer implements BufferedSerializerDeserializer {
+  /**
+   * Header of compressed data.
+   */
+  static final byte COMPRESSED = 0x1f;
+
+  /**
+   * Header of uncompressed data that starts with one of header bytes.
+   */
+  static final byte UNCOMPRESSED = 0x1e;
+
+  private static final int PERCENT = 100;
+
+  private final SerializerDeserializer wrapped;
+  private SerializationBufferPool buffers = new SerializationBufferPool(0);
+  private int threshold;
+  private Histogram compressedHistogram;
+  private Histogram compressionRatio;
+
+  /**
+   * Default constructor wraps {@link JdkSerializerDeserializer} instance.
+   */
+  public CompressingSerializerDeserializer() {
+    this(new JdkSerializerDeserializer());
+  }
+
+  /**
+   * Constructor that allows wrapping arbitrary {@link SerializerDeserializer} instance.
+   *
+   * @param wrapped
+   *          the instance to wrap
+   */
+  public CompressingSerializerDeserializer(SerializerDeserializer wrapped) {
+    this.wrapped = wrapped;
+  }
+
+  @Override
+  public byte[] serialize(Object value) {
+    SerializationBufferPool.Buffer buffer = serializeToBuffer(value);
+    try {
+      return buffer.toByteArray();
+    } finally {
+      buffer.release();
+    }
+  }
+
+  @Override
+  public SerializationBufferPool.Buffer serializeToBuffer(Object value) {
+    SerializationBufferPool.Buffer serialized = serializeWrapped(value);
+    int size = serialized.size();
+    if (size >= threshold) {
+      SerializationBufferPool.Buffer compressed = compress(serialized);
+      if (compressed != null) {
+        serialized.release();
+        compressedHistogram.update(compressed.size());
+        compressionRatio.update((long)compressed.size() * PERCENT / size);
+        return compressed;
+      }
+    }
+    if (size > 0 && (serialized.array()[0] == COMPRESSED || serialized.array()[0] == UNCOMPRESSED)) {
+      SerializationBufferPool.Buffer escaped = buffers.acquire(size + 1);
+      escaped.write(UNCOMPRESSED);
+      escaped.write(serialized.array(), 0, size);
+      serialized.release();
+      return escaped;
+    }
+    return serialized;
+  }
+
+  /**
+   * Serializes value using wrapped instance. If wrapped instance can't serialize into pooled buffer, its result is
+   * copied into one.
+   */
+  private SerializationBufferPool.Buffer serializeWrapped(Object value) {
+    if (wrapped instanceof BufferedSerializerDeserializer) {
+      return ((BufferedSerializerDeserializer)wrapped).serializeToBuffer(value);
+    }
+    byte[] serialized = wrapped.serialize(value);
+    SerializationBufferPool.Buffer buffer = buffers.acquire(serialized.length);
+    buffer.write(serialized, 0, serialized.length);
+    return buffer;
+  }
+
+  /**
+   * Compresses data using deflate algorithm into a pooled buffer. Output is prefixed by header and length of
+   * uncompressed data.
+   *
+   * @return buffer with compressed data, or <code>null</code> if compressed data would not be smaller than original
+   */
+  private SerializationBufferPool.Buffer compress(SerializationBufferPool.Buffer data) {
+    int headerLength = 1 + Integer.SIZE / Byte.SIZE;
+    int size = data.size();
+    if (size <= headerLength) {
+      return null;
+    }
+    SerializationBufferPool.Buffer output = buffers.acquire(size);
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try {
+      deflater.setInput(data.array(), 0, size);
+      deflater.finish();
+      byte[] array = output.array();
+      ByteBuffer.wrap(array).put(COMPRESSED).putInt(size);
+      int length = headerLength;
+      while (!deflater.finished() && length < size) {
+        length += deflater.deflate(array, length, size - length);
+      }
+      if (!deflater.finished()) {
+        // Compressed data would not be smaller than original
+        output.release();
+        return null;
+      }
+      output.setSize(length);
+      return output;
+    } finally {
+      deflater.end();
+    }
+  }
+
+  @Override
+  public Object deserialize(byte[] data) {
+    if (data == null || data.length == 0) {
+      return wrapped.deserialize(data);
+    }
+    return deserialize(data, 0, data.length);
+  }
+
+  @Override
+  public Object deserialize(byte[] data, int offset, int length) {
+    if (length > 0 && data[offset] == COMPRESSED) {
+      SerializationBufferPool.Buffer decompressed = decompress(data, offset, length);
+      try {
+        return deserializeWrapped(decompressed.array(), 0, decompressed.size());
+      } finally {
+        decompressed.release();
+      }
+    }
+    if (length > 0 && data[offset] == UNCOMPRESSED) {
+      return deserializeWrapped(data, offset + 1, length - 1);
+    }
+    return deserializeWrapped(data, offset, length);
+  }
+
+  /**
+   * Deserializes part of array using wrapped instance. If wrapped instance can't deserialize part of array, the part
+   * is copied.
+   */
+  private Object deserializeWrapped(byte[] data, int offset, int length) {
+    if (wrapped instanceof BufferedSerializerDeserializer) {
+      return ((BufferedSerializerDeserializer)wrapped).deserialize(data, offset, length);
+    }
+    if (offset == 0 && length == data.length) {
+      return wrapped.deserialize(data);
+    }
+    return wrapped.deserialize(Arrays.copyOfRange(data, offset, offset + length));
+  }
+
+  /**
+   * Decompresses data produced by {@link #compress(SerializationBufferPool.Buffer)} into a pooled buffer.
+   */
+  private SerializationBufferPool.Buffer decompress(byte[] data, int offset, int dataLength) {
+    int headerLength = 1 + Integer.SIZE / Byte.SIZE;
+    if (dataLength < headerLength) {
+      throw new IllegalStateException("Compressed session data is truncated or corrupted.");
+    }
+    int size = ByteBuffer.wrap(data, offset + 1, headerLength - 1).getInt();
+    if (size < 0) {
+      throw new IllegalStateException("Compressed session data is truncated or corrupted.");
+    }
+    SerializationBufferPool.Buffer output = buffers.acquire(size);
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(data, offset + headerLength, dataLength - headerLength);
+      byte[] array = output.array();
+      int length = 0;
+      while (!inflater.finished()) {
+        int inflated = inflater.inflate(array, length, size - length);
+        if (inflated == 0) {
+          throw new IllegalStateException("Compressed session data is truncated or corrupted.");
+        }
+        length += inflated;
+      }
+      output.setSize(length);
+      return output;
+    } catch (DataFormatException e) {
+      output.release();
+      throw new IllegalStateException("Unable to decompress session data.", e);
+    } catch (RuntimeException e) {
+      output.release();
+      throw e;
+    } finally {
+      inflater.end();
+    }
+  }
+
+  @Override
+  public void setSessionManager(SessionManager sessionManager) {
+    wrapped.setSessionManager(sessionManager);
+    threshold = sessionManager.getConfiguration().getCompressionThreshold();
+    buffers = new SerializationBufferPool(sessionManager.getConfiguration().getSerializationBuffers());
+    MetricRegistry metrics = sessionManager.getMetrics();
+    compressedHistogram = metrics.histogram("com.amadeus.session.serialized.compressed.distribution");
+    compressionRatio = metrics.histogram("com.amadeus.session.serialized.compression.ratio");
+  }
+}
@@ -26,25 +26,40 @@ public class DefaultSessionFactory implements SessionFactory {
     }
   }
 
+  /**
+   * Builds session object. When sessions are shared between concurrent
+   * requests, the session is looked up in the local cache and, if present,
+   * wrapped for the current request. Session is acquired only when request
+   * starts using it (see {@link RepositoryBackedSession#checkUsedAndLock()}),
+   * so sessions built for expiration or deletion are not counted as used. If
+   * the last request using the cached session has already retired it, the
+   * entry is removed and new session object is created. Cache is accessed
+   * without locks.
+   */
   @Override
   public RepositoryBackedSession build(SessionData sessionData) {
     if (useCached) {
-      // If we use cached sessions, check if the session is in memory
-      RepositoryBackedSession session = cachedSessions.get(sessionData.getId());
-      if (session == null) {
-        // if not, it's a new session
-        session = newSessionObject(sessionData);
-        RepositoryBackedSession oldSession = cachedSessions.putIfAbsent(sessionData.getId(), session);
-        if (oldSession != null) {
+      String id = sessionData.getId();
+      while (true) {
+        // If we use cached sessions, check if the session is in memory
+        RepositoryBackedSession cached = cachedSessions.get(id);
+        if (cached == null) {
+          // if not, it's a new session
+          RepositoryBackedSession session = newSessionObject(sessionData);
+          cached = cachedSessions.putIfAbsent(id, session);
+          if (cached == null) {
+            return session;
+          }
           // If we had race condition, and someone added new session to cache,
           // use what is in cache
-          session = wrapSession(oldSession);
         }
-      } else {
-        // Wrap cached session to avoid leaking of commit from one to another.
-        session = wrapSession(session);
+        if (!cached.isRetired()) {
+          // Wrap cached session to avoid leaking of commit from one to another.
+          return wrapSession(cached);
+        }
+        // Session was retired by its last request, remove it and try again
+        cachedSessions.remove(id, cached);
       }
-      return session;
     }
     return newSessionObject(sessionData);
   }
@@ -74,20 +89,22 @@ public class DefaultSessionFactory implements SessionFactory {
   }
 
   /**
-   * Called by each session when it is committed. Used when local cache is
-   * active. This insures that when last concurrent call has been terminated,
-   * session is evicted from cache.
+   * Called by each session when it is committed, and by session manager when
+   * session is deleted or has expired. Used when local cache is active. This
+   * insures that when last concurrent call has been terminated, session is
+   * evicted from cache.
    *
    * @param session
    *          the session being committed
    */
   @Override
   public void committed(RepositoryBackedSession session) {
-    if (useCached) {
-      synchronized (session) {
-        if (session.getConcurrentUses() <= 0) {
-          cachedSessions.remove(session.getId());
-        }
+    if (useCached && session.retire()) {
+      // Session may already be invalid, so id is taken from its descriptor
+      String id = session.getSessionData().getId();
+      RepositoryBackedSession cached = cachedSessions.get(id);
+      if (cached != null && session.isLinkedTo(cached)) {
+        cachedSessions.remove(id, cached);
       }
     }
   }
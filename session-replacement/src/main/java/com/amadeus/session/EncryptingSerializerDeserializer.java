@@ -1,27 +1,100 @@
 package com.amadeus.session;
 
-import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
+import javax.crypto.AEADBadTagException;
 import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
 /**
  * Encrypts and decrypts session data before storing it in session repository.
- * Session is encrypted using AES/CBC/PKCS5Padding transformation. The
- * implementation delegates serializing and deserializing to a wrapped
+ * By default, session is encrypted using AES/CBC/PKCS5Padding transformation
+ * and the encrypted data is prefixed with 16 bytes initialization vector. If
+ * {@link SessionConfiguration#ENCRYPTION_GCM} is set, AES/GCM/NoPadding
+ * transformation is used instead, and the encrypted data is prefixed with a
+ * version byte and 12 bytes initialization vector. Data encrypted in GCM mode
+ * can always be decrypted. In GCM mode, data encrypted in CBC mode is rejected
+ * unless {@link SessionConfiguration#ENCRYPTION_CBC_READ} is set, so that
+ * tampered data is never decrypted without authentication. The implementation
+ * delegates serializing and deserializing to a wrapped
  * {@link SerializerDeserializer}.
  * <p>
+ * Cipher instances and random generators for initialization vectors are
+ * kept in a bounded pool, so they are neither created nor shared between
+ * threads for each attribute, and no instance is retained in container
+ * threads after the application is undeployed. Data is encrypted directly
+ * from the buffer of the wrapped serializer and decrypted into a buffer of
+ * {@link SerializationBufferPool}.
+ * <p>
  * The key must be provided either by calling {@link #initKey(String)} or via
  * configuration property.
  */
 public class EncryptingSerializerDeserializer implements SerializerDeserializer {
+  /**
+   * Version byte of data encrypted using AES/GCM/NoPadding.
+   */
+  static final byte GCM_VERSION = 1;
+
+  private static final String CBC_TRANSFORMATION = "AES/CBC/PKCS5Padding";
+  private static final String GCM_TRANSFORMATION = "AES/GCM/NoPadding";
+  private static final int CBC_IV_LENGTH = 16;
+  private static final int GCM_IV_LENGTH = 12;
+  private static final int GCM_TAG_BITS = 128;
+  private static final int GCM_HEADER_LENGTH = 1 + GCM_IV_LENGTH;
+
   private final SerializerDeserializer wrapped;
+  private final BlockingQueue<Crypto> cryptos = new ArrayBlockingQueue<>(
+      2 * Runtime.getRuntime().availableProcessors());
+  private SerializationBufferPool buffers = new SerializationBufferPool(0);
   private SecretKeySpec secretKey;
-  private SecureRandom random;
+  private boolean gcm;
+  private boolean cbcRead;
+
+  /**
+   * Ciphers and random generator used by one thread at a time. Ciphers are
+   * created when first used.
+   */
+  private static final class Crypto {
+    private final SecureRandom random;
+    private Cipher cbc;
+    private Cipher gcm;
+
+    /**
+     * SHA1PRNG is used when available as, once seeded, it doesn't block or
+     * synchronize with other threads.
+     */
+    Crypto() {
+      SecureRandom sha1Random;
+      try {
+        sha1Random = SecureRandom.getInstance("SHA1PRNG");
+      } catch (NoSuchAlgorithmException e) { // NOSONAR
+        sha1Random = new SecureRandom();
+      }
+      random = sha1Random;
+    }
+
+    Cipher cbc() throws GeneralSecurityException {
+      if (cbc == null) {
+        cbc = Cipher.getInstance(CBC_TRANSFORMATION);
+      }
+      return cbc;
+    }
+
+    Cipher gcm() throws GeneralSecurityException {
+      if (gcm == null) {
+        gcm = Cipher.getInstance(GCM_TRANSFORMATION);
+      }
+      return gcm;
+    }
+  }
 
   /**
    * Default constructor wraps {@link JdkSerializerDeserializer} instance.
@@ -39,7 +112,6 @@ public class EncryptingSerializerDeserializer implements SerializerDeserializer
    */
   public EncryptingSerializerDeserializer(SerializerDeserializer wrapped) {
     this.wrapped = wrapped;
-    random = new SecureRandom();
   }
 
   /**
@@ -60,41 +132,196 @@ public class EncryptingSerializerDeserializer implements SerializerDeserializer
     }
   }
 
+  /**
+   * Sets if data should be encrypted using AES/GCM/NoPadding transformation.
+   *
+   * @param gcm
+   *          <code>true</code> to use GCM mode
+   */
+  void setGcm(boolean gcm) {
+    this.gcm = gcm;
+  }
+
+  /**
+   * Sets if data encrypted using AES/CBC/PKCS5Padding transformation can be
+   * read when GCM mode is used.
+   *
+   * @param cbcRead
+   *          <code>true</code> to read CBC data in GCM mode
+   */
+  void setCbcRead(boolean cbcRead) {
+    this.cbcRead = cbcRead;
+  }
+
   @Override
   public byte[] serialize(Object value) {
+    if (wrapped instanceof BufferedSerializerDeserializer) {
+      SerializationBufferPool.Buffer buffer = ((BufferedSerializerDeserializer)wrapped).serializeToBuffer(value);
+      try {
+        return encrypt(buffer.array(), buffer.size());
+      } catch (Exception e) { // NOSONAR
+        throw new IllegalStateException(e);
+      } finally {
+        buffer.release();
+      }
+    }
     byte[] arrayToEncrypt = wrapped.serialize(value);
     try {
-      Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-      byte[] iv = new byte[16];
-      random.nextBytes(iv);
-      cipher.init(Cipher.ENCRYPT_MODE, secretKey, new IvParameterSpec(iv));
-      ByteBuffer output = ByteBuffer.allocate(iv.length + cipher.getOutputSize(arrayToEncrypt.length));
-      output.put(iv);
-      cipher.doFinal(ByteBuffer.wrap(arrayToEncrypt), output);
-      return output.array();
+      return encrypt(arrayToEncrypt, arrayToEncrypt.length);
     } catch (Exception e) { // NOSONAR
       throw new IllegalStateException(e);
     }
   }
 
+  /**
+   * Encrypts first bytes of the array. Output size of both transformations is
+   * exact when encrypting, so the returned array is allocated once with its
+   * final length.
+   */
+  private byte[] encrypt(byte[] arrayToEncrypt, int length) throws GeneralSecurityException {
+    Crypto crypto = crypto();
+    try {
+      if (gcm) {
+        return encryptGcm(crypto, arrayToEncrypt, length);
+      }
+      return encryptCbc(crypto, arrayToEncrypt, length);
+    } finally {
+      release(crypto);
+    }
+  }
+
+  private byte[] encryptCbc(Crypto crypto, byte[] arrayToEncrypt, int length) throws GeneralSecurityException {
+    Cipher cipher = crypto.cbc();
+    byte[] iv = new byte[CBC_IV_LENGTH];
+    crypto.random.nextBytes(iv);
+    cipher.init(Cipher.ENCRYPT_MODE, secretKey, new IvParameterSpec(iv));
+    byte[] output = new byte[iv.length + cipher.getOutputSize(length)];
+    System.arraycopy(iv, 0, output, 0, iv.length);
+    cipher.doFinal(arrayToEncrypt, 0, length, output, iv.length);
+    return output;
+  }
+
+  private byte[] encryptGcm(Crypto crypto, byte[] arrayToEncrypt, int length) throws GeneralSecurityException {
+    Cipher cipher = crypto.gcm();
+    byte[] iv = new byte[GCM_IV_LENGTH];
+    crypto.random.nextBytes(iv);
+    cipher.init(Cipher.ENCRYPT_MODE, secretKey, new GCMParameterSpec(GCM_TAG_BITS, iv));
+    byte[] output = new byte[GCM_HEADER_LENGTH + cipher.getOutputSize(length)];
+    output[0] = GCM_VERSION;
+    System.arraycopy(iv, 0, output, 1, iv.length);
+    cipher.updateAAD(output, 0, 1);
+    cipher.doFinal(arrayToEncrypt, 0, length, output, GCM_HEADER_LENGTH);
+    return output;
+  }
+
   @Override
   public Object deserialize(byte[] data) {
-    byte[] decrypted;
+    SerializationBufferPool.Buffer decrypted;
+    Crypto crypto = crypto();
     try {
-      Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-      byte[] iv = new byte[16];
-      System.arraycopy(data, 0, iv, 0, iv.length);
-      cipher.init(Cipher.DECRYPT_MODE, secretKey, new IvParameterSpec(iv));
-      decrypted = cipher.doFinal(data, iv.length, data.length-iv.length);
+      decrypted = decryptGcm(crypto, data);
+      if (decrypted == null && isCbcReadable()) {
+        decrypted = decryptCbc(crypto, data);
+      }
     } catch (Exception e) { // NOSONAR
       throw new IllegalStateException(e);
+    } finally {
+      release(crypto);
+    }
+    if (decrypted == null) {
+      throw new IllegalStateException("Data is not encrypted using AES/GCM mode and reading AES/CBC data is disabled");
+    }
+    try {
+      if (wrapped instanceof BufferedSerializerDeserializer) {
+        return ((BufferedSerializerDeserializer)wrapped).deserialize(decrypted.array(), 0, decrypted.size());
+      }
+      return wrapped.deserialize(decrypted.toByteArray());
+    } finally {
+      decrypted.release();
+    }
+  }
+
+  /**
+   * Returns <code>true</code> if data encrypted using CBC mode can be read.
+   */
+  private boolean isCbcReadable() {
+    return !gcm || cbcRead;
+  }
+
+  /**
+   * Decrypts data if it was encrypted using GCM mode. Data encrypted using CBC
+   * mode doesn't have version byte, so its first byte may accidentally match
+   * the GCM version. If authentication of such data fails, data could have
+   * been encrypted using CBC mode and CBC data can be read,
+   * <code>null</code> is returned. Otherwise authentication failure is
+   * reported.
+   *
+   * @return pooled buffer with decrypted data or <code>null</code> if data is
+   *         not encrypted using GCM mode
+   */
+  private SerializationBufferPool.Buffer decryptGcm(Crypto crypto, byte[] data) throws GeneralSecurityException {
+    if (data.length < GCM_HEADER_LENGTH + GCM_TAG_BITS / Byte.SIZE || data[0] != GCM_VERSION) {
+      return null;
+    }
+    Cipher cipher = crypto.gcm();
+    cipher.init(Cipher.DECRYPT_MODE, secretKey, new GCMParameterSpec(GCM_TAG_BITS, data, 1, GCM_IV_LENGTH));
+    cipher.updateAAD(data, 0, 1);
+    try {
+      return decrypt(cipher, data, GCM_HEADER_LENGTH);
+    } catch (AEADBadTagException e) {
+      if (isCbcReadable() && data.length % CBC_IV_LENGTH == 0) {
+        // Could be data encrypted in CBC mode
+        return null;
+      }
+      throw e;
     }
-    return wrapped.deserialize(decrypted);
+  }
+
+  private SerializationBufferPool.Buffer decryptCbc(Crypto crypto, byte[] data) throws GeneralSecurityException {
+    Cipher cipher = crypto.cbc();
+    cipher.init(Cipher.DECRYPT_MODE, secretKey, new IvParameterSpec(data, 0, CBC_IV_LENGTH));
+    return decrypt(cipher, data, CBC_IV_LENGTH);
+  }
+
+  /**
+   * Decrypts data following the header into a pooled buffer.
+   */
+  private SerializationBufferPool.Buffer decrypt(Cipher cipher, byte[] data, int headerLength)
+      throws GeneralSecurityException {
+    int length = data.length - headerLength;
+    SerializationBufferPool.Buffer output = buffers.acquire(cipher.getOutputSize(length));
+    try {
+      output.setSize(cipher.doFinal(data, headerLength, length, output.array(), 0));
+      return output;
+    } catch (GeneralSecurityException | RuntimeException e) {
+      output.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Returns ciphers and random generator from the pool, or new ones if the
+   * pool is empty.
+   */
+  private Crypto crypto() {
+    Crypto crypto = cryptos.poll();
+    return crypto != null ? crypto : new Crypto();
+  }
+
+  /**
+   * Returns ciphers and random generator to the pool. They are dropped if the
+   * pool is full.
+   */
+  private void release(Crypto crypto) {
+    cryptos.offer(crypto);
   }
 
   @Override
   public void setSessionManager(SessionManager sessionManager) {
     wrapped.setSessionManager(sessionManager);
     initKey(sessionManager.getConfiguration().getEncryptionKey());
+    gcm = sessionManager.getConfiguration().isEncryptionGcm();
+    cbcRead = sessionManager.getConfiguration().isEncryptionCbcRead();
+    buffers = new SerializationBufferPool(sessionManager.getConfiguration().getSerializationBuffers());
   }
 }
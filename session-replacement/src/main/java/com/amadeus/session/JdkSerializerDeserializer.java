@@ -1,7 +1,5 @@
 package com.amadeus.session;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
@@ -18,8 +16,16 @@ import com.codahale.metrics.MetricRegistry;
  * The implementation will also measure the number of bytes that were serialized
  * or deserialized.
  * </p>
+ * <p>
+ * Objects are serialized into buffers taken from a {@link SerializationBufferPool},
+ * so the serialized form is copied only once, into the returned array. Number of
+ * buffers of each size class kept for reuse is configured using
+ * {@link SessionConfiguration#SERIALIZATION_BUFFERS}. By default, buffers are not
+ * reused.
+ * </p>
  */
-public class JdkSerializerDeserializer implements SerializerDeserializer {
+public class JdkSerializerDeserializer implements BufferedSerializerDeserializer {
+  private SerializationBufferPool buffers = new SerializationBufferPool(0);
   private SessionManager sessionManager;
   private Counter serializedData;
   private Counter deserializedData;
@@ -28,14 +34,26 @@ public class JdkSerializerDeserializer implements SerializerDeserializer {
 
   @Override
   public byte[] serialize(Object value) {
-    try (ByteArrayOutputStream bos = new ByteArrayOutputStream(); ObjectOutput out = new ObjectOutputStream(bos)) {
+    SerializationBufferPool.Buffer bos = serializeToBuffer(value);
+    try {
+      return bos.toByteArray();
+    } finally {
+      bos.release();
+    }
+  }
+
+  @Override
+  public SerializationBufferPool.Buffer serializeToBuffer(Object value) {
+    SerializationBufferPool.Buffer bos = buffers.acquire();
+    try (ObjectOutput out = new ObjectOutputStream(bos)) {
       out.writeObject(value);
-      byte[] ba = bos.toByteArray();
+      out.flush();
       // Incrementing metrics
-      serializedData.inc(ba.length);
-      serializedHistogram.update(ba.length);
-      return ba;
+      serializedData.inc(bos.size());
+      serializedHistogram.update(bos.size());
+      return bos;
     } catch (IOException e) {
+      bos.release();
       throw new IllegalStateException("Unable to serialize object. See stacktrace for more information.", e);
     }
   }
@@ -45,6 +63,11 @@ public class JdkSerializerDeserializer implements SerializerDeserializer {
     if (data == null) {
       return null;
     }
+    return deserialize(data, 0, data.length);
+  }
+
+  @Override
+  public Object deserialize(byte[] data, int offset, int length) {
     // For deserializing objects we use specific class loader of
     // the session manager to insure it was the same one used
     // when creating serialized objects.
@@ -52,12 +75,11 @@ public class JdkSerializerDeserializer implements SerializerDeserializer {
     if (classLoader == null) {
       classLoader = Thread.currentThread().getContextClassLoader();
     }
-    try (ByteArrayInputStream in = new ByteArrayInputStream(data);
-        ObjectInputStream is = new ClassLoaderObjectInputStream(classLoader, in)) {
+    try (ObjectInputStream is = new ClassLoaderObjectInputStream(classLoader, buffers.input(data, offset, length))) {
       Object obj = is.readObject();
       // Incrementing metrics
-      deserializedData.inc(data.length);
-      deserializedHistogram.update(data.length);
+      deserializedData.inc(length);
+      deserializedHistogram.update(length);
       return obj;
     } catch (IOException | ClassNotFoundException e) {
       throw new IllegalStateException("Unable to deserialize object. See stacktrace for more information.", e);
@@ -72,5 +94,9 @@ public class JdkSerializerDeserializer implements SerializerDeserializer {
     deserializedData = metrics.counter("com.amadeus.session.deserialized.bytes");
     serializedHistogram = metrics.histogram("com.amadeus.session.serialized.distribution");
     deserializedHistogram = metrics.histogram("com.amadeus.session.deserialized.distribution");
+    SessionConfiguration configuration = sessionManager.getConfiguration();
+    if (configuration != null) {
+      buffers = new SerializationBufferPool(configuration.getSerializationBuffers());
+    }
   }
 }
@@ -11,6 +11,8 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -22,6 +24,12 @@ import org.slf4j.LoggerFactory;
 public class RepositoryBackedSession {
   private static final Logger logger = LoggerFactory.getLogger(RepositoryBackedSession.class);
 
+  /**
+   * Value of concurrent uses counter once session has been removed from the
+   * local cache of sessions. Such session can't be acquired by new requests.
+   */
+  private static final int RETIRED = Integer.MIN_VALUE;
+
   // True if session is no longer valid
   private boolean invalid;
   // True if session should be invalidated at commit
@@ -34,6 +42,8 @@ public class RepositoryBackedSession {
   private final AtomicInteger concurrentUses;
   // Set to true if this session concurrent counter has been increased
   private final AtomicBoolean lockedForUse;
+  // Serializes commits of all concurrent requests accessing this session
+  private final Lock commitLock;
   // Set to true if this session attributes should be committed even
   // when there are still running concurrent requests
   private final boolean forceCommit;
@@ -41,6 +51,9 @@ public class RepositoryBackedSession {
   protected final SessionManager manager;
   // True if session is replicated on non primitive get
   private final boolean replicateOnGet;
+  // True if attributes retrieved via get are replicated only if their
+  // serialized form has changed
+  private final boolean compareSerialized;
 
   /**
    * Each attribute that was get from repository, removed or set during request
@@ -57,6 +70,11 @@ public class RepositoryBackedSession {
 
   private boolean committed;
 
+  /**
+   * Set to <code>true</code> if current request was declared as read-only.
+   */
+  private boolean readOnly;
+
   private SessionFactory factory;
 
 
@@ -75,6 +93,16 @@ public class RepositoryBackedSession {
      * <code>true</code> if attribute has been changed.
      */
     private boolean changed;
+    /**
+     * <code>true</code> if attribute should be replicated only if hash of its
+     * serialized form differs from {@link #hash}.
+     */
+    private boolean compared;
+    /**
+     * Hash of serialized form of the attribute when it was retrieved or last
+     * committed.
+     */
+    private long hash;
 
     /**
      * Default constructor.
@@ -105,9 +133,11 @@ public class RepositoryBackedSession {
     committed = false;
     concurrentUses = new AtomicInteger();
     lockedForUse = new AtomicBoolean();
+    commitLock = new ReentrantLock();
     committer = new Committer();
     attrs = new ConcurrentHashMap<>();
     replicateOnGet = manager.getConfiguration().getReplicationTrigger().isReplicateOnGet();
+    compareSerialized = manager.getConfiguration().getReplicationTrigger().isCompareSerialized();
     forceCommit = manager.getConfiguration().isCommitOnAllConcurrent();
   }
 
@@ -115,12 +145,14 @@ public class RepositoryBackedSession {
     attrs = linked.attrs;
     concurrentUses = linked.concurrentUses;
     lockedForUse = new AtomicBoolean();
+    commitLock = linked.commitLock;
     manager = linked.getSessionManager();
     sessionData = linked.sessionData;
     factory = linked.factory;
     committed = false;
     committer = new Committer();
     replicateOnGet = manager.getConfiguration().getReplicationTrigger().isReplicateOnGet();
+    compareSerialized = manager.getConfiguration().getReplicationTrigger().isCompareSerialized();
     forceCommit = manager.getConfiguration().isCommitOnAllConcurrent();
   }
 
@@ -143,21 +175,65 @@ public class RepositoryBackedSession {
    */
   public Object getAttribute(String key) {
     assertValid();
-    Attribute attr = retrieveAttribute(key, getAttributeFromCache(key));
+    Attribute cached = getAttributeFromCache(key);
+    if (cached == null && sessionData.isMaybeInRepository(key) && !sessionData.isNonCacheable(key)) {
+      // First read of the attribute during this request
+      manager.attributeRead(sessionData, key);
+    }
+    Attribute attr = retrieveAttribute(key, cached);
     if (attr == null || attr.deleted) {
       return null;
     }
 
     // If we do get on non simple type, and we have replicate on get, we should
-    // replicate the attribute.
-    if (replicateOnGet(attr.value)) {
-      attr.changed = true;
+    // replicate the attribute. Read-only requests don't modify attributes.
+    if (!readOnly && replicateOnGet(attr.value)) {
+      if (!compareSerialized) {
+        attr.changed = true;
+      } else if (!attr.changed && !attr.compared) {
+        // Remember serialized form so we can check at commit if it changed
+        rememberSerializedForm(key, attr, cached == null);
+      }
       dirty = true;
       checkUsedAndLock();
     }
     return attr.value;
   }
 
+  /**
+   * Remembers hash of serialized form of the attribute. If the value was just
+   * deserialized from prefetched bytes produced by plain JDK serialization,
+   * those bytes are hashed instead of serializing the value again. If the
+   * value can't be serialized, the attribute is marked as changed, as if
+   * serialized forms were not compared.
+   *
+   * @param key
+   *          name of the attribute
+   * @param attr
+   *          the attribute
+   * @param retrieved
+   *          <code>true</code> if value was retrieved from repository during
+   *          this call
+   */
+  private void rememberSerializedForm(String key, Attribute attr, boolean retrieved) {
+    if (retrieved && sessionData.isPrefetched(key)) {
+      SerializerDeserializer serializer = manager.getSerializerDeserializer();
+      byte[] loaded = sessionData.getPrefetchedAttribute(key);
+      if (loaded != null && serializer != null && serializer.getClass() == JdkSerializerDeserializer.class) {
+        attr.hash = SerializedHash.xxHash64(loaded, 0, loaded.length);
+        attr.compared = true;
+        return;
+      }
+    }
+    try {
+      attr.hash = SerializedHash.of(attr.value);
+      attr.compared = true;
+    } catch (IllegalStateException e) { // NOSONAR value may not be serializable
+      logger.debug("Unable to serialize attribute {} of session {}, it will be replicated.", key, sessionData, e);
+      attr.changed = true;
+    }
+  }
+
   /**
    * Returns <code>true</code> if attribute should be replicated on getAttribute
    * operation.
@@ -349,8 +425,14 @@ public class RepositoryBackedSession {
    * Cleans all attributes in session
    */
   void wipeInvalidSession() {
-    loadAllAttributes();
-    manager.getNotifier().sessionDestroyed(this, false);
+    SessionNotifier notifier = manager.getNotifier();
+    // Attributes are needed only if someone is notified about their removal
+    if (notifier.hasAttributeListeners() || manager.getRepository().mayHaveBindingListeners(sessionData)) {
+      loadAllAttributes();
+    } else {
+      logger.debug("No listeners for attributes of session {}, skipping their retrieval.", sessionData);
+    }
+    notifier.sessionDestroyed(this, false);
     attrs.clear();
   }
 
@@ -475,6 +557,7 @@ public class RepositoryBackedSession {
     attr.value = null;
     attr.deleted = true;
     attr.changed = true;
+    attr.compared = false;
     dirty = true;
     checkUsedAndLock();
     // Trigger the removal and binding events
@@ -545,8 +628,13 @@ public class RepositoryBackedSession {
       attr.deleted = false;
     }
     attr.changed = true;
+    attr.compared = false;
     dirty = true;
     checkUsedAndLock();
+    if (manager.getNotifier().isBindingListener(value)) {
+      // Recorded in repository at commit
+      sessionData.setBindingListeners(Boolean.TRUE);
+    }
     if (oldValue != value) { // NOSONAR identity check
       // Trigger the replace events
       if (oldValue != null) {
@@ -569,12 +657,80 @@ public class RepositoryBackedSession {
 
   /**
    * Stores session to session repository. Called when request is completed. If
-   * session is invalid call has no effect.
+   * session is invalid call has no effect. Commits of concurrent requests
+   * sharing the session are serialized.
+   */
+  public void commit() {
+    commitLock.lock();
+    try {
+      if (!invalid) {
+        manager.invokeCommit(this);
+      }
+    } finally {
+      commitLock.unlock();
+    }
+  }
+
+  /**
+   * Returns lock used to serialize commits of all concurrent requests sharing
+   * this session.
+   *
+   * @return the commit lock
+   */
+  Lock getCommitLock() {
+    return commitLock;
+  }
+
+  /**
+   * Increments number of requests using the session. If the session was
+   * retired in the meantime by a request that completed, the count starts
+   * over: session is no longer in the local cache, but requests that already
+   * hold it keep sharing it.
+   */
+  private void acquire() {
+    while (true) {
+      int uses = concurrentUses.get();
+      if (concurrentUses.compareAndSet(uses, uses < 0 ? 1 : uses + 1)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Returns <code>true</code> if the session was retired, i.e. it is being
+   * removed from the local cache of sessions and new requests must not use it.
+   *
+   * @return <code>true</code> if session was retired
    */
-  public synchronized void commit() {
-    if (!invalid) {
-      manager.invokeCommit(this);
+  boolean isRetired() {
+    return concurrentUses.get() < 0;
+  }
+
+  /**
+   * Retires the session if no other request is using it. Once retired, session
+   * is not handed out to new requests.
+   *
+   * @return <code>true</code> if session was retired
+   */
+  boolean retire() {
+    int ownUse = lockedForUse.get() ? 1 : 0;
+    if (concurrentUses.compareAndSet(ownUse, RETIRED)) {
+      lockedForUse.set(false);
+      return true;
     }
+    return false;
+  }
+
+  /**
+   * Returns <code>true</code> if this instance and the passed one represent
+   * the same session shared between concurrent requests.
+   *
+   * @param other
+   *          the other session
+   * @return <code>true</code> if sessions share their state
+   */
+  boolean isLinkedTo(RepositoryBackedSession other) {
+    return concurrentUses == other.concurrentUses;
   }
 
   /**
@@ -586,7 +742,7 @@ public class RepositoryBackedSession {
   boolean checkUsedAndLock() {
     boolean used = !isCommitted() || dirty;
     if (used && lockedForUse.compareAndSet(false, true)) {
-      concurrentUses.incrementAndGet();
+      acquire();
     }
     return used;
   }
@@ -609,6 +765,24 @@ public class RepositoryBackedSession {
    * </p>
    */
   class Committer implements Runnable {
+    private final WriteBehindCommitter.MergedTransaction merged;
+
+    Committer() {
+      this(null);
+    }
+
+    /**
+     * Creates committer that stores changes into merged transaction instead of
+     * a new repository transaction.
+     *
+     * @param merged
+     *          the merged transaction or <code>null</code> to use repository
+     *          transaction
+     */
+    Committer(WriteBehindCommitter.MergedTransaction merged) {
+      this.merged = merged;
+    }
+
     @Override
     public void run() {
       if (checkUsedAndLock()) {
@@ -618,6 +792,8 @@ public class RepositoryBackedSession {
         boolean commitAttributes = lastSession || forceCommit;
         if (lastSession && invalidateOnCommit) {
           invalidationOnCommit();
+        } else if (readOnly && !isModified()) {
+          logger.debug("Read-only request didn't modify session: {}", sessionData);
         } else {
           storeToRepository(commitAttributes, keepChangedFlag);
         }
@@ -630,6 +806,26 @@ public class RepositoryBackedSession {
     }
 
     
+    /**
+     * Returns <code>true</code> if session needs to be stored in repository
+     * following read-only request, i.e. if it is new, if its max inactive
+     * interval changed, or if some attribute was set or removed.
+     *
+     * @return <code>true</code> if session was modified
+     */
+    private boolean isModified() {
+      if (sessionData.isNew()
+          || sessionData.getMaxInactiveInterval() != sessionData.getOriginalMaxInactiveInterval()) {
+        return true;
+      }
+      for (Attribute attr : attrs.values()) {
+        if (attr.changed) {
+          return true;
+        }
+      }
+      return false;
+    }
+
     /**
      * Unlocks the session and returns <code>true</code> if it was last active
      * session.
@@ -665,7 +861,8 @@ public class RepositoryBackedSession {
      *          changed should be kept unchanged
      */
     void storeToRepository(boolean commitAttributes, boolean keepChangedFlag) {
-      SessionRepository.CommitTransaction transaction = manager.getRepository().startCommit(sessionData);
+      SessionRepository.CommitTransaction transaction = merged != null ? merged.startCommit(sessionData)
+          : manager.getRepository().startCommit(sessionData);
       logger.debug("Committing session: {}", sessionData);
 
       if (commitAttributes) {
@@ -689,6 +886,30 @@ public class RepositoryBackedSession {
           if (!keepChangedFlag) {
             attr.changed = false;
           }
+        } else if (attr.compared) {
+          commitIfSerializedChanged(transaction, entry.getKey(), attr, keepChangedFlag);
+        }
+      }
+    }
+
+    /*
+     * Adds attribute retrieved via get to session update transaction if its
+     * serialized form is no longer the same as when it was retrieved or last
+     * committed.
+     */
+    private void commitIfSerializedChanged(SessionRepository.CommitTransaction transaction, String key, Attribute attr,
+        boolean keepChangedFlag) {
+      long hash;
+      try {
+        hash = SerializedHash.of(attr.value);
+      } catch (IllegalStateException e) { // NOSONAR storing the value reports the failure
+        removeOrAddAttribute(transaction, key, attr);
+        return;
+      }
+      if (hash != attr.hash) {
+        removeOrAddAttribute(transaction, key, attr);
+        if (!keepChangedFlag) {
+          attr.hash = hash;
         }
       }
     }
@@ -763,6 +984,19 @@ public class RepositoryBackedSession {
     return committer;
   }
 
+  /**
+   * Returns committer that stores changes of the session into the merged
+   * transaction. Used when pending commits of the session are merged into a
+   * single repository transaction.
+   *
+   * @param merged
+   *          the merged transaction
+   * @return the committer
+   */
+  Runnable getCommitter(WriteBehindCommitter.MergedTransaction merged) {
+    return new Committer(merged);
+  }
+
   /**
    * Returns descriptor of this session (see {@link SessionData}).
    *
@@ -791,6 +1025,28 @@ public class RepositoryBackedSession {
     this.committed = committed;
   }
 
+  /**
+   * Returns <code>true</code> if current request was declared as read-only.
+   *
+   * @return <code>true</code> if request is read-only
+   */
+  public boolean isReadOnly() {
+    return readOnly;
+  }
+
+  /**
+   * Sets the flag indicating if current request is read-only. During read-only
+   * request, reading mutable attribute doesn't trigger its replication, and
+   * session is not stored in repository on commit unless it was modified. See
+   * {@link SessionManager#READ_ONLY_REQUEST}.
+   *
+   * @param readOnly
+   *          <code>true</code> if request is read-only
+   */
+  public void setReadOnly(boolean readOnly) {
+    this.readOnly = readOnly;
+  }
+
   /**
    * Returns {@link SessionManager} associated to this http session.
    *
@@ -101,4 +101,13 @@ public interface RequestWithSession {
    * corresponding to request.
    */
   void repositoryChecked();
+
+  /**
+   * Returns part of the request URL that identifies the servlet serving the
+   * request. Used as context to learn which session attributes should be
+   * prefetched.
+   *
+   * @return the servlet path or <code>null</code> if not known
+   */
+  String getServletPath();
 }
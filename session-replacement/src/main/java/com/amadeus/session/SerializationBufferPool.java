@@ -0,0 +1,277 @@
+package com.amadeus.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Bounded pool of arrays used as buffers during serialization and deserialization. Arrays are grouped in size
+ * classes: capacity of each class is a power of two, from {@link #MIN_CAPACITY} to {@link #MAX_POOLED_CAPACITY}, and
+ * each class retains at most the number of arrays passed to constructor. Arrays larger than
+ * {@link #MAX_POOLED_CAPACITY} are never retained. When no arrays are retained, the pool simply allocates new arrays.
+ * <p>
+ * {@link Buffer} is an output stream that takes its array from the pool, and, when it needs to grow, replaces it with
+ * an array of a larger class and returns the previous one. Serializing values of similar size doesn't allocate
+ * arrays, and the serialized value is produced with a single copy of the buffer content. {@link Input} is an input
+ * stream over part of an array that is reused between deserializations.
+ * <p>
+ * Pool is used instead of thread local buffers so that no instance is retained in container threads after the
+ * application is undeployed.
+ */
+class SerializationBufferPool {
+  /**
+   * Capacity of the smallest size class.
+   */
+  static final int MIN_CAPACITY = 1024;
+
+  /**
+   * Capacity of the largest size class. Larger arrays are not kept in the pool.
+   */
+  static final int MAX_POOLED_CAPACITY = 256 * 1024;
+
+  private static final int MIN_CLASS = Integer.numberOfTrailingZeros(MIN_CAPACITY);
+
+  private static final int CLASSES = Integer.numberOfTrailingZeros(MAX_POOLED_CAPACITY) - MIN_CLASS + 1;
+
+  private final int maxPerClass;
+
+  private final BlockingQueue<byte[]>[] arrays;
+
+  private final BlockingQueue<Input> inputs;
+
+  /**
+   * Output stream whose array is taken from the pool. The array must be returned to the pool using
+   * {@link #release()} once the content of the buffer is no longer used.
+   */
+  final class Buffer extends ByteArrayOutputStream {
+    Buffer(int capacity) {
+      super(0);
+      buf = take(capacity);
+    }
+
+    @Override
+    public void write(int b) {
+      ensureCapacity(count + 1);
+      buf[count] = (byte)b;
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      if (off < 0 || len < 0 || off > b.length - len) {
+        throw new IndexOutOfBoundsException();
+      }
+      ensureCapacity(count + len);
+      System.arraycopy(b, off, buf, count, len);
+      count += len;
+    }
+
+    /**
+     * Makes sure the buffer can hold the given number of bytes. The array of the buffer is replaced by an array from
+     * a larger size class if needed.
+     *
+     * @param capacity
+     *          the required capacity
+     */
+    void ensureCapacity(int capacity) {
+      if (capacity < 0) {
+        throw new OutOfMemoryError("Serialized data is too large.");
+      }
+      if (capacity > buf.length) {
+        byte[] larger = take(Math.max(capacity, buf.length << 1));
+        System.arraycopy(buf, 0, larger, 0, count);
+        give(buf);
+        buf = larger;
+      }
+    }
+
+    /**
+     * Sets number of valid bytes in the buffer, e.g. after they were written directly into its array.
+     *
+     * @param size
+     *          number of valid bytes
+     */
+    void setSize(int size) {
+      ensureCapacity(size);
+      count = size;
+    }
+
+    /**
+     * Returns current capacity of the buffer.
+     *
+     * @return capacity in bytes
+     */
+    int capacity() {
+      return buf.length;
+    }
+
+    /**
+     * Returns internal array of the buffer. Only first {@link #size()} bytes are valid.
+     *
+     * @return internal array
+     */
+    byte[] array() {
+      return buf;
+    }
+
+    /**
+     * Returns the array of the buffer to the pool. Buffer must not be used afterwards.
+     */
+    void release() {
+      byte[] array = buf;
+      buf = null;
+      count = 0;
+      if (array != null) {
+        give(array);
+      }
+    }
+  }
+
+  /**
+   * Input stream over part of an array that can be reused.
+   */
+  final class Input extends ByteArrayInputStream {
+    Input() {
+      super(new byte[0]);
+    }
+
+    /**
+     * Starts reading the given part of the array.
+     */
+    void reset(byte[] data, int offset, int length) {
+      buf = data;
+      pos = offset;
+      mark = offset;
+      count = Math.min(offset + length, data.length);
+    }
+
+    /**
+     * Returns the stream to the pool. The stream must not be used afterwards.
+     */
+    @Override
+    public void close() {
+      buf = null;
+      if (maxPerClass > 0) {
+        inputs.offer(this);
+      }
+    }
+  }
+
+  /**
+   * Creates pool keeping at most given number of arrays of each size class.
+   *
+   * @param maxPerClass
+   *          maximum number of pooled arrays of each size class, <code>0</code> or less to never reuse arrays
+   */
+  @SuppressWarnings("unchecked")
+  SerializationBufferPool(int maxPerClass) {
+    this.maxPerClass = Math.max(maxPerClass, 0);
+    int queueSize = Math.max(this.maxPerClass, 1);
+    arrays = new BlockingQueue[CLASSES];
+    for (int i = 0; i < CLASSES; i++) {
+      arrays[i] = new ArrayBlockingQueue<>(queueSize);
+    }
+    inputs = new ArrayBlockingQueue<>(queueSize);
+  }
+
+  /**
+   * Creates pool sized for number of available processors.
+   */
+  SerializationBufferPool() {
+    this(2 * Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Returns an empty buffer of the smallest size class.
+   *
+   * @return empty buffer
+   */
+  Buffer acquire() {
+    return new Buffer(MIN_CAPACITY);
+  }
+
+  /**
+   * Returns an empty buffer that can hold at least the given number of bytes without growing.
+   *
+   * @param capacity
+   *          expected size of the content
+   * @return empty buffer
+   */
+  Buffer acquire(int capacity) {
+    return new Buffer(capacity);
+  }
+
+  /**
+   * Returns input stream reading the given part of the array. Closing the stream returns it to the pool.
+   *
+   * @param data
+   *          the array to read
+   * @param offset
+   *          start of data
+   * @param length
+   *          length of data
+   * @return input stream
+   */
+  Input input(byte[] data, int offset, int length) {
+    Input input = inputs.poll();
+    if (input == null) {
+      input = new Input();
+    }
+    input.reset(data, offset, length);
+    return input;
+  }
+
+  /**
+   * Returns an array whose length is at least the given capacity. Array is taken from the pool if one of its size
+   * class is available, otherwise a new array of the size class is allocated.
+   *
+   * @param capacity
+   *          the minimal length
+   * @return the array
+   */
+  byte[] take(int capacity) {
+    int sizeClass = sizeClass(capacity);
+    if (sizeClass >= CLASSES) {
+      return new byte[capacity];
+    }
+    byte[] array = arrays[sizeClass].poll();
+    return array != null ? array : new byte[MIN_CAPACITY << sizeClass];
+  }
+
+  /**
+   * Returns the array to the pool. Array is dropped if it doesn't belong to a size class or if its class is full.
+   *
+   * @param array
+   *          the array to return
+   */
+  void give(byte[] array) {
+    if (maxPerClass > 0 && array.length >= MIN_CAPACITY && array.length <= MAX_POOLED_CAPACITY
+        && Integer.bitCount(array.length) == 1) {
+      arrays[sizeClass(array.length)].offer(array);
+    }
+  }
+
+  /**
+   * Returns number of arrays in pool.
+   *
+   * @return number of pooled arrays
+   */
+  int size() {
+    int size = 0;
+    for (BlockingQueue<byte[]> queue : arrays) {
+      size += queue.size();
+    }
+    return size;
+  }
+
+  /**
+   * Returns index of the smallest size class that can hold given number of bytes.
+   */
+  private static int sizeClass(int capacity) {
+    if (capacity <= MIN_CAPACITY) {
+      return 0;
+    }
+    return Integer.SIZE - Integer.numberOfLeadingZeros(capacity - 1) - MIN_CLASS;
+  }
+}
@@ -0,0 +1,124 @@
+package com.amadeus.session;
+
+import java.io.IOException;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+
+/**
+ * Computes 64-bit xxHash of serialized form of attribute values. The hash is used to detect if a mutable attribute
+ * was modified during request (see {@link SessionConfiguration.ReplicationTrigger#SET_AND_CHANGED_NON_PRIMITIVE_GET}).
+ * <p>
+ * Values are always serialized using JDK serialization, independently of configured {@link SerializerDeserializer},
+ * as the configured one may produce different bytes for the same value (e.g. when session data is encrypted).
+ */
+final class SerializedHash {
+  private static final long PRIME64_1 = 0x9E3779B185EBCA87L;
+  private static final long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+  private static final long PRIME64_3 = 0x165667B19E3779F9L;
+  private static final long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+  private static final long PRIME64_5 = 0x27D4EB2F165667C5L;
+  private static final int STRIPE = 32;
+
+  private static final SerializationBufferPool buffers = new SerializationBufferPool();
+
+  private SerializedHash() {
+  }
+
+  /**
+   * Returns hash of serialized form of the value.
+   *
+   * @param value
+   *          the value to hash
+   * @return 64-bit hash
+   */
+  static long of(Object value) {
+    SerializationBufferPool.Buffer bos = buffers.acquire();
+    try (ObjectOutput out = new ObjectOutputStream(bos)) {
+      out.writeObject(value);
+      out.flush();
+      return xxHash64(bos.array(), 0, bos.size());
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to serialize object. See stacktrace for more information.", e);
+    } finally {
+      bos.release();
+    }
+  }
+
+  /**
+   * Computes XXH64 hash with seed 0 of the given range of bytes.
+   *
+   * @param data
+   *          the array containing data
+   * @param offset
+   *          start of data
+   * @param length
+   *          length of data
+   * @return 64-bit hash
+   */
+  static long xxHash64(byte[] data, int offset, int length) {
+    int end = offset + length;
+    int p = offset;
+    long h;
+    if (length >= STRIPE) {
+      long v1 = PRIME64_1 + PRIME64_2;
+      long v2 = PRIME64_2;
+      long v3 = 0;
+      long v4 = -PRIME64_1;
+      int limit = end - STRIPE;
+      do {
+        v1 = round(v1, readLong(data, p));
+        v2 = round(v2, readLong(data, p + 8));
+        v3 = round(v3, readLong(data, p + 16));
+        v4 = round(v4, readLong(data, p + 24));
+        p += STRIPE;
+      } while (p <= limit);
+      h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+      h = mergeRound(h, v1);
+      h = mergeRound(h, v2);
+      h = mergeRound(h, v3);
+      h = mergeRound(h, v4);
+    } else {
+      h = PRIME64_5;
+    }
+    h += length;
+    while (p + 8 <= end) {
+      h ^= round(0, readLong(data, p));
+      h = Long.rotateLeft(h, 27) * PRIME64_1 + PRIME64_4;
+      p += 8;
+    }
+    if (p + 4 <= end) {
+      h ^= (readInt(data, p) & 0xFFFFFFFFL) * PRIME64_1;
+      h = Long.rotateLeft(h, 23) * PRIME64_2 + PRIME64_3;
+      p += 4;
+    }
+    while (p < end) {
+      h ^= (data[p] & 0xFF) * PRIME64_5;
+      h = Long.rotateLeft(h, 11) * PRIME64_1;
+      p++;
+    }
+    h ^= h >>> 33;
+    h *= PRIME64_2;
+    h ^= h >>> 29;
+    h *= PRIME64_3;
+    h ^= h >>> 32;
+    return h;
+  }
+
+  private static long round(long acc, long input) {
+    return Long.rotateLeft(acc + input * PRIME64_2, 31) * PRIME64_1;
+  }
+
+  private static long mergeRound(long acc, long val) {
+    return (acc ^ round(0, val)) * PRIME64_1 + PRIME64_4;
+  }
+
+  private static long readLong(byte[] data, int p) {
+    return (data[p] & 0xFFL) | (data[p + 1] & 0xFFL) << 8 | (data[p + 2] & 0xFFL) << 16 | (data[p + 3] & 0xFFL) << 24
+        | (data[p + 4] & 0xFFL) << 32 | (data[p + 5] & 0xFFL) << 40 | (data[p + 6] & 0xFFL) << 48
+        | (data[p + 7] & 0xFFL) << 56;
+  }
+
+  private static int readInt(byte[] data, int p) {
+    return (data[p] & 0xFF) | (data[p + 1] & 0xFF) << 8 | (data[p + 2] & 0xFF) << 16 | (data[p + 3] & 0xFF) << 24;
+  }
+}
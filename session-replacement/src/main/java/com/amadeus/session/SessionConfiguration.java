@@ -13,6 +13,7 @@ import java.util.HashSet;
 import java.util.Properties;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,6 +34,17 @@ import org.slf4j.LoggerFactory;
  * specifies repository behavior when accessing attributes. See {@link ReplicationTrigger} enumeration for details.
  * Default value is {@link ReplicationTrigger#SET_AND_NON_PRIMITIVE_GET}.
  * <p>
+ * <code>com.amadeus.session.prefetch</code> specifies which session attributes are retrieved from repository together
+ * with session meta data. See {@link PrefetchMode} enumeration for details. Default value is {@link PrefetchMode#NONE}.
+ * <code>com.amadeus.session.prefetch.attributes</code> specifies comma-separated list of attributes used by
+ * {@link PrefetchMode#LIST} and {@link PrefetchMode#ADAPTIVE} modes.
+ * <p>
+ * <code>com.amadeus.session.serializer.compact</code> set to true activates {@link CompactSerializerDeserializer}.
+ * <code>com.amadeus.session.serializer.compression.threshold</code> specifies size in bytes above which serialized
+ * attributes are compressed using {@link CompressingSerializerDeserializer}. By default, compression is disabled.
+ * <code>com.amadeus.session.serializer.buffers</code> specifies number of serialization buffers of each size class
+ * that are kept for reuse (see {@link SerializationBufferPool}). By default, buffers are not reused.
+ * <p>
  * <code>com.amadeus.session.logging.mdc.enabled</code> activates adding current session id to logging systems Mapped
  * Diagnostic Context (MDC).
  * <p>
@@ -45,6 +57,8 @@ public class SessionConfiguration implements Serializable {
 
   private static final Logger logger = LoggerFactory.getLogger(SessionConfiguration.class);
 
+  private static final int PERCENT = 100;
+
   /**
    * Strategies for detecting when does an attribute change.
    */
@@ -55,18 +69,28 @@ public class SessionConfiguration implements Serializable {
      * Character, Number (Double, Float, Integer, Long), doesn't trigger replication to repository, but getAttribute
      * operation for other types of attribute will trigger update in the repository.
      */
-    SET_AND_NON_PRIMITIVE_GET(true),
+    SET_AND_NON_PRIMITIVE_GET(true, false),
+    /**
+     * Session data is replicated on set of the attribute and when an attribute retrieved via getAttribute contains a
+     * non-primitive type whose serialized form was modified during request. The hash of serialized form of such
+     * attribute is computed when it is first retrieved and when the session is committed, and the attribute is
+     * replicated only if the two differ. This avoids rewriting large mutable attributes that are only read, at the cost
+     * of serializing them locally.
+     */
+    SET_AND_CHANGED_NON_PRIMITIVE_GET(true, true),
     /**
      * This option assumes that the application will explicitly call setAttribute on the session when the data needs to
      * be replicated. It prevents unnecessary replication and can benefit overall performance, but is inherently unsafe
      * as attributes that were changed after the get, but where never
      */
-    SET(false);
+    SET(false, false);
 
     private final boolean replicateOnGet;
+    private final boolean compareSerialized;
 
-    private ReplicationTrigger(boolean replicateOnTrigger) {
+    private ReplicationTrigger(boolean replicateOnTrigger, boolean compareSerialized) {
       this.replicateOnGet = replicateOnTrigger;
+      this.compareSerialized = compareSerialized;
     }
 
     /**
@@ -78,6 +102,16 @@ public class SessionConfiguration implements Serializable {
       return replicateOnGet;
     }
 
+    /**
+     * Returns <code>true</code> if attributes retrieved via getAttribute are replicated only when their serialized
+     * form has changed.
+     *
+     * @return <code>true</code> if serialized form of attributes is compared before replication
+     */
+    public boolean isCompareSerialized() {
+      return compareSerialized;
+    }
+
     /**
      * Checks passed value against allowed values in enumeration. If it is not valid, returns default value and logs
      * error.
@@ -100,6 +134,130 @@ public class SessionConfiguration implements Serializable {
     }
   }
 
+  /**
+   * Strategies for retrieving session attributes together with session meta data when session is fetched from
+   * repository. Prefetched attributes are kept in serialized form, and are deserialized only when they are accessed.
+   */
+  public enum PrefetchMode {
+    /**
+     * Attributes are retrieved from repository one by one when they are accessed.
+     */
+    NONE,
+    /**
+     * All attributes are retrieved with session meta data.
+     */
+    ALL,
+    /**
+     * Attributes listed in {@link SessionConfiguration#PREFETCH_ATTRIBUTES} are retrieved with session meta data.
+     */
+    LIST,
+    /**
+     * Attributes listed in {@link SessionConfiguration#PREFETCH_ATTRIBUTES} and attributes that were previously
+     * accessed by requests on the same servlet path are retrieved with session meta data.
+     */
+    ADAPTIVE;
+
+    /**
+     * Checks passed value against allowed values in enumeration. If it is not valid, returns default value and logs
+     * error.
+     *
+     * @param prefetchValue
+     *          value to check
+     * @return parsed or default value
+     */
+    public static PrefetchMode validate(String prefetchValue) {
+      try {
+        return PrefetchMode.valueOf(prefetchValue);
+      } catch (IllegalArgumentException e) { // NOSONAR
+        logger.error(
+            "Invalid configuration '{}': "
+                + "Prefetch mode was not one of [{}]. The value was {}. Using default value {}",
+            PREFETCH_MODE, Arrays.asList(PrefetchMode.values()), prefetchValue, NONE);
+      }
+      return NONE;
+    }
+  }
+
+  /**
+   * Minimal time elapsed since last access for session access time to be updated in repository when session is
+   * retrieved. See {@link SessionConfiguration#TOUCH_GRANULARITY}. Repositories that retrieve and touch the session in
+   * a single step use it to skip redundant updates of access time.
+   */
+  public static final class TouchGranularity {
+    /**
+     * Access time is updated on each retrieval.
+     */
+    public static final TouchGranularity NONE = new TouchGranularity(0, false);
+
+    private final int value;
+
+    private final boolean percent;
+
+    TouchGranularity(int value, boolean percent) {
+      this.value = value;
+      this.percent = percent;
+    }
+
+    /**
+     * Returns configured granularity, either in seconds or as percentage of max inactive interval.
+     *
+     * @return configured value, 0 or less if access time is updated on each retrieval
+     */
+    public int getValue() {
+      return value;
+    }
+
+    /**
+     * Returns <code>true</code> if value is percentage of max inactive interval of the session.
+     *
+     * @return <code>true</code> if value is percentage
+     */
+    public boolean isPercent() {
+      return percent;
+    }
+
+    /**
+     * Returns granularity for a session. Granularity is never above half of max inactive interval.
+     *
+     * @param maxInactiveInterval
+     *          max inactive interval of the session in seconds
+     * @return touch granularity in milliseconds, 0 if access time is updated on each retrieval
+     */
+    public long forInterval(int maxInactiveInterval) {
+      if (value <= 0 || maxInactiveInterval <= 0) {
+        return 0;
+      }
+      long maxInactiveMillis = TimeUnit.SECONDS.toMillis(maxInactiveInterval);
+      long granularity;
+      if (percent) {
+        granularity = maxInactiveMillis * value / PERCENT;
+      } else {
+        granularity = TimeUnit.SECONDS.toMillis(value);
+      }
+      return Math.min(granularity, maxInactiveMillis / 2);
+    }
+
+    /**
+     * Checks if access time of the session should be updated in repository. Access time is not updated if it changed
+     * less than granularity of the session.
+     *
+     * @param sessionData
+     *          the session as stored in repository
+     * @param now
+     *          the access time
+     * @return <code>true</code> if access time should be updated
+     */
+    public boolean isTouchNeeded(SessionData sessionData, long now) {
+      long granularity = forInterval(sessionData.getMaxInactiveInterval());
+      return granularity <= 0 || now - sessionData.getLastAccessedTime() >= granularity;
+    }
+
+    @Override
+    public String toString() {
+      return value + (percent ? "%" : "");
+    }
+  }
+
   /**
    * Attribute provider can be used via call to {@link SessionConfiguration#initializeFrom(AttributeProvider)} to set up
    * SessionConfiguration.
@@ -161,6 +319,17 @@ public class SessionConfiguration implements Serializable {
    */
   public static final String SESSION_REPLICATION_TRIGGER = "com.amadeus.session.replication-trigger";
 
+  /**
+   * Strategy for retrieving attributes with session meta data. See {@link PrefetchMode} enumeration.
+   */
+  public static final String PREFETCH_MODE = "com.amadeus.session.prefetch";
+
+  /**
+   * List of attributes that are retrieved with session meta data when using {@link PrefetchMode#LIST} or
+   * {@link PrefetchMode#ADAPTIVE}.
+   */
+  public static final String PREFETCH_ATTRIBUTES = "com.amadeus.session.prefetch.attributes";
+
   /**
    * Default strategy for detecting that attribute changed.
    */
@@ -304,18 +473,77 @@ public class SessionConfiguration implements Serializable {
    */
   public static final String COMMIT_ON_ALL_CONCURRENT = "com.amadeus.session.commit.concurrent";
 
+  /**
+   * Set to <code>true</code> if session should be committed asynchronously after request completes. By default it is
+   * <code>false</code> and session is committed in request thread. See {@link WriteBehindCommitter}.
+   */
+  public static final String COMMIT_WRITE_BEHIND = "com.amadeus.session.commit.write-behind";
+
+  /**
+   * Set to <code>true</code> if concurrent retrievals of the same session should be deduplicated, i.e. if requests
+   * arriving while session is being retrieved should wait for the result instead of reading repository themselves. By
+   * default it is <code>false</code>. See {@link SingleFlightFetch}.
+   */
+  public static final String SINGLE_FLIGHT_FETCH = "com.amadeus.session.fetch.single-flight";
+
   /**
    * Specifies key to be used for encryption. When present activates encryption automatically. If key specifies a URL,
    * key will be loaded from specified address. Otherwise it is treated literally.
    */
   public static final String SESSION_ENCRYPTION_KEY = "com.amadeus.session.encryption.key";
 
+  /**
+   * Set to <code>true</code> if session data should be encrypted using authenticated AES/GCM mode. By default it is
+   * <code>false</code> and AES/CBC mode is used. Data encrypted in GCM mode can always be read. When GCM mode is used,
+   * data encrypted in AES/CBC mode can be read only if {@link #ENCRYPTION_CBC_READ} is set.
+   */
+  public static final String ENCRYPTION_GCM = "com.amadeus.session.encryption.gcm";
+
+  /**
+   * Set to <code>true</code> if, when session data is encrypted using AES/GCM mode, data previously encrypted using
+   * unauthenticated AES/CBC mode should still be readable (e.g. during migration to GCM mode). By default it is
+   * <code>false</code> and such data is rejected. Ignored when AES/CBC mode is used.
+   */
+  public static final String ENCRYPTION_CBC_READ = "com.amadeus.session.encryption.cbc-read";
+
   /**
    * Set to <code>true</code> if session should delegate PrintWriter implementation to container. By default it is
    * <code>false</code> and session replacer provides it's own implementation.
    */
   public static final String DELEGATE_WRITER = "com.amadeus.session.delegate.writer";
 
+  /**
+   * Set to <code>true</code> if session attributes should be serialized using {@link CompactSerializerDeserializer}.
+   * By default it is <code>false</code> and JDK serialization is used.
+   */
+  public static final String COMPACT_SERIALIZATION = "com.amadeus.session.serializer.compact";
+
+  /**
+   * Minimal size in bytes of serialized attribute for it to be compressed. If it is 0 or less, attributes are not
+   * compressed. See {@link CompressingSerializerDeserializer}.
+   */
+  public static final String COMPRESSION_THRESHOLD = "com.amadeus.session.serializer.compression.threshold";
+
+  /**
+   * Number of serialization buffers of each size class that are kept for reuse by serializers. If it is 0 or less,
+   * buffers are not reused. See {@link SerializationBufferPool}.
+   */
+  public static final String SERIALIZATION_BUFFERS = "com.amadeus.session.serializer.buffers";
+
+  /**
+   * Minimal time elapsed since last access for session access time to be updated in repository when session is
+   * retrieved. Value is either number of seconds (e.g. <code>10</code>), or percentage of session's max inactive
+   * interval (e.g. <code>1%</code>). Effective granularity is never above half of max inactive interval. By default it
+   * is <code>0</code> and access time is updated on each retrieval.
+   */
+  public static final String TOUCH_GRANULARITY = "com.amadeus.session.touch.granularity";
+
+  /**
+   * Comma-separated list of servlet paths, or servlet path prefixes ending with <code>*</code>, of requests that only
+   * read session. See {@link SessionManager#READ_ONLY_REQUEST}.
+   */
+  public static final String READ_ONLY_PATHS = "com.amadeus.session.readonly.paths";
+
   private int trackerInterval;
 
   private int trackerLimits;
@@ -354,18 +582,38 @@ public class SessionConfiguration implements Serializable {
 
   private String encryptionKey;
 
+  private boolean encryptionGcm;
+
+  private boolean encryptionCbcRead;
+
   private Set<String> nonCacheable;
 
   private ReplicationTrigger replicationTrigger;
 
+  private PrefetchMode prefetchMode;
+
+  private Set<String> prefetchAttributes;
+
   private Properties attributes;
 
   private transient AttributeProvider currentAttributeProvider;
 
   private boolean commitOnAllConcurrent;
 
+  private boolean commitWriteBehind;
+  private boolean singleFlightFetch;
+
   private boolean delegateWriter;
 
+  private boolean compactSerialization;
+
+  private int compressionThreshold;
+  private int serializationBuffers;
+
+  private TouchGranularity touchGranularity = TouchGranularity.NONE;
+
+  private Set<String> readOnlyPaths;
+
   /**
    * Default constructor.
    */
@@ -385,11 +633,18 @@ public class SessionConfiguration implements Serializable {
     interceptListeners = Boolean.parseBoolean(getPropertySecured(INTERCEPT_LISTENERS, null));
     forceDistributable = Boolean.parseBoolean(getPropertySecured(FORCE_DISTRIBUTABLE, null));
     commitOnAllConcurrent = Boolean.parseBoolean(getPropertySecured(COMMIT_ON_ALL_CONCURRENT, null));
+    commitWriteBehind = Boolean.parseBoolean(getPropertySecured(COMMIT_WRITE_BEHIND, null));
+    singleFlightFetch = Boolean.parseBoolean(getPropertySecured(SINGLE_FLIGHT_FETCH, null));
     delegateWriter = Boolean.parseBoolean(getPropertySecured(DELEGATE_WRITER, null));
+    compactSerialization = Boolean.parseBoolean(getPropertySecured(COMPACT_SERIALIZATION, null));
+    encryptionGcm = Boolean.parseBoolean(getPropertySecured(ENCRYPTION_GCM, null));
+    encryptionCbcRead = Boolean.parseBoolean(getPropertySecured(ENCRYPTION_CBC_READ, null));
 
     setNonCacheable(getPropertySecured(NON_CACHEABLE_ATTRIBUTES, null));
     String replicationValue = getPropertySecured(SESSION_REPLICATION_TRIGGER, DEFAULT_REPLICATION_TRIGGER.toString());
     replicationTrigger = ReplicationTrigger.validate(replicationValue);
+    prefetchMode = PrefetchMode.validate(getPropertySecured(PREFETCH_MODE, PrefetchMode.NONE.toString()));
+    setPrefetchAttributes(getPropertySecured(PREFETCH_ATTRIBUTES, ""));
     maxInactiveInterval = DEFAULT_SESSION_TIMEOUT_VALUE_NUM;
     String inactiveValue = getPropertySecured(DEFAULT_SESSION_TIMEOUT, DEFAULT_SESSION_TIMEOUT_VALUE);
     try {
@@ -403,6 +658,10 @@ public class SessionConfiguration implements Serializable {
 
     trackerInterval = init(TRACKER_ERROR_INTERVAL_MILLISECONDS_KEY, DEFAULT_TRACKER_ERROR_INTERVAL_MILLISECONDS_NUM);
     trackerLimits = init(TRACKER_ERROR_LIMITS_NUMBER_KEY, DEFAULT_TRACKER_ERROR_LIMITS_NUMBER);
+    compressionThreshold = init(COMPRESSION_THRESHOLD, 0);
+    serializationBuffers = init(SERIALIZATION_BUFFERS, 0);
+    setTouchGranularity(getPropertySecured(TOUCH_GRANULARITY, null));
+    setReadOnlyPaths(getPropertySecured(READ_ONLY_PATHS, ""));
     logger.info("trackerInterval:" + trackerInterval);
     logger.info("trackerLimits  :" + trackerLimits);
 
@@ -477,6 +736,11 @@ public class SessionConfiguration implements Serializable {
     loggingMdcActive = read(LOG_MDC_SESSION_ENABLED, loggingMdcActive);
     loggingMdcKey = read(LOG_MDC_SESSION_NAME, loggingMdcKey);
     forceDistributable = read(FORCE_DISTRIBUTABLE, forceDistributable);
+    compactSerialization = read(COMPACT_SERIALIZATION, compactSerialization);
+    encryptionGcm = read(ENCRYPTION_GCM, encryptionGcm);
+    encryptionCbcRead = read(ENCRYPTION_CBC_READ, encryptionCbcRead);
+    commitWriteBehind = read(COMMIT_WRITE_BEHIND, commitWriteBehind);
+    singleFlightFetch = read(SINGLE_FLIGHT_FETCH, singleFlightFetch);
     setEncryptionKey(provider.getAttribute(SESSION_ENCRYPTION_KEY));
 
     String value = provider.getAttribute(SESSION_ENCRYPTION_KEY);
@@ -491,8 +755,26 @@ public class SessionConfiguration implements Serializable {
     if (nonEmpty(value)) {
       setNonCacheable(value);
     }
+    value = provider.getAttribute(PREFETCH_MODE);
+    if (nonEmpty(value)) {
+      prefetchMode = PrefetchMode.validate(value);
+    }
+    value = provider.getAttribute(PREFETCH_ATTRIBUTES);
+    if (nonEmpty(value)) {
+      setPrefetchAttributes(value);
+    }
+    value = provider.getAttribute(TOUCH_GRANULARITY);
+    if (nonEmpty(value)) {
+      setTouchGranularity(value);
+    }
+    value = provider.getAttribute(READ_ONLY_PATHS);
+    if (nonEmpty(value)) {
+      setReadOnlyPaths(value);
+    }
     maxInactiveInterval = initInt(provider, DEFAULT_SESSION_TIMEOUT, maxInactiveInterval);
     trackerLimits = initInt(provider, TRACKER_ERROR_LIMITS_NUMBER_KEY, trackerLimits);
+    compressionThreshold = initInt(provider, COMPRESSION_THRESHOLD, compressionThreshold);
+    serializationBuffers = initInt(provider, SERIALIZATION_BUFFERS, serializationBuffers);
     trackerInterval = initInt(provider, TRACKER_ERROR_INTERVAL_MILLISECONDS_KEY, trackerInterval);
 
     logger.info("trackerInterval:" + trackerInterval);
@@ -622,6 +904,100 @@ public class SessionConfiguration implements Serializable {
     this.replicationTrigger = replicationTrigger;
   }
 
+  /**
+   * Returns strategy used to retrieve attributes together with session meta data.
+   *
+   * @return the current prefetch mode
+   */
+  public PrefetchMode getPrefetchMode() {
+    return prefetchMode;
+  }
+
+  /**
+   * Sets strategy used to retrieve attributes together with session meta data.
+   *
+   * @param prefetchMode
+   *          new prefetch mode to use
+   */
+  public void setPrefetchMode(PrefetchMode prefetchMode) {
+    this.prefetchMode = prefetchMode;
+  }
+
+  /**
+   * Returns set of attributes that are retrieved together with session meta data.
+   *
+   * @return set of attribute names to prefetch
+   */
+  public Set<String> getPrefetchAttributes() {
+    return prefetchAttributes;
+  }
+
+  /**
+   * Sets attributes that are retrieved together with session meta data by extracting them from comma-separated list
+   * provided as parameter.
+   *
+   * @param prefetchAttributesCsv
+   *          list of attributes to prefetch in comma-separated list
+   */
+  public void setPrefetchAttributes(String prefetchAttributesCsv) {
+    Set<String> attrs = new HashSet<>();
+    if (prefetchAttributesCsv != null) {
+      for (String attr : prefetchAttributesCsv.split(",")) {
+        if (!attr.trim().isEmpty()) {
+          attrs.add(attr.trim());
+        }
+      }
+    }
+    prefetchAttributes = Collections.unmodifiableSet(attrs);
+  }
+
+  /**
+   * Returns set of servlet paths, or servlet path prefixes ending with <code>*</code>, of read-only requests.
+   *
+   * @return set of read-only paths
+   */
+  public Set<String> getReadOnlyPaths() {
+    return readOnlyPaths;
+  }
+
+  /**
+   * Sets servlet paths of read-only requests by extracting them from comma-separated list provided as parameter.
+   *
+   * @param readOnlyPathsCsv
+   *          list of servlet paths, or servlet path prefixes ending with <code>*</code>, in comma-separated list
+   */
+  public void setReadOnlyPaths(String readOnlyPathsCsv) {
+    Set<String> paths = new HashSet<>();
+    if (readOnlyPathsCsv != null) {
+      for (String path : readOnlyPathsCsv.split(",")) {
+        if (!path.trim().isEmpty()) {
+          paths.add(path.trim());
+        }
+      }
+    }
+    readOnlyPaths = Collections.unmodifiableSet(paths);
+  }
+
+  /**
+   * Returns <code>true</code> if requests to the servlet path only read session. See {@link #READ_ONLY_PATHS}.
+   *
+   * @param servletPath
+   *          the servlet path of the request
+   * @return <code>true</code> if servlet path matches one of read-only paths
+   */
+  public boolean isReadOnlyPath(String servletPath) {
+    if (servletPath == null || readOnlyPaths.isEmpty()) {
+      return false;
+    }
+    for (String path : readOnlyPaths) {
+      if (path.endsWith("*") ? servletPath.startsWith(path.substring(0, path.length() - 1))
+          : servletPath.equals(path)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   /**
    * Returns <code>true</code> if session information should be stored in logging systems Mapped Diagnostic Context
    * (MDC).
@@ -992,6 +1368,44 @@ public class SessionConfiguration implements Serializable {
     this.commitOnAllConcurrent = commitOnAllConcurrent;
   }
 
+  /**
+   * Returns <code>true</code> if session is committed asynchronously after request completes.
+   *
+   * @return <code>true</code> if write-behind commit is used
+   */
+  public boolean isCommitWriteBehind() {
+    return commitWriteBehind;
+  }
+
+  /**
+   * Controls if session is committed asynchronously after request completes.
+   *
+   * @param commitWriteBehind
+   *          <code>true</code> if write-behind commit should be used
+   */
+  public void setCommitWriteBehind(boolean commitWriteBehind) {
+    this.commitWriteBehind = commitWriteBehind;
+  }
+
+  /**
+   * Returns <code>true</code> if concurrent retrievals of the same session are deduplicated.
+   *
+   * @return <code>true</code> if single-flight retrieval is used
+   */
+  public boolean isSingleFlightFetch() {
+    return singleFlightFetch;
+  }
+
+  /**
+   * Controls if concurrent retrievals of the same session are deduplicated.
+   *
+   * @param singleFlightFetch
+   *          <code>true</code> if single-flight retrieval should be used
+   */
+  public void setSingleFlightFetch(boolean singleFlightFetch) {
+    this.singleFlightFetch = singleFlightFetch;
+  }
+
   /**
    * Returns <code>true</code> if session should be encrypted before storing in repository.
    *
@@ -1035,6 +1449,44 @@ public class SessionConfiguration implements Serializable {
     return encryptionKey;
   }
 
+  /**
+   * Returns <code>true</code> if session data should be encrypted using AES/GCM mode.
+   *
+   * @return <code>true</code> if session data should be encrypted using AES/GCM mode
+   */
+  public boolean isEncryptionGcm() {
+    return encryptionGcm;
+  }
+
+  /**
+   * Sets whether the session data should be encrypted using AES/GCM mode instead of AES/CBC mode.
+   *
+   * @param encryptionGcm
+   *          <code>true</code> if session data should be encrypted using AES/GCM mode
+   */
+  public void setEncryptionGcm(boolean encryptionGcm) {
+    this.encryptionGcm = encryptionGcm;
+  }
+
+  /**
+   * Returns <code>true</code> if data encrypted using AES/CBC mode can be read when AES/GCM mode is used.
+   *
+   * @return <code>true</code> if data encrypted using AES/CBC mode can be read in AES/GCM mode
+   */
+  public boolean isEncryptionCbcRead() {
+    return encryptionCbcRead;
+  }
+
+  /**
+   * Sets whether data encrypted using AES/CBC mode can be read when AES/GCM mode is used.
+   *
+   * @param encryptionCbcRead
+   *          <code>true</code> if data encrypted using AES/CBC mode can be read in AES/GCM mode
+   */
+  public void setEncryptionCbcRead(boolean encryptionCbcRead) {
+    this.encryptionCbcRead = encryptionCbcRead;
+  }
+
   public boolean isDelegateWriter() {
     return delegateWriter;
   }
@@ -1043,6 +1495,114 @@ public class SessionConfiguration implements Serializable {
     this.delegateWriter = delegateWriter;
   }
 
+  /**
+   * Returns <code>true</code> if session attributes are serialized using {@link CompactSerializerDeserializer}.
+   *
+   * @return <code>true</code> if compact serialization is used
+   */
+  public boolean isCompactSerialization() {
+    return compactSerialization;
+  }
+
+  /**
+   * Sets whether session attributes are serialized using {@link CompactSerializerDeserializer}.
+   *
+   * @param compactSerialization
+   *          <code>true</code> if compact serialization should be used
+   */
+  public void setCompactSerialization(boolean compactSerialization) {
+    this.compactSerialization = compactSerialization;
+  }
+
+  /**
+   * Returns minimal size in bytes of serialized attribute for it to be compressed. Value of 0 or less means that
+   * compression is disabled.
+   *
+   * @return the compression threshold
+   */
+  public int getCompressionThreshold() {
+    return compressionThreshold;
+  }
+
+  /**
+   * Sets minimal size in bytes of serialized attribute for it to be compressed. Value of 0 or less disables
+   * compression.
+   *
+   * @param compressionThreshold
+   *          the compression threshold
+   */
+  public void setCompressionThreshold(int compressionThreshold) {
+    this.compressionThreshold = compressionThreshold;
+  }
+
+  /**
+   * Returns number of serialization buffers of each size class that are kept for reuse. Value of 0 or less means
+   * that buffers are not reused.
+   *
+   * @return the number of buffers per size class
+   */
+  public int getSerializationBuffers() {
+    return serializationBuffers;
+  }
+
+  /**
+   * Sets number of serialization buffers of each size class that are kept for reuse. Value of 0 or less disables
+   * reuse of buffers.
+   *
+   * @param serializationBuffers
+   *          the number of buffers per size class
+   */
+  public void setSerializationBuffers(int serializationBuffers) {
+    this.serializationBuffers = serializationBuffers;
+  }
+
+  /**
+   * Returns minimal time elapsed since last access for session access time to be updated in repository when session
+   * is retrieved. See {@link #TOUCH_GRANULARITY}.
+   *
+   * @param maxInactiveInterval
+   *          max inactive interval of the session in seconds
+   * @return touch granularity in milliseconds, 0 if access time is updated on each retrieval
+   */
+  public long getTouchGranularity(int maxInactiveInterval) {
+    return touchGranularity.forInterval(maxInactiveInterval);
+  }
+
+  /**
+   * Returns minimal time elapsed since last access for session access time to be updated in repository when session
+   * is retrieved. See {@link #TOUCH_GRANULARITY}.
+   *
+   * @return touch granularity
+   */
+  public TouchGranularity getTouchGranularity() {
+    return touchGranularity;
+  }
+
+  /**
+   * Sets minimal time elapsed since last access for session access time to be updated in repository when session is
+   * retrieved. See {@link #TOUCH_GRANULARITY}.
+   *
+   * @param touchGranularity
+   *          number of seconds, or percentage of max inactive interval if value ends with <code>%</code>
+   */
+  public void setTouchGranularity(String touchGranularity) {
+    this.touchGranularity = TouchGranularity.NONE;
+    if (!nonEmpty(touchGranularity)) {
+      return;
+    }
+    String value = touchGranularity.trim();
+    boolean percent = value.endsWith("%");
+    if (percent) {
+      value = value.substring(0, value.length() - 1).trim();
+    }
+    try {
+      this.touchGranularity = new TouchGranularity(Integer.parseInt(value), percent);
+    } catch (NumberFormatException e) {
+      logger.error("`{}` was neither an integer nor a percentage: {}, access time will be updated on each retrieval",
+          TOUCH_GRANULARITY, touchGranularity);
+    }
+  }
+
   /**
    * Loads encryption key from specified URL.
    *
@@ -1081,8 +1641,17 @@ public class SessionConfiguration implements Serializable {
         .append(", loggingMdcKey=").append(loggingMdcKey).append(", providerConfiguration=")
         .append(providerConfiguration).append(", repositoryFactory=").append(repositoryFactory)
         .append(", sessionTracking=").append(sessionTracking).append(", encryptionKey=").append(encryptionKey)
+        .append(", encryptionGcm=").append(encryptionGcm).append(", encryptionCbcRead=").append(encryptionCbcRead)
         .append(", nonCacheable=").append(nonCacheable).append(", replicationTrigger=").append(replicationTrigger)
+        .append(", prefetchMode=").append(prefetchMode).append(", prefetchAttributes=").append(prefetchAttributes)
+        .append(", compactSerialization=").append(compactSerialization)
+        .append(", compressionThreshold=").append(compressionThreshold)
+        .append(", serializationBuffers=").append(serializationBuffers)
+        .append(", touchGranularity=").append(touchGranularity)
+        .append(", readOnlyPaths=").append(readOnlyPaths)
         .append(", attributes=").append(attributes).append(", commitOnAllConcurrent=").append(commitOnAllConcurrent)
+        .append(", commitWriteBehind=").append(commitWriteBehind)
+        .append(", singleFlightFetch=").append(singleFlightFetch)
         .append(", timestamp=").append(timestampSufix).append("]");
     return builder.toString();
   }
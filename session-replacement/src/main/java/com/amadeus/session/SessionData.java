@@ -1,5 +1,6 @@
 package com.amadeus.session;
 
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
@@ -26,6 +27,8 @@ import java.util.concurrent.TimeUnit;
  * <li>the id of node that previously owned the session (may be the same
  * as current</li>
  * <li>old session id if session id was changed</li>
+ * <li>attributes retrieved from repository together with session meta data in
+ * their serialized form</li>
  * </ul>
  *
  */
@@ -39,7 +42,13 @@ public class SessionData {
   private Set<String> mandatoryRemoteKeys;
   private boolean isNew;
   private final long originalLastAccessed;
+  private final int originalMaxInactiveInterval;
   private final String previousOwner;
+  private Map<String, byte[]> prefetchedAttributes;
+  private boolean allAttributesPrefetched;
+  private String prefetchContext;
+  private Boolean bindingListeners;
+  private Long version;
 
   /**
    * Constructor with session id, last epoch time of access, maximum inactivity
@@ -60,6 +69,7 @@ public class SessionData {
       String previousOwner) {
     this.id = id;
     this.originalLastAccessed = lastAccessedTime;
+    this.originalMaxInactiveInterval = maxInactiveInterval;
     this.maxInactiveInterval = maxInactiveInterval;
     this.lastAccessedTime = lastAccessedTime;
     this.creationTime = creationTime;
@@ -83,6 +93,26 @@ public class SessionData {
     isNew = true;
   }
 
+  /**
+   * Returns copy of the session descriptor as retrieved from repository,
+   * including prefetched attributes. Repository keys, prefetch context and
+   * changes of session id are not copied.
+   *
+   * @return the copy
+   */
+  SessionData copy() {
+    SessionData copy = new SessionData(id, originalLastAccessed, originalMaxInactiveInterval, creationTime,
+        previousOwner);
+    copy.lastAccessedTime = lastAccessedTime;
+    copy.maxInactiveInterval = maxInactiveInterval;
+    copy.isNew = isNew;
+    copy.prefetchedAttributes = prefetchedAttributes;
+    copy.allAttributesPrefetched = allAttributesPrefetched;
+    copy.bindingListeners = bindingListeners;
+    copy.version = version;
+    return copy;
+  }
+
   /**
    * @return session id
    */
@@ -164,6 +194,49 @@ public class SessionData {
     return isNew;
   }
 
+  /**
+   * Returns <code>true</code> if some attribute value set in the session
+   * listens to its removal from session, <code>false</code> if none does, or
+   * <code>null</code> if this is not known (e.g. the information is stored in
+   * repository).
+   *
+   * @return the binding listeners flag
+   */
+  public Boolean getBindingListeners() {
+    return bindingListeners;
+  }
+
+  /**
+   * Sets flag indicating if some attribute value set in the session listens to
+   * its removal from session.
+   *
+   * @param bindingListeners
+   *          the binding listeners flag or <code>null</code> if unknown
+   */
+  public void setBindingListeners(Boolean bindingListeners) {
+    this.bindingListeners = bindingListeners;
+  }
+
+  /**
+   * Returns version stamp of the session in repository at the moment the
+   * session was retrieved. Used by repositories that cache attributes locally.
+   *
+   * @return the version or <code>null</code> if not known
+   */
+  public Long getVersion() {
+    return version;
+  }
+
+  /**
+   * Sets version stamp of the session in repository.
+   *
+   * @param version
+   *          the version or <code>null</code> if not known
+   */
+  public void setVersion(Long version) {
+    this.version = version;
+  }
+
   /**
    * Sets flag if the session is new or not
    *
@@ -228,6 +301,78 @@ public class SessionData {
     this.mandatoryRemoteKeys = mandatoryRemoteKeys;
   }
 
+  /**
+   * Sets attributes that were retrieved from repository together with session
+   * meta data. The values are in serialized form, and the value is
+   * <code>null</code> if attribute was requested but is not present in
+   * repository.
+   *
+   * @param prefetchedAttributes
+   *          map of attribute names and serialized values
+   * @param all
+   *          <code>true</code> if map contains all attributes present in
+   *          repository
+   */
+  public void setPrefetchedAttributes(Map<String, byte[]> prefetchedAttributes, boolean all) {
+    this.prefetchedAttributes = prefetchedAttributes;
+    this.allAttributesPrefetched = all;
+  }
+
+  /**
+   * Returns <code>true</code> if the serialized value of attribute (or the
+   * fact that the attribute is absent) is known from prefetching.
+   *
+   * @param name
+   *          key of attribute
+   * @return <code>true</code> if attribute was prefetched
+   */
+  public boolean isPrefetched(String name) {
+    return prefetchedAttributes != null && (allAttributesPrefetched || prefetchedAttributes.containsKey(name));
+  }
+
+  /**
+   * Returns serialized value of prefetched attribute.
+   *
+   * @param name
+   *          key of attribute
+   * @return serialized value or <code>null</code> if attribute was not
+   *         prefetched or is not present in repository
+   */
+  public byte[] getPrefetchedAttribute(String name) {
+    return prefetchedAttributes == null ? null : prefetchedAttributes.get(name);
+  }
+
+  /**
+   * Returns keys of all attributes in repository if all attributes were
+   * prefetched.
+   *
+   * @return set of keys or <code>null</code> if not all attributes were
+   *         prefetched
+   */
+  public Set<String> getAllPrefetchedKeys() {
+    return allAttributesPrefetched && prefetchedAttributes != null ? prefetchedAttributes.keySet() : null;
+  }
+
+  /**
+   * Returns context in which session was retrieved from repository (e.g.
+   * servlet path). Used to learn which attributes to prefetch.
+   *
+   * @return the context or <code>null</code> if unknown
+   */
+  public String getPrefetchContext() {
+    return prefetchContext;
+  }
+
+  /**
+   * Sets context in which session was retrieved from repository.
+   *
+   * @param prefetchContext
+   *          the context (e.g. servlet path)
+   */
+  public void setPrefetchContext(String prefetchContext) {
+    this.prefetchContext = prefetchContext;
+  }
+
   /**
    * Last accessed instant retrieved from repository. Usually corresponds to
    * instant of the processing of the previous request.
@@ -238,6 +383,16 @@ public class SessionData {
     return originalLastAccessed;
   }
 
+  /**
+   * Maximum inactivity interval retrieved from repository, i.e. before it was
+   * possibly changed during current request.
+   *
+   * @return maximum inactivity interval in seconds as retrieved from repository
+   */
+  public int getOriginalMaxInactiveInterval() {
+    return originalMaxInactiveInterval;
+  }
+
   /**
    * Returns id of the node that owned session in previous request
    *
@@ -33,9 +33,10 @@ public interface SessionFactory {
   void sessionIdChange(SessionData sessionData);
 
   /**
-   * Called by each session when it is committed. Used when local cache is
-   * active. This insures that when last concurrent call has been terminated,
-   * session is evicted from cache.
+   * Called by each session when it is committed, and by session manager when
+   * session is deleted or has expired. Used when local cache is active. This
+   * insures that when last concurrent call has been terminated, session is
+   * evicted from cache.
    *
    * @param session
    *          the session being committed
@@ -36,6 +36,10 @@ import com.codahale.metrics.Timer;
  * rate of such occurrences in last 1, 5 and 15 minutes
  * <li>`com.amadeus.session.retrieved` measures total number of session retrievals as well as measures rate of sessions
  * retrieval from store in last 1, 5 and 15 minutes
+ * <li>`com.amadeus.session.prefetch.hits` measures number of attribute reads that were served from attributes prefetched
+ * with session data as well as rate of such reads in last 1, 5 and 15 minutes
+ * <li>`com.amadeus.session.prefetch.misses` measures number of first attribute reads that required separate retrieval
+ * from repository as well as rate of such reads in last 1, 5 and 15 minutes
  * <li>`com.amadeus.session.timers.commit` measures histogram (distribution) of elapsed time during commit as well as
  * total number of commits and rate of commits over last 1, 5 and 15 minutes
  * <li>`com.amadeus.session.timers.fetch` measures histogram (distribution) of elapsed time during fetch of session data
@@ -60,6 +64,14 @@ public class SessionManager implements Closeable {
 
   private static final String RETRIEVED_SESSIONS_METRIC = name(SESSIONS_METRIC_PREFIX, "retrieved");
 
+  static final String PREFETCH_HITS_METRIC = name(SESSIONS_METRIC_PREFIX, "prefetch", "hits");
+
+  static final String PREFETCH_MISSES_METRIC = name(SESSIONS_METRIC_PREFIX, "prefetch", "misses");
+
+  static final String SKIPPED_TOUCHES_METRIC = name(SESSIONS_METRIC_PREFIX, "touch", "skipped");
+
+  static final String SHARED_FETCHES_METRIC = name(SESSIONS_METRIC_PREFIX, "fetch", "shared");
+
   static final String INVALIDATION_ON_EXPIRY_ERRORS_METRIC = name(SESSIONS_METRIC_PREFIX, "invalidation", "errors",
       "expiry");
 
@@ -67,6 +79,15 @@ public class SessionManager implements Closeable {
 
   static final String SESSION_PROPAGATED = "com.amadeus.session.sessionPropagated";
 
+  /**
+   * Request attribute that application can set to {@link Boolean#TRUE} before session is retrieved to declare that the
+   * request only reads session. Requests can also be declared read-only using
+   * {@link SessionConfiguration#READ_ONLY_PATHS}. Session used by read-only request is not stored in repository unless
+   * some attribute was set or removed, and its expiration is refreshed at most once per
+   * {@link SessionConfiguration#TOUCH_GRANULARITY}.
+   */
+  public static final String READ_ONLY_REQUEST = "com.amadeus.session.readOnly";
+
   protected final SessionRepository repository;
 
   protected final SessionNotifier notifier;
@@ -93,6 +114,12 @@ public class SessionManager implements Closeable {
 
   private final Meter missingSessions;
 
+  private final Meter prefetchHits;
+
+  private final Meter prefetchMisses;
+
+  private final Meter skippedTouches;
+
   private final Timer commitTimer;
 
   private final Timer fetchTimer;
@@ -101,6 +128,12 @@ public class SessionManager implements Closeable {
 
   private final ClassLoader classLoader;
 
+  private final AttributePrefetch attributePrefetch;
+
+  private final WriteBehindCommitter writeBehind;
+
+  private final SingleFlightFetch singleFlight;
+
   private JmxReporter reporter;
 
   /**
@@ -135,6 +168,7 @@ public class SessionManager implements Closeable {
     this.factory = factory;
     this.executors = executors;
     this.classLoader = classLoader;
+    attributePrefetch = new AttributePrefetch(configuration);
 
     monitoring = new MetricRegistry();
 
@@ -142,13 +176,24 @@ public class SessionManager implements Closeable {
     deletedSessions = monitoring.meter(DELETED_SESSIONS_METRIC);
     retrievedSessions = monitoring.meter(RETRIEVED_SESSIONS_METRIC);
     missingSessions = monitoring.meter(MISSING_SESSIONS_METRIC);
+    prefetchHits = monitoring.meter(PREFETCH_HITS_METRIC);
+    prefetchMisses = monitoring.meter(PREFETCH_MISSES_METRIC);
+    skippedTouches = monitoring.meter(SKIPPED_TOUCHES_METRIC);
     invalidationErrors = monitoring.meter(INVALIDATION_ERRORS_METRIC);
     invalidationExpiryErrors = monitoring.meter(INVALIDATION_ON_EXPIRY_ERRORS_METRIC);
     commitTimer = monitoring.timer(COMMIT_TIMER_METRIC);
     fetchTimer = monitoring.timer(FETCH_TIMER_METRIC);
+    writeBehind = configuration.isCommitWriteBehind() ? new WriteBehindCommitter(this, monitoring) : null;
+    singleFlight = configuration.isSingleFlightFetch() ? new SingleFlightFetch(
+        configuration.isAllowedCachedSessionReuse(), monitoring.meter(SHARED_FETCHES_METRIC)) : null;
 
-    serializerDeserializer = configuration.isUsingEncryption() ? new EncryptingSerializerDeserializer()
+    SerializerDeserializer serializer = configuration.isCompactSerialization() ? new CompactSerializerDeserializer()
         : new JdkSerializerDeserializer();
+    if (configuration.getCompressionThreshold() > 0) {
+      serializer = new CompressingSerializerDeserializer(serializer);
+    }
+    serializerDeserializer = configuration.isUsingEncryption() ? new EncryptingSerializerDeserializer(serializer)
+        : serializer;
     serializerDeserializer.setSessionManager(this);
 
     factory.setSessionManager(this);
@@ -185,12 +230,46 @@ public class SessionManager implements Closeable {
    * @return session or <code>null</code> if session is not in repository.
    */
   public RepositoryBackedSession fetchSession(String sessionId, boolean updateTimestamp) {
+    return fetchSession(sessionId, updateTimestamp, null);
+  }
+
+  /**
+   * Fetch the session from the repository. If session was with given id retrieved, but has expired, it will be cleaned
+   * up. Depending on {@link SessionConfiguration.PrefetchMode}, some of session attributes may be retrieved together
+   * with the session. The context is used to learn which attributes to prefetch.
+   *
+   * @param sessionId
+   *          session id
+   * @param updateTimestamp
+   *          <code>true</code> if the session timestamp should be updated (usually at the start of request)
+   * @param context
+   *          the context of the retrieval (e.g. servlet path) or <code>null</code> if unknown
+   * @return session or <code>null</code> if session is not in repository.
+   */
+  public RepositoryBackedSession fetchSession(final String sessionId, boolean updateTimestamp, String context) {
     logger.debug("Fetching session from cache, sessionId: '{}'", sessionId);
+    if (writeBehind != null) {
+      // Read own writes
+      writeBehind.awaitCommitted(sessionId);
+    }
 
     SessionData sessionData;
+    final AttributePrefetch.Selection prefetch = attributePrefetch.attributesFor(context);
+    // When repository supports it, session is retrieved and touched in a single step
+    final boolean fetchAndTouch = updateTimestamp && repository.isFetchAndTouchSupported();
+    final long accessTime = System.currentTimeMillis();
     // Following variable is used in try/finally to measure execution time
     try (Timer.Context ctx = fetchTimer.time()) { // NOSONAR
-      sessionData = repository.getSessionData(sessionId);
+      if (singleFlight != null) {
+        sessionData = singleFlight.fetch(sessionId, fetchAndTouch, prefetch, new SingleFlightFetch.Fetch() {
+          @Override
+          public SessionData fetch() {
+            return fetchSessionData(sessionId, fetchAndTouch, accessTime, prefetch);
+          }
+        });
+      } else {
+        sessionData = fetchSessionData(sessionId, fetchAndTouch, accessTime, prefetch);
+      }
     }
 
     if (sessionData == null) {
@@ -201,6 +280,7 @@ public class SessionManager implements Closeable {
 
     // Configure session descriptor
     sessionData.setRepositoryKeys(configuration.getNonCacheable());
+    sessionData.setPrefetchContext(context);
     // Build session from factory
     RepositoryBackedSession session = factory.build(sessionData);
     retrievedSessions.mark();
@@ -213,16 +293,43 @@ public class SessionManager implements Closeable {
       if (session.isValid()) {
         session.doInvalidate(true);
       }
+      // Evict session from local cache unless a request is still using it
+      factory.committed(session);
       return null;
     }
-    if (updateTimestamp) {
-      sessionData.setLastAccessedTime(System.currentTimeMillis());
-      repository.storeSessionData(sessionData);
+    if (fetchAndTouch) {
+      // Repository has already stored the new timestamp unless touch was not needed
+      if (configuration.getTouchGranularity().isTouchNeeded(sessionData, accessTime)) {
+        sessionData.setLastAccessedTime(accessTime);
+      } else {
+        skippedTouches.mark();
+      }
+    } else if (updateTimestamp) {
+      long now = System.currentTimeMillis();
+      if (configuration.getTouchGranularity().isTouchNeeded(sessionData, now)) {
+        sessionData.setLastAccessedTime(now);
+        repository.storeSessionData(sessionData);
+      } else {
+        skippedTouches.mark();
+      }
     }
 
     return session;
   }
 
+  /**
+   * Retrieves session descriptor from repository.
+   */
+  private SessionData fetchSessionData(String sessionId, boolean fetchAndTouch, long accessTime,
+      AttributePrefetch.Selection prefetch) {
+    if (fetchAndTouch) {
+      return repository.fetchAndTouchSessionData(sessionId, accessTime, configuration.getTouchGranularity(), prefetch);
+    } else if (!prefetch.isEmpty()) {
+      return repository.getSessionData(sessionId, prefetch);
+    }
+    return repository.getSessionData(sessionId);
+  }
+
   /**
    * Creates new session from the given id
    *
@@ -233,8 +340,11 @@ public class SessionManager implements Closeable {
    * @return new session
    */
   private RepositoryBackedSession newSession(String sessionId) {
-    RepositoryBackedSession session = factory
-        .build(new SessionData(sessionId, System.currentTimeMillis(), configuration.getMaxInactiveInterval()));
+    SessionData sessionData = new SessionData(sessionId, System.currentTimeMillis(),
+        configuration.getMaxInactiveInterval());
+    // New session has no attributes yet
+    sessionData.setBindingListeners(Boolean.FALSE);
+    RepositoryBackedSession session = factory.build(sessionData);
     createdSessions.mark();
     notifier.sessionCreated(session);
     return session;
@@ -265,7 +375,7 @@ public class SessionManager implements Closeable {
     if (id != null && id.id != null) {
       putIdInLoggingMdc(id.id);
       request.setRequestedSessionId(id.id, id.cookie);
-      session = fetchSession(id.id, true);
+      session = fetchSession(id.id, true, request.getServletPath());
       if (!request.isRepositoryChecked()) {
         logger.info("Session with sessionId: '{}' but it was not in repository!", id);
         request.repositoryChecked();
@@ -286,11 +396,25 @@ public class SessionManager implements Closeable {
       session = newSession(id.id);
     }
     if (session != null) {
+      session.setReadOnly(isReadOnly(request));
       session.checkUsedAndLock();
     }
     return session;
   }
 
+  /**
+   * Returns <code>true</code> if request was declared as read-only either using {@link #READ_ONLY_REQUEST} attribute
+   * or by its servlet path.
+   *
+   * @param request
+   *          the request being served
+   * @return <code>true</code> if request only reads session
+   */
+  private boolean isReadOnly(RequestWithSession request) {
+    return Boolean.TRUE.equals(request.getAttribute(READ_ONLY_REQUEST))
+        || configuration.isReadOnlyPath(request.getServletPath());
+  }
+
   /**
    * Changes session id of the passed session. Session id can change only once per request.
    *
@@ -355,6 +479,8 @@ public class SessionManager implements Closeable {
     RepositoryBackedSession session = fetchSession(sessionId, false);
     if (session != null) {
       session.doInvalidate(expired);
+      // Evict session from local cache unless a request is still using it
+      factory.committed(session);
     } else if (!expired) {
       logger.debug("Session not found in repository for sessionId: '{}'", sessionId);
     }
@@ -449,17 +575,43 @@ public class SessionManager implements Closeable {
   }
 
   /**
-   * Calls {@link Committer} for the passed {@link RepositoryBackedSession} and measures time of execution.
+   * Calls {@link Committer} for the passed {@link RepositoryBackedSession} and measures time of execution. If
+   * {@link SessionConfiguration#COMMIT_WRITE_BEHIND} is active, commit is executed asynchronously.
    *
    * @param session
    *          the session to commit
    */
   public void invokeCommit(RepositoryBackedSession session) {
+    if (writeBehind != null) {
+      writeBehind.enqueue(session);
+    } else {
+      commitNow(session);
+    }
+  }
+
+  /**
+   * Calls {@link Committer} for the passed {@link RepositoryBackedSession} in current thread and measures time of
+   * execution.
+   *
+   * @param session
+   *          the session to commit
+   */
+  void commitNow(RepositoryBackedSession session) {
+    commitNow(session, session.getCommitter());
+  }
+
+  /**
+   * Runs the committer of the passed {@link RepositoryBackedSession} in current thread and measures time of execution.
+   *
+   * @param session
+   *          the session to commit
+   * @param committer
+   *          the committer of the session
+   */
+  void commitNow(RepositoryBackedSession session, Runnable committer) {
     // Following variable is used in try/finally to measure execution time
     try (Timer.Context ctx = commitTimer.time()) { // NOSONAR
-      // Commit is done in request thread.
-      // It could be interesting to do it async.
-      session.getCommitter().run(); // NOSONAR we use run intentionally
+      committer.run(); // NOSONAR we use run intentionally
     } catch (Exception e) { // NOSONAR Any exception can occur here
       logger.error("Exception occured while commiting sessionId: '" + session.getId() + "'", e);
       throw e;
@@ -484,6 +636,25 @@ public class SessionManager implements Closeable {
     return classLoader;
   }
 
+  /**
+   * Called when attribute is read for the first time after session was fetched from repository. Counts whether the
+   * attribute was prefetched with session data, and is used to learn which attributes to prefetch in
+   * {@link SessionConfiguration.PrefetchMode#ADAPTIVE} mode.
+   *
+   * @param sessionData
+   *          the session descriptor
+   * @param attribute
+   *          the name of the attribute
+   */
+  public void attributeRead(SessionData sessionData, String attribute) {
+    if (sessionData.isPrefetched(attribute)) {
+      prefetchHits.mark();
+    } else {
+      prefetchMisses.mark();
+    }
+    attributePrefetch.attributeRead(sessionData.getPrefetchContext(), attribute);
+  }
+
   /**
    * Serialiazer/deserializer to use when storing to repository. Serialaizer and deserializers can be configured.
    *
@@ -593,6 +764,9 @@ public class SessionManager implements Closeable {
     if (reporter != null) {
       reporter.close();
     }
+    if (writeBehind != null) {
+      writeBehind.flush();
+    }
     if (repository.cleanSessionsOnShutdown()) {
       for (String sessionId : repository.getOwnedSessionIds()) {
         delete(sessionId, false);
@@ -93,4 +93,23 @@ public interface SessionNotifier {
    *          old session id
    */
   void sessionIdChanged(RepositoryBackedSession session, String oldId);
+
+  /**
+   * Returns <code>true</code> if the attribute value must be notified when it
+   * is removed from session (e.g. when it is
+   * <code>HttpSessionBindingListener</code>).
+   *
+   * @param value
+   *          value of the attribute
+   * @return <code>true</code> if value listens to its removal from session
+   */
+  boolean isBindingListener(Object value);
+
+  /**
+   * Returns <code>true</code> if there are listeners that must be notified
+   * about each attribute removed from session when it is destroyed.
+   *
+   * @return <code>true</code> if there are attribute listeners
+   */
+  boolean hasAttributeListeners();
 }
\ No newline at end of file
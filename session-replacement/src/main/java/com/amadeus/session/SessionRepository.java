@@ -21,6 +21,22 @@ public interface SessionRepository extends Closeable {
    */
   SessionData getSessionData(String id);
 
+  /**
+   * Retrieves global session data from repository together with selected
+   * session attributes. Retrieved attributes are stored in serialized form in
+   * returned {@link SessionData} (see
+   * {@link SessionData#setPrefetchedAttributes(java.util.Map, boolean)}).
+   * Repositories that don't benefit from prefetching may ignore the selection.
+   *
+   * @param id
+   *          the session id
+   * @param prefetch
+   *          the attributes to retrieve with session data
+   * @return retrieves global session data from repository or <code>null</code>
+   *         if data wasn't found in repository.
+   */
+  SessionData getSessionData(String id, AttributePrefetch.Selection prefetch);
+
   /**
    * Stores global session data into repository
    *
@@ -29,6 +45,47 @@ public interface SessionRepository extends Closeable {
    */
   void storeSessionData(SessionData sessionData);
 
+  /**
+   * Returns <code>true</code> if repository can retrieve session data and mark session as accessed in a single step.
+   * See
+   * {@link #fetchAndTouchSessionData(String, long, SessionConfiguration.TouchGranularity,
+   * AttributePrefetch.Selection)}.
+   *
+   * @return <code>true</code> if repository supports combined fetch and touch
+   */
+  boolean isFetchAndTouchSupported();
+
+  /**
+   * Retrieves global session data from repository and, if session is valid, it has not expired at the given instant,
+   * and its access time changed at least by touch granularity, marks it as accessed at that instant. This replaces
+   * {@link #getSessionData(String)} followed by {@link #storeSessionData(SessionData)} when session is retrieved at the
+   * start of the request. Returned data reflects state of the session before it was marked as accessed.
+   * <p>
+   * Default implementation retrieves session data using {@link #getSessionData(String, AttributePrefetch.Selection)}
+   * and, if session has not expired and touch is needed, stores it with the new access time using
+   * {@link #storeSessionData(SessionData)}. Repositories that can do it in a single step override it.
+   *
+   * @param id
+   *          the session id
+   * @param accessTime
+   *          the instant at which session is accessed
+   * @param granularity
+   *          the touch granularity, access time is not updated if it changed less than granularity of the session
+   * @param prefetch
+   *          the attributes to retrieve with session data
+   * @return global session data before access or <code>null</code> if data wasn't found in repository.
+   */
+  default SessionData fetchAndTouchSessionData(String id, long accessTime,
+      SessionConfiguration.TouchGranularity granularity, AttributePrefetch.Selection prefetch) {
+    SessionData sessionData = getSessionData(id, prefetch);
+    if (sessionData != null && (sessionData.getMaxInactiveInterval() <= 0 || sessionData.expiresAt() >= accessTime)
+        && granularity.isTouchNeeded(sessionData, accessTime)) {
+      sessionData.setLastAccessedTime(accessTime);
+      storeSessionData(sessionData);
+    }
+    return sessionData;
+  }
+
   /**
    * Get all attribute keys stored in the session.
    *
@@ -38,6 +95,21 @@ public interface SessionRepository extends Closeable {
    */
   Set<String> getAllKeys(SessionData sessionData);
 
+  /**
+   * Returns <code>true</code> if some attributes stored in the session may
+   * need to be notified when they are removed from session (see
+   * {@link SessionNotifier#isBindingListener(Object)}). The information is
+   * recorded when session is committed using
+   * {@link SessionData#getBindingListeners()}. When repository doesn't know,
+   * it must return <code>true</code>.
+   *
+   * @param sessionData
+   *          the session information
+   * @return <code>false</code> if session has no attributes listening to
+   *         their removal
+   */
+  boolean mayHaveBindingListeners(SessionData sessionData);
+
   /**
    * Returns value of the attribute or <code>null</code> if attribute or session
    * have not been found
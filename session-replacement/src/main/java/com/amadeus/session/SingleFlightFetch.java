@@ -0,0 +1,136 @@
+package com.amadeus.session;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.codahale.metrics.Meter;
+
+/**
+ * Deduplicates concurrent retrievals of the same session from repository. The
+ * first thread that retrieves a session performs the repository read, and
+ * threads that retrieve the same session in the same way while the read is in
+ * progress wait for its result instead of reading the repository themselves.
+ * <p>
+ * Unless sessions in use are shared between concurrent requests (see
+ * {@link SessionConfiguration#REUSE_CONCURRENT_SESSION}), each waiting thread
+ * receives its own copy of retrieved {@link SessionData}. When they are
+ * shared, waiting threads receive the same instance, as the session factory
+ * links all of them to the same session anyway.
+ */
+class SingleFlightFetch {
+  /**
+   * Repository read performed by the first thread.
+   */
+  interface Fetch {
+    /**
+     * Retrieves session from repository.
+     *
+     * @return session data or <code>null</code> if session is not in
+     *         repository
+     */
+    SessionData fetch();
+  }
+
+  private final ConcurrentHashMap<String, Flight> flights = new ConcurrentHashMap<>();
+  private final boolean shareInstance;
+  private final Meter sharedFetches;
+
+  /**
+   * Creates instance.
+   *
+   * @param shareInstance
+   *          <code>true</code> if waiting threads should receive the same
+   *          instance of {@link SessionData}
+   * @param sharedFetches
+   *          meter marked each time a thread uses result retrieved by another
+   *          thread
+   */
+  SingleFlightFetch(boolean shareInstance, Meter sharedFetches) {
+    this.shareInstance = shareInstance;
+    this.sharedFetches = sharedFetches;
+  }
+
+  /**
+   * Retrieves session, either by executing passed fetch, or by waiting for
+   * the same retrieval already in progress.
+   *
+   * @param sessionId
+   *          the session id
+   * @param touch
+   *          <code>true</code> if session is also marked as accessed
+   * @param prefetch
+   *          the attributes retrieved with session
+   * @param fetch
+   *          the repository read
+   * @return session data or <code>null</code> if session is not in repository
+   */
+  SessionData fetch(String sessionId, boolean touch, AttributePrefetch.Selection prefetch, Fetch fetch) {
+    Flight flight = new Flight(touch, prefetch);
+    Flight inProgress = flights.putIfAbsent(sessionId, flight);
+    if (inProgress != null) {
+      if (!inProgress.matches(touch, prefetch)) {
+        // Different kind of retrieval, can't reuse the result
+        return fetch.fetch();
+      }
+      SessionData sessionData = inProgress.await();
+      sharedFetches.mark();
+      return sessionData == null || shareInstance ? sessionData : sessionData.copy();
+    }
+    try {
+      SessionData sessionData = fetch.fetch();
+      // Keep unmodified copy for waiting threads as the caller will update its instance
+      flight.complete(sessionData == null || shareInstance ? sessionData : sessionData.copy(), null);
+      return sessionData;
+    } catch (RuntimeException e) {
+      flight.complete(null, e);
+      throw e;
+    } finally {
+      flights.remove(sessionId, flight);
+    }
+  }
+
+  /**
+   * Retrieval in progress.
+   */
+  private static final class Flight {
+    private final boolean touch;
+    private final AttributePrefetch.Selection prefetch;
+    private boolean done;
+    private SessionData result;
+    private RuntimeException failure;
+
+    Flight(boolean touch, AttributePrefetch.Selection prefetch) {
+      this.touch = touch;
+      this.prefetch = prefetch;
+    }
+
+    boolean matches(boolean otherTouch, AttributePrefetch.Selection otherPrefetch) {
+      return touch == otherTouch && (prefetch == otherPrefetch || prefetch.isAll() == otherPrefetch.isAll()
+          && prefetch.getAttributes().equals(otherPrefetch.getAttributes()));
+    }
+
+    synchronized void complete(SessionData sessionData, RuntimeException e) {
+      result = sessionData;
+      failure = e;
+      done = true;
+      notifyAll();
+    }
+
+    synchronized SessionData await() {
+      boolean interrupted = false;
+      while (!done) {
+        try {
+          wait();
+        } catch (InterruptedException e) { // NOSONAR Retrieval will complete shortly
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      if (failure != null) {
+        throw failure;
+      }
+      return result;
+    }
+  }
+}
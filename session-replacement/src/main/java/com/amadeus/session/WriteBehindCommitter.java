@@ -0,0 +1,440 @@
+package com.amadeus.session;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * Commits sessions asynchronously after the request has completed. Commits
+ * are executed using {@link SessionManager#submit(String, Runnable)}. All
+ * pending commits of a session are executed by single task in the order in
+ * which they were requested, so when a commit is requested while another one
+ * is waiting for the same session, it joins the already submitted task
+ * instead of using another executor thread.
+ * <p>
+ * When the task finds several pending commits of the session, they are merged
+ * into a single repository transaction (see {@link MergedTransaction}). Each
+ * commit is executed in order, so listeners are notified as for separate
+ * commits, but attribute changes are collected: the last value stored for an
+ * attribute wins, and removal of an attribute is kept unless the attribute is
+ * stored again by a later commit. Collected changes are stored using the
+ * session descriptor of the last commit. If a commit invalidates the session,
+ * changes collected before it are discarded, as the session was removed from
+ * repository.
+ * <p>
+ * To allow requests to read their own writes, {@link #awaitCommitted(String)}
+ * is called before session is retrieved from repository. It waits until
+ * pending commits of the session complete. If they don't complete within
+ * {@link #MAX_WAIT_MILLISECONDS} (e.g. because the task was discarded by the
+ * executor), they are executed in calling thread. If the task is executing
+ * them, the calling thread keeps waiting for it.
+ * <p>
+ * Number of pending commits is available in
+ * <code>com.amadeus.session.commit.write-behind.queued</code> gauge, commits
+ * that joined already submitted tasks in
+ * <code>com.amadeus.session.commit.write-behind.joined</code> meter, commits
+ * merged into the transaction of a later commit in
+ * <code>com.amadeus.session.commit.write-behind.coalesced</code> meter, and
+ * time between commit request and its execution in
+ * <code>com.amadeus.session.commit.write-behind.lag</code> timer.
+ */
+class WriteBehindCommitter {
+  private static final Logger logger = LoggerFactory.getLogger(WriteBehindCommitter.class);
+
+  static final String WRITE_BEHIND_METRIC_PREFIX = name(SessionManager.SESSIONS_METRIC_PREFIX, "commit",
+      "write-behind");
+
+  static final String QUEUED_METRIC = name(WRITE_BEHIND_METRIC_PREFIX, "queued");
+
+  static final String JOINED_METRIC = name(WRITE_BEHIND_METRIC_PREFIX, "joined");
+
+  static final String COALESCED_METRIC = name(WRITE_BEHIND_METRIC_PREFIX, "coalesced");
+
+  static final String LAG_METRIC = name(WRITE_BEHIND_METRIC_PREFIX, "lag");
+
+  /**
+   * Maximum time to wait for pending commits of a session before executing
+   * them in calling thread.
+   */
+  static final long MAX_WAIT_MILLISECONDS = 5000;
+
+  private final SessionManager manager;
+  private final ConcurrentHashMap<String, PendingCommits> pending = new ConcurrentHashMap<>();
+  private final AtomicInteger queued = new AtomicInteger();
+  private final Meter joined;
+  private final Meter coalesced;
+  /**
+   * Time to wait for pending commits before executing them in calling thread.
+   * Modified only in tests.
+   */
+  long maxWaitMillis = MAX_WAIT_MILLISECONDS;
+  private final Timer lag;
+
+  /**
+   * Creates instance using metrics registry of the session manager.
+   *
+   * @param manager
+   *          the session manager that executes commits
+   * @param metrics
+   *          the registry used for metrics
+   */
+  WriteBehindCommitter(SessionManager manager, MetricRegistry metrics) {
+    this.manager = manager;
+    joined = metrics.meter(JOINED_METRIC);
+    coalesced = metrics.meter(COALESCED_METRIC);
+    lag = metrics.timer(LAG_METRIC);
+    metrics.register(QUEUED_METRIC, new Gauge<Integer>() {
+      @Override
+      public Integer getValue() {
+        return queued.get();
+      }
+    });
+  }
+
+  /**
+   * Requests asynchronous commit of the session.
+   *
+   * @param session
+   *          the session to commit
+   */
+  void enqueue(RepositoryBackedSession session) {
+    String sessionId = session.getId();
+    Commit commit = new Commit(session);
+    queued.incrementAndGet();
+    while (true) {
+      PendingCommits commits = pending.get(sessionId);
+      if (commits == null) {
+        commits = new PendingCommits(sessionId, commit);
+        if (pending.putIfAbsent(sessionId, commits) == null) {
+          manager.submit(null, commits);
+          return;
+        }
+      } else if (commits.add(commit)) {
+        joined.mark();
+        return;
+      }
+      // Pending commits have completed in the meantime, try again
+    }
+  }
+
+  /**
+   * Waits until pending commits of the session complete. If they take too
+   * long, executes them in calling thread, or, if the task is already
+   * executing them, keeps waiting for it. Reading session before its commits
+   * complete would return stale data.
+   *
+   * @param sessionId
+   *          the session id
+   * @throws IllegalStateException
+   *           if calling thread was interrupted while waiting
+   */
+  void awaitCommitted(String sessionId) {
+    PendingCommits commits = pending.get(sessionId);
+    if (commits == null || commits.await(maxWaitMillis)) {
+      return;
+    }
+    logger.warn("Pending commits of session {} didn't complete in {}ms, committing in current thread.", sessionId,
+        maxWaitMillis);
+    commits.drain(false);
+    while (!commits.await(maxWaitMillis)) {
+      if (Thread.currentThread().isInterrupted()) {
+        throw new IllegalStateException("Interrupted while waiting for pending commits of session " + sessionId);
+      }
+      logger.warn("Pending commits of session {} are still being executed, waiting.", sessionId);
+    }
+  }
+
+  /**
+   * Executes all pending commits in calling thread. Used when session manager
+   * is closed.
+   */
+  void flush() {
+    for (PendingCommits commits : pending.values()) {
+      commits.drain(false);
+    }
+  }
+
+  /**
+   * Returns number of pending commits.
+   *
+   * @return number of pending commits
+   */
+  int queued() {
+    return queued.get();
+  }
+
+  /**
+   * Commit request with the instant when it was requested.
+   */
+  private static final class Commit {
+    final RepositoryBackedSession session;
+    final long requested;
+
+    Commit(RepositoryBackedSession session) {
+      this.session = session;
+      requested = System.nanoTime();
+    }
+  }
+
+  /**
+   * Pending commits of one session. Once all commits are executed, instance
+   * is removed from pending commits and doesn't accept new ones.
+   */
+  final class PendingCommits implements Runnable {
+    private final String sessionId;
+    private final Deque<Commit> commits = new ArrayDeque<>();
+    private boolean draining;
+    private boolean done;
+
+    PendingCommits(String sessionId, Commit first) {
+      this.sessionId = sessionId;
+      commits.add(first);
+    }
+
+    synchronized boolean add(Commit commit) {
+      if (done) {
+        return false;
+      }
+      commits.add(commit);
+      return true;
+    }
+
+    synchronized boolean await(long millis) {
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+      try {
+        while (!done) {
+          long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+          if (remaining <= 0) {
+            return false;
+          }
+          wait(remaining);
+        }
+      } catch (InterruptedException e) { // NOSONAR Waiting was interrupted
+        Thread.currentThread().interrupt();
+      }
+      return done;
+    }
+
+    @Override
+    public void run() {
+      drain(true);
+    }
+
+    /**
+     * Executes pending commits. If other thread is already executing them,
+     * returns immediately.
+     *
+     * @param releaseResources
+     *          <code>true</code> if resources used by repository in current
+     *          thread should be released when done
+     */
+    void drain(boolean releaseResources) {
+      synchronized (this) {
+        if (draining || done) {
+          return;
+        }
+        draining = true;
+      }
+      try {
+        List<Commit> batch;
+        while ((batch = next()) != null) {
+          if (batch.size() == 1) {
+            commit(batch.get(0), null);
+          } else {
+            commitMerged(batch);
+          }
+        }
+      } finally {
+        synchronized (this) {
+          draining = false;
+        }
+        if (releaseResources) {
+          manager.requestFinished();
+        }
+      }
+    }
+
+    /**
+     * Executes commits merging their changes into single repository
+     * transaction.
+     */
+    private void commitMerged(List<Commit> batch) {
+      MergedTransaction merged = new MergedTransaction();
+      for (Commit commit : batch) {
+        commit(commit, merged);
+      }
+      try {
+        merged.flush();
+      } catch (Exception e) { // NOSONAR Any exception can occur here
+        logger.error("Exception occured while commiting merged commits of sessionId: '" + sessionId + "'", e);
+      }
+    }
+
+    /**
+     * Executes commit under same lock as synchronous commit.
+     *
+     * @param merged
+     *          transaction where changes are merged, or <code>null</code> to
+     *          store them in repository
+     */
+    private void commit(Commit commit, MergedTransaction merged) {
+      queued.decrementAndGet();
+      lag.update(System.nanoTime() - commit.requested, TimeUnit.NANOSECONDS);
+      try {
+        Lock lock = commit.session.getCommitLock();
+        lock.lock();
+        try {
+          if (merged == null) {
+            manager.commitNow(commit.session);
+          } else {
+            manager.commitNow(commit.session, commit.session.getCommitter(merged));
+            if (!commit.session.isValid()) {
+              // Session was removed from repository, so are the changes of previous commits
+              merged.discard();
+            }
+          }
+        } finally {
+          lock.unlock();
+        }
+      } catch (Exception e) { // NOSONAR Error was already logged
+        logger.debug("Asynchronous commit failed for session {}", sessionId, e);
+      }
+    }
+
+    /**
+     * Returns all pending commits, or <code>null</code> if there are no more
+     * commits. In later case, marks instance as done and notifies waiting
+     * threads.
+     */
+    private synchronized List<Commit> next() {
+      if (commits.isEmpty()) {
+        done = true;
+        pending.remove(sessionId, this);
+        notifyAll();
+        return null;
+      }
+      List<Commit> batch = new ArrayList<>(commits);
+      commits.clear();
+      return batch;
+    }
+
+    @Override
+    public String toString() {
+      return "PendingCommits [sessionId=" + sessionId + "]";
+    }
+  }
+
+  /**
+   * Transaction that collects changes of several commits of a session and
+   * stores them in a single repository transaction when flushed. For each
+   * commit, a repository transaction is started using the session descriptor
+   * of that commit, and is used to answer
+   * {@link #isSetAllAttributes()} and {@link #isDistributing()}. When flushed,
+   * the collected changes are applied to the transaction of the last commit,
+   * which is then committed. Instances are used by single thread.
+   */
+  final class MergedTransaction implements SessionRepository.CommitTransaction {
+    private final Map<String, Object> changes = new LinkedHashMap<>();
+    private final Map<String, Boolean> removed = new LinkedHashMap<>();
+    private SessionRepository.CommitTransaction current;
+    private String currentId;
+    private SessionRepository.CommitTransaction last;
+    private String lastId;
+    private int merged;
+
+    /**
+     * Starts collecting changes of a commit.
+     *
+     * @param sessionData
+     *          descriptor of the committed session
+     * @return this transaction
+     */
+    SessionRepository.CommitTransaction startCommit(SessionData sessionData) {
+      if (lastId != null && !lastId.equals(sessionData.getId())) {
+        // Commits of different session ids are not merged
+        flush();
+      }
+      current = manager.getRepository().startCommit(sessionData);
+      currentId = sessionData.getId();
+      return this;
+    }
+
+    @Override
+    public void addAttribute(String key, Object value) {
+      removed.remove(key);
+      changes.put(key, value);
+    }
+
+    @Override
+    public void removeAttribute(String key) {
+      changes.remove(key);
+      removed.put(key, Boolean.TRUE);
+    }
+
+    @Override
+    public void commit() {
+      last = current;
+      lastId = currentId;
+      merged++;
+      current = null;
+    }
+
+    @Override
+    public boolean isSetAllAttributes() {
+      return current.isSetAllAttributes();
+    }
+
+    @Override
+    public boolean isDistributing() {
+      return current.isDistributing();
+    }
+
+    /**
+     * Stores collected changes using transaction of the last commit.
+     */
+    void flush() {
+      if (last != null) {
+        for (String key : removed.keySet()) {
+          last.removeAttribute(key);
+        }
+        for (Map.Entry<String, Object> entry : changes.entrySet()) {
+          last.addAttribute(entry.getKey(), entry.getValue());
+        }
+        if (merged > 1) {
+          coalesced.mark(merged - 1L);
+        }
+        SessionRepository.CommitTransaction transaction = last;
+        discard();
+        transaction.commit();
+      }
+    }
+
+    /**
+     * Discards collected changes.
+     */
+    void discard() {
+      changes.clear();
+      removed.clear();
+      last = null;
+      lastId = null;
+      merged = 0;
+    }
+  }
+}
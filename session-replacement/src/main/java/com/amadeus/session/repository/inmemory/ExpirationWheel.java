@@ -0,0 +1,218 @@
+package com.amadeus.session.repository.inmemory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Hierarchical timing wheel that indexes sessions by their expiration instant.
+ * <p>
+ * Time is divided in ticks. The wheel has several levels, each with
+ * {@link #SLOTS} slots. A slot of the first level contains sessions expiring
+ * in one tick, and a slot of each following level spans all slots of the
+ * previous level. A session is placed in the lowest level whose slots can
+ * still distinguish its expiration tick from the current one. When the wheel
+ * advances to the start of a slot of higher level, sessions in that slot are
+ * moved to lower levels. Each session is therefore moved at most once per
+ * level, and advancing the wheel costs time proportional to number of expired
+ * sessions, and not to number of stored sessions. Sessions expiring beyond
+ * the range of the highest level stay in it and are re-examined each time the
+ * highest level completes a rotation.
+ * <p>
+ * Sessions scheduled with expiration instant that has already passed are
+ * returned on the next advance.
+ * <p>
+ * The wheel doesn't know the state of sessions: callers must check that a
+ * returned session has really expired, as it may have been accessed after it
+ * was scheduled.
+ */
+final class ExpirationWheel {
+  /**
+   * Number of bits used to address slot in one level.
+   */
+  private static final int SLOT_BITS = 6;
+  /**
+   * Number of slots in each level.
+   */
+  static final int SLOTS = 1 << SLOT_BITS;
+  private static final int SLOT_MASK = SLOTS - 1;
+  /**
+   * Number of levels. With one second ticks, levels cover more than 190 days.
+   */
+  static final int LEVELS = 4;
+
+  private final long tickMillis;
+  private final List<List<Set<Entry>>> levels;
+  private final Set<Entry> overdue = new HashSet<>();
+  private final Map<String, Entry> entries = new HashMap<>();
+  private long currentTick;
+
+  /**
+   * Entry of the wheel. Keeps track of the slot where the session is, so that
+   * session can be rescheduled without searching for it.
+   */
+  private static final class Entry {
+    private String id;
+    private long tick;
+    private Set<Entry> slot;
+
+    Entry(String id) {
+      this.id = id;
+    }
+  }
+
+  /**
+   * Creates timing wheel.
+   *
+   * @param tickMillis
+   *          duration of a tick in milliseconds
+   * @param now
+   *          current instant in milliseconds
+   */
+  ExpirationWheel(long tickMillis, long now) {
+    this.tickMillis = tickMillis;
+    this.currentTick = now / tickMillis;
+    levels = new ArrayList<>(LEVELS);
+    for (int i = 0; i < LEVELS; i++) {
+      List<Set<Entry>> level = new ArrayList<>(SLOTS);
+      for (int j = 0; j < SLOTS; j++) {
+        level.add(new HashSet<Entry>());
+      }
+      levels.add(level);
+    }
+  }
+
+  /**
+   * Schedules or reschedules expiration of a session.
+   *
+   * @param id
+   *          session id
+   * @param expiresAt
+   *          expiration instant in milliseconds
+   */
+  synchronized void schedule(String id, long expiresAt) {
+    Entry entry = entries.get(id);
+    if (entry == null) {
+      entry = new Entry(id);
+      entries.put(id, entry);
+    } else {
+      entry.slot.remove(entry);
+    }
+    // Round up, so that session is never returned before it expires
+    entry.tick = (expiresAt + tickMillis - 1) / tickMillis;
+    if (entry.tick <= currentTick) {
+      entry.slot = overdue;
+      overdue.add(entry);
+    } else {
+      place(entry);
+    }
+  }
+
+  /**
+   * Removes session from the wheel.
+   *
+   * @param id
+   *          session id
+   */
+  synchronized void cancel(String id) {
+    Entry entry = entries.remove(id);
+    if (entry != null) {
+      entry.slot.remove(entry);
+    }
+  }
+
+  /**
+   * Changes id of a scheduled session.
+   *
+   * @param oldId
+   *          previous session id
+   * @param newId
+   *          new session id
+   */
+  synchronized void rename(String oldId, String newId) {
+    Entry entry = entries.remove(oldId);
+    if (entry != null) {
+      Entry previous = entries.put(newId, entry);
+      if (previous != null) {
+        previous.slot.remove(previous);
+      }
+      entry.id = newId;
+    }
+  }
+
+  /**
+   * Returns number of scheduled sessions.
+   *
+   * @return number of sessions in the wheel
+   */
+  synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * Advances the wheel up to passed instant and removes sessions expiring up to
+   * that instant.
+   *
+   * @param now
+   *          current instant in milliseconds
+   * @return ids of sessions whose expiration instant has passed
+   */
+  synchronized List<String> advance(long now) {
+    List<String> expired = new ArrayList<>();
+    collect(overdue, expired);
+    long nowTick = now / tickMillis;
+    while (currentTick < nowTick) {
+      currentTick++;
+      for (int level = LEVELS - 1; level > 0; level--) {
+        if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+          cascade(level);
+        }
+      }
+      collect(levels.get(0).get((int)(currentTick & SLOT_MASK)), expired);
+    }
+    return expired;
+  }
+
+  /**
+   * Moves all entries from the current slot of the level to lower levels.
+   */
+  private void cascade(int level) {
+    Set<Entry> slot = levels.get(level).get((int)((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK));
+    if (slot.isEmpty()) {
+      return;
+    }
+    List<Entry> moved = new ArrayList<>(slot);
+    slot.clear();
+    for (Entry entry : moved) {
+      place(entry);
+    }
+  }
+
+  /**
+   * Places entry in the lowest level that can hold it. Entry must not expire
+   * before current tick.
+   */
+  private void place(Entry entry) {
+    int level = 0;
+    while (level < LEVELS - 1
+        && (entry.tick >>> (SLOT_BITS * (level + 1))) != (currentTick >>> (SLOT_BITS * (level + 1)))) {
+      level++;
+    }
+    entry.slot = levels.get(level).get((int)((entry.tick >>> (SLOT_BITS * level)) & SLOT_MASK));
+    entry.slot.add(entry);
+  }
+
+  private void collect(Set<Entry> slot, List<String> expired) {
+    if (slot.isEmpty()) {
+      return;
+    }
+    for (Entry entry : slot) {
+      entries.remove(entry.id);
+      expired.add(entry.id);
+    }
+    slot.clear();
+  }
+}
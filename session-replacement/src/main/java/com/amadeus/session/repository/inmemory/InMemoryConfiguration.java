@@ -0,0 +1,127 @@
+package com.amadeus.session.repository.inmemory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amadeus.session.SessionConfiguration;
+
+/**
+ * This class encapsulates configuration of in-memory session repository. Configuration is read from provider
+ * configuration (e.g. <code>maxbytes=100000000,serialized=true</code>), or from system or configuration properties.
+ */
+public class InMemoryConfiguration {
+  /**
+   * Standard prefix for metrics.
+   */
+  public static final String METRIC_PREFIX = "com.amadeus.session";
+
+  /**
+   * System or configuration property that specifies estimated number of bytes that sessions of a namespace may use in
+   * memory. When the budget is exceeded, least recently accessed sessions are evicted. Default value is <code>0</code>
+   * (sessions are not evicted).
+   */
+  public static final String INMEMORY_MAX_BYTES = "com.amadeus.session.inmemory.max-bytes";
+
+  /**
+   * System or configuration property that specifies if session attributes are stored in serialized form. Serialized
+   * attributes are copied on each access, but their memory usage is bounded and known exactly. Default value is
+   * <code>false</code>.
+   */
+  public static final String INMEMORY_SERIALIZED = "com.amadeus.session.inmemory.serialized";
+
+  /**
+   * System or configuration property that specifies if serialized session attributes are stored outside of java heap.
+   * When set to <code>true</code>, attributes are always stored serialized. Default value is <code>false</code>.
+   */
+  public static final String INMEMORY_OFF_HEAP = "com.amadeus.session.inmemory.off-heap";
+
+  /**
+   * System or configuration property that specifies size in bytes of slabs of off-heap memory. Default value is
+   * <code>16777216</code> (16 MiB).
+   */
+  public static final String INMEMORY_SLAB_SIZE = "com.amadeus.session.inmemory.slab-size";
+
+  static final String DEFAULT_SLAB_SIZE = "16777216";
+
+  static final Logger logger = LoggerFactory.getLogger(InMemoryConfiguration.class);
+
+  static final String MAX_BYTES_PROPERTY = "maxbytes=";
+
+  static final String SERIALIZED_PROPERTY = "serialized=";
+
+  static final String OFF_HEAP_PROPERTY = "offheap=";
+
+  static final String SLAB_SIZE_PROPERTY = "slabsize=";
+
+  Long maxBytes;
+
+  Boolean serialized;
+
+  Boolean offHeap;
+
+  Integer slabSize;
+
+  public InMemoryConfiguration(SessionConfiguration conf) {
+    readConfigurationString(conf.getProviderConfiguration());
+    if (maxBytes == null) {
+      maxBytes = Long.parseLong(conf.getAttribute(INMEMORY_MAX_BYTES, "0").trim());
+    }
+    if (serialized == null) {
+      serialized = Boolean.valueOf(conf.getAttribute(INMEMORY_SERIALIZED, "false").trim());
+    }
+    if (offHeap == null) {
+      offHeap = Boolean.valueOf(conf.getAttribute(INMEMORY_OFF_HEAP, "false").trim());
+    }
+    if (slabSize == null) {
+      slabSize = Integer.parseInt(conf.getAttribute(INMEMORY_SLAB_SIZE, DEFAULT_SLAB_SIZE).trim());
+    }
+    logger.info("In-memory configuration: {}", this);
+  }
+
+  public Long getMaxBytes() {
+    return maxBytes;
+  }
+
+  public Boolean getSerialized() {
+    return serialized;
+  }
+
+  public Boolean getOffHeap() {
+    return offHeap;
+  }
+
+  public Integer getSlabSize() {
+    return slabSize;
+  }
+
+  private void readConfigurationString(String conf) {
+    if (conf != null) {
+      for (String arg : conf.split(",")) {
+        parseArgFromConfiguration(arg.trim());
+      }
+    }
+  }
+
+  private void parseArgFromConfiguration(String arg) {
+    if (arg.startsWith(MAX_BYTES_PROPERTY)) {
+      maxBytes = Long.parseLong(arg.substring(MAX_BYTES_PROPERTY.length()).trim());
+    } else if (arg.startsWith(SERIALIZED_PROPERTY)) {
+      serialized = Boolean.valueOf(arg.substring(SERIALIZED_PROPERTY.length()).trim());
+    } else if (arg.startsWith(OFF_HEAP_PROPERTY)) {
+      offHeap = Boolean.valueOf(arg.substring(OFF_HEAP_PROPERTY.length()).trim());
+    } else if (arg.startsWith(SLAB_SIZE_PROPERTY)) {
+      slabSize = Integer.parseInt(arg.substring(SLAB_SIZE_PROPERTY.length()).trim());
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    return "InMemoryConfiguration [maxBytes=" + maxBytes + ", serialized=" + serialized + ", offHeap=" + offHeap
+        + ", slabSize=" + slabSize + "]";
+  }
+}
@@ -1,9 +1,11 @@
 package com.amadeus.session.repository.inmemory;
 
+import static com.codahale.metrics.MetricRegistry.name;
+
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -15,9 +17,13 @@ import javax.servlet.http.HttpSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.amadeus.session.AttributePrefetch;
 import com.amadeus.session.SessionData;
 import com.amadeus.session.SessionManager;
 import com.amadeus.session.SessionRepository;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
 
 /**
  * Session Repository implementation that stores session in memory. This class
@@ -33,13 +39,36 @@ import com.amadeus.session.SessionRepository;
  * {@link HttpSession}.
  * </p>
  * <p>
- * Sessions are cleaned-up by a special task running in separate thread every 60
- * seconds. Only one task is running at the given time and this is assured by
- * {@link SessionManager#schedule(String, Runnable, long)} method.
+ * Sessions are cleaned-up by a special task running in separate thread every
+ * second. Only one task is running at the given time and this is assured by
+ * {@link SessionManager#schedule(String, Runnable, long)} method. Expiration
+ * instants of sessions are indexed in {@link ExpirationWheel} when sessions are
+ * stored or committed, so the task only examines sessions whose expiration
+ * instant has passed.
+ * </p>
+ * <p>
+ * Attributes can be stored in serialized form, and the memory used by sessions
+ * can be limited using {@link MemoryBudget}. When the estimated memory exceeds
+ * the budget, least recently accessed sessions are evicted as if they had
+ * expired.
+ * </p>
+ * <p>
+ * Serialized attributes can be kept outside of java heap in
+ * {@link OffHeapStore}. Attribute maps then contain only handles of the
+ * values, and the store is compacted by a background task.
  * </p>
  */
 public class InMemoryRepository implements SessionRepository {
   private static final Logger logger = LoggerFactory.getLogger(InMemoryRepository.class);
+  /**
+   * Size used for attribute values whose size can't be estimated by
+   * serializing them.
+   */
+  static final int UNSERIALIZABLE_SIZE = 1024;
+  /**
+   * Interval in seconds between compactions of off-heap store.
+   */
+  static final int COMPACTION_INTERVAL = 10;
 
   ConcurrentHashMap<String, SessionData> sessionDataCache = new ConcurrentHashMap<>();
   ConcurrentHashMap<String, Map<String, Object>> sessionAttributeCache = new ConcurrentHashMap<>();
@@ -48,6 +77,16 @@ public class InMemoryRepository implements SessionRepository {
 
   private ScheduledFuture<?> cleanupFuture;
 
+  final ExpirationWheel expirations = new ExpirationWheel(TimeUnit.SECONDS.toMillis(1), System.currentTimeMillis());
+
+  private boolean serialized;
+  private long maxBytes;
+  MemoryBudget budget;
+  private Meter evictions;
+  private int slabSize;
+  OffHeapStore offHeapStore;
+  private ScheduledFuture<?> compactionFuture;
+
   /**
    * Constructor for in-memory repository.
    *
@@ -58,10 +97,53 @@ public class InMemoryRepository implements SessionRepository {
     this.namespace = namespace;
   }
 
+  /**
+   * Sets if attributes are stored in serialized form. Must be called before
+   * {@link #setSessionManager(SessionManager)}.
+   *
+   * @param serialized
+   *          <code>true</code> to store attributes serialized
+   */
+  public void setSerialized(boolean serialized) {
+    this.serialized = serialized;
+  }
+
+  /**
+   * Sets estimated number of bytes that sessions may use before least recently
+   * accessed ones are evicted. Must be called before
+   * {@link #setSessionManager(SessionManager)}.
+   *
+   * @param maxBytes
+   *          maximum number of bytes, <code>0</code> for no limit
+   */
+  public void setMaxBytes(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Sets that serialized attributes are stored outside of java heap. Must be
+   * called before {@link #setSessionManager(SessionManager)}.
+   *
+   * @param slabSize
+   *          size of off-heap slabs in bytes
+   */
+  public void setOffHeap(int slabSize) {
+    this.slabSize = slabSize;
+  }
+
   private void remove(String sessionId) {
+    expirations.cancel(sessionId);
+    if (budget != null) {
+      budget.removed(sessionId);
+    }
     String id = id(sessionId);
     sessionDataCache.remove(id);
-    sessionAttributeCache.remove(id);
+    Map<String, Object> attributes = sessionAttributeCache.remove(id);
+    if (attributes != null && offHeapStore != null) {
+      for (Object handle : attributes.values()) {
+        offHeapStore.free((Long)handle);
+      }
+    }
   }
 
   private String id(String id) {
@@ -70,7 +152,19 @@ public class InMemoryRepository implements SessionRepository {
 
   @Override
   public SessionData getSessionData(String id) {
-    return sessionDataCache.get(id(id));
+    SessionData sessionData = sessionDataCache.get(id(id));
+    if (sessionData != null && budget != null) {
+      budget.accessed(id);
+    }
+    return sessionData;
+  }
+
+  /**
+   * Attributes are kept in memory, so there is nothing to prefetch.
+   */
+  @Override
+  public SessionData getSessionData(String id, AttributePrefetch.Selection prefetch) {
+    return getSessionData(id);
   }
 
   @Override
@@ -78,6 +172,34 @@ public class InMemoryRepository implements SessionRepository {
     String id = id(sessionData.getId());
     sessionDataCache.put(id, sessionData);
     sessionAttributeCache.putIfAbsent(id, new ConcurrentHashMap<String, Object>());
+    scheduleExpiration(sessionData);
+    if (budget != null) {
+      budget.accessed(sessionData.getId());
+      evictOverBudget();
+    }
+  }
+
+  /**
+   * Indexes expiration instant of the session. Sessions that never expire are
+   * not indexed.
+   *
+   * @param sessionData
+   *          the session
+   */
+  private void scheduleExpiration(SessionData sessionData) {
+    if (sessionData.getMaxInactiveInterval() > 0) {
+      expirations.schedule(sessionData.getId(), sessionData.expiresAt());
+    } else {
+      expirations.cancel(sessionData.getId());
+    }
+  }
+
+  /**
+   * In-memory repository has no network round-trips to save, so fetch and touch are performed separately.
+   */
+  @Override
+  public boolean isFetchAndTouchSupported() {
+    return false;
   }
 
   @Override
@@ -89,15 +211,106 @@ public class InMemoryRepository implements SessionRepository {
     return Collections.emptySet();
   }
 
+  /**
+   * Attributes are kept in memory, so their values are checked directly.
+   */
+  @Override
+  public boolean mayHaveBindingListeners(SessionData session) {
+    Map<String, Object> attributes = sessionAttributeCache.get(id(session.getId()));
+    if (attributes != null) {
+      for (Object value : attributes.values()) {
+        if (sessionManager.getNotifier().isBindingListener(fromStored(value))) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
   @Override
   public Object getSessionAttribute(SessionData session, String attribute) {
     Map<String, Object> attributes = sessionAttributeCache.get(id(session.getId()));
     if (attributes != null) {
-      return attributes.get(attribute);
+      return fromStored(attributes.get(attribute));
     }
     return null;
   }
 
+  /**
+   * Stores attribute value, serialized if needed, and records its size in
+   * memory budget.
+   */
+  private void storeAttributeValue(String sessionId, Map<String, Object> attrs, String name, Object value) {
+    if (serialized) {
+      byte[] data = sessionManager.getSerializerDeserializer().serialize(value);
+      if (offHeapStore != null) {
+        Object previous = attrs.put(name, offHeapStore.put(data));
+        if (previous != null) {
+          offHeapStore.free((Long)previous);
+        }
+      } else {
+        attrs.put(name, data);
+      }
+      if (budget != null) {
+        budget.attributeStored(sessionId, name, data.length);
+      }
+    } else {
+      attrs.put(name, value);
+      if (budget != null) {
+        budget.attributeStored(sessionId, name, estimateSize(value));
+      }
+    }
+  }
+
+  private void removeAttributeValue(String sessionId, Map<String, Object> attrs, String name) {
+    Object previous = attrs.remove(name);
+    if (previous != null && offHeapStore != null) {
+      offHeapStore.free((Long)previous);
+    }
+    if (budget != null) {
+      budget.attributeRemoved(sessionId, name);
+    }
+  }
+
+  /**
+   * Estimates memory used by attribute value using size of its serialized
+   * form.
+   */
+  private int estimateSize(Object value) {
+    try {
+      return sessionManager.getSerializerDeserializer().serialize(value).length;
+    } catch (Exception e) { // NOSONAR - value may not be serializable
+      logger.debug("Unable to estimate size of attribute value {}", value, e);
+      return UNSERIALIZABLE_SIZE;
+    }
+  }
+
+  private Object fromStored(Object stored) {
+    if (serialized && stored != null) {
+      byte[] data = offHeapStore != null ? offHeapStore.get((Long)stored) : (byte[])stored;
+      return sessionManager.getSerializerDeserializer().deserialize(data);
+    }
+    return stored;
+  }
+
+  /**
+   * Evicts least recently accessed sessions while memory budget is exceeded.
+   * Sessions are deleted asynchronously as if they had expired, and their
+   * memory is released from the budget only when they are removed.
+   */
+  private void evictOverBudget() {
+    if (budget == null) {
+      return;
+    }
+    for (String id : budget.overBudget()) {
+      logger.debug("Evicting session {} as memory budget is exceeded", id);
+      if (evictions != null) {
+        evictions.mark();
+      }
+      sessionManager.deleteAsync(id, true);
+    }
+  }
+
   @Override
   public void remove(SessionData session) {
     remove(session.getId());
@@ -105,6 +318,7 @@ public class InMemoryRepository implements SessionRepository {
 
   @Override
   public boolean prepareRemove(SessionData session) {
+    expirations.cancel(session.getId());
     sessionDataCache.remove(id(session.getId()));
     return true;
   }
@@ -115,7 +329,10 @@ public class InMemoryRepository implements SessionRepository {
   }
 
   /**
-   * Cleanup task removes expired sessions from memory store.
+   * Cleanup task removes expired sessions from memory store. Only sessions
+   * whose indexed expiration instant has passed are examined. Sessions accessed
+   * since they were indexed are indexed again using their current expiration
+   * instant.
    */
   final class CleanupTask implements Runnable {
 
@@ -124,11 +341,17 @@ public class InMemoryRepository implements SessionRepository {
       long instant = System.currentTimeMillis();
 
       try {
-        HashSet<String> toRemove = new HashSet<>();
-        logger.debug("Sessions in cache {} for {}", sessionDataCache, sessionManager);
-        for (SessionData sd : sessionDataCache.values()) {
+        List<String> toRemove = new ArrayList<>();
+        logger.debug("Sessions in cache {} for {}", sessionDataCache.size(), sessionManager);
+        for (String id : expirations.advance(instant)) {
+          SessionData sd = sessionDataCache.get(id(id));
+          if (sd == null || sd.getMaxInactiveInterval() <= 0) {
+            continue;
+          }
           if ((instant - sd.getLastAccessedTime()) > TimeUnit.SECONDS.toMillis(sd.getMaxInactiveInterval())) {
-            toRemove.add(sd.getId());
+            toRemove.add(id);
+          } else {
+            expirations.schedule(id, sd.expiresAt());
           }
         }
         for (String id : toRemove) {
@@ -185,10 +408,17 @@ public class InMemoryRepository implements SessionRepository {
       sessionData.setLastAccessedTime(session.getLastAccessedTime());
       sessionData.setMaxInactiveInterval(session.getMaxInactiveInterval());
       sessionDataCache.put(id, sessionData);
+      scheduleExpiration(sessionData);
       Map<String, Object> attrs = getAttributeMap(session.getId());
-      attrs.putAll(attributes);
+      for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+        storeAttributeValue(session.getId(), attrs, entry.getKey(), entry.getValue());
+      }
       for (String key : toRemove.keySet()) {
-        attrs.remove(key);
+        removeAttributeValue(session.getId(), attrs, key);
+      }
+      if (budget != null) {
+        budget.accessed(session.getId());
+        evictOverBudget();
       }
     }
 
@@ -197,19 +427,91 @@ public class InMemoryRepository implements SessionRepository {
       return false;
     }
 
+    /**
+     * Attributes stored in serialized form are passivated and activated as if
+     * they were sent to a remote repository.
+     */
     @Override
     public boolean isDistributing() {
-      return false;
+      return serialized;
     }
   }
 
   @Override
   public void setSessionManager(final SessionManager sessionManager) {
     this.sessionManager = sessionManager;
-    // We are scheduling task here to cleanup expired sessions
-    // Note that this will go through all the sessions, so the performance may
-    // suffer when there is a large number of sessions to go through.
-    cleanupFuture = sessionManager.schedule("in-memory-cleanup", new CleanupTask(), TimeUnit.MINUTES.toSeconds(1));
+    // We are scheduling task here to cleanup expired sessions. The task
+    // advances expiration index, so it only goes through expired sessions.
+    cleanupFuture = sessionManager.schedule("in-memory-cleanup", new CleanupTask(), 1);
+    if (slabSize > 0) {
+      serialized = true;
+      offHeapStore = new OffHeapStore(slabSize);
+      compactionFuture = sessionManager.schedule("in-memory-compaction", new CompactionTask(), COMPACTION_INTERVAL);
+    }
+    if (serialized || maxBytes > 0) {
+      budget = new MemoryBudget(maxBytes);
+    }
+    startMonitoring(sessionManager.getMetrics());
+  }
+
+  /**
+   * Registers gauges for number of sessions and, when memory is accounted,
+   * for estimated bytes held and evictions.
+   */
+  private void startMonitoring(MetricRegistry metrics) {
+    if (metrics == null) {
+      return;
+    }
+    metrics.register(name(InMemoryConfiguration.METRIC_PREFIX, "inmemory", "sessions"), new Gauge<Integer>() {
+      @Override
+      public Integer getValue() {
+        return sessionDataCache.size();
+      }
+    });
+    final MemoryBudget memoryBudget = budget;
+    if (memoryBudget != null) {
+      metrics.register(name(InMemoryConfiguration.METRIC_PREFIX, "inmemory", "bytes"), new Gauge<Long>() {
+        @Override
+        public Long getValue() {
+          return memoryBudget.getBytes();
+        }
+      });
+      evictions = metrics.meter(name(InMemoryConfiguration.METRIC_PREFIX, "inmemory", "evictions"));
+    }
+    final OffHeapStore store = offHeapStore;
+    if (store != null) {
+      metrics.register(name(InMemoryConfiguration.METRIC_PREFIX, "inmemory", "off-heap", "live"), new Gauge<Long>() {
+        @Override
+        public Long getValue() {
+          return store.getLiveBytes();
+        }
+      });
+      metrics.register(name(InMemoryConfiguration.METRIC_PREFIX, "inmemory", "off-heap", "capacity"),
+          new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+              return store.getCapacity();
+            }
+          });
+    }
+  }
+
+  /**
+   * Compaction task releases off-heap slabs that are mostly empty.
+   */
+  final class CompactionTask implements Runnable {
+
+    @Override
+    public void run() {
+      try {
+        int released = offHeapStore.compact();
+        if (released > 0) {
+          logger.debug("Compaction released {} off-heap slabs for {}", released, sessionManager);
+        }
+      } catch (Exception e) { // NOSONAR - recover from any exception
+        logger.error("An error occured while compacting off-heap store.", e);
+      }
+    }
   }
 
   @Override
@@ -219,7 +521,8 @@ public class InMemoryRepository implements SessionRepository {
 
   @Override
   public void setSessionAttribute(SessionData session, String name, Object value) {
-    getAttributeMap(session.getId()).put(name, value);
+    storeAttributeValue(session.getId(), getAttributeMap(session.getId()), name, value);
+    evictOverBudget();
   }
 
   private Map<String, Object> getAttributeMap(String sessionId) {
@@ -237,7 +540,7 @@ public class InMemoryRepository implements SessionRepository {
 
   @Override
   public void removeSessionAttribute(SessionData session, String name) {
-    getAttributeMap(session.getId()).remove(name);
+    removeAttributeValue(session.getId(), getAttributeMap(session.getId()), name);
   }
 
   @Override
@@ -260,6 +563,10 @@ public class InMemoryRepository implements SessionRepository {
       cleanupFuture.cancel(true);
       cleanupFuture = null;
     }
+    if (compactionFuture != null) {
+      compactionFuture.cancel(true);
+      compactionFuture = null;
+    }
   }
 
   @Override
@@ -277,6 +584,10 @@ public class InMemoryRepository implements SessionRepository {
       sessionDataCache.remove(oldId);
       originalSessionData.setNewSessionId(sessionData.getId());
     }
+    expirations.rename(sessionData.getOriginalId(), sessionData.getId());
+    if (budget != null) {
+      budget.renamed(sessionData.getOriginalId(), sessionData.getId());
+    }
     Map<String, Object> attributes = sessionAttributeCache.remove(oldId);
     if (attributes != null) {
       sessionAttributeCache.put(id, attributes);
@@ -13,7 +13,14 @@ public class InMemoryRepositoryFactory implements SessionRepositoryFactory {
 
   @Override
   public SessionRepository repository(SessionConfiguration sessionConfiguration) {
-    return new InMemoryRepository(sessionConfiguration.getNamespace());
+    InMemoryConfiguration config = new InMemoryConfiguration(sessionConfiguration);
+    InMemoryRepository repository = new InMemoryRepository(sessionConfiguration.getNamespace());
+    repository.setSerialized(config.serialized);
+    repository.setMaxBytes(config.maxBytes);
+    if (config.offHeap) {
+      repository.setOffHeap(config.slabSize);
+    }
+    return repository;
   }
 
   @Override
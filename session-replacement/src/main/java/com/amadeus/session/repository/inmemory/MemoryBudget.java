@@ -0,0 +1,205 @@
+package com.amadeus.session.repository.inmemory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps track of estimated memory used by sessions of in-memory repository,
+ * and of order in which sessions were accessed.
+ * <p>
+ * Memory used by a session is estimated as a fixed overhead, plus size of
+ * attribute names and of serialized attribute values. When the estimated
+ * memory exceeds the budget, least recently accessed sessions are selected
+ * for eviction. Selected sessions stay tracked until they are removed, but
+ * their memory is considered as being released, so they are not selected
+ * again while their removal is pending.
+ */
+final class MemoryBudget {
+  /**
+   * Estimated number of bytes used by session data, attribute map and index
+   * entries of a session, excluding attributes.
+   */
+  static final int SESSION_OVERHEAD = 256;
+
+  private final long maxBytes;
+  private final LinkedHashMap<String, Usage> sessions = new LinkedHashMap<>(16, 0.75f, true);
+  private long bytes;
+  private long evictingBytes;
+
+  /**
+   * Memory used by a session.
+   */
+  private static final class Usage {
+    private long bytes;
+    private boolean evicting;
+    private final Map<String, Integer> attributes = new HashMap<>();
+
+    Usage(String id) {
+      bytes = SESSION_OVERHEAD + 2L * id.length();
+    }
+  }
+
+  /**
+   * Creates budget.
+   *
+   * @param maxBytes
+   *          maximum estimated number of bytes, <code>0</code> or less means
+   *          no limit
+   */
+  MemoryBudget(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Records that session was stored or accessed. If the session was selected
+   * for eviction, it can be selected again, as its removal may have been
+   * deferred.
+   *
+   * @param id
+   *          session id
+   */
+  synchronized void accessed(String id) {
+    Usage usage = usage(id);
+    if (usage.evicting) {
+      usage.evicting = false;
+      evictingBytes -= usage.bytes;
+    }
+  }
+
+  /**
+   * Records size of stored attribute.
+   *
+   * @param id
+   *          session id
+   * @param name
+   *          attribute name
+   * @param size
+   *          estimated size of attribute value in bytes
+   */
+  synchronized void attributeStored(String id, String name, int size) {
+    Usage usage = usage(id);
+    int newSize = 2 * name.length() + size;
+    Integer previous = usage.attributes.put(name, newSize);
+    long delta = previous == null ? newSize : newSize - previous;
+    usage.bytes += delta;
+    bytes += delta;
+    if (usage.evicting) {
+      evictingBytes += delta;
+    }
+  }
+
+  /**
+   * Records that attribute was removed.
+   *
+   * @param id
+   *          session id
+   * @param name
+   *          attribute name
+   */
+  synchronized void attributeRemoved(String id, String name) {
+    Usage usage = sessions.get(id);
+    if (usage != null) {
+      Integer previous = usage.attributes.remove(name);
+      if (previous != null) {
+        usage.bytes -= previous;
+        bytes -= previous;
+        if (usage.evicting) {
+          evictingBytes -= previous;
+        }
+      }
+    }
+  }
+
+  /**
+   * Records that session was removed.
+   *
+   * @param id
+   *          session id
+   */
+  synchronized void removed(String id) {
+    Usage usage = sessions.remove(id);
+    if (usage != null) {
+      bytes -= usage.bytes;
+      if (usage.evicting) {
+        evictingBytes -= usage.bytes;
+      }
+    }
+  }
+
+  /**
+   * Records that session id was changed.
+   *
+   * @param oldId
+   *          previous session id
+   * @param newId
+   *          new session id
+   */
+  synchronized void renamed(String oldId, String newId) {
+    Usage usage = sessions.remove(oldId);
+    if (usage != null) {
+      removed(newId);
+      sessions.put(newId, usage);
+    }
+  }
+
+  /**
+   * Selects least recently accessed sessions until the estimated memory,
+   * excluding sessions already selected, is within budget. The most recently
+   * accessed session is never selected. Selected sessions are tracked until
+   * {@link #removed(String)} is called.
+   *
+   * @return ids of sessions to evict
+   */
+  synchronized List<String> overBudget() {
+    if (maxBytes <= 0 || bytes - evictingBytes <= maxBytes) {
+      return new ArrayList<>(0);
+    }
+    List<String> evicted = new ArrayList<>();
+    Iterator<Map.Entry<String, Usage>> it = sessions.entrySet().iterator();
+    int remaining = sessions.size();
+    while (bytes - evictingBytes > maxBytes && remaining > 1) {
+      Map.Entry<String, Usage> eldest = it.next();
+      remaining--;
+      Usage usage = eldest.getValue();
+      if (!usage.evicting) {
+        usage.evicting = true;
+        evictingBytes += usage.bytes;
+        evicted.add(eldest.getKey());
+      }
+    }
+    return evicted;
+  }
+
+  /**
+   * Returns estimated number of bytes used by sessions, including sessions
+   * selected for eviction that were not yet removed.
+   *
+   * @return estimated number of bytes
+   */
+  synchronized long getBytes() {
+    return bytes;
+  }
+
+  /**
+   * Returns number of tracked sessions.
+   *
+   * @return number of sessions
+   */
+  synchronized int getSessions() {
+    return sessions.size();
+  }
+
+  private Usage usage(String id) {
+    Usage usage = sessions.get(id);
+    if (usage == null) {
+      usage = new Usage(id);
+      sessions.put(id, usage);
+      bytes += usage.bytes;
+    }
+    return usage;
+  }
+}
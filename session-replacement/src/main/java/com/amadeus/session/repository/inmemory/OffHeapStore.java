@@ -0,0 +1,277 @@
+package com.amadeus.session.repository.inmemory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Stores serialized attribute values outside of java heap, in slabs allocated
+ * as direct {@link ByteBuffer}s.
+ * <p>
+ * Values are appended to the current slab. Each stored value is identified by
+ * a handle that contains index in location table and generation of the entry.
+ * The location table is the only per-value structure on java heap: it
+ * contains slab and offset of each value. When value is freed, its location
+ * is reused for other values with a new generation, so a stale handle never
+ * returns value of other attribute.
+ * <p>
+ * Freed values leave holes in slabs. {@link #compact()} copies live values of
+ * slabs that are mostly empty into the current slab, updates their locations
+ * and releases those slabs. Memory of released slabs is returned to the
+ * system when their buffers are garbage collected.
+ * <p>
+ * Each value is stored with a header containing its location index and
+ * length, so that compaction can find which location points to the value.
+ */
+final class OffHeapStore {
+  private static final int HEADER = 8;
+  private static final long NO_LOCATION = -1L;
+  /**
+   * Slabs whose live bytes are below this fraction of their size are
+   * compacted.
+   */
+  static final double COMPACTION_THRESHOLD = 0.5;
+
+  private final int slabSize;
+  private final List<Slab> slabs = new ArrayList<>();
+  private Slab current;
+  private long[] locations = new long[1024];
+  private int[] generations = new int[1024];
+  private int[] freeLocations = new int[1024];
+  private int freeCount;
+  private int usedLocations;
+  private long liveBytes;
+  private long capacity;
+
+  /**
+   * Slab of off-heap memory.
+   */
+  private static final class Slab {
+    private final int index;
+    private final ByteBuffer buffer;
+    private int live;
+
+    Slab(int index, int size) {
+      this.index = index;
+      this.buffer = ByteBuffer.allocateDirect(size);
+    }
+  }
+
+  /**
+   * Creates store.
+   *
+   * @param slabSize
+   *          size of slabs in bytes. Values larger than slab size are stored in
+   *          dedicated slabs.
+   */
+  OffHeapStore(int slabSize) {
+    this.slabSize = slabSize;
+    Arrays.fill(locations, NO_LOCATION);
+  }
+
+  /**
+   * Stores value.
+   *
+   * @param data
+   *          serialized value
+   * @return handle of the stored value
+   */
+  synchronized long put(byte[] data) {
+    int location = allocateLocation();
+    append(location, data, 0, data.length);
+    liveBytes += data.length;
+    return ((long)generations[location] << 32) | location;
+  }
+
+  /**
+   * Retrieves value.
+   *
+   * @param handle
+   *          handle of the value
+   * @return serialized value, or <code>null</code> if value was freed
+   */
+  synchronized byte[] get(long handle) {
+    int location = (int)handle;
+    if (!isLive(handle)) {
+      return null;
+    }
+    long address = locations[location];
+    Slab slab = slabs.get((int)(address >>> 32));
+    int offset = (int)address;
+    byte[] data = new byte[slab.buffer.getInt(offset + 4)];
+    ByteBuffer view = slab.buffer.duplicate();
+    view.position(offset + HEADER);
+    view.get(data);
+    return data;
+  }
+
+  /**
+   * Frees value. Freeing a value that was already freed has no effect.
+   *
+   * @param handle
+   *          handle of the value
+   */
+  synchronized void free(long handle) {
+    if (!isLive(handle)) {
+      return;
+    }
+    int location = (int)handle;
+    long address = locations[location];
+    Slab slab = slabs.get((int)(address >>> 32));
+    int length = slab.buffer.getInt((int)address + 4);
+    slab.live -= HEADER + length;
+    liveBytes -= length;
+    locations[location] = NO_LOCATION;
+    generations[location]++;
+    freeLocations[freeCount++] = location;
+    usedLocations--;
+    if (slab.live == 0 && slab != current) {
+      release(slab);
+    }
+  }
+
+  /**
+   * Compacts slabs whose live bytes are below {@link #COMPACTION_THRESHOLD}
+   * of their size. Lock is released between slabs, so that compaction doesn't
+   * block access to store for long.
+   *
+   * @return number of released slabs
+   */
+  int compact() {
+    int released = 0;
+    for (Slab slab : sparseSlabs()) {
+      if (compact(slab)) {
+        released++;
+      }
+    }
+    return released;
+  }
+
+  private synchronized List<Slab> sparseSlabs() {
+    List<Slab> sparse = new ArrayList<>();
+    for (Slab slab : slabs) {
+      if (slab != null && slab != current && slab.live < slab.buffer.capacity() * COMPACTION_THRESHOLD) {
+        sparse.add(slab);
+      }
+    }
+    return sparse;
+  }
+
+  /**
+   * Moves live values of the slab to the current slab and releases it.
+   */
+  private synchronized boolean compact(Slab slab) {
+    if (slabs.get(slab.index) != slab || slab == current) {
+      return false;
+    }
+    ByteBuffer buffer = slab.buffer;
+    int offset = 0;
+    while (offset + HEADER <= buffer.position()) {
+      int location = buffer.getInt(offset);
+      int length = buffer.getInt(offset + 4);
+      if (locations[location] == address(slab, offset)) {
+        byte[] data = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset + HEADER);
+        view.get(data);
+        append(location, data, 0, length);
+        slab.live -= HEADER + length;
+      }
+      offset += HEADER + length;
+    }
+    release(slab);
+    return true;
+  }
+
+  /**
+   * Returns number of bytes of stored values.
+   *
+   * @return live bytes
+   */
+  synchronized long getLiveBytes() {
+    return liveBytes;
+  }
+
+  /**
+   * Returns number of bytes allocated in slabs.
+   *
+   * @return allocated bytes
+   */
+  synchronized long getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Returns number of stored values.
+   *
+   * @return number of values
+   */
+  synchronized int size() {
+    return usedLocations;
+  }
+
+  private boolean isLive(long handle) {
+    int location = (int)handle;
+    return location >= 0 && location < locations.length && locations[location] != NO_LOCATION
+        && generations[location] == (int)(handle >>> 32);
+  }
+
+  private int allocateLocation() {
+    usedLocations++;
+    if (freeCount > 0) {
+      return freeLocations[--freeCount];
+    }
+    int location = usedLocations - 1;
+    if (location == locations.length) {
+      int size = locations.length * 2;
+      locations = Arrays.copyOf(locations, size);
+      Arrays.fill(locations, location, size, NO_LOCATION);
+      generations = Arrays.copyOf(generations, size);
+      freeLocations = Arrays.copyOf(freeLocations, size);
+    }
+    return location;
+  }
+
+  private void append(int location, byte[] data, int from, int length) {
+    int size = HEADER + length;
+    Slab slab = current;
+    if (slab == null || slab.buffer.remaining() < size) {
+      slab = allocateSlab(Math.max(slabSize, size));
+      if (size <= slabSize) {
+        Slab previous = current;
+        current = slab;
+        if (previous != null && previous.live == 0) {
+          release(previous);
+        }
+      }
+    }
+    int offset = slab.buffer.position();
+    slab.buffer.putInt(location);
+    slab.buffer.putInt(length);
+    slab.buffer.put(data, from, length);
+    slab.live += size;
+    locations[location] = address(slab, offset);
+  }
+
+  private Slab allocateSlab(int size) {
+    int index = slabs.indexOf(null);
+    if (index < 0) {
+      index = slabs.size();
+      slabs.add(null);
+    }
+    Slab slab = new Slab(index, size);
+    slabs.set(index, slab);
+    capacity += size;
+    return slab;
+  }
+
+  private void release(Slab slab) {
+    slabs.set(slab.index, null);
+    capacity -= slab.buffer.capacity();
+  }
+
+  private static long address(Slab slab, int offset) {
+    return ((long)slab.index << 32) | offset;
+  }
+}
@@ -12,8 +12,10 @@ import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
 
 import redis.clients.jedis.Jedis;
-import redis.clients.jedis.Transaction;
+import redis.clients.jedis.MultiKeyPipelineBase;
+import redis.clients.jedis.Response;
 import redis.clients.jedis.exceptions.JedisException;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
 import redis.clients.util.Pool;
 
 /**
@@ -76,6 +78,40 @@ abstract class AbstractJedisFacade implements RedisFacade {
     }
   }
 
+  @Override
+  public Object evalsha(RedisScript script, List<byte[]> keys, List<byte[]> args) {
+    try {
+      return evalsha(script.getSha(), keys, args);
+    } catch (JedisNoScriptException e) { // NOSONAR
+      // Script cache is empty on this server (restart, failover or new connection), load script and retry
+      scriptLoad(script.getScript(), keys);
+      return evalsha(script.getSha(), keys, args);
+    }
+  }
+
+  /**
+   * See redis.clients.jedis.BinaryScriptingCommands#evalsha(byte[], List, List)
+   *
+   * @param sha
+   *          SHA1 digest of the script
+   * @param keys
+   *          keys used by the script
+   * @param args
+   *          arguments of the script
+   * @return result of the script
+   */
+  abstract Object evalsha(byte[] sha, List<byte[]> keys, List<byte[]> args);
+
+  /**
+   * Loads script into redis script cache on server that will run the script for given keys.
+   *
+   * @param script
+   *          lua source of the script
+   * @param keys
+   *          keys used by the script
+   */
+  abstract void scriptLoad(byte[] script, List<byte[]> keys);
+
   @Override
   public boolean isRedisException(Exception e) {
     return e instanceof JedisException;
@@ -113,13 +149,15 @@ abstract class AbstractJedisFacade implements RedisFacade {
   }
 
   /**
-   * Wraps jedis transaction into TransactionFacade.
+   * Wraps jedis transaction or pipeline into TransactionFacade.
    *
    * @param t
-   *          jedis transaction
+   *          jedis transaction or pipeline
+   * @param redis
+   *          facade used to load and run again a script that was not in redis script cache
    * @return wrapped instance
    */
-  static RedisFacade.TransactionFacade wrapJedisTransaction(final Transaction t) {
+  static RedisFacade.TransactionFacade wrapJedisTransaction(final MultiKeyPipelineBase t, final RedisFacade redis) {
     return new RedisFacade.TransactionFacade() {
       @Override
       public void hdel(byte[] key, byte[]... fields) {
@@ -136,6 +174,28 @@ abstract class AbstractJedisFacade implements RedisFacade {
         t.del(keys);
       }
 
+      @Override
+      public RedisFacade.ResponseFacade<List<byte[]>> hmget(byte[] key, byte[]... fields) {
+        final Response<List<byte[]>> response = t.hmget(key, fields);
+        return new RedisFacade.ResponseFacade<List<byte[]>>() {
+          @Override
+          public List<byte[]> get() {
+            return response.get();
+          }
+        };
+      }
+
+      @Override
+      public RedisFacade.ResponseFacade<Map<byte[], byte[]>> hgetAll(byte[] key) {
+        final Response<Map<byte[], byte[]>> response = t.hgetAll(key);
+        return new RedisFacade.ResponseFacade<Map<byte[], byte[]>>() {
+          @Override
+          public Map<byte[], byte[]> get() {
+            return response.get();
+          }
+        };
+      }
+
       @Override
       public RedisFacade.ResponseFacade<Set<byte[]>> smembers(final byte[] key) {
         return new RedisFacade.ResponseFacade<Set<byte[]>>() {
@@ -146,6 +206,74 @@ abstract class AbstractJedisFacade implements RedisFacade {
 
         };
       }
+
+      @Override
+      public RedisFacade.ResponseFacade<Boolean> exists(byte[] key) {
+        final Response<Boolean> response = t.exists(key);
+        return new RedisFacade.ResponseFacade<Boolean>() {
+          @Override
+          public Boolean get() {
+            return response.get();
+          }
+        };
+      }
+
+      @Override
+      public void sadd(byte[] key, byte[]... member) {
+        t.sadd(key, member);
+      }
+
+      @Override
+      public void srem(byte[] key, byte[]... member) {
+        t.srem(key, member);
+      }
+
+      @Override
+      public void expire(byte[] key, int value) {
+        t.expire(key, value);
+      }
+
+      @Override
+      public void expireAt(byte[] key, long unixTime) {
+        t.expireAt(key, unixTime);
+      }
+
+      @Override
+      public void setex(byte[] key, int expiry, byte[] value) {
+        t.setex(key, expiry, value);
+      }
+
+      @Override
+      public void persist(byte[] key) {
+        t.persist(key);
+      }
+
+      @Override
+      public void zadd(byte[] key, double score, byte[] elem) {
+        t.zadd(key, score, elem);
+      }
+
+      @Override
+      public void zrem(byte[] key, byte[]... fields) {
+        t.zrem(key, fields);
+      }
+
+      @Override
+      public RedisFacade.ResponseFacade<Object> evalsha(final RedisScript script, final List<byte[]> keys,
+          final List<byte[]> args) {
+        final Response<Object> response = t.evalsha(script.getSha(), keys, args);
+        return new RedisFacade.ResponseFacade<Object>() {
+          @Override
+          public Object get() {
+            try {
+              return response.get();
+            } catch (JedisNoScriptException e) { // NOSONAR
+              // Script was not run, load it and run it outside of transaction or pipeline
+              return redis.evalsha(script, keys, args);
+            }
+          }
+        };
+      }
     };
   }
 }
\ No newline at end of file
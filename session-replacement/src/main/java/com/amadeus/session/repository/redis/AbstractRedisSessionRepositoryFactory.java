@@ -10,8 +10,16 @@ public abstract class AbstractRedisSessionRepositoryFactory implements SessionRe
     String namespace = sessionConfiguration.getNamespace();
     RedisConfiguration config = new RedisConfiguration(sessionConfiguration);
     RedisFacade redis = getRedisFacade(config);
-    return new RedisSessionRepository(redis, namespace, sessionConfiguration.getNode(), config.strategy,
-        sessionConfiguration.isSticky());
+    RedisSessionRepository repository = new RedisSessionRepository(redis, namespace, sessionConfiguration.getNode(),
+        config.strategy, sessionConfiguration.isSticky());
+    repository.setPipelinedFetch(config.pipelinedFetch);
+    repository.setScriptedCommit(config.scriptedCommit);
+    repository.setNearCacheSize(config.nearCacheSize);
+    repository.setExpirationShards(config.expirationShards);
+    repository.setCoalesceExpirations(config.coalesceExpirations);
+    repository.setCleanupWorkers(config.cleanupWorkers);
+    repository.setCommitBatch(config.commitBatch, config.commitBatchWindow);
+    return repository;
   }
 
   /**
@@ -0,0 +1,186 @@
+package com.amadeus.session.repository.redis;
+
+import static com.amadeus.session.repository.redis.SafeEncoder.encode;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Elects nodes that run expiration cleanup of a namespace. Without election,
+ * each node polls the same redis keys, so cleanup cost grows with number of
+ * nodes. The cleanup work is split in a fixed number of parts (e.g. sorted set
+ * shards), and each part is processed only by the node holding its lease.
+ * <p>
+ * A lease is a redis key that contains the fencing token and the node holding
+ * the lease. It expires after lease duration unless renewed by its holder. The
+ * fencing token is incremented each time a lease is acquired, and the holder
+ * checks that its token is still current while processing, so a node that lost
+ * its lease (e.g. after a long pause) stops working on that part.
+ * <p>
+ * Each node prefers one lease based on its id, and acquires it as soon as it is
+ * free. Other free leases are acquired by a node when it finds them free in
+ * two consecutive polls, so work is spread over nodes, and parts whose holder
+ * has stopped are taken over once their lease expires. When a node closes, it
+ * releases its leases.
+ */
+class CleanupLeases {
+  private static final Logger logger = LoggerFactory.getLogger(CleanupLeases.class);
+
+  /**
+   * Lua script that renews lease if it is held by the node passed in first
+   * argument, or acquires it if it is free and third argument is
+   * <code>1</code>. Second argument is lease duration in milliseconds. Returns
+   * fencing token if node holds the lease, <code>0</code> if other node holds
+   * it, and <code>-1</code> if it is free and was not acquired.
+   */
+  static final RedisScript LEASE_SCRIPT = new RedisScript(
+      "local current = redis.call('GET', KEYS[1])\n"
+          + "if current then\n"
+          + "  local sep = string.find(current, ':', 1, true)\n"
+          + "  if string.sub(current, sep + 1) == ARGV[1] then\n"
+          + "    redis.call('PEXPIRE', KEYS[1], ARGV[2])\n"
+          + "    return tonumber(string.sub(current, 1, sep - 1))\n"
+          + "  end\n"
+          + "  return 0\n"
+          + "end\n"
+          + "if ARGV[3] ~= '1' then\n"
+          + "  return -1\n"
+          + "end\n"
+          + "local token = redis.call('INCR', KEYS[2])\n"
+          + "redis.call('SET', KEYS[1], token .. ':' .. ARGV[1], 'PX', ARGV[2])\n"
+          + "return token\n");
+
+  /**
+   * Lua script that deletes lease if it still contains the value passed as
+   * argument.
+   */
+  static final RedisScript RELEASE_SCRIPT = new RedisScript(
+      "if redis.call('GET', KEYS[1]) == ARGV[1] then\n"
+          + "  return redis.call('DEL', KEYS[1])\n"
+          + "end\n"
+          + "return 0\n");
+
+  private static final byte[] ACQUIRE = encode("1");
+  private static final byte[] RENEW_ONLY = encode("0");
+
+  private final RedisFacade redis;
+  private final String owner;
+  private final byte[] ownerAsBytes;
+  private final byte[][] leaseKeys;
+  private final byte[] tokenKey;
+  private final int preferred;
+  private final long[] tokens;
+  private final boolean[] seenFree;
+  private byte[] leaseMillis = encode(String.valueOf(0));
+
+  /**
+   * Creates leases of a namespace. Keys of all leases of the namespace use same
+   * hash tag, so that they are in the same slot in redis cluster.
+   *
+   * @param redis
+   *          facade to redis library
+   * @param namespace
+   *          the namespace of the sessions
+   * @param owner
+   *          the id of this node
+   * @param count
+   *          number of leases
+   */
+  CleanupLeases(RedisFacade redis, String namespace, String owner, int count) {
+    this.redis = redis;
+    this.owner = owner;
+    this.ownerAsBytes = encode(owner);
+    String prefix = RedisSessionRepository.DEFAULT_SESSION_PREFIX + ":{" + namespace + "}:cleanup:";
+    leaseKeys = new byte[count][];
+    for (int i = 0; i < count; i++) {
+      leaseKeys[i] = encode(prefix + "lease:" + i);
+    }
+    tokenKey = encode(prefix + "token");
+    preferred = (owner.hashCode() & Integer.MAX_VALUE) % count;
+    tokens = new long[count];
+    seenFree = new boolean[count];
+  }
+
+  /**
+   * Sets duration of leases. Holder must renew its lease before it expires.
+   *
+   * @param seconds
+   *          the lease duration in seconds
+   */
+  void setLeaseDuration(int seconds) {
+    leaseMillis = encode(String.valueOf(seconds * 1000L));
+  }
+
+  /**
+   * Returns number of leases, i.e. number of parts in which cleanup work is
+   * split.
+   *
+   * @return number of leases
+   */
+  int count() {
+    return leaseKeys.length;
+  }
+
+  /**
+   * Renews the lease if this node holds it, or acquires it if it is free and
+   * this node should take it.
+   *
+   * @param lease
+   *          index of the lease
+   * @return fencing token if this node holds the lease, or <code>0</code> if
+   *         it doesn't
+   */
+  synchronized long acquire(int lease) {
+    boolean take = lease == preferred || seenFree[lease];
+    long token = call(lease, take ? ACQUIRE : RENEW_ONLY);
+    seenFree[lease] = token < 0;
+    if (token > 0 && token != tokens[lease]) {
+      logger.info("Node {} acquired cleanup lease {}, fencing token {}", owner, lease, token);
+    } else if (token <= 0 && tokens[lease] > 0) {
+      logger.info("Node {} lost cleanup lease {}", owner, lease);
+    }
+    tokens[lease] = Math.max(token, 0);
+    return tokens[lease];
+  }
+
+  /**
+   * Renews the lease and checks that it is still held with the same fencing
+   * token. Used by holder while processing its part of the work.
+   *
+   * @param lease
+   *          index of the lease
+   * @param token
+   *          fencing token obtained when processing started
+   * @return <code>true</code> if this node still holds the lease
+   */
+  boolean isHeld(int lease, long token) {
+    return acquire(lease) == token;
+  }
+
+  /**
+   * Releases all leases held by this node so other nodes can take them over.
+   */
+  synchronized void release() {
+    for (int i = 0; i < leaseKeys.length; i++) {
+      if (tokens[i] > 0) {
+        byte[] value = encode(tokens[i] + ":" + owner);
+        try {
+          redis.evalsha(RELEASE_SCRIPT, Collections.singletonList(leaseKeys[i]), Collections.singletonList(value));
+        } catch (Exception e) { // NOSONAR Lease will expire anyway
+          logger.warn("Unable to release cleanup lease {} of node {}", i, owner, e);
+        }
+        tokens[i] = 0;
+      }
+    }
+  }
+
+  private long call(int lease, byte[] take) {
+    List<byte[]> keys = Arrays.asList(leaseKeys[lease], tokenKey);
+    Object result = redis.evalsha(LEASE_SCRIPT, keys, Arrays.asList(ownerAsBytes, leaseMillis, take));
+    return result instanceof Long ? (Long)result : 0;
+  }
+}
@@ -0,0 +1,180 @@
+package com.amadeus.session.repository.redis;
+
+import static com.amadeus.session.repository.redis.SafeEncoder.encode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Commits session attributes and updates expiration data of the session atomically using single invocation of a
+ * dedicated lua script (EVALSHA). Compared to MULTI/EXEC followed by individual commands, this requires only one
+ * network round-trip and one command to be parsed by redis.
+ * <p>
+ * The script used with sorted set expiration has fixed argument positions:
+ * <ul>
+ * <li><code>KEYS[1]</code> is the session hash, <code>KEYS[2]</code> is the sorted set used for expiration
+ * <li><code>ARGV[1]</code> is the session key expiry in seconds, <code>0</code> to persist the session key
+ * <li><code>ARGV[2]</code> and <code>ARGV[3]</code> are score and member of the session in the sorted set
+ * <li><code>ARGV[4]</code> is the number of removed attributes, followed by their names, and then by name/value pairs
+ * of stored attributes
+ * </ul>
+ * Other expiration strategies can provide their own script using
+ * {@link #expiration(RedisScript, List, List)}. Such script starts with code returned by
+ * {@link #storeAttributes(String)}, and its expiration keys and arguments follow the session hash key and precede the
+ * attributes arguments.
+ * <p>
+ * HDEL and HMSET are issued in chunks of at most {@link #CHUNK} arguments, so that sessions with many attributes
+ * don't exceed the lua stack limit.
+ */
+final class CommitScript {
+  /**
+   * Maximum number of arguments passed to a single HDEL or HMSET call. Must be even so that HMSET chunks contain
+   * complete name/value pairs.
+   */
+  static final int CHUNK = 256;
+
+  static final RedisScript SCRIPT = new RedisScript(storeAttributes("4")
+      + "redis.call('ZADD', KEYS[2], ARGV[2], ARGV[3])\n"
+      + "local expiry = tonumber(ARGV[1])\n"
+      + "if expiry > 0 then\n"
+      + "  redis.call('EXPIRE', KEYS[1], expiry)\n"
+      + "else\n"
+      + "  redis.call('PERSIST', KEYS[1])\n"
+      + "end\n"
+      + "return removed\n");
+
+  private final byte[] sessionKey;
+
+  private RedisScript script;
+
+  private List<byte[]> expirationKeys;
+
+  private List<byte[]> expirationArgs;
+
+  /**
+   * Creates script invocation for the session.
+   *
+   * @param sessionKey
+   *          key of the session hash
+   */
+  CommitScript(byte[] sessionKey) {
+    this.sessionKey = sessionKey;
+  }
+
+  /**
+   * Returns lua code that deletes and stores attributes of the session in <code>KEYS[1]</code>. The code defines
+   * <code>removed</code> variable that contains number of removed attributes.
+   *
+   * @param countIndex
+   *          lua expression evaluating to index in <code>ARGV</code> of the number of removed attributes
+   * @return lua code
+   */
+  static String storeAttributes(String countIndex) {
+    return "local removed = tonumber(ARGV[" + countIndex + "])\n"
+        + "local last = " + countIndex + " + removed\n"
+        + "for i = " + countIndex + " + 1, last, " + CHUNK + " do\n"
+        + "  redis.call('HDEL', KEYS[1], unpack(ARGV, i, math.min(i + " + (CHUNK - 1) + ", last)))\n"
+        + "end\n"
+        + "for i = last + 1, #ARGV, " + CHUNK + " do\n"
+        + "  redis.call('HMSET', KEYS[1], unpack(ARGV, i, math.min(i + " + (CHUNK - 1) + ", #ARGV)))\n"
+        + "end\n";
+  }
+
+  /**
+   * Sets expiration data of the session.
+   *
+   * @param sortedSetKey
+   *          key of the sorted set used for expiration
+   * @param score
+   *          score of the session in the sorted set
+   * @param member
+   *          member of the session in the sorted set
+   * @param expiry
+   *          expiry of the session key in seconds, <code>0</code> or less to persist the session key
+   */
+  void expiration(byte[] sortedSetKey, double score, byte[] member, int expiry) {
+    expiration(SCRIPT, Collections.singletonList(sortedSetKey), Arrays.asList(
+        encode(String.valueOf(Math.max(expiry, 0))), encode(String.valueOf(score)), member));
+  }
+
+  /**
+   * Sets script that stores attributes and updates expiration data of the session.
+   *
+   * @param script
+   *          the script, starting with code returned by {@link #storeAttributes(String)}
+   * @param keys
+   *          keys used to update expiration data, passed after the session key
+   * @param args
+   *          arguments used to update expiration data, passed before the attributes
+   */
+  void expiration(RedisScript script, List<byte[]> keys, List<byte[]> args) {
+    this.script = script;
+    expirationKeys = keys;
+    expirationArgs = args;
+  }
+
+  /**
+   * Returns keys passed to the script.
+   *
+   * @return list of keys
+   */
+  List<byte[]> getKeys() {
+    List<byte[]> keys = new ArrayList<>(1 + (expirationKeys == null ? 0 : expirationKeys.size()));
+    keys.add(sessionKey);
+    if (expirationKeys != null) {
+      keys.addAll(expirationKeys);
+    }
+    return keys;
+  }
+
+  /**
+   * Returns arguments passed to the script.
+   *
+   * @param removed
+   *          names of removed attributes
+   * @param stored
+   *          names and values of stored attributes
+   * @return list of arguments
+   */
+  List<byte[]> getArgs(Collection<byte[]> removed, Map<byte[], byte[]> stored) {
+    List<byte[]> args = new ArrayList<>(expirationArgs.size() + 1 + removed.size() + 2 * stored.size());
+    args.addAll(expirationArgs);
+    args.add(encode(String.valueOf(removed.size())));
+    args.addAll(removed);
+    for (Map.Entry<byte[], byte[]> entry : stored.entrySet()) {
+      args.add(entry.getKey());
+      args.add(entry.getValue());
+    }
+    return args;
+  }
+
+  /**
+   * Returns <code>true</code> if expiration data was set and if the script can be executed using the redis facade
+   * (e.g. on cluster, when all keys are in the same slot).
+   *
+   * @param redis
+   *          the redis facade
+   * @return <code>true</code> if script can be executed
+   */
+  boolean canExecute(RedisFacade redis) {
+    return script != null && redis.canRunScript(getKeys());
+  }
+
+  /**
+   * Executes the script.
+   *
+   * @param redis
+   *          the redis facade
+   * @param removed
+   *          names of removed attributes
+   * @param stored
+   *          names and values of stored attributes
+   */
+  void execute(RedisFacade redis, Collection<byte[]> removed, Map<byte[], byte[]> stored) {
+    redis.evalsha(script, getKeys(), getArgs(removed, stored));
+  }
+}
@@ -0,0 +1,120 @@
+package com.amadeus.session.repository.redis;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Implementation of {@link RedisFacade.TransactionFacade} that sends each command to redis as soon as it is invoked.
+ * It allows logic written for transactions or pipelines to be executed as a plain sequence of redis commands.
+ */
+class DirectTransactionFacade implements RedisFacade.TransactionFacade {
+
+  private final RedisFacade redis;
+
+  /**
+   * Constructor.
+   *
+   * @param redis
+   *          facade used to send commands
+   */
+  DirectTransactionFacade(RedisFacade redis) {
+    this.redis = redis;
+  }
+
+  @Override
+  public void hdel(byte[] key, byte[]... fields) {
+    redis.hdel(key, fields);
+  }
+
+  @Override
+  public void hmset(byte[] key, Map<byte[], byte[]> hash) {
+    redis.hmset(key, hash);
+  }
+
+  @Override
+  public void del(byte[]... keys) {
+    redis.del(keys);
+  }
+
+  @Override
+  public RedisFacade.ResponseFacade<List<byte[]>> hmget(byte[] key, byte[]... fields) {
+    return result(redis.hmget(key, fields));
+  }
+
+  @Override
+  public RedisFacade.ResponseFacade<Map<byte[], byte[]>> hgetAll(byte[] key) {
+    return result(redis.hgetAll(key));
+  }
+
+  @Override
+  public RedisFacade.ResponseFacade<Set<byte[]>> smembers(byte[] key) {
+    return result(redis.smembers(key));
+  }
+
+  @Override
+  public RedisFacade.ResponseFacade<Boolean> exists(byte[] key) {
+    return result(redis.exists(key));
+  }
+
+  @Override
+  public void sadd(byte[] key, byte[]... member) {
+    redis.sadd(key, member);
+  }
+
+  @Override
+  public void srem(byte[] key, byte[]... member) {
+    redis.srem(key, member);
+  }
+
+  @Override
+  public void expire(byte[] key, int value) {
+    redis.expire(key, value);
+  }
+
+  @Override
+  public void expireAt(byte[] key, long unixTime) {
+    redis.expireAt(key, unixTime);
+  }
+
+  @Override
+  public void setex(byte[] key, int expiry, byte[] value) {
+    redis.setex(key, expiry, value);
+  }
+
+  @Override
+  public void persist(byte[] key) {
+    redis.persist(key);
+  }
+
+  @Override
+  public void zadd(byte[] key, double score, byte[] elem) {
+    redis.zadd(key, score, elem);
+  }
+
+  @Override
+  public void zrem(byte[] key, byte[]... fields) {
+    redis.zrem(key, fields);
+  }
+
+  @Override
+  public RedisFacade.ResponseFacade<Object> evalsha(RedisScript script, List<byte[]> keys, List<byte[]> args) {
+    return result(redis.evalsha(script, keys, args));
+  }
+
+  /**
+   * Wraps already available result into response.
+   *
+   * @param value
+   *          the result
+   * @return response containing the result
+   */
+  private static <T> RedisFacade.ResponseFacade<T> result(final T value) {
+    return new RedisFacade.ResponseFacade<T>() {
+      @Override
+      public T get() {
+        return value;
+      }
+    };
+  }
+}
@@ -85,6 +85,11 @@ class JedisClusterFacade extends AbstractJedisFacade {
     return jedisCluster.hkeys(key);
   }
 
+  @Override
+  public Map<byte[], byte[]> hgetAll(byte[] key) {
+    return jedisCluster.hgetAll(key);
+  }
+
   @Override
   public String set(byte[] key, byte[] value) {
     return jedisCluster.set(key, value);
@@ -359,6 +364,87 @@ class JedisClusterFacade extends AbstractJedisFacade {
     return jedisCluster.transaction(transaction);
   }
 
+  /**
+   * Jedis cluster doesn't support pipelining, and commands in pipeline may concern keys located on different nodes. The
+   * pipeline is therefore executed as a sequence of commands.
+   */
+  @Override
+  public <T> RedisFacade.ResponseFacade<T> pipeline(final byte[] key, final TransactionRunner<T> pipeline) {
+    return jedisCluster.transaction(pipeline);
+  }
+
+  /**
+   * Jedis cluster doesn't support pipelining, so transactions are executed one by one.
+   */
+  @Override
+  public List<RedisFacade.ResponseFacade<Void>> pipelinedTransactions(final byte[] key,
+      List<? extends TransactionRunner<?>> transactions) {
+    List<RedisFacade.ResponseFacade<Void>> responses = new ArrayList<>(transactions.size());
+    for (TransactionRunner<?> transaction : transactions) {
+      RuntimeException failure = null;
+      try {
+        transaction(key, transaction);
+      } catch (RuntimeException e) { // NOSONAR Failure is reported by the response of the transaction
+        failure = e;
+      }
+      responses.add(failedOrDone(failure));
+    }
+    return responses;
+  }
+
+  private static RedisFacade.ResponseFacade<Void> failedOrDone(final RuntimeException failure) {
+    return new RedisFacade.ResponseFacade<Void>() {
+      @Override
+      public Void get() {
+        if (failure != null) {
+          throw failure;
+        }
+        return null;
+      }
+    };
+  }
+
+  @Override
+  public Object eval(byte[] script, List<byte[]> keys, List<byte[]> args) {
+    return jedisCluster.eval(script, keys, args);
+  }
+
+  @Override
+  Object evalsha(byte[] sha, List<byte[]> keys, List<byte[]> args) {
+    return jedisCluster.evalsha(sha, keys, args);
+  }
+
+  @Override
+  void scriptLoad(byte[] script, List<byte[]> keys) {
+    // Script is loaded on node that owns slot of the keys
+    jedisCluster.scriptLoad(script, keys.get(0));
+  }
+
+  /**
+   * Script can run on cluster only if all keys belong to the same slot.
+   */
+  @Override
+  public boolean canRunScript(List<byte[]> keys) {
+    if (keys.isEmpty()) {
+      return false;
+    }
+    int slot = JedisClusterCRC16.getSlot(keys.get(0));
+    for (int i = 1; i < keys.size(); i++) {
+      if (JedisClusterCRC16.getSlot(keys.get(i)) != slot) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Keys are distributed among cluster nodes.
+   */
+  @Override
+  public boolean isSingleServer() {
+    return false;
+  }
+
   /**
    * If set to true, cluster transaction will be executed in multi mode on node owns slot for transaction key. If set to
    * false, each transaction step is executed on node depending of step's own key. This is default behavior.
@@ -2,6 +2,7 @@ package com.amadeus.session.repository.redis;
 
 import static com.amadeus.session.repository.redis.SafeEncoder.encode;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -12,6 +13,8 @@ import redis.clients.jedis.BinaryJedisCommands;
 import redis.clients.jedis.BinaryJedisPubSub;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
 import redis.clients.jedis.Transaction;
 import redis.clients.util.Pool;
 
@@ -104,6 +107,11 @@ class JedisPoolFacade extends AbstractJedisFacade {
     return jedis().hkeys(key);
   }
 
+  @Override
+  public Map<byte[], byte[]> hgetAll(byte[] key) {
+    return jedis().hgetAll(key);
+  }
+
   @Override
   public String set(byte[] key, byte[] value) {
     return jedis().set(key, value);
@@ -187,11 +195,83 @@ class JedisPoolFacade extends AbstractJedisFacade {
   @Override
   public <T> RedisFacade.ResponseFacade<T> transaction(final byte[] key, final TransactionRunner<T> transaction) {
     final Transaction t = jedis().multi();
-    RedisFacade.ResponseFacade<T> response = transaction.run(wrapJedisTransaction(t));
+    RedisFacade.ResponseFacade<T> response = transaction.run(wrapJedisTransaction(t, this));
     t.exec();
     return response;
   }
 
+  @Override
+  public <T> RedisFacade.ResponseFacade<T> pipeline(final byte[] key, final TransactionRunner<T> pipeline) {
+    final Pipeline p = jedis().pipelined();
+    RedisFacade.ResponseFacade<T> response = pipeline.run(wrapJedisTransaction(p, this));
+    p.sync();
+    return response;
+  }
+
+  @Override
+  public List<RedisFacade.ResponseFacade<Void>> pipelinedTransactions(final byte[] key,
+      List<? extends TransactionRunner<?>> transactions) {
+    final Pipeline p = jedis().pipelined();
+    RedisFacade.TransactionFacade facade = wrapJedisTransaction(p, this);
+    List<RedisFacade.ResponseFacade<Void>> responses = new ArrayList<>(transactions.size());
+    for (TransactionRunner<?> transaction : transactions) {
+      p.multi();
+      transaction.run(facade);
+      responses.add(execResponse(p.exec()));
+    }
+    p.sync();
+    return responses;
+  }
+
+  /**
+   * Wraps response of EXEC. Retrieving the response throws if transaction was aborted or if one of its commands
+   * failed.
+   */
+  private static RedisFacade.ResponseFacade<Void> execResponse(final Response<List<Object>> exec) {
+    return new RedisFacade.ResponseFacade<Void>() {
+      @Override
+      public Void get() {
+        List<Object> replies = exec.get();
+        if (replies != null) {
+          for (Object reply : replies) {
+            if (reply instanceof RuntimeException) {
+              throw (RuntimeException)reply;
+            }
+          }
+        }
+        return null;
+      }
+    };
+  }
+
+  @Override
+  public Object eval(byte[] script, List<byte[]> keys, List<byte[]> args) {
+    return jedis().eval(script, keys, args);
+  }
+
+  @Override
+  Object evalsha(byte[] sha, List<byte[]> keys, List<byte[]> args) {
+    return jedis().evalsha(sha, keys, args);
+  }
+
+  @Override
+  void scriptLoad(byte[] script, List<byte[]> keys) {
+    jedis().scriptLoad(script);
+  }
+
+  /**
+   * All keys are on the same server.
+   */
+  @Override
+  public boolean canRunScript(List<byte[]> keys) {
+    return true;
+  }
+
+  @Override
+  public boolean isSingleServer() {
+    return true;
+  }
+
   @Override
   public void close() {
     jedisPool.close();
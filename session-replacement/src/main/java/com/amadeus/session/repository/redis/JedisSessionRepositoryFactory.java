@@ -26,6 +26,10 @@ import java.util.Set;
  * <li><code>master</code> master name when sentinel mode is used
  * <li><code>expiration</code> expiration strategy used. Possible values are
  * NOTIF and ZRANGE.
+ * <li><code>pipeline</code> if <code>true</code>, session is retrieved and
+ * marked as accessed using single redis pipeline.
+ * <li><code>script</code> if <code>true</code>, session commit is done using
+ * single lua script invocation.
  * </ul>
  */
 public class JedisSessionRepositoryFactory extends AbstractRedisSessionRepositoryFactory {
@@ -1,10 +1,13 @@
 package com.amadeus.session.repository.redis;
 
 import static com.amadeus.session.repository.redis.SafeEncoder.encode;
+import static com.codahale.metrics.MetricRegistry.name;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
@@ -17,6 +20,8 @@ import com.amadeus.session.SessionManager;
 import com.amadeus.session.WrappedException;
 import com.amadeus.session.repository.redis.RedisFacade.ResponseFacade;
 import com.amadeus.session.repository.redis.RedisFacade.TransactionRunner;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
 
 /**
  * A strategy for expiring session instances. This performs several operations:
@@ -45,6 +50,16 @@ import com.amadeus.session.repository.redis.RedisFacade.TransactionRunner;
  * servers are busy). For this reason we add `forced-expirations` key that is set one minute after the `expirations`
  * key. It has almost same semantics and logic, with the only difference being that the key is different and it is set
  * to expire one minute later.
+ *
+ * When coalescing is active, and session is touched without moving to another expiration minute, the session is
+ * already present in the expirations sets of that minute, so only expiry of session key and of session expire key are
+ * updated. When session moves to another minute, it is removed from the sets of the minute in which it was to expire.
+ *
+ * Both cleanup tasks process sessions in batches of at most {@link #SPOP_BULK_SIZE} sessions, and all EXISTS commands
+ * of a batch are sent in a single pipeline. Hanging sessions of a batch are deleted by a single task, and their keys are
+ * deleted in a single pipeline after their listeners were notified. Sizes of batches and time needed to process them in milliseconds are
+ * measured in <code>com.amadeus.session.&lt;namespace&gt;.redis.expiration.batch-size</code> and
+ * <code>batch-duration</code> histograms.
  */
 class NotificationExpirationManagement implements RedisExpirationStrategy {
   static Logger logger = LoggerFactory.getLogger(NotificationExpirationManagement.class);
@@ -58,10 +73,121 @@ class NotificationExpirationManagement implements RedisExpirationStrategy {
 
   private static final byte[] EMPTY_STRING = encode("");
 
+  private static final byte[] ZERO = encode("0");
+
+  private static final byte[] ONE = encode("1");
+
   static final String DEFAULT_SESSION_EXPIRE_PREFIX = "com.amadeus.session:expire:";
 
   static final byte[] DEFAULT_SESSION_EXPIRE_PREFIX_BUF = encode(DEFAULT_SESSION_EXPIRE_PREFIX);
 
+  /**
+   * Extends {@link RedisSessionRepository#FETCH_AND_TOUCH_LUA} with the logic of {@link ExpirationManagement}, so that
+   * session is retrieved and its expiration data is updated in single script invocation. Expirations keys depend on
+   * previous expiry instant of the session, so the script computes them from prefixes passed in arguments:
+   * <ul>
+   * <li><code>KEYS[2]</code> is the session expire key
+   * <li><code>ARGV[6]</code> is <code>1</code> if coalescing is active
+   * <li><code>ARGV[7]</code> and <code>ARGV[8]</code> are prefixes of expirations and of forced expirations keys, the
+   * later is empty if sessions are not sticky
+   * <li><code>ARGV[9]</code> and <code>ARGV[10]</code> are parts of session expire key that precede and follow the
+   * owner node, used to delete session expire key of previous owner on fail-over
+   * </ul>
+   * As the script accesses keys that are not passed in KEYS, it is used only when redis is a single server.
+   */
+  static final RedisScript FETCH_AND_TOUCH_SCRIPT = new RedisScript(RedisSessionRepository.FETCH_AND_TOUCH_LUA
+      + "if touched then\n"
+      + "  local function cleanupInstant(instant)\n"
+      + "    return (math.floor(instant / 60000) + 1) * 60000\n"
+      + "  end\n"
+      + "  local function instantKey(prefix, instant)\n"
+      + "    return prefix .. string.format('%.0f', instant)\n"
+      + "  end\n"
+      + "  local coalesce = ARGV[6] == '1'\n"
+      + "  local sticky = ARGV[8] ~= ''\n"
+      + "  local instant = cleanupInstant(tonumber(ARGV[1]) + maxInactive * 1000)\n"
+      + "  local forceInstant = cleanupInstant(instant)\n"
+      + "  local originalInstant = cleanupInstant(lastAccessed + maxInactive * 1000)\n"
+      + "  local same = coalesce and maxInactive > 0 and instant == originalInstant\n"
+      + "  if not same then\n"
+      + "    if not coalesce then\n"
+      + "      originalInstant = cleanupInstant(lastAccessed)\n"
+      + "    end\n"
+      + "    if instant ~= originalInstant then\n"
+      + "      redis.call('SREM', instantKey(ARGV[7], originalInstant), KEYS[1])\n"
+      + "      if sticky then\n"
+      + "        local originalForce = cleanupInstant(coalesce and originalInstant or instant)\n"
+      + "        redis.call('SREM', instantKey(ARGV[8], originalForce), KEYS[1])\n"
+      + "      end\n"
+      + "    elseif maxInactive <= 0 then\n"
+      + "      redis.call('SREM', instantKey(ARGV[7], instant), KEYS[1])\n"
+      + "      if sticky then\n"
+      + "        redis.call('SREM', instantKey(ARGV[8], forceInstant), KEYS[1])\n"
+      + "      end\n"
+      + "    end\n"
+      + "  end\n"
+      + "  if sticky and meta[6] and meta[6] ~= ARGV[3] then\n"
+      + "    redis.call('DEL', ARGV[9] .. meta[6] .. ARGV[10])\n"
+      + "  end\n"
+      + "  if maxInactive <= 0 then\n"
+      + "    redis.call('DEL', KEYS[2])\n"
+      + "    redis.call('PERSIST', KEYS[1])\n"
+      + "  else\n"
+      + "    if not same then\n"
+      + "      redis.call('SADD', instantKey(ARGV[7], instant), KEYS[1])\n"
+      + "      redis.call('EXPIREAT', instantKey(ARGV[7], instant), instantKey('', instant / 1000 + "
+      + SESSION_PERSISTENCE_SAFETY_MARGIN + "))\n"
+      + "      if sticky then\n"
+      + "        redis.call('SADD', instantKey(ARGV[8], forceInstant), KEYS[1])\n"
+      + "        redis.call('EXPIREAT', instantKey(ARGV[8], forceInstant), instantKey('', forceInstant / 1000 + "
+      + SESSION_PERSISTENCE_SAFETY_MARGIN + "))\n"
+      + "      end\n"
+      + "    end\n"
+      + "    redis.call('SETEX', KEYS[2], maxInactive, '')\n"
+      + "    redis.call('EXPIRE', KEYS[1], maxInactive + " + SESSION_PERSISTENCE_SAFETY_MARGIN + ")\n"
+      + "  end\n"
+      + "end\n"
+      + "return meta\n");
+
+  /**
+   * Stores session attributes like {@link CommitScript#SCRIPT}, and updates expiration data as
+   * {@link ExpirationManagement}. Keys of expirations sets and of previous owner's session expire key are computed from
+   * session state before the request, so they are passed in KEYS:
+   * <ul>
+   * <li><code>KEYS[1]</code> is the session hash, <code>KEYS[2]</code> is the session expire key
+   * <li>next <code>ARGV[2]</code> keys are expirations sets from which session is removed, followed by
+   * <code>ARGV[3]</code> keys of expirations sets to which session is added, and, if <code>ARGV[4]</code> is
+   * <code>1</code>, by the session expire key of the previous owner
+   * <li><code>ARGV[1]</code> is the expiry of session expire key in seconds, <code>0</code> if session doesn't expire
+   * <li><code>ARGV[5]</code> and following <code>ARGV[3]</code> arguments are EXPIREAT instants of added sets
+   * <li>then come the attributes arguments as in {@link CommitScript#SCRIPT}
+   * </ul>
+   * In redis cluster mode, expirations sets are not in the hash slot of the session, so this script can't be used, and
+   * commit falls back to transaction.
+   */
+  static final RedisScript COMMIT_SCRIPT = new RedisScript(CommitScript.storeAttributes("(5 + tonumber(ARGV[3]))")
+      + "local expiry = tonumber(ARGV[1])\n"
+      + "local removedSets = tonumber(ARGV[2])\n"
+      + "local addedSets = tonumber(ARGV[3])\n"
+      + "for i = 3, 2 + removedSets do\n"
+      + "  redis.call('SREM', KEYS[i], KEYS[1])\n"
+      + "end\n"
+      + "if ARGV[4] == '1' then\n"
+      + "  redis.call('DEL', KEYS[3 + removedSets + addedSets])\n"
+      + "end\n"
+      + "if expiry > 0 then\n"
+      + "  for i = 1, addedSets do\n"
+      + "    redis.call('SADD', KEYS[2 + removedSets + i], KEYS[1])\n"
+      + "    redis.call('EXPIREAT', KEYS[2 + removedSets + i], ARGV[4 + i])\n"
+      + "  end\n"
+      + "  redis.call('SETEX', KEYS[2], expiry, '')\n"
+      + "  redis.call('EXPIRE', KEYS[1], expiry + " + SESSION_PERSISTENCE_SAFETY_MARGIN + ")\n"
+      + "else\n"
+      + "  redis.call('DEL', KEYS[2])\n"
+      + "  redis.call('PERSIST', KEYS[1])\n"
+      + "end\n"
+      + "return removed\n");
+
   /**
    * After this number of milliseconds, forget that there was an issue with connectivity. 377 is 14th Fibonacci's number
    */
@@ -79,6 +205,8 @@ class NotificationExpirationManagement implements RedisExpirationStrategy {
 
   private final RedisFacade redis;
 
+  private final RedisFacade.TransactionFacade directCommands;
+
   private final RedisSessionRepository repository;
 
   private final String keyExpirePrefix;
@@ -99,10 +227,19 @@ class NotificationExpirationManagement implements RedisExpirationStrategy {
 
   private ScheduledFuture<?> forceCleanupFuture;
 
+  private boolean coalesce;
+
+  private Histogram batchSizes;
+
+  private Histogram batchDurations;
+
+  private CleanupLeases cleanupLeases;
+
   NotificationExpirationManagement(RedisFacade redis, RedisSessionRepository redisSession, String namespace,
       String owner, String keyPrefix, boolean sticky) {
     super();
     this.redis = redis;
+    this.directCommands = new DirectTransactionFacade(redis);
     this.repository = redisSession;
     this.sticky = sticky;
     this.namespace = namespace;
@@ -121,18 +258,121 @@ class NotificationExpirationManagement implements RedisExpirationStrategy {
     return DEFAULT_SESSION_EXPIRE_PREFIX + ":" + sessionOwner + ":" + namespace + ":";
   }
 
+  /**
+   * Sets if updates of expirations sets are skipped when session stays in the same expiration minute.
+   *
+   * @param coalesce
+   *          <code>true</code> to skip redundant updates
+   */
+  void setCoalesce(boolean coalesce) {
+    this.coalesce = coalesce;
+  }
+
+  /**
+   * Sets if cleanup tasks that poll shared keys should run only on the node elected using {@link CleanupLeases}.
+   * Trigger task of sticky sessions uses node specific keys, and is run on each node.
+   *
+   * @param workers
+   *          number of cleanup workers, <code>0</code> or less disables election. All cleanup of the namespace is done
+   *          by a single node, so any positive value enables election of one node
+   */
+  void setCleanupWorkers(int workers) {
+    if (workers > 0) {
+      cleanupLeases = new CleanupLeases(redis, namespace, owner, 1);
+      // Lease survives two missed polls before other node takes over
+      cleanupLeases.setLeaseDuration(3 * (int)ONE_MINUTE);
+    } else {
+      cleanupLeases = null;
+    }
+  }
+
+  /**
+   * Acquires or renews cleanup lease.
+   *
+   * @param gated
+   *          <code>true</code> if calling task should be run only by lease holder
+   * @return fencing token of the lease, <code>0</code> if task is not gated by lease, or <code>-1</code> if lease is
+   *         held by other node
+   */
+  long acquireLease(boolean gated) {
+    if (cleanupLeases == null || !gated) {
+      return 0;
+    }
+    long token = cleanupLeases.acquire(0);
+    return token > 0 ? token : -1;
+  }
+
+  /**
+   * Checks that this node still holds the lease with the same fencing token, or that task is not gated by lease.
+   *
+   * @param token
+   *          token returned by {@link #acquireLease(boolean)}
+   * @return <code>true</code> if task can continue processing
+   */
+  boolean isLeaseHeld(long token) {
+    return token == 0 || cleanupLeases.isHeld(0, token);
+  }
+
   @Override
   public void sessionDeleted(SessionData session) {
+    sessionDeleted(session, directCommands);
+  }
+
+  @Override
+  public void sessionDeleted(SessionData session, RedisFacade.TransactionFacade commands) {
     long expireCleanupInstant = roundUpToNextMinute(session.expiresAt());
     byte[] expireKey = getExpirationsKey(expireCleanupInstant);
-    redis.srem(expireKey, repository.sessionKey(session.getId()));
+    commands.srem(expireKey, repository.sessionKey(session.getId()));
     byte[] sessionExpireKey = getSessionExpireKey(session.getId());
-    redis.del(sessionExpireKey);
+    commands.del(sessionExpireKey);
   }
 
   @Override
   public void sessionTouched(SessionData session) {
-    new ExpirationManagement().manageExpiration(session);
+    sessionTouched(session, directCommands);
+  }
+
+  @Override
+  public void sessionTouched(SessionData session, RedisFacade.TransactionFacade commands) {
+    new ExpirationManagement(commands).manageExpiration(session);
+  }
+
+  /**
+   * Expiration keys that depend on previously stored session state are computed from original access time, max
+   * inactive interval and owner of the session, and passed to {@link #COMMIT_SCRIPT}.
+   */
+  @Override
+  public boolean sessionTouched(SessionData session, CommitScript script) {
+    new ExpirationManagement(null).manageExpiration(session, script);
+    return true;
+  }
+
+  /**
+   * Touch removes session from expirations set of previous expiry instant and handles fail-over, so it depends on
+   * previously stored session state.
+   */
+  @Override
+  public boolean isTouchStateless() {
+    return false;
+  }
+
+  /**
+   * Expiration data is updated by the fetch script when redis is a single server. On cluster, expirations keys are in
+   * other hash slots than the session, and can't be accessed by the script.
+   */
+  @Override
+  public RedisScript fetchAndTouchScript(String id, List<byte[]> keys, List<byte[]> args) {
+    if (!redis.isSingleServer()) {
+      return null;
+    }
+    keys.add(getSessionExpireKey(id));
+    args.add(coalesce ? ONE : ZERO);
+    args.add(encode(expirationsPrefix));
+    args.add(sticky ? encode(forcedExpirationsPrefix) : EMPTY_STRING);
+    args.add(encode(DEFAULT_SESSION_EXPIRE_PREFIX + ":"));
+    args.add(encode(new StringBuilder(namespace.length() + id.length() + 4).append(':').append(namespace)
+        .append(":{").append(id).append('}').toString()));
+    return FETCH_AND_TOUCH_SCRIPT;
   }
 
   /**
@@ -149,25 +389,89 @@ class NotificationExpirationManagement implements RedisExpirationStrategy {
 
     @Override
     public void run() {
+      long token = acquireLease(true);
+      if (token < 0) {
+        return;
+      }
       long prevMin = roundDownMinute(System.currentTimeMillis());
 
       logger.debug("Cleaning up sessions expiring at {}", prevMin);
       byte[] key = getForcedExpirationsKey(prevMin);
-      Set<byte[]> sessionsToExpire = getKeysToExpire(key);
-      if (sessionsToExpire == null || sessionsToExpire.isEmpty()) {
-        return;
-      }
-      for (byte[] session : sessionsToExpire) {
-        if (logger.isDebugEnabled()) {
-          logger.debug("Cleaning-up session {}", new String(session));
+      Set<byte[]> sessionsToExpire;
+      do {
+        sessionsToExpire = getKeysToExpire(key);
+        if (sessionsToExpire == null || sessionsToExpire.isEmpty()) {
+          return;
+        }
+        long start = System.nanoTime();
+        cleanHangingSessions(key, sessionsToExpire);
+        batchProcessed(sessionsToExpire.size(), start);
+      } while (sessionsToExpire.size() >= SPOP_BULK_SIZE && isLeaseHeld(token));
+    }
+
+    /**
+     * Checks in single pipeline which of the sessions still exist, and deletes them. Existing sessions are deleted by a
+     * single task, so that their keys are removed in one pipeline once listeners of all sessions were notified.
+     */
+    private void cleanHangingSessions(byte[] key, final Set<byte[]> sessionsToExpire) {
+      final List<byte[]> sessions = new ArrayList<>(sessionsToExpire);
+      final List<ResponseFacade<Boolean>> active = new ArrayList<>(sessions.size());
+      redis.pipeline(key, new TransactionRunner<Void>() {
+        @Override
+        public ResponseFacade<Void> run(RedisFacade.TransactionFacade pipeline) {
+          for (byte[] session : sessions) {
+            if (logger.isDebugEnabled()) {
+              logger.debug("Cleaning-up session {}", new String(session));
+            }
+            // check if session is active
+            active.add(pipeline.exists(repository.getSessionKey(session)));
+          }
+          return null;
         }
-        // check if session is active
-        if (redis.exists(repository.getSessionKey(session))) {
-          // We run session delete in another thread, otherwise we would
-          // block this thread listener.
-          sessionManager.deleteAsync(encode(session), true);
+      });
+      List<String> hanging = new ArrayList<>(sessions.size());
+      for (int i = 0; i < sessions.size(); i++) {
+        if (Boolean.TRUE.equals(active.get(i).get())) {
+          hanging.add(encode(sessions.get(i)));
         }
       }
+      if (!hanging.isEmpty()) {
+        // We run session delete in another thread, otherwise we would
+        // block this thread listener.
+        sessionManager.submit("delete-async", new DeleteHangingSessionsTask(sessionManager, hanging));
+      }
+    }
+  }
+
+  /**
+   * Deletes hanging sessions found in one cleanup batch. Listeners of each session are notified as when session is
+   * deleted on expire event, while deletion of session keys and of expiration data of all sessions is sent in a single
+   * pipeline at the end of the task.
+   */
+  final class DeleteHangingSessionsTask implements Runnable {
+    private final SessionManager sessionManager;
+
+    private final List<String> sessionIds;
+
+    DeleteHangingSessionsTask(SessionManager sessionManager, List<String> sessionIds) {
+      this.sessionManager = sessionManager;
+      this.sessionIds = sessionIds;
+    }
+
+    @Override
+    public void run() {
+      repository.removeInBatch(new Runnable() {
+        @Override
+        public void run() {
+          for (String sessionId : sessionIds) {
+            try {
+              sessionManager.delete(sessionId, true);
+            } catch (Exception e) { // NOSONAR Any exception can occur here
+              logger.error("Exception occured while deleting sessionId '{}'", sessionId, e);
+            }
+          }
+        }
+      });
     }
   }
 
@@ -179,22 +483,59 @@ class NotificationExpirationManagement implements RedisExpirationStrategy {
   final class TriggerExpiredSessionsTask implements Runnable {
     @Override
     public void run() {
+      long token = acquireLease(!sticky);
+      if (token < 0) {
+        return;
+      }
       long prevMin = roundDownMinute(System.currentTimeMillis());
       logger.debug("Triggering up sessions expiring at {}", prevMin);
       byte[] key = getExpirationsKey(prevMin);
-      Set<byte[]> sessionsToExpire = getKeysToExpire(key);
-      if (sessionsToExpire == null || sessionsToExpire.isEmpty()) {
-        return;
-      }
-      for (byte[] session : sessionsToExpire) {
-        if (logger.isDebugEnabled()) {
-          logger.debug("Expiring session {}", new String(session));
+      Set<byte[]> sessionsToExpire;
+      do {
+        sessionsToExpire = getKeysToExpire(key);
+        if (sessionsToExpire == null || sessionsToExpire.isEmpty()) {
+          return;
         }
-        byte[] sessionExpireKey = getSessionExpireKey(encode(session));
-        // Exists will trigger expire event. See explanation of the
-        // algorithm for the details.
-        redis.exists(sessionExpireKey);
-      }
+        long start = System.nanoTime();
+        redis.pipeline(key, triggerExpiration(sessionsToExpire));
+        batchProcessed(sessionsToExpire.size(), start);
+      } while (sessionsToExpire.size() >= SPOP_BULK_SIZE && isLeaseHeld(token));
+    }
+
+    /**
+     * Creates pipeline that sends EXISTS command for expire key of each session.
+     */
+    private TransactionRunner<Void> triggerExpiration(final Set<byte[]> sessionsToExpire) {
+      return new TransactionRunner<Void>() {
+        @Override
+        public ResponseFacade<Void> run(RedisFacade.TransactionFacade pipeline) {
+          for (byte[] session : sessionsToExpire) {
+            if (logger.isDebugEnabled()) {
+              logger.debug("Expiring session {}", new String(session));
+            }
+            byte[] sessionExpireKey = getSessionExpireKey(encode(session));
+            // Exists will trigger expire event. See explanation of the
+            // algorithm for the details.
+            pipeline.exists(sessionExpireKey);
+          }
+          return null;
+        }
+      };
+    }
+  }
+
+  /**
+   * Records size and duration of processed cleanup batch.
+   *
+   * @param size
+   *          number of sessions in batch
+   * @param startNanos
+   *          instant when batch processing started as returned by {@link System#nanoTime()}
+   */
+  void batchProcessed(int size, long startNanos) {
+    if (batchSizes != null) {
+      batchSizes.update(size);
+      batchDurations.update(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
     }
   }
 
@@ -202,6 +543,8 @@ class NotificationExpirationManagement implements RedisExpirationStrategy {
    * Helper class that implements expiration logic
    */
   final class ExpirationManagement {
+    private final RedisFacade.TransactionFacade commands;
+
     private long expireCleanupInstant;
 
     private byte[] sessionKey;
@@ -214,44 +557,90 @@ class NotificationExpirationManagement implements RedisExpirationStrategy {
 
     byte[] forceExpirationsKey;
 
+    private final List<byte[]> removedFrom = new ArrayList<>(2);
+
+    private final List<byte[]> addedTo = new ArrayList<>(2);
+
+    private final List<Long> addedExpireAt = new ArrayList<>(2);
+
+    private byte[] previousOwnerExpireKey;
+
+    ExpirationManagement(RedisFacade.TransactionFacade commands) {
+      this.commands = commands;
+    }
+
     void manageExpiration(SessionData session) {
       prepareKeys(session);
-      manageCleanupKeys(session);
-      manageSessionFailover(session);
+      for (byte[] key : removedFrom) {
+        commands.srem(key, sessionKey);
+      }
+      if (previousOwnerExpireKey != null) {
+        commands.del(previousOwnerExpireKey);
+      }
       byte[] sessionExpireKey = getSessionExpireKey(session.getId());
 
       // If session doesn't expire, then remove expire key and persist session
       if (sessionExpireInSeconds <= 0) {
-        redis.del(sessionExpireKey);
-        redis.persist(sessionKey);
+        commands.del(sessionExpireKey);
+        commands.persist(sessionKey);
       } else {
         // If session expires, then add session key to expirations cleanup
         // instant, set expire on
         // session and set expire on session expiration key
-        redis.sadd(expirationsKey, sessionKey);
-        redis.expireAt(expirationsKey,
-            MILLISECONDS.toSeconds(expireCleanupInstant) + SESSION_PERSISTENCE_SAFETY_MARGIN);
-        if (sticky) {
-          redis.sadd(forceExpirationsKey, sessionKey);
-          redis.expireAt(forceExpirationsKey,
-              MILLISECONDS.toSeconds(forceCleanupInstant) + SESSION_PERSISTENCE_SAFETY_MARGIN);
+        for (int i = 0; i < addedTo.size(); i++) {
+          commands.sadd(addedTo.get(i), sessionKey);
+          commands.expireAt(addedTo.get(i), addedExpireAt.get(i));
         }
-        redis.setex(sessionExpireKey, sessionExpireInSeconds, EMPTY_STRING);
-        redis.expire(sessionKey, sessionExpireInSeconds + SESSION_PERSISTENCE_SAFETY_MARGIN);
+        commands.setex(sessionExpireKey, sessionExpireInSeconds, EMPTY_STRING);
+        commands.expire(sessionKey, sessionExpireInSeconds + SESSION_PERSISTENCE_SAFETY_MARGIN);
+      }
+    }
+
+    /**
+     * Sets keys and arguments of {@link NotificationExpirationManagement#COMMIT_SCRIPT} so that it performs same
+     * updates as {@link #manageExpiration(SessionData)}.
+     */
+    void manageExpiration(SessionData session, CommitScript script) {
+      prepareKeys(session);
+      List<byte[]> keys = new ArrayList<>(2 + removedFrom.size() + addedTo.size());
+      keys.add(getSessionExpireKey(session.getId()));
+      keys.addAll(removedFrom);
+      keys.addAll(addedTo);
+      if (previousOwnerExpireKey != null) {
+        keys.add(previousOwnerExpireKey);
       }
+      List<byte[]> args = new ArrayList<>(4 + addedTo.size());
+      args.add(encode(String.valueOf(Math.max(sessionExpireInSeconds, 0))));
+      args.add(encode(String.valueOf(removedFrom.size())));
+      args.add(encode(String.valueOf(addedTo.size())));
+      args.add(previousOwnerExpireKey != null ? ONE : ZERO);
+      for (Long instant : addedExpireAt) {
+        args.add(encode(String.valueOf(instant)));
+      }
+      script.expiration(COMMIT_SCRIPT, keys, args);
+    }
+
+    /**
+     * Returns <code>true</code> if session was stored in repository with expiration in the same minute as the new one.
+     * In that case, session is already present in expirations sets.
+     */
+    private boolean isSameCleanupInstant(SessionData session) {
+      return !session.isNew() && sessionExpireInSeconds > 0 && session.getOriginalMaxInactiveInterval() > 0
+          && expireCleanupInstant == originalCleanupInstant(session);
     }
 
     private void manageSessionFailover(SessionData session) {
       // If stickiness is active, and there was failover, we need to delete
       // previous session expire key
       if (sticky && !owner.equals(session.getPreviousOwner())) {
-        redis.del(getSessionExpireKey(session.getPreviousOwner(), session.getId()));
+        previousOwnerExpireKey = getSessionExpireKey(session.getPreviousOwner(), session.getId());
       }
     }
 
     /**
      * Sets up all keys used during expiration management. Those are session key, key for session cleanup and optionally
-     * clean for forced session cleanup when using sticky sessions.
+     * clean for forced session cleanup when using sticky sessions. Also collects expirations sets from which session
+     * is removed and to which it is added, and session expire key of previous owner.
      */
     private void prepareKeys(SessionData session) {
       sessionKey = repository.sessionKey(session.getId());
@@ -265,30 +654,55 @@ class NotificationExpirationManagement implements RedisExpirationStrategy {
         forceCleanupInstant = 0;
         forceExpirationsKey = null;
       }
+      boolean sameCleanupInstant = coalesce && isSameCleanupInstant(session);
+      if (!sameCleanupInstant) {
+        manageCleanupKeys(session);
+        if (sessionExpireInSeconds > 0) {
+          addedTo.add(expirationsKey);
+          addedExpireAt.add(MILLISECONDS.toSeconds(expireCleanupInstant) + SESSION_PERSISTENCE_SAFETY_MARGIN);
+          if (sticky) {
+            addedTo.add(forceExpirationsKey);
+            addedExpireAt.add(MILLISECONDS.toSeconds(forceCleanupInstant) + SESSION_PERSISTENCE_SAFETY_MARGIN);
+          }
+        }
+      }
+      manageSessionFailover(session);
     }
 
     private void manageCleanupKeys(SessionData session) {
       if (!session.isNew()) {
-        long originalCleanupInstant = roundUpToNextMinute(session.getOriginalLastAccessed());
+        long originalCleanupInstant = coalesce ? originalCleanupInstant(session)
+            : roundUpToNextMinute(session.getOriginalLastAccessed());
         if (expireCleanupInstant != originalCleanupInstant) {
-          byte[] originalExpirationsKey = getExpirationsKey(originalCleanupInstant);
-          redis.srem(originalExpirationsKey, sessionKey);
+          removedFrom.add(getExpirationsKey(originalCleanupInstant));
           if (sticky) {
-            long originalForceCleanupInstant = roundUpToNextMinute(expireCleanupInstant);
-            byte[] originalForcedExpirationsKey = getForcedExpirationsKey(originalForceCleanupInstant);
-            redis.srem(originalForcedExpirationsKey, sessionKey);
+            long originalForceCleanupInstant = roundUpToNextMinute(
+                coalesce ? originalCleanupInstant : expireCleanupInstant);
+            removedFrom.add(getForcedExpirationsKey(originalForceCleanupInstant));
           }
         } else if (sessionExpireInSeconds <= 0) {
           // If session doesn't expire, remove it from expirations key
-          redis.srem(expirationsKey, sessionKey);
+          removedFrom.add(expirationsKey);
           if (sticky) {
-            redis.srem(forceExpirationsKey, sessionKey);
+            removedFrom.add(forceExpirationsKey);
           }
         }
       }
     }
   }
 
+  /**
+   * Returns cleanup instant of the session as it was stored in repository before current request.
+   *
+   * @param session
+   *          the session
+   * @return original cleanup instant
+   */
+  private static long originalCleanupInstant(SessionData session) {
+    return roundUpToNextMinute(
+        session.getOriginalLastAccessed() + SECONDS.toMillis(session.getOriginalMaxInactiveInterval()));
+  }
+
   /**
    * Rounds up time to next minute (and 0 seconds).
    *
@@ -322,6 +736,13 @@ class NotificationExpirationManagement implements RedisExpirationStrategy {
 
   @Override
   public void startExpiredSessionsTask(final SessionManager sessionManager) {
+    MetricRegistry metrics = sessionManager.getMetrics();
+    if (metrics != null) {
+      batchSizes = metrics
+          .histogram(name(RedisConfiguration.METRIC_PREFIX, namespace, "redis", "expiration", "batch-size"));
+      batchDurations = metrics
+          .histogram(name(RedisConfiguration.METRIC_PREFIX, namespace, "redis", "expiration", "batch-duration"));
+    }
     sessionManager.submit(null, new SubscriptionRunner(sessionManager));
 
     // The task that triggers clean up session for which the expire notification
@@ -527,6 +948,9 @@ class NotificationExpirationManagement implements RedisExpirationStrategy {
       forceCleanupFuture.cancel(true);
       forceCleanupFuture = null;
     }
+    if (cleanupLeases != null) {
+      cleanupLeases.release();
+    }
   }
 
   public void reset() {
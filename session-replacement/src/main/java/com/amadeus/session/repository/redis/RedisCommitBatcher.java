@@ -0,0 +1,177 @@
+package com.amadeus.session.repository.redis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Histogram;
+
+/**
+ * Groups commits of different sessions arriving at the same time and sends them to redis in a single pipeline. The
+ * first thread that commits when no batch is open becomes the leader of a new batch. If no other batch is being
+ * executed, the leader executes its batch immediately, so a lone commit is not delayed. Otherwise, it waits until the
+ * batch being executed completes, the batch window elapses or the batch contains maximum number of commits, and then
+ * executes all commits of the batch in a pipeline using its own redis connection. Other threads wait until the
+ * pipeline has been executed, so commit remains synchronous for the request, while the number of round-trips and of
+ * connections taken from the pool is reduced.
+ * <p>
+ * Commands of each commit are wrapped in MULTI/EXEC inside the pipeline, so other clients never see a partially
+ * applied commit, and each commit reports its own failure.
+ */
+class RedisCommitBatcher {
+  private final RedisFacade redis;
+  private final int maxBatchSize;
+  private final long windowNanos;
+  private Histogram batchSizes;
+  private Batch current;
+  private int executing;
+
+  /**
+   * Creates batcher.
+   *
+   * @param redis
+   *          facade used to execute the pipeline
+   * @param maxBatchSize
+   *          maximum number of commits in a batch
+   * @param windowMillis
+   *          maximum time in milliseconds that the first commit of the batch waits for other commits
+   */
+  RedisCommitBatcher(RedisFacade redis, int maxBatchSize, int windowMillis) {
+    this.redis = redis;
+    this.maxBatchSize = maxBatchSize;
+    this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+  }
+
+  /**
+   * Sets histogram measuring number of commits per batch.
+   *
+   * @param batchSizes
+   *          the histogram
+   */
+  void setBatchSizes(Histogram batchSizes) {
+    this.batchSizes = batchSizes;
+  }
+
+  /**
+   * Adds commands of a commit to current batch and waits until the batch has been executed.
+   *
+   * @param key
+   *          key of the session being committed
+   * @param commands
+   *          the commands to execute atomically
+   */
+  void commit(byte[] key, RedisFacade.TransactionRunner<?> commands) {
+    Batch batch;
+    int index;
+    boolean leader;
+    synchronized (this) {
+      leader = current == null;
+      if (leader) {
+        current = new Batch(key);
+      }
+      batch = current;
+      index = batch.commands.size();
+      batch.commands.add(commands);
+      if (batch.commands.size() >= maxBatchSize) {
+        // Batch is full, wake up the leader
+        current = null;
+        notifyAll();
+      }
+    }
+    if (leader) {
+      awaitWindow(batch);
+      try {
+        batch.execute();
+      } finally {
+        synchronized (this) {
+          executing--;
+          notifyAll();
+        }
+      }
+    } else {
+      batch.await();
+    }
+    RuntimeException failure = batch.failures[index];
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * Waits while another batch is being executed, until the batch window elapses or until the batch is full, and
+   * closes the batch.
+   */
+  private synchronized void awaitWindow(Batch batch) {
+    long deadline = System.nanoTime() + windowNanos;
+    try {
+      while (current == batch && executing > 0) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          break;
+        }
+        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+      }
+    } catch (InterruptedException e) { // NOSONAR Waiting was interrupted, execute what we have
+      Thread.currentThread().interrupt();
+    }
+    if (current == batch) {
+      current = null;
+    }
+    executing++;
+  }
+
+  /**
+   * Commits in one batch.
+   */
+  private final class Batch {
+    private final byte[] key;
+    private final List<RedisFacade.TransactionRunner<?>> commands = new ArrayList<>();
+    private boolean done;
+    private RuntimeException[] failures;
+
+    Batch(byte[] key) {
+      this.key = key;
+    }
+
+    void execute() {
+      int size = commands.size();
+      if (batchSizes != null) {
+        batchSizes.update(size);
+      }
+      RuntimeException[] results = new RuntimeException[size];
+      try {
+        List<RedisFacade.ResponseFacade<Void>> responses = redis.pipelinedTransactions(key, commands);
+        for (int i = 0; i < size; i++) {
+          try {
+            responses.get(i).get();
+          } catch (RuntimeException e) { // NOSONAR Failure is reported to the thread of the commit
+            results[i] = e;
+          }
+        }
+      } catch (RuntimeException e) { // NOSONAR Pipeline failed, failure is reported to all threads of the batch
+        Arrays.fill(results, e);
+      } finally {
+        synchronized (this) {
+          failures = results;
+          done = true;
+          notifyAll();
+        }
+      }
+    }
+
+    synchronized void await() {
+      boolean interrupted = false;
+      while (!done) {
+        try {
+          wait();
+        } catch (InterruptedException e) { // NOSONAR Commit must complete before request continues
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
@@ -109,6 +109,55 @@ public class RedisConfiguration {
    */
   public static final String DEFAULT_REDIS_MASTER_NAME = "com.amadeus.session";
 
+  /**
+   * System or configuration property that specifies if session should be retrieved and marked as accessed at the
+   * start of the request using single redis pipeline. Default value is <code>false</code>.
+   */
+  public static final String REDIS_PIPELINED_FETCH = "com.amadeus.session.redis.pipeline";
+
+  /**
+   * System or configuration property that specifies if session commit should be done using single lua script invoked
+   * with EVALSHA. Default value is <code>false</code>.
+   */
+  public static final String REDIS_SCRIPTED_COMMIT = "com.amadeus.session.redis.script";
+
+  /**
+   * System or configuration property that specifies maximum number of sessions whose deserialized attributes are kept
+   * in local near-cache. Near-cache is only used with sticky sessions. Default value is <code>0</code> (near-cache is
+   * disabled).
+   */
+  public static final String REDIS_NEAR_CACHE = "com.amadeus.session.redis.nearcache";
+
+  /**
+   * System or configuration property that specifies number of sorted sets over which sessions are distributed when
+   * using ZRANGE expiration strategy. Default value is <code>1</code>.
+   */
+  public static final String REDIS_EXPIRATION_SHARDS = "com.amadeus.session.redis.expiration.shards";
+
+  /**
+   * System or configuration property that specifies if, when using NOTIF expiration strategy, updates of expirations
+   * sets are skipped when session stays in the same expiration minute. Default value is <code>false</code>.
+   */
+  public static final String REDIS_EXPIRATION_COALESCE = "com.amadeus.session.redis.expiration.coalesce";
+
+  /**
+   * System or configuration property that specifies number of nodes that run expiration cleanup of a namespace. The
+   * nodes are elected using leases stored in redis. Default value is <code>0</code> (all nodes run cleanup).
+   */
+  public static final String REDIS_CLEANUP_WORKERS = "com.amadeus.session.redis.cleanup.workers";
+
+  /**
+   * System or configuration property that specifies maximum number of session commits sent to redis in a single
+   * pipeline. Default value is <code>0</code> (commits are not batched).
+   */
+  public static final String REDIS_COMMIT_BATCH = "com.amadeus.session.redis.commit.batch";
+
+  /**
+   * System or configuration property that specifies maximum time in milliseconds that a commit waits for other commits
+   * to be batched with it. Default value is <code>1</code>.
+   */
+  public static final String REDIS_COMMIT_BATCH_WINDOW = "com.amadeus.session.redis.commit.batch.window";
+
   static final Logger logger = LoggerFactory.getLogger(RedisConfiguration.class);
 
   static final String POOL_SIZE_PROPERTY = "pool=";
@@ -131,6 +180,22 @@ public class RedisConfiguration {
 
   static final String TIMEOUT_PROPERTY = "timeout=";
 
+  static final String PIPELINED_FETCH_PROPERTY = "pipeline=";
+
+  static final String SCRIPTED_COMMIT_PROPERTY = "script=";
+
+  static final String NEAR_CACHE_PROPERTY = "nearcache=";
+
+  static final String EXPIRATION_SHARDS_PROPERTY = "shards=";
+
+  static final String EXPIRATION_COALESCE_PROPERTY = "coalesce=";
+
+  static final String CLEANUP_WORKERS_PROPERTY = "cleanupworkers=";
+
+  static final String COMMIT_BATCH_PROPERTY = "batch=";
+
+  static final String COMMIT_BATCH_WINDOW_PROPERTY = "batchwindow=";
+
   String clusterMode;
 
   String masterName;
@@ -155,6 +220,22 @@ public class RedisConfiguration {
 
   Integer timeout = null;
 
+  Boolean pipelinedFetch;
+
+  Boolean scriptedCommit;
+
+  Integer nearCacheSize;
+
+  Integer expirationShards;
+
+  Boolean coalesceExpirations;
+
+  Integer cleanupWorkers;
+
+  Integer commitBatch;
+
+  Integer commitBatchWindow;
+
   public ExpirationStrategy getStrategy() {
     return strategy;
   }
@@ -167,6 +248,38 @@ public class RedisConfiguration {
     return poolSize;
   }
 
+  public Boolean getPipelinedFetch() {
+    return pipelinedFetch;
+  }
+
+  public Boolean getScriptedCommit() {
+    return scriptedCommit;
+  }
+
+  public Integer getNearCacheSize() {
+    return nearCacheSize;
+  }
+
+  public Integer getExpirationShards() {
+    return expirationShards;
+  }
+
+  public Boolean getCoalesceExpirations() {
+    return coalesceExpirations;
+  }
+
+  public Integer getCleanupWorkers() {
+    return cleanupWorkers;
+  }
+
+  public Integer getCommitBatch() {
+    return commitBatch;
+  }
+
+  public Integer getCommitBatchWindow() {
+    return commitBatchWindow;
+  }
+
   public RedisConfiguration(SessionConfiguration conf) {
     readConfigurationString(conf.getProviderConfiguration());
     serverAddress(conf);
@@ -204,6 +317,30 @@ public class RedisConfiguration {
     if (timeout == null) {
       timeout = Integer.parseInt(conf.getAttribute(REDIS_TIMEOUT, DEFAULT_REDIS_TIMEOUT));
     }
+    if (pipelinedFetch == null) {
+      pipelinedFetch = Boolean.valueOf(conf.getAttribute(REDIS_PIPELINED_FETCH, "false").trim());
+    }
+    if (scriptedCommit == null) {
+      scriptedCommit = Boolean.valueOf(conf.getAttribute(REDIS_SCRIPTED_COMMIT, "false").trim());
+    }
+    if (nearCacheSize == null) {
+      nearCacheSize = Integer.parseInt(conf.getAttribute(REDIS_NEAR_CACHE, "0").trim());
+    }
+    if (expirationShards == null) {
+      expirationShards = Integer.parseInt(conf.getAttribute(REDIS_EXPIRATION_SHARDS, "1").trim());
+    }
+    if (coalesceExpirations == null) {
+      coalesceExpirations = Boolean.valueOf(conf.getAttribute(REDIS_EXPIRATION_COALESCE, "false").trim());
+    }
+    if (cleanupWorkers == null) {
+      cleanupWorkers = Integer.parseInt(conf.getAttribute(REDIS_CLEANUP_WORKERS, "0").trim());
+    }
+    if (commitBatch == null) {
+      commitBatch = Integer.parseInt(conf.getAttribute(REDIS_COMMIT_BATCH, "0").trim());
+    }
+    if (commitBatchWindow == null) {
+      commitBatchWindow = Integer.parseInt(conf.getAttribute(REDIS_COMMIT_BATCH_WINDOW, "1").trim());
+    }
     logger.info("Redis configuration: {}", this);
   }
 
@@ -265,6 +402,22 @@ public class RedisConfiguration {
       }
     } else if (arg.startsWith(TIMEOUT_PROPERTY)) {
       timeout = Integer.parseInt(arg.substring(TIMEOUT_PROPERTY.length()));
+    } else if (arg.startsWith(PIPELINED_FETCH_PROPERTY)) {
+      pipelinedFetch = Boolean.valueOf(arg.substring(PIPELINED_FETCH_PROPERTY.length()).trim());
+    } else if (arg.startsWith(SCRIPTED_COMMIT_PROPERTY)) {
+      scriptedCommit = Boolean.valueOf(arg.substring(SCRIPTED_COMMIT_PROPERTY.length()).trim());
+    } else if (arg.startsWith(NEAR_CACHE_PROPERTY)) {
+      nearCacheSize = Integer.parseInt(arg.substring(NEAR_CACHE_PROPERTY.length()).trim());
+    } else if (arg.startsWith(EXPIRATION_SHARDS_PROPERTY)) {
+      expirationShards = Integer.parseInt(arg.substring(EXPIRATION_SHARDS_PROPERTY.length()).trim());
+    } else if (arg.startsWith(EXPIRATION_COALESCE_PROPERTY)) {
+      coalesceExpirations = Boolean.valueOf(arg.substring(EXPIRATION_COALESCE_PROPERTY.length()).trim());
+    } else if (arg.startsWith(CLEANUP_WORKERS_PROPERTY)) {
+      cleanupWorkers = Integer.parseInt(arg.substring(CLEANUP_WORKERS_PROPERTY.length()).trim());
+    } else if (arg.startsWith(COMMIT_BATCH_PROPERTY)) {
+      commitBatch = Integer.parseInt(arg.substring(COMMIT_BATCH_PROPERTY.length()).trim());
+    } else if (arg.startsWith(COMMIT_BATCH_WINDOW_PROPERTY)) {
+      commitBatchWindow = Integer.parseInt(arg.substring(COMMIT_BATCH_WINDOW_PROPERTY.length()).trim());
     }
   }
 
@@ -391,7 +544,12 @@ public class RedisConfiguration {
     builder.append("RedisConfiguration [clusterMode=").append(clusterMode).append(", masterName=").append(masterName)
         .append(", server=").append(server).append(", port=").append(port).append(", poolSize=").append(poolSize)
         .append(", strategy=").append(strategy).append(", supportIpV6=").append(supportIpV6).append(", supportIpV4=")
-        .append(supportIpV4).append(", timeout=").append(timeout).append("]");
+        .append(supportIpV4).append(", timeout=").append(timeout).append(", pipelinedFetch=").append(pipelinedFetch)
+        .append(", scriptedCommit=").append(scriptedCommit).append(", nearCacheSize=").append(nearCacheSize)
+        .append(", expirationShards=").append(expirationShards)
+        .append(", coalesceExpirations=").append(coalesceExpirations).append(", cleanupWorkers=").append(cleanupWorkers)
+        .append(", commitBatch=").append(commitBatch).append(", commitBatchWindow=").append(commitBatchWindow)
+        .append("]");
     return builder.toString();
   }
 
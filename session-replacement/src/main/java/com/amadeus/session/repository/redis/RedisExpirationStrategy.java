@@ -1,5 +1,7 @@
 package com.amadeus.session.repository.redis;
 
+import java.util.List;
+
 import com.amadeus.session.SessionData;
 import com.amadeus.session.SessionManager;
 
@@ -18,6 +20,16 @@ interface RedisExpirationStrategy {
    */
   void sessionDeleted(SessionData session);
 
+  /**
+   * Same as {@link #sessionDeleted(SessionData)}, but redis commands are queued in the passed transaction or pipeline
+   * instead of being sent one by one.
+   *
+   * @param session
+   * @param commands
+   *          transaction or pipeline where commands are queued
+   */
+  void sessionDeleted(SessionData session, RedisFacade.TransactionFacade commands);
+
   /**
    * Called when session is has been touched (retrieved to be used or committed).
    * Implementation should store or update expiration management data.
@@ -26,6 +38,52 @@ interface RedisExpirationStrategy {
    */
   void sessionTouched(SessionData sessionData);
 
+  /**
+   * Same as {@link #sessionTouched(SessionData)}, but redis commands are queued in the passed transaction or pipeline
+   * instead of being sent one by one.
+   *
+   * @param sessionData
+   * @param commands
+   *          transaction or pipeline where commands are queued
+   */
+  void sessionTouched(SessionData sessionData, RedisFacade.TransactionFacade commands);
+
+  /**
+   * Returns <code>true</code> if the commands issued when session is touched depend only on session id, last accessed
+   * time and maximum inactive interval. In that case, they can be issued before the previous state of the session has
+   * been retrieved from redis.
+   *
+   * @return <code>true</code> if touch doesn't depend on previous state of the session
+   */
+  boolean isTouchStateless();
+
+  /**
+   * Sets expiration data of the session in the commit script, so that it is updated atomically with session
+   * attributes. Implementation must not issue any redis command: if the script can't be executed, the caller uses
+   * {@link #sessionTouched(SessionData, RedisFacade.TransactionFacade)} instead.
+   *
+   * @param sessionData
+   * @param script
+   *          the commit script
+   * @return <code>false</code> if expiration data can't be updated by the commit script
+   */
+  boolean sessionTouched(SessionData sessionData, CommitScript script);
+
+  /**
+   * Returns script that retrieves and touches the session like {@link RedisSessionRepository#FETCH_AND_TOUCH_SCRIPT},
+   * and that also updates expiration data of the session if it was touched. Implementation appends keys and arguments
+   * used by the returned script to the passed lists, and must not issue any redis command.
+   *
+   * @param id
+   *          session id
+   * @param keys
+   *          keys passed to fetch script
+   * @param args
+   *          arguments passed to fetch script
+   * @return the script, or <code>null</code> if expiration data can't be updated by the fetch script
+   */
+  RedisScript fetchAndTouchScript(String id, List<byte[]> keys, List<byte[]> args);
+
   /**
    * Called to launch expiration management threads.
    *
@@ -94,6 +94,15 @@ public interface RedisFacade {
    */
   Set<byte[]> hkeys(byte[] key);
 
+  /**
+   * See redis.clients.jedis.BinaryJedisCommands#hgetAll(byte[])
+   *
+   * @param key
+   *          key as byte array
+   * @return map of fields and their values
+   */
+  Map<byte[], byte[]> hgetAll(byte[] key);
+
   /**
    * See redis.clients.jedis.BinaryJedisCommands#set(byte[], byte[])
    *
@@ -324,6 +333,81 @@ public interface RedisFacade {
    */
   <T> ResponseFacade<T> transaction(byte[] key, TransactionRunner<T> transaction);
 
+  /**
+   * Executes sequence of redis commands using pipelining, i.e. all commands are sent to redis before any reply is
+   * read, and thus they are executed in a single network round-trip. Unlike {@link #transaction(byte[],
+   * TransactionRunner)}, pipeline is not atomic. When using cluster, commands in pipeline may concern keys on different
+   * nodes, and they are executed one by one.
+   * <p>
+   * See <a href="http://redis.io/topics/pipelining">http://redis.io/topics/pipelining</a> for details about pipelining.
+   *
+   * @param key
+   *          key as byte array to which pipeline is related
+   * @param pipeline
+   *          the implementation of the pipeline
+   * @return result of pipeline
+   */
+  <T> ResponseFacade<T> pipeline(byte[] key, TransactionRunner<T> pipeline);
+
+  /**
+   * Executes several transactions using single pipeline. Commands of each transaction are wrapped in MULTI/EXEC, so
+   * each transaction is applied atomically, while all of them are sent in a single network round-trip. Failure of one
+   * transaction doesn't prevent execution of the others. When using cluster, transactions are executed one by one.
+   *
+   * @param key
+   *          key as byte array to which pipeline is related
+   * @param transactions
+   *          the transactions to execute
+   * @return response of each transaction, in the same order as transactions. Retrieving response of a failed
+   *         transaction throws exception describing the failure.
+   */
+  List<ResponseFacade<Void>> pipelinedTransactions(byte[] key, List<? extends TransactionRunner<?>> transactions);
+
+  /**
+   * See redis.clients.jedis.BinaryScriptingCommands#eval(byte[], List, List)
+   *
+   * @param script
+   *          lua script
+   * @param keys
+   *          keys used by the script
+   * @param args
+   *          arguments of the script
+   * @return result of the script
+   */
+  Object eval(byte[] script, List<byte[]> keys, List<byte[]> args);
+
+  /**
+   * Executes lua script using its SHA1 digest (EVALSHA). If script is not in redis script cache (e.g. after redis
+   * restart or reconnection to a different server), it is loaded using SCRIPT LOAD and invocation is retried.
+   *
+   * @param script
+   *          the script to run
+   * @param keys
+   *          keys used by the script
+   * @param args
+   *          arguments of the script
+   * @return result of the script
+   */
+  Object evalsha(RedisScript script, List<byte[]> keys, List<byte[]> args);
+
+  /**
+   * Returns <code>true</code> if a script can access all passed keys. On redis cluster, this is only the case when all
+   * keys belong to same hash slot.
+   *
+   * @param keys
+   *          keys used by the script
+   * @return <code>true</code> if script can be run with the keys
+   */
+  boolean canRunScript(List<byte[]> keys);
+
+  /**
+   * Returns <code>true</code> if all keys are stored on a single redis server, so that a script can access keys it
+   * computes from its arguments in addition to keys passed in KEYS. This is not the case on redis cluster.
+   *
+   * @return <code>true</code> if redis is a single server
+   */
+  boolean isSingleServer();
+
   /**
    * Used to wrap implementation's response for transactions.
    *
@@ -358,7 +442,7 @@ public interface RedisFacade {
   }
 
   /**
-   * Used to encapsulate redis library's transaction (MULTI) processing.
+   * Used to encapsulate redis library's transaction (MULTI) or pipeline processing.
    *
    */
   interface TransactionFacade {
@@ -381,6 +465,25 @@ public interface RedisFacade {
      */
     void hmset(byte[] key, Map<byte[], byte[]> hash);
 
+    /**
+     * See redis.clients.jedis.Transaction#hmget(byte[], byte[]...)
+     *
+     * @param key
+     *          key as byte array
+     * @param fields
+     * @return values of the fields
+     */
+    RedisFacade.ResponseFacade<List<byte[]>> hmget(byte[] key, byte[]... fields);
+
+    /**
+     * See redis.clients.jedis.Transaction#hgetAll(byte[])
+     *
+     * @param key
+     *          key as byte array
+     * @return map of fields and their values
+     */
+    RedisFacade.ResponseFacade<Map<byte[], byte[]>> hgetAll(byte[] key);
+
     /**
      * See redis.clients.jedis.Transaction#del(byte[]...)
      *
@@ -397,6 +500,102 @@ public interface RedisFacade {
      * @return
      */
     RedisFacade.ResponseFacade<Set<byte[]>> smembers(byte[] key);
+
+    /**
+     * See redis.clients.jedis.Transaction#exists(byte[])
+     *
+     * @param key
+     *          key as byte array
+     * @return
+     */
+    RedisFacade.ResponseFacade<Boolean> exists(byte[] key);
+
+    /**
+     * See redis.clients.jedis.Transaction#sadd(byte[], byte[]...)
+     *
+     * @param key
+     *          key as byte array
+     * @param member
+     */
+    void sadd(byte[] key, byte[]... member);
+
+    /**
+     * See redis.clients.jedis.Transaction#srem(byte[], byte[]...)
+     *
+     * @param key
+     *          key as byte array
+     * @param member
+     */
+    void srem(byte[] key, byte[]... member);
+
+    /**
+     * See redis.clients.jedis.Transaction#expire(byte[], int)
+     *
+     * @param key
+     *          key as byte array
+     * @param value
+     */
+    void expire(byte[] key, int value);
+
+    /**
+     * See redis.clients.jedis.Transaction#expireAt(byte[], long)
+     *
+     * @param key
+     *          key as byte array
+     * @param unixTime
+     */
+    void expireAt(byte[] key, long unixTime);
+
+    /**
+     * See redis.clients.jedis.Transaction#setex(byte[], int, byte[])
+     *
+     * @param key
+     *          key as byte array
+     * @param expiry
+     * @param value
+     */
+    void setex(byte[] key, int expiry, byte[] value);
+
+    /**
+     * See redis.clients.jedis.Transaction#persist(byte[])
+     *
+     * @param key
+     *          key as byte array
+     */
+    void persist(byte[] key);
+
+    /**
+     * See redis.clients.jedis.Transaction#zadd(byte[], double, byte[])
+     *
+     * @param key
+     *          key as byte array
+     * @param score
+     * @param elem
+     */
+    void zadd(byte[] key, double score, byte[] elem);
+
+    /**
+     * See redis.clients.jedis.Transaction#zrem(byte[], byte[]...)
+     *
+     * @param key
+     *          key as byte array
+     * @param fields
+     */
+    void zrem(byte[] key, byte[]... fields);
+
+    /**
+     * Executes lua script using its SHA1 digest (EVALSHA). If script is not in redis script cache, the script is loaded
+     * and executed again when the response is retrieved. See {@link RedisFacade#evalsha(RedisScript, List, List)}.
+     *
+     * @param script
+     *          the script to run
+     * @param keys
+     *          keys used by the script
+     * @param args
+     *          arguments of the script
+     * @return result of the script
+     */
+    RedisFacade.ResponseFacade<Object> evalsha(RedisScript script, List<byte[]> keys, List<byte[]> args);
   }
 
   /**
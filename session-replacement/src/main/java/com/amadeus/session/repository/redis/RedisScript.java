@@ -0,0 +1,72 @@
+package com.amadeus.session.repository.redis;
+
+import static com.amadeus.session.repository.redis.SafeEncoder.encode;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Lua script that is executed on redis server using EVALSHA command. The SHA1 digest of the script is computed once,
+ * so that only the digest is sent to redis when the script is invoked. If redis doesn't have the script in its cache
+ * (e.g. after restart, failover or reconnect to a different server), the facade loads the script using SCRIPT LOAD and
+ * retries the invocation.
+ * <p>
+ * See <a href="http://redis.io/commands/evalsha">http://redis.io/commands/evalsha</a> for details.
+ */
+public final class RedisScript {
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  private final byte[] script;
+
+  private final byte[] sha;
+
+  /**
+   * Creates script from its lua source.
+   *
+   * @param script
+   *          lua source of the script
+   */
+  public RedisScript(String script) {
+    this.script = encode(script);
+    this.sha = encode(sha1Hex(this.script));
+  }
+
+  /**
+   * Returns lua source of the script.
+   *
+   * @return lua source as byte array
+   */
+  public byte[] getScript() {
+    return script;
+  }
+
+  /**
+   * Returns hex encoded SHA1 digest of the script as used by EVALSHA command.
+   *
+   * @return SHA1 digest as byte array
+   */
+  public byte[] getSha() {
+    return sha;
+  }
+
+  /**
+   * Computes SHA1 digest of the content and encodes it in lower case hexadecimal characters.
+   *
+   * @param content
+   *          content to digest
+   * @return hex encoded SHA1 digest
+   */
+  static String sha1Hex(byte[] content) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-1").digest(content);
+      char[] hex = new char[digest.length * 2];
+      for (int i = 0; i < digest.length; i++) {
+        hex[i * 2] = HEX_DIGITS[(digest[i] >> 4) & 0xf]; // NOSONAR
+        hex[i * 2 + 1] = HEX_DIGITS[digest[i] & 0xf]; // NOSONAR
+      }
+      return new String(hex);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-1 digest is not available", e);
+    }
+  }
+}
@@ -10,6 +10,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -17,6 +18,8 @@ import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.amadeus.session.AttributePrefetch;
+import com.amadeus.session.ClassDescriptorDictionary;
 import com.amadeus.session.SerializerDeserializer;
 import com.amadeus.session.SessionConfiguration;
 import com.amadeus.session.SessionData;
@@ -30,7 +33,7 @@ import com.codahale.metrics.MetricRegistry;
 /**
  * Main class for implementing Redis repository logic.
  */
-public class RedisSessionRepository implements SessionRepository {
+public class RedisSessionRepository implements SessionRepository, ClassDescriptorDictionary {
   private static final Logger logger = LoggerFactory.getLogger(RedisSessionRepository.class);
 
   /**
@@ -63,6 +66,24 @@ public class RedisSessionRepository implements SessionRepository {
    */
   static final byte[] OWNER_NODE = encode("#:owner");
 
+  /**
+   * Meta attribute containing version stamp of the session. The version is changed on each commit when near-cache is
+   * used. See {@link SessionNearCache}.
+   */
+  static final byte[] VERSION = encode("#:version");
+
+  /**
+   * Meta attribute recording if some attribute value of the session listens to its removal from session. It is
+   * <code>1</code> if some value does, <code>0</code> if none does, and absent if this is not known. See
+   * {@link #mayHaveBindingListeners(SessionData)}.
+   */
+  static final byte[] BINDING_LISTENERS = encode("#:bindingListeners");
+
+  /**
+   * Representation of false value
+   */
+  static final byte[] BYTES_FALSE = SafeEncoder.encode(String.valueOf(0));
+
   /**
    * Representation of true value
    */
@@ -77,7 +98,61 @@ public class RedisSessionRepository implements SessionRepository {
 
   private static final int INVALID_SESSION_INDEX = 3;
 
-  private static final int OWNER_NODE_INDEX = 4;
+  private static final int BINDING_LISTENERS_INDEX = 4;
+
+  private static final int OWNER_NODE_INDEX = 5;
+
+  private static final int VERSION_INDEX = 6;
+
+  /**
+   * Lua code that retrieves session meta-attributes and, if session is valid, it has not expired at instant passed in
+   * first argument, and the instant is at least touch granularity after last access, sets last accessed time to the
+   * second argument and, if not empty, owner node to the third one. Touch granularity is passed in fourth argument, and
+   * fifth argument is <code>1</code> if it is a percentage of max inactive interval, see
+   * {@link SessionConfiguration.TouchGranularity#forInterval(int)}. Meta-attributes as they were before the update are
+   * in <code>meta</code>, and <code>touched</code> is set if session was updated, in which case
+   * <code>lastAccessed</code> and <code>maxInactive</code> contain previous last accessed time and maximum inactive
+   * interval of the session. Expiration strategy may extend this code to update expiration data in the same script.
+   * See {@link RedisExpirationStrategy#fetchAndTouchScript(String, List, List)}.
+   */
+  static final String FETCH_AND_TOUCH_LUA =
+      "local meta = redis.call('HMGET', KEYS[1], '#:lastAccessed', '#:maxInactiveInterval', '#:creationTime', "
+          + "'#:invalidSession', '#:bindingListeners', '#:owner', '#:version')\n"
+          + "local touched, lastAccessed, maxInactive = false, 0, 0\n"
+          + "if meta[1] and meta[2] and not meta[4] and #meta[1] == 8 and #meta[2] == 4 then\n"
+          + "  lastAccessed = struct.unpack('>i8', meta[1])\n"
+          + "  maxInactive = struct.unpack('>i4', meta[2])\n"
+          + "  local accessed, granularity = tonumber(ARGV[1]), 0\n"
+          + "  if tonumber(ARGV[4]) > 0 and maxInactive > 0 then\n"
+          + "    if ARGV[5] == '1' then\n"
+          + "      granularity = math.floor(maxInactive * 1000 * tonumber(ARGV[4]) / 100)\n"
+          + "    else\n"
+          + "      granularity = tonumber(ARGV[4]) * 1000\n"
+          + "    end\n"
+          + "    granularity = math.min(granularity, math.floor(maxInactive * 1000 / 2))\n"
+          + "  end\n"
+          + "  if (maxInactive <= 0 or lastAccessed + maxInactive * 1000 >= accessed)\n"
+          + "      and accessed - lastAccessed >= granularity then\n"
+          + "    redis.call('HSET', KEYS[1], '#:lastAccessed', ARGV[2])\n"
+          + "    if ARGV[3] ~= '' then\n"
+          + "      redis.call('HSET', KEYS[1], '#:owner', ARGV[3])\n"
+          + "    end\n"
+          + "    touched = true\n"
+          + "  end\n"
+          + "end\n";
+
+  /**
+   * Script that retrieves and touches the session using {@link #FETCH_AND_TOUCH_LUA} and returns meta-attributes as
+   * they were before the update. See
+   * {@link #fetchAndTouchSessionData(String, long, SessionConfiguration.TouchGranularity,
+   * AttributePrefetch.Selection)}.
+   */
+  static final RedisScript FETCH_AND_TOUCH_SCRIPT = new RedisScript(FETCH_AND_TOUCH_LUA + "return meta\n");
+
+  /**
+   * Passed to fetch script instead of owner node when sessions are not sticky.
+   */
+  private static final byte[] NO_OWNER = new byte[0];
 
   private static final RedisFacade.ResponseFacade<String> OK_RESULT = new RedisFacade.ResponseFacade<String>() {
     @Override
@@ -101,6 +176,8 @@ public class RedisSessionRepository implements SessionRepository {
 
   private byte[] redirectionsChannel;
 
+  private final byte[] classDescriptorsKey;
+
   private final RedisFacade redis;
 
   final RedisExpirationStrategy expirationManager;
@@ -113,6 +190,24 @@ public class RedisSessionRepository implements SessionRepository {
 
   private final String namespace;
 
+  private boolean pipelinedFetch;
+
+  private boolean scriptedCommit;
+
+  private SessionNearCache nearCache;
+
+  private RedisCommitBatcher commitBatcher;
+
+  private Meter nearCacheHits;
+
+  private Meter nearCacheMisses;
+
+  /**
+   * Sessions removed by current thread while running {@link #removeInBatch(Runnable)}. The value is only set during
+   * that call.
+   */
+  private final ThreadLocal<List<SessionData>> batchedRemovals = new ThreadLocal<>();
+
   public RedisSessionRepository(RedisFacade redis, String namespace, String owner, ExpirationStrategy strategy,
       boolean sticky) {
 
@@ -124,6 +219,7 @@ public class RedisSessionRepository implements SessionRepository {
     keyPrefix = keyPrefixWithoutClusterGroup + "{";
     keyPrefixByteArray = encode(keyPrefix);
     redirectionsChannel = encode(keyPrefixWithoutClusterGroup + "redirection");
+    classDescriptorsKey = encode(keyPrefixWithoutClusterGroup + "classes");
     this.sticky = sticky;
     if (strategy == ExpirationStrategy.ZRANGE) {
       logger.info("Using ZRANGE (SortedSet) expiration managment");
@@ -156,6 +252,15 @@ public class RedisSessionRepository implements SessionRepository {
       if (sticky) {
         failoverMetrics = metrics.meter(name(RedisConfiguration.METRIC_PREFIX, namespace, "redis", "failover"));
       }
+      if (commitBatcher != null) {
+        commitBatcher.setBatchSizes(
+            metrics.histogram(name(RedisConfiguration.METRIC_PREFIX, namespace, "redis", "commit", "batch-size")));
+      }
+      if (nearCache != null) {
+        nearCacheHits = metrics.meter(name(RedisConfiguration.METRIC_PREFIX, namespace, "redis", "nearcache", "hits"));
+        nearCacheMisses = metrics
+            .meter(name(RedisConfiguration.METRIC_PREFIX, namespace, "redis", "nearcache", "misses"));
+      }
 
       redis.startMonitoring(metrics);
     }
@@ -173,12 +278,162 @@ public class RedisSessionRepository implements SessionRepository {
    */
   @Override
   public SessionData getSessionData(String id) {
+    return getSessionData(id, AttributePrefetch.Selection.NONE);
+  }
+
+  /**
+   * Retrieves session data and selected attributes in a single redis command. When all attributes are requested, the
+   * session hash is retrieved using HGETALL, otherwise the selected attributes are added to the HMGET command that
+   * retrieves meta attributes. Attributes are kept in serialized form until they are accessed. Attributes that are
+   * already in near-cache are not retrieved. See {@link #getSessionData(String)}.
+   *
+   * @param id
+   *          session id
+   * @param prefetch
+   *          the attributes to retrieve with session data
+   */
+  @Override
+  public SessionData getSessionData(String id, AttributePrefetch.Selection prefetch) {
     byte[] key = sessionKey(id);
-    // If sticky session, retrieve last owner also
-    List<byte[]> values = sticky
-        ? redis.hmget(key, LAST_ACCESSED, MAX_INACTIVE_INTERVAL, CREATION_TIME, INVALID_SESSION, OWNER_NODE)
-        : redis.hmget(key, LAST_ACCESSED, MAX_INACTIVE_INTERVAL, CREATION_TIME, INVALID_SESSION);
+    if (prefetch.isAll()) {
+      Map<byte[], byte[]> hash = redis.hgetAll(key);
+      SessionData sessionData = sessionDataFrom(id, metaFrom(hash));
+      if (sessionData != null) {
+        sessionData.setPrefetchedAttributes(attributesFrom(hash), true);
+      }
+      return sessionData;
+    }
+    // If sticky session, retrieve last owner also, and if near-cache is used, version of the session
+    byte[][] meta;
+    if (nearCache != null) {
+      meta = new byte[][] { LAST_ACCESSED, MAX_INACTIVE_INTERVAL, CREATION_TIME, INVALID_SESSION, BINDING_LISTENERS,
+          OWNER_NODE, VERSION };
+    } else if (sticky) {
+      meta = new byte[][] { LAST_ACCESSED, MAX_INACTIVE_INTERVAL, CREATION_TIME, INVALID_SESSION, BINDING_LISTENERS,
+          OWNER_NODE };
+    } else {
+      meta = new byte[][] { LAST_ACCESSED, MAX_INACTIVE_INTERVAL, CREATION_TIME, INVALID_SESSION, BINDING_LISTENERS };
+    }
+    List<String> names = notCached(id, prefetch);
+    byte[][] fields = Arrays.copyOf(meta, meta.length + names.size());
+    System.arraycopy(fieldsFrom(names), 0, fields, meta.length, names.size());
+    List<byte[]> values = redis.hmget(key, fields);
+    SessionData sessionData = sessionDataFrom(id, values);
+    if (sessionData != null && !names.isEmpty()) {
+      sessionData.setPrefetchedAttributes(attributesFrom(names, values.subList(meta.length, values.size())), false);
+    }
+    return sessionData;
+  }
+
+  /**
+   * Returns names of selected attributes that are not in near-cache.
+   *
+   * @param id
+   *          session id
+   * @param prefetch
+   *          the attributes to retrieve with session data
+   * @return names of attributes to retrieve from redis
+   */
+  private List<String> notCached(String id, AttributePrefetch.Selection prefetch) {
+    List<String> names = new ArrayList<>(prefetch.getAttributes());
+    if (nearCache != null) {
+      Iterator<String> it = names.iterator();
+      while (it.hasNext()) {
+        if (nearCache.contains(id, it.next())) {
+          it.remove();
+        }
+      }
+    }
+    return names;
+  }
+
+  /**
+   * Encodes attribute names as redis hash fields.
+   *
+   * @param names
+   *          attribute names
+   * @return array of hash fields
+   */
+  private static byte[][] fieldsFrom(List<String> names) {
+    byte[][] fields = new byte[names.size()][];
+    for (int i = 0; i < names.size(); i++) {
+      fields[i] = encode(names.get(i));
+    }
+    return fields;
+  }
+
+  /**
+   * Extracts meta attributes from session hash in order expected by {@link #sessionDataFrom(String, List)}.
+   *
+   * @param hash
+   *          session hash as retrieved by HGETALL
+   * @return list of meta attributes
+   */
+  private static List<byte[]> metaFrom(Map<byte[], byte[]> hash) {
+    byte[][] fields = { LAST_ACCESSED, MAX_INACTIVE_INTERVAL, CREATION_TIME, INVALID_SESSION, BINDING_LISTENERS,
+        OWNER_NODE, VERSION };
+    List<byte[]> meta = Arrays.asList(new byte[fields.length][]);
+    for (Map.Entry<byte[], byte[]> entry : hash.entrySet()) {
+      if (hasInternalPrefix(entry.getKey())) {
+        for (int i = 0; i < fields.length; i++) {
+          if (Arrays.equals(fields[i], entry.getKey())) {
+            meta.set(i, entry.getValue());
+          }
+        }
+      }
+    }
+    return meta;
+  }
+
+  /**
+   * Extracts session attributes (i.e. non-meta attributes) from session hash.
+   *
+   * @param hash
+   *          session hash as retrieved by HGETALL
+   * @return map of attribute names and their serialized values
+   */
+  private static Map<String, byte[]> attributesFrom(Map<byte[], byte[]> hash) {
+    Map<String, byte[]> attributes = new HashMap<>();
+    for (Map.Entry<byte[], byte[]> entry : hash.entrySet()) {
+      if (!hasInternalPrefix(entry.getKey())) {
+        attributes.put(encode(entry.getKey()), entry.getValue());
+      }
+    }
+    return attributes;
+  }
+
+  /**
+   * Associates attribute names with values retrieved by HMGET. Absent attributes have <code>null</code> value.
+   *
+   * @param names
+   *          attribute names
+   * @param values
+   *          serialized values in the same order as names
+   * @return map of attribute names and their serialized values
+   */
+  private static Map<String, byte[]> attributesFrom(List<String> names, List<byte[]> values) {
+    Map<String, byte[]> attributes = new HashMap<>();
+    for (int i = 0; i < names.size(); i++) {
+      attributes.put(names.get(i), values.get(i));
+    }
+    return attributes;
+  }
+
+  /**
+   * Builds session data from meta attributes retrieved from redis.
+   *
+   * @param id
+   *          session id
+   * @param values
+   *          meta attributes in order last accessed time, max inactive interval, creation time, invalid session flag,
+   *          binding listeners flag and, for sticky sessions, owner node and version
+   * @return session data or <code>null</code> if session is not valid
+   */
+  private SessionData sessionDataFrom(String id, List<byte[]> values) {
     if (!checkConsistent(id, values)) {
+      if (nearCache != null) {
+        nearCache.remove(id);
+      }
       return null;
     }
     long lastAccessed = longFrom(values.get(0));
@@ -207,7 +462,312 @@ public class RedisSessionRepository implements SessionRepository {
       maxInactiveInterval = intFrom(maxInactiveIntervalByte);
     }
 
-    return new SessionData(id, lastAccessed, maxInactiveInterval, creationTime, previousOwner);
+    SessionData sessionData = new SessionData(id, lastAccessed, maxInactiveInterval, creationTime, previousOwner);
+    byte[] bindingListeners = values.get(BINDING_LISTENERS_INDEX);
+    if (bindingListeners != null) {
+      sessionData.setBindingListeners(!Arrays.equals(BYTES_FALSE, bindingListeners));
+    }
+    if (nearCache != null) {
+      sessionData.setVersion(validateNearCache(id, values, previousOwner));
+    }
+    return sessionData;
+  }
+
+  /**
+   * Compares session version retrieved from redis with the one in near-cache. Cached attributes are discarded if
+   * versions differ or if session was owned by another node.
+   *
+   * @param id
+   *          session id
+   * @param values
+   *          meta attributes retrieved from redis
+   * @param previousOwner
+   *          node that owned the session or <code>null</code>
+   * @return the validated version, or <code>null</code> if session has no version or was owned by another node
+   */
+  private Long validateNearCache(String id, List<byte[]> values, String previousOwner) {
+    byte[] versionBuffer = values.size() > VERSION_INDEX ? values.get(VERSION_INDEX) : null;
+    Long version = versionBuffer != null && versionBuffer.length == Long.SIZE / BITS_IN_BYTE ? longFrom(versionBuffer)
+        : null;
+    boolean failover = previousOwner != null && !previousOwner.equals(owner);
+    if (!nearCache.validate(id, version, failover)) {
+      logger.debug("Near-cache of session {} is not valid, version {}, previous owner {}", id, version, previousOwner);
+    }
+    return failover ? null : version;
+  }
+
+  @Override
+  public boolean isFetchAndTouchSupported() {
+    return pipelinedFetch;
+  }
+
+  /**
+   * Retrieves session meta attributes and marks session as accessed using single redis pipeline. The meta attributes
+   * are read and last accessed time is updated atomically using {@link #FETCH_AND_TOUCH_SCRIPT}, which is invoked using
+   * EVALSHA. Selected attributes are retrieved in the same pipeline. Expiration data is updated in the same pipeline:
+   * <ul>
+   * <li>when expiration strategy needs previous session state (e.g. NOTIF), by the fetch script itself, see
+   * {@link RedisExpirationStrategy#fetchAndTouchScript(String, List, List)}. On redis cluster, where the script can't
+   * access expiration keys, expiration data is updated in a second pipeline.
+   * <li>otherwise (e.g. ZRANGE), by commands queued after the fetch script assuming the default maximum inactive
+   * interval. If the session doesn't exist, those commands are undone. If the session uses different interval, or if
+   * it has expired, expiration data is updated again with the stored values in a second pipeline.
+   * </ul>
+   * The script doesn't update access time when it changed less than touch granularity. When touch granularity is
+   * configured, ZRANGE expiration data is therefore not updated in the fetch pipeline, but in a second pipeline and
+   * only if the session was touched.
+   *
+   * @param id
+   *          session id
+   * @param accessTime
+   *          instant of the access
+   * @param granularity
+   *          the touch granularity
+   * @param prefetch
+   *          the attributes to retrieve with session data
+   */
+  @Override
+  public SessionData fetchAndTouchSessionData(String id, long accessTime,
+      SessionConfiguration.TouchGranularity granularity, final AttributePrefetch.Selection prefetch) {
+    final byte[] key = sessionKey(id);
+    final List<byte[]> keys = new ArrayList<>(2);
+    keys.add(key);
+    final List<byte[]> args = new ArrayList<>(8);
+    args.add(encode(Long.toString(accessTime)));
+    args.add(longBytes(accessTime));
+    args.add(sticky ? ownerByteArray : NO_OWNER);
+    args.add(encode(Integer.toString(granularity.getValue())));
+    args.add(encode(granularity.isPercent() ? "1" : "0"));
+    RedisScript touchScript = expirationManager.fetchAndTouchScript(id, keys, args);
+    final boolean scripted = touchScript != null;
+    final RedisScript script = scripted ? touchScript : FETCH_AND_TOUCH_SCRIPT;
+    final SessionData assumed = !scripted && expirationManager.isTouchStateless() && granularity.getValue() <= 0
+        ? new SessionData(id, accessTime, sessionManager.getConfiguration().getMaxInactiveInterval(), accessTime, null)
+        : null;
+    final List<String> names = notCached(id, prefetch);
+    final Map<String, byte[]> prefetched = new HashMap<>();
+    List<byte[]> values = redis.pipeline(key, new RedisFacade.TransactionRunner<List<byte[]>>() {
+      @Override
+      public RedisFacade.ResponseFacade<List<byte[]>> run(RedisFacade.TransactionFacade pipeline) {
+        final RedisFacade.ResponseFacade<Object> meta = pipeline.evalsha(script, keys, args);
+        final RedisFacade.ResponseFacade<Map<byte[], byte[]>> all = prefetch.isAll() ? pipeline.hgetAll(key) : null;
+        final RedisFacade.ResponseFacade<List<byte[]>> listed = !prefetch.isAll() && !names.isEmpty()
+            ? pipeline.hmget(key, fieldsFrom(names)) : null;
+        if (assumed != null) {
+          expirationManager.sessionTouched(assumed, pipeline);
+        }
+        return new RedisFacade.ResponseFacade<List<byte[]>>() {
+          @SuppressWarnings("unchecked")
+          @Override
+          public List<byte[]> get() {
+            if (all != null) {
+              prefetched.putAll(attributesFrom(all.get()));
+            } else if (listed != null) {
+              prefetched.putAll(attributesFrom(names, listed.get()));
+            }
+            return (List<byte[]>) meta.get();
+          }
+        };
+      }
+    }).get();
+    SessionData sessionData = sessionDataFrom(id, values);
+    if (sessionData != null && !prefetch.isEmpty()) {
+      sessionData.setPrefetchedAttributes(prefetched, prefetch.isAll());
+    }
+    if (sessionData == null) {
+      if (assumed != null) {
+        // Remove expiration data added for the session that doesn't exist
+        expirationManager.sessionDeleted(assumed);
+      }
+      return null;
+    }
+    if (!scripted) {
+      touchExpiration(sessionData, accessTime, granularity, assumed);
+    }
+    return sessionData;
+  }
+
+  /**
+   * Updates expiration data of the retrieved session when it was touched and its expiration data was not updated by
+   * the fetch script, or when it was updated assuming default maximum inactive interval and the session uses another
+   * interval. If session has expired, expiration data assumed during fetch is replaced by the stored one, so that the
+   * session is still cleaned up at its expiry instant.
+   *
+   * @param sessionData
+   *          the session as stored before the fetch
+   * @param accessTime
+   *          instant of the access
+   * @param granularity
+   *          the touch granularity
+   * @param assumed
+   *          session used to update expiration data during fetch, <code>null</code> if it was not updated
+   */
+  private void touchExpiration(SessionData sessionData, long accessTime,
+      SessionConfiguration.TouchGranularity granularity, SessionData assumed) {
+    boolean expired = expiredAt(sessionData, accessTime);
+    final SessionData touched;
+    if (expired) {
+      if (assumed == null) {
+        return;
+      }
+      touched = sessionData;
+    } else {
+      if (assumed != null && assumed.getMaxInactiveInterval() == sessionData.getMaxInactiveInterval()
+          || !granularity.isTouchNeeded(sessionData, accessTime)) {
+        return;
+      }
+      touched = new SessionData(sessionData.getId(), sessionData.getLastAccessedTime(),
+          sessionData.getMaxInactiveInterval(), sessionData.getCreationTime(), sessionData.getPreviousOwner());
+      touched.setLastAccessedTime(accessTime);
+    }
+    redis.pipeline(sessionKey(sessionData.getId()), new RedisFacade.TransactionRunner<String>() {
+      @Override
+      public RedisFacade.ResponseFacade<String> run(RedisFacade.TransactionFacade pipeline) {
+        expirationManager.sessionTouched(touched, pipeline);
+        return OK_RESULT;
+      }
+    });
+  }
+
+  /**
+   * Checks if session has expired at the given instant. Uses same logic as {@link #FETCH_AND_TOUCH_LUA}.
+   *
+   * @param sessionData
+   *          the session
+   * @param instant
+   *          the instant to check
+   * @return <code>true</code> if session expired
+   */
+  private static boolean expiredAt(SessionData sessionData, long instant) {
+    return sessionData.getMaxInactiveInterval() > 0 && sessionData.expiresAt() < instant;
+  }
+
+  /**
+   * Returns <code>true</code> if session is stored in redis and has not expired at the given instant.
+   *
+   * @param id
+   *          session id
+   * @param instant
+   *          the instant to check
+   * @return <code>true</code> if session is active
+   */
+  boolean isActive(String id, long instant) {
+    List<byte[]> values = redis.hmget(sessionKey(id), LAST_ACCESSED, MAX_INACTIVE_INTERVAL);
+    if (values.get(0) == null) {
+      return false;
+    }
+    int maxInactiveInterval = SessionConfiguration.DEFAULT_SESSION_TIMEOUT_VALUE_NUM;
+    byte[] maxInactiveIntervalByte = values.get(1);
+    if (maxInactiveIntervalByte != null && maxInactiveIntervalByte.length != 0) {
+      maxInactiveInterval = intFrom(maxInactiveIntervalByte);
+    }
+    return !expiredAt(new SessionData(id, longFrom(values.get(0)), maxInactiveInterval, 0, null), instant);
+  }
+
+  /**
+   * Sets if session should be retrieved and marked as accessed using single redis pipeline. See
+   * {@link #fetchAndTouchSessionData(String, long, SessionConfiguration.TouchGranularity,
+   * AttributePrefetch.Selection)}.
+   *
+   * @param pipelinedFetch
+   *          <code>true</code> to use pipelined fetch
+   */
+  public void setPipelinedFetch(boolean pipelinedFetch) {
+    this.pipelinedFetch = pipelinedFetch;
+  }
+
+  /**
+   * Sets if session commit should store attributes and update expiration data using single lua script invoked with
+   * EVALSHA. See {@link CommitScript}.
+   *
+   * @param scriptedCommit
+   *          <code>true</code> to use scripted commit
+   */
+  public void setScriptedCommit(boolean scriptedCommit) {
+    this.scriptedCommit = scriptedCommit;
+  }
+
+  /**
+   * Sets maximum number of sessions whose deserialized attributes are kept in local near-cache. The near-cache is used
+   * only with sticky sessions. See {@link SessionNearCache}.
+   *
+   * @param nearCacheSize
+   *          maximum number of sessions in near-cache, 0 to disable near-cache
+   */
+  public void setNearCacheSize(int nearCacheSize) {
+    if (nearCacheSize > 0 && !sticky) {
+      logger.warn("Near-cache requires sticky sessions, it will not be used for namespace {}", namespace);
+      nearCache = null;
+    } else {
+      nearCache = nearCacheSize > 0 ? new SessionNearCache(nearCacheSize) : null;
+    }
+  }
+
+  SessionNearCache getNearCache() {
+    return nearCache;
+  }
+
+  /**
+   * Sets number of sorted sets over which sessions are distributed. Used only with ZRANGE expiration strategy. See
+   * {@link SortedSetSessionExpirationManagement}.
+   *
+   * @param expirationShards
+   *          number of sorted sets
+   */
+  public void setExpirationShards(int expirationShards) {
+    if (expirationManager instanceof SortedSetSessionExpirationManagement) {
+      ((SortedSetSessionExpirationManagement)expirationManager).setShards(expirationShards);
+    } else if (expirationShards > 1) {
+      logger.warn("Expiration shards are supported only with ZRANGE expiration strategy, namespace {}", namespace);
+    }
+  }
+
+  /**
+   * Sets if updates of expirations sets should be skipped when session stays in the same expiration minute. Used only
+   * with NOTIF expiration strategy. See {@link NotificationExpirationManagement}.
+   *
+   * @param coalesceExpirations
+   *          <code>true</code> to skip redundant updates
+   */
+  public void setCoalesceExpirations(boolean coalesceExpirations) {
+    if (expirationManager instanceof NotificationExpirationManagement) {
+      ((NotificationExpirationManagement)expirationManager).setCoalesce(coalesceExpirations);
+    } else if (coalesceExpirations) {
+      logger.warn("Coalescing expirations is supported only with NOTIF expiration strategy, namespace {}", namespace);
+    }
+  }
+
+  /**
+   * Sets number of nodes that run expiration cleanup of the namespace. Cleanup work is split between cleanup leases
+   * stored in redis, and each part is processed only by the node that holds its lease. See {@link CleanupLeases}.
+   *
+   * @param cleanupWorkers
+   *          number of cleanup workers, <code>0</code> to run cleanup on all nodes
+   */
+  public void setCleanupWorkers(int cleanupWorkers) {
+    if (expirationManager instanceof SortedSetSessionExpirationManagement) {
+      ((SortedSetSessionExpirationManagement)expirationManager).setCleanupWorkers(cleanupWorkers);
+    } else if (expirationManager instanceof NotificationExpirationManagement) {
+      ((NotificationExpirationManagement)expirationManager).setCleanupWorkers(cleanupWorkers);
+    }
+  }
+
+  /**
+   * Sets maximum number of session commits sent to redis in a single pipeline, and maximum time a commit waits for
+   * others. Not used with redis cluster. See {@link RedisCommitBatcher}.
+   *
+   * @param commitBatch
+   *          maximum number of commits in a batch, 0 or 1 to disable batching
+   * @param windowMillis
+   *          maximum time in milliseconds that a commit waits for other commits
+   */
+  public void setCommitBatch(int commitBatch, int windowMillis) {
+    if (commitBatch > 1 && redis instanceof JedisClusterFacade) {
+      logger.warn("Batching of commits is not supported with redis cluster, namespace {}", namespace);
+      commitBatcher = null;
+    } else {
+      commitBatcher = commitBatch > 1 ? new RedisCommitBatcher(redis, commitBatch, windowMillis) : null;
+    }
   }
 
   /**
@@ -263,11 +823,20 @@ public class RedisSessionRepository implements SessionRepository {
    * @param value
    */
   private static void addLong(Map<byte[], byte[]> attributes, byte[] attr, long value) {
+    attributes.put(attr, longBytes(value));
+  }
+
+  /**
+   * Converts long value to byte array.
+   *
+   * @param value
+   * @return
+   */
+  private static byte[] longBytes(long value) {
     // In JDK 1.8 we can use Long.BYTES
     ByteBuffer b = ByteBuffer.allocate(Long.SIZE / BITS_IN_BYTE);
     b.putLong(value);
-
-    attributes.put(attr, b.array());
+    return b.array();
   }
 
   /**
@@ -295,6 +864,10 @@ public class RedisSessionRepository implements SessionRepository {
 
     private List<byte[]> toRemove = new ArrayList<>();
 
+    private Map<String, Object> cachedValues = new HashMap<>();
+
+    private List<String> cachedRemovals = new ArrayList<>();
+
     private byte[] key;
 
     private SessionData session;
@@ -306,12 +879,17 @@ public class RedisSessionRepository implements SessionRepository {
 
     @Override
     public void addAttribute(String attribute, Object value) {
-      attributes.put(encode(attribute), serializerDeserializer().serialize(value));
+      byte[] serialized = serializerDeserializer().serialize(value);
+      attributes.put(encode(attribute), serialized);
+      if (nearCache != null && value != null) {
+        cachedValues.put(attribute, SessionNearCache.cacheable(value, serialized));
+      }
     }
 
     @Override
     public void removeAttribute(String attribute) {
       toRemove.add(encode(attribute));
+      cachedRemovals.add(attribute);
     }
 
     /**
@@ -329,8 +907,47 @@ public class RedisSessionRepository implements SessionRepository {
       if (sessionManager.getConfiguration().isSticky()) {
         attributes.put(OWNER_NODE, ownerByteArray);
       }
-      getRedis().transaction(key, this);
-      expirationManager.sessionTouched(session);
+      if (session.getBindingListeners() != null) {
+        attributes.put(BINDING_LISTENERS, session.getBindingListeners() ? BYTES_TRUE : BYTES_FALSE);
+      }
+      long version = 0;
+      if (nearCache != null) {
+        version = nearCache.newVersion();
+        addLong(attributes, VERSION, version);
+      }
+      if (!scriptedCommit || !commitWithScript()) {
+        if (commitBatcher != null) {
+          commitBatcher.commit(key, new RedisFacade.TransactionRunner<String>() {
+            @Override
+            public RedisFacade.ResponseFacade<String> run(RedisFacade.TransactionFacade pipeline) {
+              RedisSessionTransaction.this.run(pipeline);
+              expirationManager.sessionTouched(session, pipeline);
+              return OK_RESULT;
+            }
+          });
+        } else {
+          getRedis().transaction(key, this);
+          expirationManager.sessionTouched(session);
+        }
+      }
+      if (nearCache != null) {
+        nearCache.committed(session.getId(), version, cachedValues, cachedRemovals);
+      }
+    }
+
+    /**
+     * Stores attributes and updates expiration data using single lua script invocation. See {@link CommitScript}.
+     *
+     * @return <code>false</code> if script can't be used for this commit (e.g. when expiration strategy doesn't
+     *         support it, or on cluster when keys are not in same slot)
+     */
+    private boolean commitWithScript() {
+      CommitScript script = new CommitScript(key);
+      if (!expirationManager.sessionTouched(session, script) || !script.canExecute(getRedis())) {
+        return false;
+      }
+      script.execute(getRedis(), toRemove, attributes);
+      return true;
     }
 
     @Override
@@ -365,10 +982,48 @@ public class RedisSessionRepository implements SessionRepository {
 
   @Override
   public void remove(SessionData session) {
+    if (nearCache != null) {
+      nearCache.remove(session.getId());
+    }
+    List<SessionData> batch = batchedRemovals.get();
+    if (batch != null) {
+      batch.add(session);
+      return;
+    }
     redis.del(sessionKey(session.getId()));
     expirationManager.sessionDeleted(session);
   }
 
+  /**
+   * Runs task that deletes several sessions. Keys of sessions removed by the task in the current thread, and their
+   * expiration data, are deleted in a single pipeline once the task has completed, instead of sending separate
+   * commands for each session.
+   *
+   * @param task
+   *          the task that deletes sessions
+   */
+  void removeInBatch(Runnable task) {
+    final List<SessionData> removed = new ArrayList<>();
+    batchedRemovals.set(removed);
+    try {
+      task.run();
+    } finally {
+      batchedRemovals.remove();
+      if (!removed.isEmpty()) {
+        redis.pipeline(sessionKey(removed.get(0).getId()), new RedisFacade.TransactionRunner<Void>() {
+          @Override
+          public RedisFacade.ResponseFacade<Void> run(RedisFacade.TransactionFacade pipeline) {
+            for (SessionData session : removed) {
+              pipeline.del(sessionKey(session.getId()));
+              expirationManager.sessionDeleted(session, pipeline);
+            }
+            return null;
+          }
+        });
+      }
+    }
+  }
+
   /**
    * Returns session key used to index session in redis.
    *
@@ -393,8 +1048,36 @@ public class RedisSessionRepository implements SessionRepository {
 
   @Override
   public Object getSessionAttribute(SessionData session, String attribute) {
-    List<byte[]> values = redis.hmget(sessionKey(session), encode(attribute));
-    return serializerDeserializer().deserialize(values.get(0));
+    if (session.isNonCacheable(attribute)) {
+      List<byte[]> values = redis.hmget(sessionKey(session), encode(attribute));
+      return serializerDeserializer().deserialize(values.get(0));
+    }
+    if (nearCache != null) {
+      Object cached = nearCache.get(session.getId(), attribute, serializerDeserializer());
+      if (cached != null) {
+        markNearCache(nearCacheHits);
+        return cached;
+      }
+      markNearCache(nearCacheMisses);
+    }
+    byte[] serialized;
+    if (session.isPrefetched(attribute)) {
+      // Value was retrieved together with session data, we only need to deserialize it
+      serialized = session.getPrefetchedAttribute(attribute);
+    } else {
+      serialized = redis.hmget(sessionKey(session), encode(attribute)).get(0);
+    }
+    Object value = serializerDeserializer().deserialize(serialized);
+    if (nearCache != null) {
+      nearCache.attributeRead(session.getId(), session.getVersion(), attribute, value, serialized);
+    }
+    return value;
+  }
+
+  private static void markNearCache(Meter meter) {
+    if (meter != null) {
+      meter.mark();
+    }
   }
 
   /**
@@ -434,6 +1117,9 @@ public class RedisSessionRepository implements SessionRepository {
 
   @Override
   public boolean prepareRemove(SessionData session) {
+    if (nearCache != null) {
+      nearCache.remove(session.getId());
+    }
     Long result = redis.hsetnx(sessionKey(session.getId()), INVALID_SESSION, BYTES_TRUE);
     return result.intValue() == 1;
   }
@@ -445,6 +1131,10 @@ public class RedisSessionRepository implements SessionRepository {
    */
   @Override
   public Set<String> getAllKeys(SessionData session) {
+    Set<String> prefetched = session.getAllPrefetchedKeys();
+    if (prefetched != null) {
+      return Collections.unmodifiableSet(prefetched);
+    }
     Set<String> keys = new HashSet<>();
     for (byte[] key : redis.hkeys(sessionKey(session))) {
       if (!hasInternalPrefix(key)) {
@@ -454,6 +1144,16 @@ public class RedisSessionRepository implements SessionRepository {
     return Collections.unmodifiableSet(keys);
   }
 
+  /**
+   * Uses {@link #BINDING_LISTENERS} meta attribute retrieved with other meta attributes of the session. Sessions
+   * stored by earlier versions don't have the meta attribute and are considered as having listeners.
+   */
+  @Override
+  public boolean mayHaveBindingListeners(SessionData sessionData) {
+    Boolean bindingListeners = sessionData.getBindingListeners();
+    return bindingListeners == null || bindingListeners;
+  }
+
   /**
    * The method stores session metadata in redis and marks session as accessed (resets session expire instant).
    */
@@ -555,11 +1255,28 @@ public class RedisSessionRepository implements SessionRepository {
    */
   @Override
   public void sessionIdChange(SessionData sessionData) {
+    if (nearCache != null) {
+      nearCache.remove(sessionData.getOldSessionId());
+    }
     redis.rename(sessionKey(sessionData.getOldSessionId()), sessionKey(sessionData.getId()));
     redis.publish(redirectionsChannel, encode(sessionData.getOldSessionId() + ':' + sessionData.getId()));
     expirationManager.sessionIdChange(sessionData);
   }
 
+  /**
+   * Class descriptors are stored in a redis hash shared by all nodes of the namespace. The hash field is the identifier
+   * of the descriptor.
+   */
+  @Override
+  public byte[] getClassDescriptor(long id) {
+    return redis.hmget(classDescriptorsKey, longBytes(id)).get(0);
+  }
+
+  @Override
+  public void storeClassDescriptor(long id, byte[] descriptor) {
+    redis.hsetnx(classDescriptorsKey, longBytes(id), descriptor);
+  }
+
   @Override
   public boolean isConnected() {
     try {
@@ -0,0 +1,241 @@
+package com.amadeus.session.repository.redis;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.amadeus.session.SerializerDeserializer;
+
+/**
+ * Bounded local cache of deserialized session attributes. Each cached session is associated with the version stamp
+ * that was stored in redis hash by the last commit of the session. When session meta data is retrieved, the version
+ * from redis is compared to the cached one: if they are same, the attributes in the cache are the ones in redis and
+ * they don't need to be read again. If the versions differ, or if the session was owned by another node (fail-over),
+ * the cached attributes are discarded.
+ * <p>
+ * The cache is only consistent when all requests of a session are processed by the same node, i.e. in sticky
+ * deployments. When there are too many sessions in the cache, the least recently used one is dropped.
+ * <p>
+ * Only immutable values (strings, boxed primitives, enums...) are shared between requests. Other values are kept in
+ * serialized form and deserialized when a request first reads them, so that a request never sees changes that another
+ * request made to its copy of an attribute, nor changes that were not committed. The near-cache is only read when
+ * {@link com.amadeus.session.RepositoryBackedSession} doesn't yet hold the attribute, and the session keeps the
+ * returned copy until the end of the request, so a mutable value is deserialized at most once per request. For such
+ * values, the near-cache saves the round-trip to redis but not the deserialization.
+ */
+class SessionNearCache {
+  private static final Set<Class<?>> IMMUTABLE_TYPES = new HashSet<Class<?>>(Arrays.<Class<?>> asList(String.class,
+      Boolean.class, Character.class, Byte.class, Short.class, Integer.class, Long.class, Float.class, Double.class,
+      BigInteger.class, BigDecimal.class));
+
+  /**
+   * Serialized form of a mutable attribute value.
+   */
+  private static final class Serialized {
+    private final byte[] value;
+
+    Serialized(byte[] value) {
+      this.value = value;
+    }
+  }
+
+  /**
+   * Attributes of one session known to match given version in redis.
+   */
+  static final class Entry {
+    private volatile long version;
+    private final ConcurrentMap<String, Object> attributes = new ConcurrentHashMap<>();
+
+    Entry(long version) {
+      this.version = version;
+    }
+
+    long getVersion() {
+      return version;
+    }
+  }
+
+  private final Map<String, Entry> entries;
+
+  /**
+   * Creates cache holding at most given number of sessions.
+   *
+   * @param maxSessions
+   *          maximum number of cached sessions
+   */
+  SessionNearCache(final int maxSessions) {
+    entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) { // NOSONAR default capacity and load factor
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+        return size() > maxSessions;
+      }
+    };
+  }
+
+  /**
+   * Generates new version stamp for a commit.
+   *
+   * @return new version stamp
+   */
+  long newVersion() {
+    return ThreadLocalRandom.current().nextLong();
+  }
+
+  /**
+   * Called when session meta data was retrieved from redis. If version is same as the cached one, cached attributes
+   * are kept, otherwise they are discarded.
+   *
+   * @param sessionId
+   *          the session id
+   * @param version
+   *          the version stored in redis or <code>null</code> if there was none
+   * @param failover
+   *          <code>true</code> if the session was last owned by another node
+   * @return <code>true</code> if cached attributes can be used
+   */
+  synchronized boolean validate(String sessionId, Long version, boolean failover) {
+    if (version == null || failover) {
+      entries.remove(sessionId);
+      return false;
+    }
+    Entry entry = entries.get(sessionId);
+    if (entry != null && entry.version == version) {
+      return true;
+    }
+    entries.put(sessionId, new Entry(version));
+    return false;
+  }
+
+  /**
+   * Returns cached attribute value. Mutable values are deserialized, so each call returns a new copy. Callers should
+   * call this method once per request and attribute, and keep the returned copy for the rest of the request.
+   *
+   * @param sessionId
+   *          the session id
+   * @param attribute
+   *          the name of the attribute
+   * @param serializer
+   *          used to deserialize mutable values
+   * @return the value or <code>null</code> if attribute was not cached
+   */
+  Object get(String sessionId, String attribute, SerializerDeserializer serializer) {
+    Entry entry = entry(sessionId);
+    Object cached = entry == null ? null : entry.attributes.get(attribute);
+    if (cached instanceof Serialized) {
+      return serializer.deserialize(((Serialized)cached).value);
+    }
+    return cached;
+  }
+
+  /**
+   * Returns form in which the value is kept in cache: the value itself if it is immutable, and its serialized form
+   * otherwise.
+   *
+   * @param value
+   *          the value
+   * @param serialized
+   *          serialized form of the value
+   * @return the cached form of the value
+   */
+  static Object cacheable(Object value, byte[] serialized) {
+    if (value.getClass().isEnum() || IMMUTABLE_TYPES.contains(value.getClass())) {
+      return value;
+    }
+    return new Serialized(serialized);
+  }
+
+  /**
+   * Returns <code>true</code> if attribute value is cached.
+   *
+   * @param sessionId
+   *          the session id
+   * @param attribute
+   *          the name of the attribute
+   * @return <code>true</code> if value is cached
+   */
+  boolean contains(String sessionId, String attribute) {
+    Entry entry = entry(sessionId);
+    return entry != null && entry.attributes.containsKey(attribute);
+  }
+
+  /**
+   * Stores value of an attribute that was read from redis. The value is ignored if session was committed with another
+   * version since its meta data was validated, as the value may have been read before that commit.
+   *
+   * @param sessionId
+   *          the session id
+   * @param version
+   *          the version that was validated when session meta data was retrieved, or <code>null</code> if none
+   * @param attribute
+   *          the name of the attribute
+   * @param value
+   *          deserialized value
+   * @param serialized
+   *          serialized value as read from redis
+   */
+  synchronized void attributeRead(String sessionId, Long version, String attribute, Object value,
+      byte[] serialized) {
+    Entry entry = entries.get(sessionId);
+    if (entry != null && version != null && entry.version == version && value != null) {
+      entry.attributes.put(attribute, cacheable(value, serialized));
+    }
+  }
+
+  /**
+   * Called when session was committed with a new version.
+   *
+   * @param sessionId
+   *          the session id
+   * @param version
+   *          the version stored by the commit
+   * @param added
+   *          attributes added or modified by the commit, in form returned by {@link #cacheable(Object, byte[])}
+   * @param removed
+   *          names of attributes removed by the commit
+   */
+  synchronized void committed(String sessionId, long version, Map<String, Object> added, Collection<String> removed) {
+    Entry entry = entries.get(sessionId);
+    if (entry == null) {
+      entry = new Entry(version);
+      entries.put(sessionId, entry);
+    }
+    entry.version = version;
+    for (String name : removed) {
+      entry.attributes.remove(name);
+    }
+    entry.attributes.putAll(added);
+  }
+
+  /**
+   * Removes session from cache.
+   *
+   * @param sessionId
+   *          the session id
+   */
+  synchronized void remove(String sessionId) {
+    entries.remove(sessionId);
+  }
+
+  /**
+   * Returns number of cached sessions.
+   *
+   * @return number of cached sessions
+   */
+  synchronized int size() {
+    return entries.size();
+  }
+
+  private synchronized Entry entry(String sessionId) {
+    return entries.get(sessionId);
+  }
+}
@@ -2,7 +2,14 @@ package com.amadeus.session.repository.redis;
 
 import static com.amadeus.session.repository.redis.SafeEncoder.encode;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
@@ -21,7 +28,30 @@ import com.amadeus.session.SessionManager;
  * expiration time as the score.
  * <p>
  * A task is run periodically (every second) and retrieves all sessions that
- * have expired up to the moment.
+ * have expired up to the moment. Expired sessions are retrieved in pages of
+ * {@link #CLEANUP_PAGE_SIZE} elements. Each page is claimed atomically using
+ * {@link #CLAIM_EXPIRED_SCRIPT}, i.e. retrieved and removed from sorted set in
+ * single call, so that several nodes never delete same sessions. Claimed pages
+ * are deleted in parallel, with at most {@link #MAX_PARALLEL_DELETES} pages
+ * being deleted at a time.
+ * <p>
+ * Sessions can be distributed over several sorted sets (shards) based on hash
+ * of session id. This spreads the load of updating sorted sets over several
+ * redis cluster nodes. The first shard uses same key as unsharded sorted set,
+ * so sessions stored before sharding was activated are still expired. Cleanup
+ * task processes shards one after another. Number of shards can only grow: the
+ * highest number used in the namespace is recorded in redis using
+ * {@link #RECORD_SHARDS_SCRIPT}, and a lower configured number is replaced by
+ * it, so that no shard is left without cleanup. When number of shards grows, a
+ * session touched afterwards is added to its new shard, while the old shard
+ * still holds its previous expiry instant. For that reason, when sessions are
+ * sharded, each claimed session is checked to be really expired before being
+ * deleted.
+ * <p>
+ * When cleanup workers are configured, expiration of shards is split over
+ * {@link CleanupLeases}, and each node processes only shards whose lease it
+ * holds, instead of all nodes polling all shards. With sticky sessions, each
+ * node still expires its own sessions in all shards.
  * <p>
  * Following risks are possible:
  * <ul>
@@ -42,17 +72,67 @@ class SortedSetSessionExpirationManagement implements RedisExpirationStrategy {
    * 10 second cleanup interval
    */
   private static final int REGULAR_CLEANUP_INTERVAL = 10;
+  /**
+   * Maximum number of sessions claimed for expiration in single call
+   */
+  static final int CLEANUP_PAGE_SIZE = 1000;
+  /**
+   * Maximum number of pages of sessions that are deleted concurrently
+   */
+  static final int MAX_PARALLEL_DELETES = 4;
+  private static final String DELETE_TIMER = "redis.expiration-delete";
+
+  /**
+   * Lua script that claims a page of expired sessions. The page is retrieved
+   * using ZRANGEBYSCORE with LIMIT, and sessions ending with the suffix passed
+   * in ARGV[5] (or all sessions if suffix is empty) are removed from sorted
+   * set. First element of returned array is number of elements in the page,
+   * the following ones are the claimed sessions.
+   */
+  static final RedisScript CLAIM_EXPIRED_SCRIPT = new RedisScript(
+      "local page = redis.call('zrangebyscore', KEYS[1], ARGV[1], ARGV[2], 'LIMIT', ARGV[3], ARGV[4])\n"
+          + "local suffix = ARGV[5]\n"
+          + "local claimed = { #page }\n"
+          + "for _, member in ipairs(page) do\n"
+          + "  if suffix == '' or string.sub(member, -#suffix) == suffix then\n"
+          + "    redis.call('zrem', KEYS[1], member)\n"
+          + "    claimed[#claimed + 1] = member\n"
+          + "  end\n"
+          + "end\n"
+          + "return claimed\n");
+  /**
+   * Lua script that records number of shards passed in ARGV[1] in key KEYS[1]
+   * if it is higher than the recorded one, and returns the highest number.
+   */
+  static final RedisScript RECORD_SHARDS_SCRIPT = new RedisScript(
+      "local recorded = tonumber(redis.call('get', KEYS[1]) or '0')\n"
+          + "local shards = tonumber(ARGV[1])\n"
+          + "if shards > recorded then\n"
+          + "  redis.call('set', KEYS[1], ARGV[1])\n"
+          + "  return shards\n"
+          + "end\n"
+          + "return recorded\n");
+  private static final byte[] NO_SUFFIX = new byte[0];
+  /**
+   * Lease index used when expiration is not split between nodes
+   */
+  private static final int NOT_LEASED = -1;
 
   private final RedisFacade redis;
+  private final RedisFacade.TransactionFacade directCommands;
   private final RedisSessionRepository repository;
   final byte[] sessionToExpireKey;
+  private final String namespace;
+  private byte[][] shardKeys;
   private final boolean sticky;
   private ScheduledFuture<?> cleanupFuture;
   private final String owner;
   private final byte[] ownerAsBytes;
+  private final byte[] ownerSuffix;
   private int sessionPersitenceSafetyMargin;
   private long stickinessSessionFailoverSafetyMargin;
   private int pollingInterval;
+  private CleanupLeases cleanupLeases;
 
   /**
    * Creates instance of ZRANGE (sorted set) based expiration management
@@ -72,19 +152,76 @@ class SortedSetSessionExpirationManagement implements RedisExpirationStrategy {
                                        boolean sticky, String owner) {
     super();
     this.redis = redis;
+    this.directCommands = new DirectTransactionFacade(redis);
     this.repository = redisSession;
     this.sessionToExpireKey = encode(ALLSESSIONS_KEY + namespace);
+    this.namespace = namespace;
+    this.shardKeys = new byte[][] { sessionToExpireKey };
     this.sticky = sticky;
     this.owner = owner;
     this.ownerAsBytes = owner != null ? SafeEncoder.encode(owner) : null;
+    this.ownerSuffix = owner != null ? SafeEncoder.encode(":" + owner) : null;
+  }
+
+  /**
+   * Sets number of sorted sets over which sessions are distributed.
+   *
+   * @param shards
+   *          number of sorted sets, values lower than 1 are treated as 1
+   */
+  void setShards(int shards) {
+    int count = Math.max(shards, 1);
+    byte[][] keys = new byte[count][];
+    keys[0] = sessionToExpireKey;
+    for (int i = 1; i < count; i++) {
+      keys[i] = encode(ALLSESSIONS_KEY + namespace + ":" + i);
+    }
+    shardKeys = keys;
+  }
+
+  /**
+   * Sets number of cleanup workers between which expiration of shards is split.
+   * Number of workers is limited to number of shards, so this method should be
+   * called after {@link #setShards(int)}.
+   *
+   * @param workers
+   *          number of workers, <code>0</code> or less disables election
+   */
+  void setCleanupWorkers(int workers) {
+    if (workers > 0) {
+      cleanupLeases = new CleanupLeases(redis, namespace, owner, Math.min(workers, shardKeys.length));
+    } else {
+      cleanupLeases = null;
+    }
+  }
+
+  /**
+   * Returns key of the sorted set containing the session.
+   *
+   * @param id
+   *          session id
+   * @return sorted set key
+   */
+  byte[] sessionToExpireKey(String id) {
+    byte[][] keys = shardKeys;
+    if (keys.length == 1) {
+      return keys[0];
+    }
+    return keys[(id.hashCode() & Integer.MAX_VALUE) % keys.length];
   }
 
   @Override
   public void sessionDeleted(SessionData session) {
+    sessionDeleted(session, directCommands);
+  }
+
+  @Override
+  public void sessionDeleted(SessionData session, RedisFacade.TransactionFacade commands) {
+    byte[] key = sessionToExpireKey(session.getId());
     if (sticky && session.getPreviousOwner() != null && !owner.equals(session.getPreviousOwner())) {
-      redis.zrem(sessionToExpireKey, encode(session.getId() + ":" + session.getPreviousOwner()));
-    } 
-    redis.zrem(sessionToExpireKey, sortedSetElem(session.getId()));
+      commands.zrem(key, encode(session.getId() + ":" + session.getPreviousOwner()));
+    }
+    commands.zrem(key, sortedSetElem(session.getId()));
   }
 
   byte[] sortedSetElem(String id) {
@@ -100,29 +237,88 @@ class SortedSetSessionExpirationManagement implements RedisExpirationStrategy {
 
   @Override
   public void sessionTouched(SessionData session) {
+    sessionTouched(session, directCommands);
+  }
+
+  @Override
+  public void sessionTouched(SessionData session, RedisFacade.TransactionFacade commands) {
     byte[] sessionKey = repository.sessionKey(session.getId());
     int sessionExpireInSeconds = session.getMaxInactiveInterval();
 
     // If session doesn't expire, then remove expire key and persist session
     if (sessionExpireInSeconds <= 0) {
-      redis.persist(sessionKey);
-      redis.zadd(sessionToExpireKey, Double.MAX_VALUE, sortedSetElem(session.getId()));
+      commands.persist(sessionKey);
+      commands.zadd(sessionToExpireKey(session.getId()), Double.MAX_VALUE, sortedSetElem(session.getId()));
     } else {
       // If session expires, then add session key to expirations cleanup
       // instant, set expire on
       // session and set expire on session expiration key
-      redis.zadd(sessionToExpireKey, session.expiresAt(), sortedSetElem(session.getId()));
-      redis.expire(sessionKey, sessionExpireInSeconds + sessionPersitenceSafetyMargin);
+      commands.zadd(sessionToExpireKey(session.getId()), session.expiresAt(), sortedSetElem(session.getId()));
+      commands.expire(sessionKey, sessionExpireInSeconds + sessionPersitenceSafetyMargin);
+    }
+  }
+
+  @Override
+  public boolean sessionTouched(SessionData session, CommitScript script) {
+    int sessionExpireInSeconds = session.getMaxInactiveInterval();
+    byte[] key = sessionToExpireKey(session.getId());
+    byte[] elem = sortedSetElem(session.getId());
+    if (sessionExpireInSeconds <= 0) {
+      script.expiration(key, Double.MAX_VALUE, elem, 0);
+    } else {
+      script.expiration(key, session.expiresAt(), elem, sessionExpireInSeconds + sessionPersitenceSafetyMargin);
     }
+    return true;
+  }
+
+  /**
+   * Sorted set score and session key expiry depend only on the expiry instant of the session.
+   */
+  @Override
+  public boolean isTouchStateless() {
+    return true;
+  }
+
+  /**
+   * Touch doesn't depend on previous state of the session, so it is sent in the same pipeline as the fetch script.
+   */
+  @Override
+  public RedisScript fetchAndTouchScript(String id, List<byte[]> keys, List<byte[]> args) {
+    return null;
   }
   
   
 
+  /**
+   * Records number of shards in redis, and switches to the recorded number if
+   * it is higher than the configured one, as sessions may still be indexed in
+   * shards above the configured number.
+   */
+  void recordShards() {
+    int configured = shardKeys.length;
+    try {
+      Object recorded = redis.evalsha(RECORD_SHARDS_SCRIPT, Arrays.asList(encode(ALLSESSIONS_KEY + namespace + ":shards")),
+          Arrays.asList(encode(String.valueOf(configured))));
+      if (recorded instanceof Long && (Long)recorded > configured) {
+        logger.warn("Number of expiration shards can't be decreased, using {} shards instead of {} for namespace {}",
+            recorded, configured, namespace);
+        setShards(((Long)recorded).intValue());
+      }
+    } catch (Exception e) { // NOSONAR Any exception can occur here
+      logger.error("Unable to record number of expiration shards for namespace {}", namespace, e);
+    }
+  }
+
   @Override
   public void startExpiredSessionsTask(final SessionManager sessionManager) {
+    recordShards();
     Runnable task = new CleanupTask(sessionManager);
     initPollingIntervals(sessionManager.getConfiguration().getMaxInactiveInterval());
     logger.debug("Cleanup interval for sessions is {}, persitent margin is {}, stickiness failover margin is {}", pollingInterval, sessionPersitenceSafetyMargin, stickinessSessionFailoverSafetyMargin);
+    if (cleanupLeases != null) {
+      // Lease survives two missed polls before other node takes over
+      cleanupLeases.setLeaseDuration(3 * pollingInterval);
+    }
     cleanupFuture = sessionManager.schedule("redis.expiration-cleanup", task, pollingInterval);
   }
 
@@ -140,13 +336,14 @@ class SortedSetSessionExpirationManagement implements RedisExpirationStrategy {
   }
 
   /**
-   * Private class used to perform session expiration. It will retrieve
-   * ZRANGEBYSCORE with values up to now instant, and then for each retrieved
-   * key, it will expire it.
+   * Private class used to perform session expiration. It will claim pages of
+   * sessions with score up to now instant, and then for each claimed session,
+   * it will expire it.
    */
   final class CleanupTask implements Runnable {
     
     private final SessionManager sessionManager;
+    private final Deque<Future<?>> pendingDeletes = new ArrayDeque<>();
 
     CleanupTask(SessionManager sessionManager) {
       this.sessionManager = sessionManager;
@@ -160,32 +357,192 @@ class SortedSetSessionExpirationManagement implements RedisExpirationStrategy {
       if (logger.isDebugEnabled()) {    	  
     	  logger.debug("Cleaning up sessions expiring at {}, {}", now, sessionManager.getConfiguration().getNamespace());
       }
-      expireSessions(start, now, !sticky);
-      if (sticky) {
-        expireSessions(0, start, true);
+      byte[][] keys = shardKeys;
+      long[] tokens = acquireLeases();
+      for (int i = 0; i < keys.length; i++) {
+        if (sticky) {
+          expireSessions(keys[i], start, now, false, NOT_LEASED, 0);
+        }
+        int lease = tokens == null ? NOT_LEASED : i % tokens.length;
+        if (lease == NOT_LEASED || tokens[lease] > 0) {
+          expireSessions(keys[i], 0, sticky ? start : now, true, lease, lease == NOT_LEASED ? 0 : tokens[lease]);
+        }
       }
     }
 
     /**
-     * Retrieves session keys from sorted set
+     * Acquires or renews cleanup leases once per run.
+     *
+     * @return fencing token of each lease, <code>0</code> if lease is held by
+     *         other node, or <code>null</code> if expiration is not split
+     *         between nodes
+     */
+    private long[] acquireLeases() {
+      CleanupLeases leases = cleanupLeases;
+      if (leases == null) {
+        return null; // NOSONAR null means leases are not used
+      }
+      long[] tokens = new long[leases.count()];
+      for (int i = 0; i < tokens.length; i++) {
+        tokens[i] = leases.acquire(i);
+      }
+      return tokens;
+    }
+
+    /**
+     * Claims expired sessions from sorted set page by page and deletes them.
      * 
+     * @param key
+     *          key of the sorted set
      * @param start
      *          earliest instant for session to retrieve
      * @param end
      *          latest instant for session to retrieve
      * @param forceExpire
      *          if set to true, sessions are expired even if they don't belong to this node
+     * @param lease
+     *          index of the cleanup lease that guards the shard, or {@link #NOT_LEASED}
+     * @param token
+     *          fencing token of the lease
+     */
+    private void expireSessions(byte[] key, long start, long end, boolean forceExpire, int lease, long token) {
+      List<byte[]> keys = Arrays.asList(key);
+      if (!redis.canRunScript(keys)) {
+        expireSessionsOneByOne(key, start, end, forceExpire);
+        return;
+      }
+      byte[] suffix = forceExpire ? NO_SUFFIX : ownerSuffix;
+      long offset = 0;
+      try {
+        int pageLength;
+        do {
+          List<byte[]> args = Arrays.asList(encode(String.valueOf(start)), encode(String.valueOf(end)),
+              encode(String.valueOf(offset)), encode(String.valueOf(CLEANUP_PAGE_SIZE)), suffix);
+          List<?> claimed = (List<?>)redis.evalsha(CLAIM_EXPIRED_SCRIPT, keys, args);
+          pageLength = ((Long)claimed.get(0)).intValue();
+          // Sessions that were not claimed are still in sorted set
+          offset += pageLength - (claimed.size() - 1);
+          if (claimed.size() > 1) {
+            deleteClaimed(claimed.subList(1, claimed.size()), forceExpire);
+          }
+        } while (pageLength == CLEANUP_PAGE_SIZE && isLeaseHeld(lease, token));
+      } finally {
+        awaitDeletes(0);
+      }
+    }
+
+    /**
+     * Checks that this node still holds the lease with the same fencing token.
+     * If the lease was lost, e.g. after a long pause, the node stops claiming
+     * sessions of the shard.
      */
-    private void expireSessions(long start, long end, boolean forceExpire) {
-      Set<byte[]> sessionsToExpire = redis.zrangeByScore(sessionToExpireKey, start, end);
+    private boolean isLeaseHeld(int lease, long token) {
+      if (lease == NOT_LEASED || cleanupLeases.isHeld(lease, token)) {
+        return true;
+      }
+      logger.info("Cleanup lease {} with fencing token {} is no longer held, stopping cleanup", lease, token);
+      return false;
+    }
+
+    /**
+     * Submits deletion of claimed sessions. If there are already
+     * {@link #MAX_PARALLEL_DELETES} pages being deleted, waits for the oldest
+     * one to finish.
+     *
+     * @param claimed
+     *          list of claimed sorted set elements
+     * @param forceExpire
+     *          <code>true</code> if sessions were claimed regardless of owner
+     */
+    private void deleteClaimed(List<?> claimed, final boolean forceExpire) {
+      final List<String> sessionIds = new ArrayList<>(claimed.size());
+      for (Object session : claimed) {
+        sessionIds.add(extractSessionId((byte[])session));
+      }
+      Future<?> future = sessionManager.submit(DELETE_TIMER, new Runnable() {
+        @Override
+        public void run() {
+          for (String sessionId : sessionIds) {
+            logger.debug("Starting cleanup of session '{}', forced={}", sessionId, forceExpire);
+            try {
+              if (isMovedToOtherShard(sessionId)) {
+                continue;
+              }
+              sessionManager.delete(sessionId, true);
+            } catch (Exception e) { // NOSONAR Any exception can occur here
+              logger.error("Exception occured while expiring sessionId '{}'", sessionId, e);
+            }
+          }
+        }
+      });
+      if (future != null) {
+        pendingDeletes.add(future);
+        awaitDeletes(MAX_PARALLEL_DELETES - 1);
+      }
+    }
+
+    /**
+     * Returns <code>true</code> if sessions are sharded and the session is
+     * still active. This happens when the claimed element was left in its
+     * previous shard after number of shards has grown.
+     *
+     * @param sessionId
+     *          the id of the claimed session
+     * @return <code>true</code> if the session must not be deleted
+     */
+    private boolean isMovedToOtherShard(String sessionId) {
+      if (shardKeys.length > 1 && repository.isActive(sessionId, System.currentTimeMillis())) {
+        logger.debug("Session '{}' is still active, its expiration was moved to other shard", sessionId);
+        return true;
+      }
+      return false;
+    }
+
+    /**
+     * Waits until there are at most specified number of pages being deleted.
+     *
+     * @param maxPending
+     *          maximum number of pages whose deletion may still be in progress
+     */
+    private void awaitDeletes(int maxPending) {
+      while (pendingDeletes.size() > maxPending) {
+        try {
+          pendingDeletes.poll().get();
+        } catch (InterruptedException e) {
+          logger.warn("Interrupted while waiting for expired sessions to be deleted.");
+          pendingDeletes.clear();
+          Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+          logger.error("Exception occured while deleting expired sessions.", e);
+        }
+      }
+    }
+
+    /**
+     * Retrieves session keys from sorted set and removes them one by one. Used
+     * when redis facade can't run scripts.
+     * 
+     * @param key
+     *          key of the sorted set
+     * @param start
+     *          earliest instant for session to retrieve
+     * @param end
+     *          latest instant for session to retrieve
+     * @param forceExpire
+     *          if set to true, sessions are expired even if they don't belong to this node
+     */
+    private void expireSessionsOneByOne(byte[] key, long start, long end, boolean forceExpire) {
+      Set<byte[]> sessionsToExpire = redis.zrangeByScore(key, start, end);
       if (sessionsToExpire != null && !sessionsToExpire.isEmpty()) {
         for (byte[] session : sessionsToExpire) {
           if (forceExpire || sessionOwned(session)) {
-            if (ONE.equals(redis.zrem(sessionToExpireKey, session))) { // NOSONAR
+            if (ONE.equals(redis.zrem(key, session))) { // NOSONAR
               String sessionId = extractSessionId(session);
   
               logger.debug("Starting cleanup of session '{}', forced={}", sessionId, forceExpire);
-              sessionManager.delete(sessionId, true);
+              if (!isMovedToOtherShard(sessionId)) {
+                sessionManager.delete(sessionId, true);
+              }
             }
           }
         }
@@ -248,6 +605,9 @@ class SortedSetSessionExpirationManagement implements RedisExpirationStrategy {
       cleanupFuture.cancel(true);
       cleanupFuture = null;
     }
+    if (cleanupLeases != null) {
+      cleanupLeases.release();
+    }
   }
   
   @Override
@@ -257,7 +617,7 @@ class SortedSetSessionExpirationManagement implements RedisExpirationStrategy {
 
   @Override
   public void sessionIdChange(SessionData sessionData) {
-    redis.zrem(sessionToExpireKey, sortedSetElem(sessionData.getOldSessionId()));
-    redis.zadd(sessionToExpireKey, sessionData.expiresAt(), sortedSetElem(sessionData.getId()));
+    redis.zrem(sessionToExpireKey(sessionData.getOldSessionId()), sortedSetElem(sessionData.getOldSessionId()));
+    redis.zadd(sessionToExpireKey(sessionData.getId()), sessionData.expiresAt(), sortedSetElem(sessionData.getId()));
   }
 }
\ No newline at end of file
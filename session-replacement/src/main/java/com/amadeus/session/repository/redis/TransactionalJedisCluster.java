@@ -1,6 +1,7 @@
 package com.amadeus.session.repository.redis;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -12,12 +13,18 @@ import redis.clients.jedis.JedisCluster;
 import redis.clients.jedis.JedisClusterCommand;
 import redis.clients.jedis.JedisPoolConfig;
 import redis.clients.jedis.Transaction;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
 
 /**
  * Extension of Redis cluster interface that supports transactions.
  */
 class TransactionalJedisCluster extends JedisCluster {
 
+  /**
+   * Facade used to load and run again scripts that were not in script cache of the node running the transaction.
+   */
+  private final RedisFacade scripts = new JedisClusterFacade(this);
+
   TransactionalJedisCluster(Set<HostAndPort> hostAndPort, int timeout, JedisPoolConfig config) {
     super(hostAndPort, timeout, config);
   }
@@ -54,7 +61,7 @@ class TransactionalJedisCluster extends JedisCluster {
       @Override
       public RedisFacade.ResponseFacade<T> execute(Jedis connection) {
         Transaction t = connection.multi();
-        RedisFacade.ResponseFacade<T> response = transaction.run(AbstractJedisFacade.wrapJedisTransaction(t));
+        RedisFacade.ResponseFacade<T> response = transaction.run(AbstractJedisFacade.wrapJedisTransaction(t, scripts));
         t.exec();
         return response;
 
@@ -132,6 +139,46 @@ class TransactionalJedisCluster extends JedisCluster {
       });
     }
 
+    @Override
+    public ResponseFacade<List<byte[]>> hmget(final byte[] key, final byte[]... fields) {
+      final List<List<byte[]>> result = new ArrayList<>(1);
+      operations.add(new Runnable() {
+
+        @Override
+        public void run() {
+          result.add(jedis.hmget(key, fields));
+        }
+      });
+      return new RedisFacade.ResponseFacade<List<byte[]>>() {
+
+        @Override
+        public List<byte[]> get() {
+          return result.isEmpty() ? null : result.get(0);
+        }
+
+      };
+    }
+
+    @Override
+    public ResponseFacade<Map<byte[], byte[]>> hgetAll(final byte[] key) {
+      final List<Map<byte[], byte[]>> result = new ArrayList<>(1);
+      operations.add(new Runnable() {
+
+        @Override
+        public void run() {
+          result.add(jedis.hgetAll(key));
+        }
+      });
+      return new RedisFacade.ResponseFacade<Map<byte[], byte[]>>() {
+
+        @Override
+        public Map<byte[], byte[]> get() {
+          return result.isEmpty() ? null : result.get(0);
+        }
+
+      };
+    }
+
     @Override
     public ResponseFacade<Set<byte[]>> smembers(final byte[] key) {
       operations.add(new Runnable() {
@@ -151,6 +198,141 @@ class TransactionalJedisCluster extends JedisCluster {
       };
     }
 
+    @Override
+    public ResponseFacade<Boolean> exists(final byte[] key) {
+      final List<Boolean> result = new ArrayList<>(1);
+      operations.add(new Runnable() {
+
+        @Override
+        public void run() {
+          result.add(jedis.exists(key));
+        }
+      });
+      return new RedisFacade.ResponseFacade<Boolean>() {
+
+        @Override
+        public Boolean get() {
+          return result.isEmpty() ? null : result.get(0);
+        }
+
+      };
+    }
+
+    @Override
+    public void sadd(final byte[] key, final byte[]... member) {
+      operations.add(new Runnable() {
+
+        @Override
+        public void run() {
+          jedis.sadd(key, member);
+        }
+      });
+    }
+
+    @Override
+    public void srem(final byte[] key, final byte[]... member) {
+      operations.add(new Runnable() {
+
+        @Override
+        public void run() {
+          jedis.srem(key, member);
+        }
+      });
+    }
+
+    @Override
+    public void expire(final byte[] key, final int value) {
+      operations.add(new Runnable() {
+
+        @Override
+        public void run() {
+          jedis.expire(key, value);
+        }
+      });
+    }
+
+    @Override
+    public void expireAt(final byte[] key, final long unixTime) {
+      operations.add(new Runnable() {
+
+        @Override
+        public void run() {
+          jedis.expireAt(key, unixTime);
+        }
+      });
+    }
+
+    @Override
+    public void setex(final byte[] key, final int expiry, final byte[] value) {
+      operations.add(new Runnable() {
+
+        @Override
+        public void run() {
+          jedis.setex(key, expiry, value);
+        }
+      });
+    }
+
+    @Override
+    public void persist(final byte[] key) {
+      operations.add(new Runnable() {
+
+        @Override
+        public void run() {
+          jedis.persist(key);
+        }
+      });
+    }
+
+    @Override
+    public void zadd(final byte[] key, final double score, final byte[] elem) {
+      operations.add(new Runnable() {
+
+        @Override
+        public void run() {
+          jedis.zadd(key, score, elem);
+        }
+      });
+    }
+
+    @Override
+    public void zrem(final byte[] key, final byte[]... fields) {
+      operations.add(new Runnable() {
+
+        @Override
+        public void run() {
+          jedis.zrem(key, fields);
+        }
+      });
+    }
+
+    @Override
+    public ResponseFacade<Object> evalsha(final RedisScript script, final List<byte[]> keys,
+        final List<byte[]> args) {
+      final Object[] result = new Object[1];
+      operations.add(new Runnable() {
+
+        @Override
+        public void run() {
+          try {
+            result[0] = jedis.evalsha(script.getSha(), keys, args);
+          } catch (JedisNoScriptException e) { // NOSONAR
+            // Script is loaded on node that owns slot of the keys
+            jedis.scriptLoad(script.getScript(), keys.get(0));
+            result[0] = jedis.evalsha(script.getSha(), keys, args);
+          }
+        }
+      });
+      return new RedisFacade.ResponseFacade<Object>() {
+
+        @Override
+        public Object get() {
+          return result[0];
+        }
+
+      };
+    }
+
     /**
      * Executes all submitted operations.
      */
@@ -179,6 +179,16 @@ class HttpSessionNotifier implements SessionNotifier {
     }
   }
 
+  @Override
+  public boolean isBindingListener(Object value) {
+    return value instanceof HttpSessionBindingListener;
+  }
+
+  @Override
+  public boolean hasAttributeListeners() {
+    return !descriptor.getHttpSessionAttributeListeners().isEmpty();
+  }
+
   @Override
   public void sessionIdChanged(RepositoryBackedSession session, String oldId) {
     // Session id change is only supported for Servlet 3.1+
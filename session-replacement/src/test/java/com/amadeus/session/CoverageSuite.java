@@ -3,14 +3,22 @@ package com.amadeus.session;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
+import com.amadeus.session.repository.inmemory.TestExpirationWheel;
+import com.amadeus.session.repository.inmemory.TestInMemoryConfiguration;
 import com.amadeus.session.repository.inmemory.TestInMemoryRepository;
+import com.amadeus.session.repository.inmemory.TestMemoryBudget;
+import com.amadeus.session.repository.inmemory.TestOffHeapStore;
+import com.amadeus.session.repository.redis.TestCleanupLeases;
 import com.amadeus.session.repository.redis.TestExpirationListener;
 import com.amadeus.session.repository.redis.TestJedisClusterFacade;
 import com.amadeus.session.repository.redis.TestJedisPoolFacade;
 import com.amadeus.session.repository.redis.TestJedisSessionRepositoryFactory;
 import com.amadeus.session.repository.redis.TestNotificationExpirationManagement;
+import com.amadeus.session.repository.redis.TestRedisCommitBatcher;
 import com.amadeus.session.repository.redis.TestRedisConfiguration;
 import com.amadeus.session.repository.redis.TestRedisSessionRepository;
+import com.amadeus.session.repository.redis.TestCommitScript;
+import com.amadeus.session.repository.redis.TestSessionNearCache;
 import com.amadeus.session.repository.redis.TestSortedSetExpiration;
 import com.amadeus.session.repository.redis.TestSortedSetExpirationWithStickiness;
 import com.amadeus.session.servlet.TestCookieSessionTracking;
@@ -30,14 +38,21 @@ import com.amadeus.session.servlet.TestWebXmlParser;
  */
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
+  TestAttributePrefetch.class,
+  TestCompactSerializerDeserializer.class,
+  TestCompressingSerializerDeserializer.class,
   TestEncryptingSerializerDeserializer.class,
   TestJdkSerializerDeserializer.class,
   TestRepositoryBackedSession.class,
+  TestSerializationBufferPool.class,
+  TestSerializedHash.class,
   TestRandomIdProvider.class,
   TestSessionConfiguration.class,
   TestSessionData.class,
   TestSessionManager.class,
+  TestSingleFlightFetch.class,
   TestUuidProvider.class,
+  TestWriteBehindCommitter.class,
 
   TestHttpRequestWrapper.class,
   TestHttpResponseWrapper.class,
@@ -52,12 +67,20 @@ import com.amadeus.session.servlet.TestWebXmlParser;
   TestInitializeSessionManagement.class,
   TestRepositoryBackendHttpSessionWrapper.class,
 
+  TestExpirationWheel.class,
+  TestInMemoryConfiguration.class,
   TestInMemoryRepository.class,
+  TestMemoryBudget.class,
+  TestOffHeapStore.class,
 
+  TestCleanupLeases.class,
   TestExpirationListener.class,
   TestJedisClusterFacade.class,
   TestJedisPoolFacade.class,
+  TestRedisCommitBatcher.class,
   TestRedisSessionRepository.class,
+  TestCommitScript.class,
+  TestSessionNearCache.class,
   TestSortedSetExpiration.class,
   TestNotificationExpirationManagement.class,
   TestRedisConfiguration.class,
@@ -0,0 +1,112 @@
+package com.amadeus.session;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.amadeus.session.SharedSessionBenchmark.NoopNotifier;
+import com.amadeus.session.repository.inmemory.InMemoryRepository;
+import com.amadeus.session.servlet.UrlSessionTracking;
+
+/**
+ * Compares serialization of session attributes by {@link JdkSerializerDeserializer} with serialization into a new
+ * {@link ByteArrayOutputStream} for each value. The serializer is measured with buffer reuse disabled (default) and
+ * enabled (see {@link SessionConfiguration#SERIALIZATION_BUFFERS}). Allocation rate is reported when GC profiler is
+ * used, either using {@link #main}, or with JMH command line, e.g.
+ * <code>org.openjdk.jmh.Main SerializationBenchmark -prof gc</code>, where <code>gc.alloc.rate.norm</code> is the
+ * number of bytes allocated per operation. Throughput of serializer benchmarks also includes updates of serialization
+ * metrics.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+  /**
+   * Number of entries in serialized map.
+   */
+  @Param({ "10", "1000" })
+  int entries;
+
+  /**
+   * Number of pooled buffers per size class, <code>0</code> when buffers are not reused.
+   */
+  @Param({ "0", "16" })
+  int buffers;
+
+  private SessionManager manager;
+  private ExecutorFacade executors;
+  private JdkSerializerDeserializer serializer;
+  private HashMap<String, String> value;
+  private byte[] serialized;
+
+  @Setup
+  public void setup() {
+    SessionConfiguration configuration = new SessionConfiguration();
+    configuration.setSerializationBuffers(buffers);
+    executors = new ExecutorFacade(configuration);
+    manager = new SessionManager(executors, new DefaultSessionFactory(), new InMemoryRepository("benchmark"),
+        new UrlSessionTracking(), new NoopNotifier(), configuration, getClass().getClassLoader());
+    serializer = new JdkSerializerDeserializer();
+    serializer.setSessionManager(manager);
+    value = new HashMap<>();
+    for (int i = 0; i < entries; i++) {
+      value.put("key" + i, "value" + i);
+    }
+    serialized = serializer.serialize(value);
+  }
+
+  @TearDown
+  public void tearDown() {
+    manager.close();
+    executors.shutdown();
+  }
+
+  @Benchmark
+  public byte[] serialize() {
+    return serializer.serialize(value);
+  }
+
+  @Benchmark
+  public Object deserialize() {
+    return serializer.deserialize(serialized);
+  }
+
+  @Benchmark
+  public byte[] newBuffer() throws IOException {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    try (ObjectOutput out = new ObjectOutputStream(bos)) {
+      out.writeObject(value);
+      out.flush();
+      return bos.toByteArray();
+    }
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    Options options = new OptionsBuilder().include(SerializationBenchmark.class.getSimpleName()).addProfiler("gc")
+        .build();
+    new Runner(options).run();
+  }
+}
@@ -0,0 +1,142 @@
+package com.amadeus.session;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.amadeus.session.repository.inmemory.InMemoryRepository;
+import com.amadeus.session.servlet.UrlSessionTracking;
+
+/**
+ * Measures throughput of concurrent requests that all use the same session:
+ * each operation retrieves the session, modifies an attribute and commits it,
+ * as a request would. Run with 8 to 64 threads, either using {@link #main},
+ * or with JMH command line, e.g. <code>org.openjdk.jmh.Main SharedSessionBenchmark -t 64</code>.
+ * When <code>reuse</code> is <code>true</code>, concurrent requests share the
+ * session object through the local cache of {@link DefaultSessionFactory}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SharedSessionBenchmark {
+  private static final String SESSION_ID = "shared-session";
+
+  @Param({ "true", "false" })
+  boolean reuse;
+
+  private SessionManager manager;
+  private ExecutorFacade executors;
+  private final AtomicInteger counter = new AtomicInteger();
+
+  @Setup
+  public void setup() {
+    SessionConfiguration configuration = new SessionConfiguration();
+    configuration.setAllowedCachedSessionReuse(reuse);
+    executors = new ExecutorFacade(configuration);
+    DefaultSessionFactory factory = new DefaultSessionFactory();
+    manager = new SessionManager(executors, factory, new InMemoryRepository("benchmark"), new UrlSessionTracking(),
+        new NoopNotifier(), configuration, getClass().getClassLoader());
+    RepositoryBackedSession session = factory.build(
+        new SessionData(SESSION_ID, System.currentTimeMillis(), 3600));
+    session.checkUsedAndLock();
+    session.setAttribute("counter", 0);
+    session.commit();
+  }
+
+  @TearDown
+  public void tearDown() {
+    manager.close();
+    executors.shutdown();
+  }
+
+  @Benchmark
+  public Object sharedSessionRequest() {
+    RepositoryBackedSession session = manager.fetchSession(SESSION_ID, true);
+    session.checkUsedAndLock();
+    session.setAttribute("counter", counter.incrementAndGet());
+    session.commit();
+    return session;
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    for (int threads : new int[] { 8, 16, 32, 64 }) {
+      Options options = new OptionsBuilder().include(SharedSessionBenchmark.class.getSimpleName())
+          .threads(threads).build();
+      new Runner(options).run();
+    }
+  }
+
+  /**
+   * Notifier that ignores all events.
+   */
+  static class NoopNotifier implements SessionNotifier {
+    @Override
+    public void sessionCreated(RepositoryBackedSession session) {
+      // Nothing to notify
+    }
+
+    @Override
+    public void sessionDestroyed(RepositoryBackedSession session, boolean shutdown) {
+      // Nothing to notify
+    }
+
+    @Override
+    public void attributeAdded(RepositoryBackedSession session, String key, Object value) {
+      // Nothing to notify
+    }
+
+    @Override
+    public void attributeReplaced(RepositoryBackedSession session, String key, Object replacedValue) {
+      // Nothing to notify
+    }
+
+    @Override
+    public void attributeRemoved(RepositoryBackedSession session, String key, Object removedValue) {
+      // Nothing to notify
+    }
+
+    @Override
+    public void attributeBeingStored(RepositoryBackedSession session, String key, Object value) {
+      // Nothing to notify
+    }
+
+    @Override
+    public void attributeHasBeenRestored(RepositoryBackedSession session, String key, Object value) {
+      // Nothing to notify
+    }
+
+    @Override
+    public void sessionIdChanged(RepositoryBackedSession session, String oldId) {
+      // Nothing to notify
+    }
+
+    @Override
+    public boolean isBindingListener(Object value) {
+      return false;
+    }
+
+    @Override
+    public boolean hasAttributeListeners() {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package com.amadeus.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.junit.Test;
+
+import com.amadeus.session.SessionConfiguration.PrefetchMode;
+
+@SuppressWarnings("javadoc")
+public class TestAttributePrefetch {
+
+  @Test
+  public void testNone() {
+    SessionConfiguration conf = new SessionConfiguration();
+    conf.setPrefetchAttributes("a,b");
+    AttributePrefetch prefetch = new AttributePrefetch(conf);
+    assertSame(AttributePrefetch.Selection.NONE, prefetch.attributesFor("/path"));
+    assertTrue(prefetch.attributesFor(null).isEmpty());
+  }
+
+  @Test
+  public void testAll() {
+    SessionConfiguration conf = new SessionConfiguration();
+    conf.setPrefetchMode(PrefetchMode.ALL);
+    AttributePrefetch prefetch = new AttributePrefetch(conf);
+    assertTrue(prefetch.attributesFor("/path").isAll());
+    assertFalse(prefetch.attributesFor("/path").isEmpty());
+  }
+
+  @Test
+  public void testList() {
+    SessionConfiguration conf = new SessionConfiguration();
+    conf.setPrefetchMode(PrefetchMode.LIST);
+    conf.setPrefetchAttributes("a,b");
+    AttributePrefetch prefetch = new AttributePrefetch(conf);
+    prefetch.attributeRead("/path", "c");
+    AttributePrefetch.Selection selection = prefetch.attributesFor("/path");
+    assertFalse(selection.isAll());
+    assertEquals(new HashSet<>(Arrays.asList("a", "b")), selection.getAttributes());
+  }
+
+  @Test
+  public void testAdaptive() {
+    SessionConfiguration conf = new SessionConfiguration();
+    conf.setPrefetchMode(PrefetchMode.ADAPTIVE);
+    AttributePrefetch prefetch = new AttributePrefetch(conf);
+    assertTrue(prefetch.attributesFor("/path").isEmpty());
+    prefetch.attributeRead("/path", "a");
+    prefetch.attributeRead("/unknown", "a");
+    prefetch.attributeRead(null, "b");
+    assertEquals(Collections.singleton("a"), prefetch.attributesFor("/path").getAttributes());
+    assertTrue(prefetch.attributesFor("/other").isEmpty());
+    assertTrue(prefetch.attributesFor(null).isEmpty());
+  }
+
+  @Test
+  public void testAdaptiveThreshold() {
+    SessionConfiguration conf = new SessionConfiguration();
+    conf.setPrefetchMode(PrefetchMode.ADAPTIVE);
+    conf.setPrefetchAttributes("c");
+    AttributePrefetch prefetch = new AttributePrefetch(conf);
+    // a is read by every request, b only by one in ten
+    for (int i = 0; i < 10; i++) {
+      prefetch.attributesFor("/path");
+      prefetch.attributeRead("/path", "a");
+      if (i == 0) {
+        prefetch.attributeRead("/path", "b");
+      }
+    }
+    assertEquals(new HashSet<>(Arrays.asList("a", "c")), prefetch.attributesFor("/path").getAttributes());
+  }
+
+  @Test
+  public void testAdaptiveDecay() {
+    SessionConfiguration conf = new SessionConfiguration();
+    conf.setPrefetchMode(PrefetchMode.ADAPTIVE);
+    AttributePrefetch prefetch = new AttributePrefetch(conf);
+    for (int i = 0; i < AttributePrefetch.DECAY_PERIOD; i++) {
+      prefetch.attributesFor("/path");
+      prefetch.attributeRead("/path", "a");
+    }
+    assertTrue(prefetch.attributesFor("/path").getAttributes().contains("a"));
+    // a is no longer read, it must stop being prefetched
+    for (int i = 0; i < AttributePrefetch.DECAY_PERIOD * 4; i++) {
+      prefetch.attributesFor("/path");
+    }
+    assertTrue(prefetch.attributesFor("/path").isEmpty());
+  }
+
+  @Test
+  public void testAdaptiveBounded() {
+    SessionConfiguration conf = new SessionConfiguration();
+    conf.setPrefetchMode(PrefetchMode.ADAPTIVE);
+    AttributePrefetch prefetch = new AttributePrefetch(conf);
+    prefetch.attributesFor("/path");
+    for (int i = 0; i < AttributePrefetch.MAX_ATTRIBUTES_PER_CONTEXT * 2; i++) {
+      prefetch.attributeRead("/path", "a" + i);
+    }
+    assertEquals(AttributePrefetch.MAX_ATTRIBUTES_PER_CONTEXT, prefetch.attributesFor("/path").getAttributes().size());
+    for (int i = 0; i < AttributePrefetch.MAX_CONTEXTS * 2; i++) {
+      prefetch.attributesFor("/path" + i);
+    }
+    assertEquals(AttributePrefetch.MAX_CONTEXTS, prefetch.contexts());
+    // least recently used context was dropped
+    assertTrue(prefetch.attributesFor("/path").isEmpty());
+  }
+}
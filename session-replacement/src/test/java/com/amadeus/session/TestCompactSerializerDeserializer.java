@@ -0,0 +1,204 @@
+package com.amadeus.session;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.codahale.metrics.MetricRegistry;
+
+@SuppressWarnings("javadoc")
+public class TestCompactSerializerDeserializer {
+
+  static class Base implements Serializable {
+    private static final long serialVersionUID = 1L;
+    int base;
+  }
+
+  static class Derived extends Base {
+    private static final long serialVersionUID = 1L;
+    String name;
+    List<Date> dates = new ArrayList<>();
+  }
+
+  private Map<Long, byte[]> descriptors;
+  private SessionRepository repository;
+
+  @Before
+  public void setUp() {
+    descriptors = new ConcurrentHashMap<>();
+    repository = mock(SessionRepository.class, withSettings().extraInterfaces(ClassDescriptorDictionary.class));
+    ClassDescriptorDictionary dictionary = (ClassDescriptorDictionary)repository;
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        descriptors.put((Long)invocation.getArgument(0), (byte[])invocation.getArgument(1));
+        return null;
+      }
+    }).when(dictionary).storeClassDescriptor(anyLong(), any(byte[].class));
+    when(dictionary.getClassDescriptor(anyLong())).then(new Answer<byte[]>() {
+      @Override
+      public byte[] answer(InvocationOnMock invocation) throws Throwable {
+        return descriptors.get(invocation.getArgument(0));
+      }
+    });
+  }
+
+  private CompactSerializerDeserializer serializer(SessionRepository sessionRepository) {
+    CompactSerializerDeserializer serializer = new CompactSerializerDeserializer();
+    SessionManager sessionManager = mock(SessionManager.class);
+    when(sessionManager.getMetrics()).thenReturn(new MetricRegistry());
+    when(sessionManager.getRepository()).thenReturn(sessionRepository);
+    serializer.setSessionManager(sessionManager);
+    return serializer;
+  }
+
+  @Test
+  public void testPrimitives() {
+    CompactSerializerDeserializer serializer = serializer(repository);
+    assertNull(serializer.deserialize(null));
+    assertNull(serializer.deserialize(serializer.serialize(null)));
+    assertEquals("String", serializer.deserialize(serializer.serialize("String")));
+    assertEquals(7, serializer.serialize("String").length);
+    assertEquals("\u00e9t\u00e9", serializer.deserialize(serializer.serialize("\u00e9t\u00e9")));
+    assertEquals("a\ud800b", serializer.deserialize(serializer.serialize("a\ud800b")));
+    assertEquals(Integer.valueOf(42), serializer.deserialize(serializer.serialize(42)));
+    assertEquals(Long.valueOf(42), serializer.deserialize(serializer.serialize(42L)));
+    assertEquals(Double.valueOf(4.2), serializer.deserialize(serializer.serialize(4.2)));
+    assertEquals(Boolean.TRUE, serializer.deserialize(serializer.serialize(true)));
+    assertEquals(Boolean.FALSE, serializer.deserialize(serializer.serialize(false)));
+  }
+
+  @Test
+  public void testObjects() {
+    CompactSerializerDeserializer serializer = serializer(repository);
+    Derived value = new Derived();
+    value.base = 3;
+    value.name = "name";
+    value.dates.add(new Date());
+    Derived result = (Derived)serializer.deserialize(serializer.serialize(value));
+    assertEquals(3, result.base);
+    assertEquals("name", result.name);
+    assertEquals(value.dates, result.dates);
+    HashMap<String, Object> map = new HashMap<>();
+    map.put("key", value);
+    assertEquals(1, ((Map<?, ?>)serializer.deserialize(serializer.serialize(map))).size());
+  }
+
+  @Test
+  public void testSerializeToBuffer() {
+    CompactSerializerDeserializer serializer = serializer(repository);
+    Date now = new Date();
+    Object[] values = { null, "String", "a\ud800b", 42, 42L, 4.2, true, now };
+    for (Object value : values) {
+      SerializationBufferPool.Buffer buffer = serializer.serializeToBuffer(value);
+      byte[] serialized = serializer.serialize(value);
+      assertArrayEquals(serialized, buffer.toByteArray());
+      byte[] shifted = new byte[buffer.size() + 2];
+      System.arraycopy(buffer.array(), 0, shifted, 2, buffer.size());
+      buffer.release();
+      assertEquals(value, serializer.deserialize(shifted, 2, serialized.length));
+    }
+  }
+
+  @Test
+  public void testFallbackToJdkSerializationInBuffer() {
+    doThrow(new IllegalStateException("unavailable")).when((ClassDescriptorDictionary)repository)
+        .storeClassDescriptor(anyLong(), any(byte[].class));
+    CompactSerializerDeserializer serializer = serializer(repository);
+    Date now = new Date();
+    SerializationBufferPool.Buffer buffer = serializer.serializeToBuffer(now);
+    assertEquals((byte)0xac, buffer.array()[0]);
+    assertEquals(now, serializer.deserialize(buffer.toByteArray()));
+    buffer.release();
+  }
+
+  @Test
+  public void testSmallerThanJdk() {
+    CompactSerializerDeserializer serializer = serializer(repository);
+    JdkSerializerDeserializer jdk = new JdkSerializerDeserializer();
+    SessionManager sessionManager = mock(SessionManager.class);
+    when(sessionManager.getMetrics()).thenReturn(new MetricRegistry());
+    jdk.setSessionManager(sessionManager);
+    Derived value = new Derived();
+    value.dates.add(new Date());
+    assertTrue(serializer.serialize(value).length * 2 < jdk.serialize(value).length);
+    assertTrue(serializer.serialize(1L).length * 5 < jdk.serialize(1L).length);
+  }
+
+  @Test
+  public void testSharedDictionary() {
+    CompactSerializerDeserializer writer = serializer(repository);
+    CompactSerializerDeserializer reader = serializer(repository);
+    Derived value = new Derived();
+    value.name = "shared";
+    byte[] data = writer.serialize(value);
+    writer.serialize(value);
+    assertEquals("shared", ((Derived)reader.deserialize(data)).name);
+    // Derived, Base and ArrayList descriptors are stored once
+    verify((ClassDescriptorDictionary)repository, times(3)).storeClassDescriptor(anyLong(), any(byte[].class));
+    reader.deserialize(data);
+    verify((ClassDescriptorDictionary)repository, times(3)).getClassDescriptor(anyLong());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testMissingDescriptor() {
+    byte[] data = serializer(repository).serialize(new Date());
+    descriptors.clear();
+    serializer(repository).deserialize(data);
+  }
+
+  @Test
+  public void testFallbackToJdkSerialization() {
+    doThrow(new IllegalStateException("unavailable")).when((ClassDescriptorDictionary)repository)
+        .storeClassDescriptor(anyLong(), any(byte[].class));
+    CompactSerializerDeserializer serializer = serializer(repository);
+    Date now = new Date();
+    byte[] data = serializer.serialize(now);
+    assertEquals((byte)0xac, data[0]);
+    assertEquals(now, serializer.deserialize(data));
+  }
+
+  @Test
+  public void testReadsJdkSerialization() {
+    JdkSerializerDeserializer jdk = new JdkSerializerDeserializer();
+    SessionManager sessionManager = mock(SessionManager.class);
+    when(sessionManager.getMetrics()).thenReturn(new MetricRegistry());
+    jdk.setSessionManager(sessionManager);
+    Date now = new Date();
+    assertEquals(now, serializer(repository).deserialize(jdk.serialize(now)));
+    assertEquals("String", serializer(repository).deserialize(jdk.serialize("String")));
+  }
+
+  @Test
+  public void testLocalDictionary() {
+    CompactSerializerDeserializer serializer = serializer(mock(SessionRepository.class));
+    Date now = new Date();
+    byte[] data = serializer.serialize(now);
+    assertNotEquals((byte)0xac, data[0]);
+    assertEquals(now, serializer.deserialize(data));
+  }
+}
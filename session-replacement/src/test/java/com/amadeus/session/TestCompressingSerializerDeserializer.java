@@ -0,0 +1,130 @@
+package com.amadeus.session;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class TestCompressingSerializerDeserializer {
+  @Rule
+  public final ExpectedException exception = ExpectedException.none();
+
+  private SessionManager sessionManager;
+  private MetricRegistry metrics;
+
+  @Before
+  public void setUp() {
+    sessionManager = mock(SessionManager.class);
+    SessionConfiguration configuration = new SessionConfiguration();
+    configuration.setCompressionThreshold(100);
+    metrics = new MetricRegistry();
+    when(sessionManager.getMetrics()).thenReturn(metrics);
+    when(sessionManager.getConfiguration()).thenReturn(configuration);
+  }
+
+  @Test
+  public void testCompressLargeValues() {
+    CompressingSerializerDeserializer serializer = new CompressingSerializerDeserializer();
+    serializer.setSessionManager(sessionManager);
+    List<String> value = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      value.add("item " + i);
+    }
+    byte[] data = serializer.serialize(value);
+    assertEquals(CompressingSerializerDeserializer.COMPRESSED, data[0]);
+    assertEquals(value, serializer.deserialize(data));
+    assertEquals(1, metrics.histogram("com.amadeus.session.serialized.compressed.distribution").getCount());
+    assertEquals(data.length,
+        metrics.histogram("com.amadeus.session.serialized.compressed.distribution").getSnapshot().getMax());
+    assertTrue(metrics.histogram("com.amadeus.session.serialized.compression.ratio").getSnapshot().getMax() < 50);
+    assertTrue(metrics.histogram("com.amadeus.session.serialized.distribution").getSnapshot().getMax() > data.length);
+  }
+
+  @Test
+  public void testSmallValuesNotCompressed() {
+    CompressingSerializerDeserializer serializer = new CompressingSerializerDeserializer();
+    serializer.setSessionManager(sessionManager);
+    Date now = new Date();
+    byte[] data = serializer.serialize(now);
+    assertEquals((byte)0xac, data[0]);
+    assertEquals(now, serializer.deserialize(data));
+    assertEquals(null, serializer.deserialize(serializer.serialize(null)));
+    assertEquals(0, metrics.histogram("com.amadeus.session.serialized.compressed.distribution").getCount());
+  }
+
+  @Test
+  public void testReadsUncompressedData() {
+    JdkSerializerDeserializer jdk = new JdkSerializerDeserializer();
+    jdk.setSessionManager(sessionManager);
+    CompressingSerializerDeserializer serializer = new CompressingSerializerDeserializer();
+    serializer.setSessionManager(sessionManager);
+    assertEquals("String", serializer.deserialize(jdk.serialize("String")));
+  }
+
+  @Test
+  public void testEscapesHeader() {
+    SerializerDeserializer wrapped = mock(SerializerDeserializer.class);
+    byte[] raw = { CompressingSerializerDeserializer.COMPRESSED, 1, 2 };
+    when(wrapped.serialize("value")).thenReturn(raw);
+    when(wrapped.deserialize(raw)).thenReturn("value");
+    CompressingSerializerDeserializer serializer = new CompressingSerializerDeserializer(wrapped);
+    serializer.setSessionManager(sessionManager);
+    byte[] data = serializer.serialize("value");
+    assertArrayEquals(new byte[] { CompressingSerializerDeserializer.UNCOMPRESSED, CompressingSerializerDeserializer.COMPRESSED, 1, 2 }, data);
+    assertEquals("value", serializer.deserialize(data));
+  }
+
+  @Test
+  public void testCorruptedData() {
+    CompressingSerializerDeserializer serializer = new CompressingSerializerDeserializer();
+    serializer.setSessionManager(sessionManager);
+    exception.expect(IllegalStateException.class);
+    serializer.deserialize(new byte[] { CompressingSerializerDeserializer.COMPRESSED, 0, 0, 0, 10, 1, 2, 3 });
+  }
+
+  @Test
+  public void testPooledBuffers() {
+    sessionManager.getConfiguration().setSerializationBuffers(2);
+    CompressingSerializerDeserializer serializer = new CompressingSerializerDeserializer();
+    serializer.setSessionManager(sessionManager);
+    List<String> value = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      value.add("item " + i);
+    }
+    SerializationBufferPool.Buffer buffer = serializer.serializeToBuffer(value);
+    assertEquals(CompressingSerializerDeserializer.COMPRESSED, buffer.array()[0]);
+    byte[] shifted = new byte[buffer.size() + 5];
+    System.arraycopy(buffer.array(), 0, shifted, 5, buffer.size());
+    assertEquals(value, serializer.deserialize(shifted, 5, buffer.size()));
+    assertArrayEquals(serializer.serialize(value), buffer.toByteArray());
+    buffer.release();
+    assertEquals("String", serializer.deserialize(serializer.serialize("String")));
+  }
+
+  @Test
+  public void testCompressWithEncryption() {
+    SessionConfiguration configuration = sessionManager.getConfiguration();
+    configuration.setEncryptionKey("test");
+    EncryptingSerializerDeserializer serializer = new EncryptingSerializerDeserializer(
+        new CompressingSerializerDeserializer());
+    serializer.setSessionManager(sessionManager);
+    StringBuilder value = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      value.append("item ").append(i);
+    }
+    assertEquals(value.toString(), serializer.deserialize(serializer.serialize(value.toString())));
+    assertEquals(1, metrics.histogram("com.amadeus.session.serialized.compressed.distribution").getCount());
+  }
+}
@@ -2,12 +2,19 @@ package com.amadeus.session;
 
 import static org.hamcrest.CoreMatchers.isA;
 import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.security.SecureRandom;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.crypto.AEADBadTagException;
 import javax.crypto.IllegalBlockSizeException;
 
 import org.junit.Rule;
@@ -55,7 +62,7 @@ public class TestEncryptingSerializerDeserializer {
   @Test
   public void testSerializerException() {
     EncryptingSerializerDeserializer serializer = new EncryptingSerializerDeserializer(
-        mock(JdkSerializerDeserializer.class));
+        mock(SerializerDeserializer.class));
     serializer.initKey("test");
     exception.expectCause(isA(NullPointerException.class));
     serializer.serialize("String");
@@ -76,4 +83,155 @@ public class TestEncryptingSerializerDeserializer {
     exception.expectCause(isA(IllegalBlockSizeException.class));
     serializer.deserialize(data);
   }
+
+  @Test
+  public void testGcm() {
+    EncryptingSerializerDeserializer serializer = new EncryptingSerializerDeserializer();
+    SessionManager sessionManager = mock(SessionManager.class);
+    SessionConfiguration configuration = new SessionConfiguration();
+    configuration.setEncryptionKey("test");
+    configuration.setEncryptionGcm(true);
+    when(sessionManager.getMetrics()).thenReturn(new MetricRegistry());
+    when(sessionManager.getConfiguration()).thenReturn(configuration);
+    serializer.setSessionManager(sessionManager);
+    Date now = new Date();
+    byte[] serializedString = serializer.serialize("String");
+    byte[] serializedDate = serializer.serialize(now);
+    byte[] serializedNull = serializer.serialize(null);
+
+    assertEquals(EncryptingSerializerDeserializer.GCM_VERSION, serializedString[0]);
+    assertEquals(null, serializer.deserialize(serializedNull));
+    assertEquals("String", serializer.deserialize(serializedString));
+    assertEquals(now, serializer.deserialize(serializedDate));
+  }
+
+  @Test
+  public void testModesAreCompatible() {
+    EncryptingSerializerDeserializer cbc = serializer(false);
+    EncryptingSerializerDeserializer gcm = serializer(true);
+    gcm.setCbcRead(true);
+    for (int i = 0; i < 100; i++) {
+      String value = "String" + i;
+      assertEquals(value, gcm.deserialize(cbc.serialize(value)));
+      assertEquals(value, cbc.deserialize(gcm.serialize(value)));
+    }
+  }
+
+  @Test
+  public void testGcmRejectsCbcData() {
+    EncryptingSerializerDeserializer cbc = serializer(false);
+    EncryptingSerializerDeserializer gcm = serializer(true);
+    byte[] data = cbc.serialize("String");
+    // Make sure CBC data is not taken for GCM data
+    while (data[0] == EncryptingSerializerDeserializer.GCM_VERSION) {
+      data = cbc.serialize("String");
+    }
+    exception.expect(IllegalStateException.class);
+    exception.expectMessage("AES/CBC data is disabled");
+    gcm.deserialize(data);
+  }
+
+  @Test
+  public void testGcmTamperingIsNotReadAsCbc() {
+    EncryptingSerializerDeserializer serializer = serializer(true);
+    byte[] data = serializer.serialize("String");
+    // Find length where data could also be CBC encrypted
+    StringBuilder value = new StringBuilder("String");
+    while (data.length % 16 != 0) {
+      value.append('s');
+      data = serializer.serialize(value.toString());
+    }
+    data[data.length - 1] ^= 1;
+    exception.expectCause(isA(AEADBadTagException.class));
+    serializer.deserialize(data);
+  }
+
+  @Test
+  public void testGcmDetectsTampering() {
+    EncryptingSerializerDeserializer serializer = serializer(true);
+    byte[] data = serializer.serialize("String");
+    if (data.length % 16 == 0) {
+      // Such data could also be CBC encrypted, make it longer
+      data = serializer.serialize("Strings");
+    }
+    data[data.length - 1] ^= 1;
+    exception.expectCause(isA(AEADBadTagException.class));
+    serializer.deserialize(data);
+  }
+
+  @Test
+  public void testEncryptsFromPooledBuffer() {
+    JdkSerializerDeserializer wrapped = spy(new JdkSerializerDeserializer());
+    EncryptingSerializerDeserializer serializer = new EncryptingSerializerDeserializer(wrapped);
+    SessionManager sessionManager = mock(SessionManager.class);
+    SessionConfiguration configuration = new SessionConfiguration();
+    configuration.setEncryptionKey("test");
+    configuration.setSerializationBuffers(2);
+    when(sessionManager.getMetrics()).thenReturn(new MetricRegistry());
+    when(sessionManager.getConfiguration()).thenReturn(configuration);
+    serializer.setSessionManager(sessionManager);
+    int plainLength = wrapped.serialize("String").length;
+    reset(wrapped);
+    byte[] data = serializer.serialize("String");
+    // initialization vector followed by padded data
+    assertEquals(16 + (plainLength / 16 + 1) * 16, data.length);
+    assertEquals("String", serializer.deserialize(data));
+    verify(wrapped).serializeToBuffer("String");
+    verify(wrapped).deserialize(any(byte[].class), eq(0), eq(plainLength));
+    serializer.setGcm(true);
+    data = serializer.serialize("String");
+    // version, initialization vector, data and tag
+    assertEquals(1 + 12 + plainLength + 16, data.length);
+    assertEquals("String", serializer.deserialize(data));
+  }
+
+  @Test
+  public void testWrapsPlainSerializer() {
+    SerializerDeserializer wrapped = mock(SerializerDeserializer.class);
+    byte[] raw = { 1, 2, 3 };
+    when(wrapped.serialize("value")).thenReturn(raw);
+    when(wrapped.deserialize(raw)).thenReturn("value");
+    EncryptingSerializerDeserializer serializer = new EncryptingSerializerDeserializer(wrapped);
+    serializer.initKey("test");
+    byte[] data = serializer.serialize("value");
+    assertEquals(32, data.length);
+    assertEquals("value", serializer.deserialize(data));
+  }
+
+  @Test
+  public void testConcurrentUse() throws InterruptedException {
+    final EncryptingSerializerDeserializer serializer = serializer(true);
+    final AtomicInteger failures = new AtomicInteger();
+    Thread[] threads = new Thread[8];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 200; i++) {
+            String value = Thread.currentThread().getName() + i;
+            if (!value.equals(serializer.deserialize(serializer.serialize(value)))) {
+              failures.incrementAndGet();
+            }
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(0, failures.get());
+  }
+
+  private static EncryptingSerializerDeserializer serializer(boolean gcm) {
+    EncryptingSerializerDeserializer serializer = new EncryptingSerializerDeserializer();
+    SessionManager sessionManager = mock(SessionManager.class);
+    SessionConfiguration configuration = new SessionConfiguration();
+    configuration.setEncryptionKey("test");
+    configuration.setEncryptionGcm(gcm);
+    when(sessionManager.getMetrics()).thenReturn(new MetricRegistry());
+    when(sessionManager.getConfiguration()).thenReturn(configuration);
+    serializer.setSessionManager(sessionManager);
+    return serializer;
+  }
 }
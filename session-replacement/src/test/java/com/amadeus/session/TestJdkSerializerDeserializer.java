@@ -1,6 +1,8 @@
 package com.amadeus.session;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -40,6 +42,37 @@ public class TestJdkSerializerDeserializer {
     assertEquals("String", serializer.deserialize(serializedString));
   }
 
+  @Test
+  public void testSerializeReusesBuffers() {
+    StringBuilder large = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      large.append("item ").append(i);
+    }
+    byte[] first = serializer.serialize(large.toString());
+    byte[] second = serializer.serialize("String");
+    assertEquals(large.toString(), serializer.deserialize(first));
+    assertEquals("String", serializer.deserialize(second));
+    assertEquals(serializedString.length, second.length);
+  }
+
+  @Test
+  public void testPooledBuffers() {
+    SessionConfiguration configuration = new SessionConfiguration();
+    configuration.setSerializationBuffers(2);
+    when(sessionManager.getConfiguration()).thenReturn(configuration);
+    serializer.setSessionManager(sessionManager);
+    SerializationBufferPool.Buffer buffer = serializer.serializeToBuffer(now);
+    byte[] array = buffer.array();
+    byte[] shifted = new byte[buffer.size() + 3];
+    System.arraycopy(array, 0, shifted, 3, buffer.size());
+    assertEquals(now, serializer.deserialize(shifted, 3, buffer.size()));
+    buffer.release();
+    SerializationBufferPool.Buffer reused = serializer.serializeToBuffer("String");
+    assertSame(array, reused.array());
+    assertArrayEquals(serializedString, reused.toByteArray());
+    reused.release();
+  }
+
   @Test(expected=IllegalStateException.class)
   public void testDeserializeWithClassNotFoundException() throws ClassNotFoundException {
     ClassLoader cl = mock(ClassLoader.class);
@@ -5,6 +5,7 @@ import static org.hamcrest.CoreMatchers.not;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
@@ -29,6 +30,7 @@ import org.junit.Test;
 import com.amadeus.session.SessionConfiguration.ReplicationTrigger;
 import com.amadeus.session.SessionRepository.CommitTransaction;
 import com.amadeus.session.repository.inmemory.InMemoryRepository;
+import com.codahale.metrics.MetricRegistry;
 
 @SuppressWarnings("javadoc")
 public class TestRepositoryBackedSession {
@@ -67,6 +69,18 @@ public class TestRepositoryBackedSession {
     assertEquals("value", rbs.getAttribute("Test"));
   }
 
+  @Test
+  public void testGetAttributeReportsFirstRead() {
+    when(repository.getSessionAttribute(sessionData, "Test")).thenReturn("value");
+    RepositoryBackedSession rbs = new RepositoryBackedSession(sessionData, manager, factory);
+    assertEquals("value", rbs.getAttribute("Test"));
+    assertEquals("value", rbs.getAttribute("Test"));
+    verify(manager, times(1)).attributeRead(sessionData, "Test");
+    rbs.setAttribute("Other", "value");
+    rbs.getAttribute("Other");
+    verify(manager, never()).attributeRead(sessionData, "Other");
+  }
+
   @Test
   public void testSetExistingAttribute() {
     RepositoryBackedSession rbs = new RepositoryBackedSession(sessionData, manager, factory);
@@ -185,6 +199,43 @@ public class TestRepositoryBackedSession {
     rbs.getAttribute("Test");
   }
 
+  @Test
+  public void testInvalidateWithoutListenersSkipsAttributes() {
+    RepositoryBackedSession rbs = new RepositoryBackedSession(sessionData, manager, factory);
+    when(repository.prepareRemove(sessionData("1"))).thenReturn(Boolean.TRUE);
+    rbs.invalidate();
+    verify(repository).mayHaveBindingListeners(sessionData);
+    verify(repository, never()).getAllKeys(any(SessionData.class));
+    verify(notifier).sessionDestroyed(refEq(rbs), eq(false));
+    verify(manager).remove(sessionData);
+  }
+
+  @Test
+  public void testInvalidateWithListenersLoadsAttributes() {
+    when(repository.getAllKeys(any(SessionData.class))).thenReturn(new HashSet<>(Arrays.asList("Test")));
+    when(repository.prepareRemove(sessionData("1"))).thenReturn(Boolean.TRUE);
+    when(repository.mayHaveBindingListeners(sessionData)).thenReturn(true);
+    RepositoryBackedSession rbs = new RepositoryBackedSession(sessionData, manager, factory);
+    rbs.invalidate();
+    verify(repository).getSessionAttribute(sessionData, "Test");
+    when(repository.mayHaveBindingListeners(sessionData)).thenReturn(false);
+    when(notifier.hasAttributeListeners()).thenReturn(true);
+    rbs = new RepositoryBackedSession(sessionData, manager, factory);
+    rbs.invalidate();
+    verify(repository, times(2)).getSessionAttribute(sessionData, "Test");
+  }
+
+  @Test
+  public void testSetBindingListenerIsRecorded() {
+    Object listener = new Object();
+    when(notifier.isBindingListener(listener)).thenReturn(true);
+    RepositoryBackedSession rbs = new RepositoryBackedSession(sessionData, manager, factory);
+    rbs.setAttribute("Test", "value");
+    assertNull(sessionData.getBindingListeners());
+    rbs.setAttribute("Listener", listener);
+    assertEquals(Boolean.TRUE, sessionData.getBindingListeners());
+  }
+
   @Test
   public void testInvalidateConflict() {
     RepositoryBackedSession rbs = new RepositoryBackedSession(sessionData, manager, factory);
@@ -327,6 +378,92 @@ public class TestRepositoryBackedSession {
     verify(transaction, never()).addAttribute(eq("NonCacehable"), anyString());
   }
 
+  @Test
+  public void testCommitComparesSerialized() {
+    sessionConfiguration.setReplicationTrigger(ReplicationTrigger.SET_AND_CHANGED_NON_PRIMITIVE_GET);
+    ArrayList<String> list = new ArrayList<>(Arrays.asList("a", "b"));
+    when(repository.getSessionAttribute(sessionData, "List")).thenReturn(list);
+    when(repository.getSessionAttribute(sessionData, "Other")).thenReturn(new ArrayList<>());
+    RepositoryBackedSession rbs = new RepositoryBackedSession(sessionData, manager, factory);
+    assertTrue(rbs.replicateOnGet(list));
+    assertEquals(list, rbs.getAttribute("List"));
+    rbs.getAttribute("Other");
+    rbs.setAttribute("Other", new ArrayList<>());
+    rbs.getCommitter().run();
+    verify(transaction, never()).addAttribute(eq("List"), any());
+    verify(transaction).addAttribute(eq("Other"), any());
+
+    list.add("c");
+    rbs.getAttribute("List");
+    rbs.getCommitter().run();
+    verify(transaction).addAttribute("List", list);
+
+    rbs.getAttribute("List");
+    rbs.getCommitter().run();
+    verify(transaction, times(1)).addAttribute("List", list);
+  }
+
+  @Test
+  public void testCompareNonSerializableAttribute() {
+    sessionConfiguration.setReplicationTrigger(ReplicationTrigger.SET_AND_CHANGED_NON_PRIMITIVE_GET);
+    Object value = new Object();
+    when(repository.getSessionAttribute(sessionData, "Object")).thenReturn(value);
+    RepositoryBackedSession rbs = new RepositoryBackedSession(sessionData, manager, factory);
+    assertSame(value, rbs.getAttribute("Object"));
+    rbs.getCommitter().run();
+    verify(transaction).addAttribute("Object", value);
+  }
+
+  @Test
+  public void testCompareUsesPrefetchedBytes() {
+    sessionConfiguration.setReplicationTrigger(ReplicationTrigger.SET_AND_CHANGED_NON_PRIMITIVE_GET);
+    when(manager.getMetrics()).thenReturn(new MetricRegistry());
+    JdkSerializerDeserializer serializer = new JdkSerializerDeserializer();
+    serializer.setSessionManager(manager);
+    when(manager.getSerializerDeserializer()).thenReturn(serializer);
+    ArrayList<String> list = new ArrayList<>(Arrays.asList("a", "b"));
+    sessionData.setPrefetchedAttributes(Collections.singletonMap("List", serializer.serialize(list)), false);
+    when(repository.getSessionAttribute(sessionData, "List")).thenReturn(list);
+    RepositoryBackedSession rbs = new RepositoryBackedSession(sessionData, manager, factory);
+    assertEquals(list, rbs.getAttribute("List"));
+    rbs.getCommitter().run();
+    verify(transaction, never()).addAttribute(eq("List"), any());
+
+    list.add("c");
+    rbs.getAttribute("List");
+    rbs.getCommitter().run();
+    verify(transaction).addAttribute("List", list);
+  }
+
+  @Test
+  public void testReadOnlyCommit() {
+    sessionData.setNew(false);
+    ArrayList<String> list = new ArrayList<>(Arrays.asList("a", "b"));
+    when(repository.getSessionAttribute(sessionData, "List")).thenReturn(list);
+    RepositoryBackedSession rbs = new RepositoryBackedSession(sessionData, manager, factory);
+    rbs.setReadOnly(true);
+    assertTrue(rbs.isReadOnly());
+    assertEquals(list, rbs.getAttribute("List"));
+    rbs.getCommitter().run();
+    verify(repository, never()).startCommit(sessionData);
+    verify(factory).committed(rbs);
+
+    rbs.setAttribute("Test", "value");
+    rbs.getCommitter().run();
+    verify(repository).startCommit(sessionData);
+    verify(transaction).addAttribute("Test", "value");
+    verify(transaction, never()).addAttribute(eq("List"), any());
+  }
+
+  @Test
+  public void testReadOnlyCommitNewSession() {
+    RepositoryBackedSession rbs = new RepositoryBackedSession(sessionData, manager, factory);
+    rbs.setReadOnly(true);
+    rbs.getCommitter().run();
+    verify(repository).startCommit(sessionData);
+    verify(transaction).commit();
+  }
+
   @Test
   public void testGetAttributeNamesWithValues() {
     RepositoryBackedSession rbs = new RepositoryBackedSession(sessionData, manager, factory);
@@ -369,6 +506,29 @@ public class TestRepositoryBackedSession {
     verify(transaction, times(2)).addAttribute("Test", "value");
   }
 
+  @Test
+  public void testAcquireAndRetire() {
+    RepositoryBackedSession rbs = new RepositoryBackedSession(sessionData, manager, factory);
+    assertEquals(0, rbs.getConcurrentUses());
+    rbs.checkUsedAndLock();
+    RepositoryBackedSession rbsWrapped = new RepositoryBackedSession(rbs);
+    assertTrue(rbsWrapped.isLinkedTo(rbs));
+    rbsWrapped.checkUsedAndLock();
+    assertEquals(2, rbs.getConcurrentUses());
+    assertSame(rbs.getCommitLock(), rbsWrapped.getCommitLock());
+    // Other request still uses the session
+    assertFalse(rbsWrapped.retire());
+    rbs.getCommitter().run();
+    assertTrue(rbsWrapped.retire());
+    assertTrue(rbs.isRetired());
+    // Request that already held the retired session keeps sharing it
+    RepositoryBackedSession late = new RepositoryBackedSession(rbs);
+    late.checkUsedAndLock();
+    assertFalse(rbs.isRetired());
+    assertEquals(1, rbs.getConcurrentUses());
+    assertFalse(rbs.isLinkedTo(new RepositoryBackedSession(sessionData, manager, factory)));
+  }
+
   @Test
   public void testCommitFirstOriginalThenWrapped() {
     RepositoryBackedSession rbs = new RepositoryBackedSession(sessionData, manager, factory);
@@ -0,0 +1,111 @@
+package com.amadeus.session;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class TestSerializationBufferPool {
+
+  @Test
+  public void testReuse() {
+    SerializationBufferPool pool = new SerializationBufferPool(2);
+    SerializationBufferPool.Buffer buffer = pool.acquire();
+    buffer.write(new byte[5000], 0, 5000);
+    assertEquals(8192, buffer.capacity());
+    byte[] array = buffer.array();
+    buffer.release();
+    // initial array, replaced when buffer grew, and the grown one
+    assertEquals(2, pool.size());
+    SerializationBufferPool.Buffer reused = pool.acquire(5000);
+    assertSame(array, reused.array());
+    assertEquals(0, reused.size());
+    assertEquals(1, pool.size());
+  }
+
+  @Test
+  public void testSizeClasses() {
+    SerializationBufferPool pool = new SerializationBufferPool(2);
+    assertEquals(SerializationBufferPool.MIN_CAPACITY, pool.acquire(1).capacity());
+    assertEquals(2048, pool.acquire(1025).capacity());
+    assertEquals(2048, pool.acquire(2048).capacity());
+    SerializationBufferPool.Buffer small = pool.acquire();
+    byte[] smallArray = small.array();
+    small.release();
+    SerializationBufferPool.Buffer large = pool.acquire(2000);
+    assertNotSame(smallArray, large.array());
+    assertSame(smallArray, pool.acquire().array());
+  }
+
+  @Test
+  public void testGrowingReturnsSmallerArray() {
+    SerializationBufferPool pool = new SerializationBufferPool(2);
+    SerializationBufferPool.Buffer buffer = pool.acquire();
+    byte[] data = new byte[3000];
+    Arrays.fill(data, (byte)7);
+    byte[] small = buffer.array();
+    buffer.write(data, 0, 1000);
+    buffer.write(data, 1000, 2000);
+    assertEquals(1, pool.size());
+    assertSame(small, pool.acquire().array());
+    assertArrayEquals(data, buffer.toByteArray());
+  }
+
+  @Test
+  public void testLargeBuffersDropped() {
+    SerializationBufferPool pool = new SerializationBufferPool(2);
+    SerializationBufferPool.Buffer buffer = pool.acquire();
+    int size = SerializationBufferPool.MAX_POOLED_CAPACITY + 1;
+    buffer.write(new byte[size], 0, size);
+    assertEquals(size, buffer.capacity());
+    byte[] large = buffer.array();
+    buffer.release();
+    // only the initial array, returned when buffer grew, is pooled
+    assertEquals(1, pool.size());
+    assertNotSame(large, pool.acquire(size).array());
+  }
+
+  @Test
+  public void testBounded() {
+    SerializationBufferPool pool = new SerializationBufferPool(1);
+    SerializationBufferPool.Buffer first = pool.acquire();
+    SerializationBufferPool.Buffer second = pool.acquire();
+    byte[] firstArray = first.array();
+    first.release();
+    second.release();
+    assertEquals(1, pool.size());
+    assertSame(firstArray, pool.acquire().array());
+  }
+
+  @Test
+  public void testDisabled() {
+    SerializationBufferPool pool = new SerializationBufferPool(0);
+    SerializationBufferPool.Buffer buffer = pool.acquire();
+    byte[] array = buffer.array();
+    buffer.release();
+    assertEquals(0, pool.size());
+    assertNotSame(array, pool.acquire().array());
+    SerializationBufferPool.Input input = pool.input(new byte[4], 0, 4);
+    input.close();
+    assertNotSame(input, pool.input(new byte[4], 0, 4));
+  }
+
+  @Test
+  public void testInputReused() throws IOException {
+    SerializationBufferPool pool = new SerializationBufferPool(1);
+    SerializationBufferPool.Input input = pool.input(new byte[] { 1, 2, 3, 4 }, 1, 2);
+    assertEquals(2, input.available());
+    assertEquals(2, input.read());
+    assertEquals(3, input.read());
+    assertEquals(-1, input.read());
+    input.close();
+    SerializationBufferPool.Input reused = pool.input(new byte[] { 5, 6 }, 0, 2);
+    assertSame(input, reused);
+    assertEquals(5, reused.read());
+  }
+}
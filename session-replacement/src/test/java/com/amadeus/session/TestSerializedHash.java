@@ -0,0 +1,42 @@
+package com.amadeus.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class TestSerializedHash {
+
+  @Test
+  public void testXxHash64() {
+    assertEquals(0xEF46DB3751D8E999L, hash(""));
+    assertEquals(0xD24EC4F1A98C6E5BL, hash("a"));
+    assertEquals(0x44BC2CF5AD770999L, hash("abc"));
+    assertEquals(0xFBCEA83C8A378BF1L, hash("Nobody inspects the spammish repetition"));
+  }
+
+  @Test
+  public void testXxHash64Range() {
+    byte[] data = "xxabcxx".getBytes(StandardCharsets.US_ASCII);
+    assertEquals(0x44BC2CF5AD770999L, SerializedHash.xxHash64(data, 2, 3));
+  }
+
+  @Test
+  public void testHashOfValue() {
+    ArrayList<String> list = new ArrayList<>(Arrays.asList("a", "b"));
+    long hash = SerializedHash.of(list);
+    assertEquals(hash, SerializedHash.of(new ArrayList<>(list)));
+    list.add("c");
+    assertNotEquals(hash, SerializedHash.of(list));
+  }
+
+  private static long hash(String value) {
+    byte[] data = value.getBytes(StandardCharsets.US_ASCII);
+    return SerializedHash.xxHash64(data, 0, data.length);
+  }
+}
@@ -104,6 +104,103 @@ public class TestSessionConfiguration {
     System.getProperties().remove(SessionConfiguration.SESSION_REPLICATION_TRIGGER);
   }
 
+  @Test
+  public void testPrefetch() {
+    System.setProperty(SessionConfiguration.PREFETCH_MODE, "LIST");
+    System.setProperty(SessionConfiguration.PREFETCH_ATTRIBUTES, "a, b,,c");
+    SessionConfiguration sc = new SessionConfiguration();
+    assertEquals(SessionConfiguration.PrefetchMode.LIST, sc.getPrefetchMode());
+    assertThat(sc.getPrefetchAttributes(), hasItems("a", "b", "c"));
+    assertEquals(3, sc.getPrefetchAttributes().size());
+    System.getProperties().remove(SessionConfiguration.PREFETCH_MODE);
+    System.getProperties().remove(SessionConfiguration.PREFETCH_ATTRIBUTES);
+  }
+
+  @Test
+  public void testInvalidPrefetchModeIgnored() {
+    System.setProperty(SessionConfiguration.PREFETCH_MODE, "SOME");
+    SessionConfiguration sc = new SessionConfiguration();
+    assertEquals(SessionConfiguration.PrefetchMode.NONE, sc.getPrefetchMode());
+    assertTrue(sc.getPrefetchAttributes().isEmpty());
+    System.getProperties().remove(SessionConfiguration.PREFETCH_MODE);
+  }
+
+  @Test
+  public void testSerializerOptions() {
+    System.setProperty(SessionConfiguration.COMPACT_SERIALIZATION, "true");
+    System.setProperty(SessionConfiguration.COMPRESSION_THRESHOLD, "1024");
+    System.setProperty(SessionConfiguration.ENCRYPTION_GCM, "true");
+    System.setProperty(SessionConfiguration.ENCRYPTION_CBC_READ, "true");
+    SessionConfiguration sc = new SessionConfiguration();
+    assertTrue(sc.isCompactSerialization());
+    assertEquals(1024, sc.getCompressionThreshold());
+    assertTrue(sc.isEncryptionGcm());
+    assertTrue(sc.isEncryptionCbcRead());
+    System.getProperties().remove(SessionConfiguration.COMPACT_SERIALIZATION);
+    System.getProperties().remove(SessionConfiguration.COMPRESSION_THRESHOLD);
+    System.getProperties().remove(SessionConfiguration.ENCRYPTION_GCM);
+    System.getProperties().remove(SessionConfiguration.ENCRYPTION_CBC_READ);
+    sc = new SessionConfiguration();
+    assertFalse(sc.isCompactSerialization());
+    assertEquals(0, sc.getCompressionThreshold());
+    assertFalse(sc.isEncryptionGcm());
+    assertFalse(sc.isEncryptionCbcRead());
+  }
+
+  @Test
+  public void testSerializationBuffers() {
+    SessionConfiguration sc = new SessionConfiguration();
+    assertEquals(0, sc.getSerializationBuffers());
+    System.setProperty(SessionConfiguration.SERIALIZATION_BUFFERS, "8");
+    sc = new SessionConfiguration();
+    assertEquals(8, sc.getSerializationBuffers());
+    System.getProperties().remove(SessionConfiguration.SERIALIZATION_BUFFERS);
+    sc.setSerializationBuffers(4);
+    assertEquals(4, sc.getSerializationBuffers());
+  }
+
+  @Test
+  public void testTouchGranularity() {
+    SessionConfiguration sc = new SessionConfiguration();
+    assertEquals(0, sc.getTouchGranularity(1800));
+    sc.setTouchGranularity("10");
+    assertEquals(10000, sc.getTouchGranularity(1800));
+    assertEquals(5000, sc.getTouchGranularity(10));
+    assertEquals(0, sc.getTouchGranularity(0));
+    sc.setTouchGranularity(" 1% ");
+    assertEquals(18000, sc.getTouchGranularity(1800));
+    sc.setTouchGranularity("wrong");
+    assertEquals(0, sc.getTouchGranularity(1800));
+    System.setProperty(SessionConfiguration.TOUCH_GRANULARITY, "2%");
+    sc = new SessionConfiguration();
+    assertEquals(36000, sc.getTouchGranularity(1800));
+    System.getProperties().remove(SessionConfiguration.TOUCH_GRANULARITY);
+  }
+
+  @Test
+  public void testReadOnlyPaths() {
+    SessionConfiguration sc = new SessionConfiguration();
+    assertTrue(sc.getReadOnlyPaths().isEmpty());
+    assertFalse(sc.isReadOnlyPath("/status"));
+    sc.setReadOnlyPaths(" /status, /static/*,");
+    assertEquals(2, sc.getReadOnlyPaths().size());
+    assertTrue(sc.isReadOnlyPath("/status"));
+    assertFalse(sc.isReadOnlyPath("/status/all"));
+    assertTrue(sc.isReadOnlyPath("/static/app.js"));
+    assertFalse(sc.isReadOnlyPath("/update"));
+    assertFalse(sc.isReadOnlyPath(null));
+  }
+
+  @Test
+  public void testSingleFlightFetch() {
+    SessionConfiguration sc = new SessionConfiguration();
+    assertFalse(sc.isSingleFlightFetch());
+    System.setProperty(SessionConfiguration.SINGLE_FLIGHT_FETCH, "true");
+    sc = new SessionConfiguration();
+    assertTrue(sc.isSingleFlightFetch());
+    System.getProperties().remove(SessionConfiguration.SINGLE_FLIGHT_FETCH);
+  }
+
   @Test
   public void testInitializeFromCalls() {
     SessionConfiguration sc = new SessionConfiguration();
@@ -121,6 +218,7 @@ public class TestSessionConfiguration {
     Mockito.when(provider.getAttribute(SessionConfiguration.NON_CACHEABLE_ATTRIBUTES)).thenReturn("A,B");
     Mockito.when(provider.getAttribute(SessionConfiguration.SESSION_REPLICATION_TRIGGER)).thenReturn("SET");
     Mockito.when(provider.getAttribute(SessionConfiguration.SESSION_ID_NAME)).thenReturn("SOMEID");
+    Mockito.when(provider.getAttribute(SessionConfiguration.PREFETCH_MODE)).thenReturn("ALL");
     Mockito.when(provider.getAttribute(SessionConfiguration.LOG_MDC_SESSION_NAME)).thenReturn("");
     Mockito.when(provider.getAttribute(SessionConfiguration.TRACKER_ERROR_INTERVAL_MILLISECONDS_KEY)).thenReturn("5");
     Mockito.when(provider.getAttribute(SessionConfiguration.TRACKER_ERROR_LIMITS_NUMBER_KEY)).thenReturn("50");
@@ -133,6 +231,7 @@ public class TestSessionConfiguration {
     assertThat(sc.getNonCacheable(), hasItems("A", "B"));
     assertEquals(ReplicationTrigger.SET, sc.getReplicationTrigger());
     assertEquals("SOMEID", sc.getSessionIdName());
+    assertEquals(SessionConfiguration.PrefetchMode.ALL, sc.getPrefetchMode());
     assertEquals(SessionConfiguration.LOGGING_MDC_DEFAULT_KEY, sc.getLoggingMdcKey());
     
     assertEquals(sc.getTrackerInterval(), 5);
@@ -4,14 +4,21 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.junit.After;
 import org.junit.Before;
@@ -125,6 +132,189 @@ public class TestSessionManager {
     assertSame(session, retrievedSession);
   }
 
+  @Test
+  public void testGetSessionWithFetchAndTouch() {
+    long lastAccessed = now();
+    SessionData sessionData = new SessionData("2", lastAccessed, 10);
+    RepositoryBackedSession session = mock(RepositoryBackedSession.class);
+    when(session.getId()).thenReturn("2");
+    when(repository.isFetchAndTouchSupported()).thenReturn(true);
+    when(repository.fetchAndTouchSessionData(eq("2"), anyLong(),
+        any(SessionConfiguration.TouchGranularity.class), any(AttributePrefetch.Selection.class)))
+        .thenReturn(sessionData);
+    when(factory.build(sessionData)).thenReturn(session);
+    RequestWithSession request = mock(RequestWithSession.class);
+    when(request.getRequestedSessionId()).thenReturn("2");
+    when(request.isIdRetrieved()).thenReturn(true);
+    RepositoryBackedSession retrievedSession = sessionManager.getSession(request, false, null);
+    assertSame(session, retrievedSession);
+    verify(repository, never()).getSessionData("2");
+    verify(repository, never()).storeSessionData(sessionData);
+    assertEquals(lastAccessed, sessionData.getOriginalLastAccessed());
+    assertTrue(sessionData.getLastAccessedTime() >= lastAccessed);
+  }
+
+  @Test
+  public void testGetSessionWithAdaptivePrefetch() {
+    configuration.setPrefetchMode(SessionConfiguration.PrefetchMode.ADAPTIVE);
+    configuration.setPrefetchAttributes("a");
+    ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+    SessionManager prefetchingManager = new SessionManager(executors, factory, repository, tracking, notifier,
+        configuration, classLoader);
+    SessionData sessionData = new SessionData("2", now(), 10);
+    RepositoryBackedSession session = mock(RepositoryBackedSession.class);
+    when(repository.getSessionData(eq("2"), any(AttributePrefetch.Selection.class))).thenReturn(sessionData);
+    when(factory.build(sessionData)).thenReturn(session);
+    RequestWithSession request = mock(RequestWithSession.class);
+    when(request.getRequestedSessionId()).thenReturn("2");
+    when(request.isIdRetrieved()).thenReturn(true);
+    when(request.getServletPath()).thenReturn("/path");
+    assertSame(session, prefetchingManager.getSession(request, false, null));
+    assertEquals("/path", sessionData.getPrefetchContext());
+    ArgumentCaptor<AttributePrefetch.Selection> selection = ArgumentCaptor.forClass(AttributePrefetch.Selection.class);
+    verify(repository).getSessionData(eq("2"), selection.capture());
+    assertEquals(Collections.singleton("a"), selection.getValue().getAttributes());
+    prefetchingManager.attributeRead(sessionData, "b");
+    prefetchingManager.getSession(request, false, null);
+    verify(repository, times(2)).getSessionData(eq("2"), selection.capture());
+    assertEquals(new HashSet<>(Arrays.asList("a", "b")), selection.getValue().getAttributes());
+    verify(repository, never()).getSessionData("2");
+    prefetchingManager.close();
+  }
+
+  @Test
+  public void testPrefetchMetrics() {
+    SessionData sessionData = new SessionData("2", now(), 10);
+    sessionData.setPrefetchedAttributes(Collections.singletonMap("a", new byte[0]), false);
+    sessionManager.attributeRead(sessionData, "a");
+    sessionManager.attributeRead(sessionData, "b");
+    sessionManager.attributeRead(sessionData, "c");
+    assertEquals(1, metrics.meter(SessionManager.PREFETCH_HITS_METRIC).getCount());
+    assertEquals(2, metrics.meter(SessionManager.PREFETCH_MISSES_METRIC).getCount());
+  }
+
+  @Test
+  public void testFetchSessionWithoutTouchIgnoresFetchAndTouch() {
+    SessionData sessionData = new SessionData("2", now(), 10);
+    RepositoryBackedSession session = mock(RepositoryBackedSession.class);
+    when(repository.isFetchAndTouchSupported()).thenReturn(true);
+    when(repository.getSessionData("2")).thenReturn(sessionData);
+    when(factory.build(sessionData)).thenReturn(session);
+    assertSame(session, sessionManager.fetchSession("2", false));
+    verify(repository, never()).fetchAndTouchSessionData(eq("2"), anyLong(),
+        any(SessionConfiguration.TouchGranularity.class), any(AttributePrefetch.Selection.class));
+  }
+
+  @Test
+  public void testFetchSessionSkipsTouchWithinGranularity() {
+    configuration.setTouchGranularity("10");
+    long lastAccessed = now() - 1000;
+    SessionData sessionData = new SessionData("2", lastAccessed, 100);
+    RepositoryBackedSession session = mock(RepositoryBackedSession.class);
+    when(repository.getSessionData("2")).thenReturn(sessionData);
+    when(factory.build(sessionData)).thenReturn(session);
+    assertSame(session, sessionManager.fetchSession("2", true));
+    verify(repository, never()).storeSessionData(sessionData);
+    assertEquals(lastAccessed, sessionData.getLastAccessedTime());
+    assertEquals(1, metrics.meter(SessionManager.SKIPPED_TOUCHES_METRIC).getCount());
+  }
+
+  @Test
+  public void testFetchSessionTouchesAfterGranularity() {
+    configuration.setTouchGranularity("10%");
+    long lastAccessed = now() - 20000;
+    SessionData sessionData = new SessionData("2", lastAccessed, 100);
+    RepositoryBackedSession session = mock(RepositoryBackedSession.class);
+    when(repository.getSessionData("2")).thenReturn(sessionData);
+    when(factory.build(sessionData)).thenReturn(session);
+    assertSame(session, sessionManager.fetchSession("2", true));
+    verify(repository).storeSessionData(sessionData);
+    assertTrue(sessionData.getLastAccessedTime() > lastAccessed);
+    assertEquals(0, metrics.meter(SessionManager.SKIPPED_TOUCHES_METRIC).getCount());
+  }
+
+  @Test
+  public void testFetchAndTouchWithGranularity() {
+    configuration.setTouchGranularity("10");
+    long lastAccessed = now() - 1000;
+    SessionData sessionData = new SessionData("2", lastAccessed, 100);
+    RepositoryBackedSession session = mock(RepositoryBackedSession.class);
+    when(repository.isFetchAndTouchSupported()).thenReturn(true);
+    when(repository.fetchAndTouchSessionData(eq("2"), anyLong(),
+        any(SessionConfiguration.TouchGranularity.class), any(AttributePrefetch.Selection.class)))
+        .thenReturn(sessionData);
+    when(factory.build(sessionData)).thenReturn(session);
+    assertSame(session, sessionManager.fetchSession("2", true));
+    // Granularity is passed to repository, and access time is kept as repository didn't update it
+    verify(repository).fetchAndTouchSessionData(eq("2"), anyLong(), eq(configuration.getTouchGranularity()),
+        any(AttributePrefetch.Selection.class));
+    verify(repository, never()).storeSessionData(sessionData);
+    assertEquals(lastAccessed, sessionData.getLastAccessedTime());
+    assertEquals(1, metrics.meter(SessionManager.SKIPPED_TOUCHES_METRIC).getCount());
+    sessionData.setLastAccessedTime(now() - 20000);
+    sessionManager.fetchSession("2", true);
+    assertTrue(sessionData.getLastAccessedTime() > lastAccessed);
+    assertEquals(1, metrics.meter(SessionManager.SKIPPED_TOUCHES_METRIC).getCount());
+  }
+
+  @Test
+  public void testGetSessionReadOnly() {
+    configuration.setReadOnlyPaths("/static/*,/status");
+    SessionData sessionData = new SessionData("2", now(), 10);
+    RepositoryBackedSession session = mock(RepositoryBackedSession.class);
+    when(repository.getSessionData(eq("2"))).thenReturn(sessionData);
+    when(factory.build(sessionData)).thenReturn(session);
+    RequestWithSession request = mock(RequestWithSession.class);
+    when(request.getRequestedSessionId()).thenReturn("2");
+    when(request.isIdRetrieved()).thenReturn(true);
+    when(request.getServletPath()).thenReturn("/static/app.js");
+    sessionManager.getSession(request, false, null);
+    verify(session).setReadOnly(true);
+    when(request.getServletPath()).thenReturn("/update");
+    sessionManager.getSession(request, false, null);
+    verify(session).setReadOnly(false);
+    when(request.getAttribute(SessionManager.READ_ONLY_REQUEST)).thenReturn(Boolean.TRUE);
+    sessionManager.getSession(request, false, null);
+    verify(session, times(2)).setReadOnly(true);
+  }
+
+  @Test
+  public void testWriteBehindCommit() {
+    configuration.setCommitWriteBehind(true);
+    ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+    SessionManager writeBehindManager = new SessionManager(executors, factory, repository, tracking, notifier,
+        configuration, classLoader);
+    RepositoryBackedSession session = mock(RepositoryBackedSession.class);
+    RepositoryBackedSession.Committer committer = mock(RepositoryBackedSession.Committer.class);
+    when(session.getId()).thenReturn("1");
+    when(session.getCommitter()).thenReturn(committer);
+    when(session.getCommitLock()).thenReturn(new ReentrantLock());
+    writeBehindManager.invokeCommit(session);
+    verify(committer, never()).run();
+    ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+    verify(executors).submit(task.capture());
+    task.getValue().run();
+    verify(committer).run();
+    verify(repository).requestFinished();
+    writeBehindManager.close();
+  }
+
+  @Test
+  public void testSingleFlightFetch() {
+    configuration.setSingleFlightFetch(true);
+    ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+    SessionManager singleFlightManager = new SessionManager(executors, factory, repository, tracking, notifier,
+        configuration, classLoader);
+    SessionData sessionData = new SessionData("2", now(), 10);
+    RepositoryBackedSession session = mock(RepositoryBackedSession.class);
+    when(repository.getSessionData("2")).thenReturn(sessionData);
+    when(factory.build(sessionData)).thenReturn(session);
+    assertSame(session, singleFlightManager.fetchSession("2", false));
+    verify(repository).getSessionData("2");
+    assertEquals(0, singleFlightManager.getMetrics().meter(SessionManager.SHARED_FETCHES_METRIC).getCount());
+    singleFlightManager.close();
+  }
+
   @Test
   public void testGetSessionExpiredValid() {
     SessionData sessionData = new SessionData("2", now(), 10);
@@ -202,6 +392,31 @@ public class TestSessionManager {
     verify(session).doInvalidate(true);
   }
 
+  @Test
+  public void testDeleteAndExpireWithCachedSessionReuse() {
+    configuration.setAllowedCachedSessionReuse(true);
+    DefaultSessionFactory reuseFactory = new DefaultSessionFactory();
+    ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+    SessionManager reuseManager = new SessionManager(executors, reuseFactory, repository, tracking, notifier,
+        configuration, classLoader);
+    when(repository.prepareRemove(any(SessionData.class))).thenReturn(true);
+    SessionData sessionData = new SessionData("1", now(), 10);
+    when(repository.getSessionData("1")).thenReturn(sessionData);
+    reuseManager.delete("1", true);
+    verify(repository).remove(sessionData);
+    // Session must have been evicted from the local cache
+    SessionData recreated = new SessionData("1", now(), 10);
+    assertSame(recreated, reuseFactory.build(recreated).getSessionData());
+
+    SessionData expiredData = new SessionData("2", now() - 20000, 10);
+    when(repository.getSessionData("2")).thenReturn(expiredData);
+    assertNull(reuseManager.fetchSession("2", false));
+    verify(repository).remove(expiredData);
+    SessionData recreatedExpired = new SessionData("2", now(), 10);
+    assertSame(recreatedExpired, reuseFactory.build(recreatedExpired).getSessionData());
+    reuseManager.close();
+  }
+
   @Test
   public void testDeleteExpired() {
     when(repository.getSessionData("1")).thenReturn(null);
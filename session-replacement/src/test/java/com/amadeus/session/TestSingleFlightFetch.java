@@ -0,0 +1,155 @@
+package com.amadeus.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.Meter;
+
+@SuppressWarnings("javadoc")
+public class TestSingleFlightFetch {
+  private Meter shared;
+  private AtomicInteger reads;
+  private CountDownLatch release;
+
+  @Before
+  public void setup() {
+    shared = new Meter();
+    reads = new AtomicInteger();
+    release = new CountDownLatch(1);
+  }
+
+  private SingleFlightFetch.Fetch blockingFetch(final SessionData result, final RuntimeException failure) {
+    return new SingleFlightFetch.Fetch() {
+      @Override
+      public SessionData fetch() {
+        reads.incrementAndGet();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+          throw failure;
+        }
+        return result;
+      }
+    };
+  }
+
+  private static Thread startLeader(final SingleFlightFetch singleFlight, final SingleFlightFetch.Fetch fetch,
+      final AtomicReference<Object> result) throws InterruptedException {
+    Thread leader = new Thread() {
+      @Override
+      public void run() {
+        try {
+          result.set(singleFlight.fetch("1", false, AttributePrefetch.Selection.NONE, fetch));
+        } catch (RuntimeException e) {
+          result.set(e);
+        }
+      }
+    };
+    leader.start();
+    // Wait until leader is blocked in repository read
+    while (leader.getState() != Thread.State.WAITING) {
+      Thread.sleep(1);
+    }
+    return leader;
+  }
+
+  private void releaseWhenWaiting(final Thread waiting) {
+    new Thread() {
+      @Override
+      public void run() {
+        while (waiting.getState() != Thread.State.WAITING) {
+          Thread.yield();
+        }
+        release.countDown();
+      }
+    }.start();
+  }
+
+  @Test(timeout = 10000)
+  public void testConcurrentFetchReadsRepositoryOnce() throws InterruptedException {
+    SessionData sessionData = new SessionData("1", 100, 10);
+    SingleFlightFetch singleFlight = new SingleFlightFetch(false, shared);
+    AtomicReference<Object> leaderResult = new AtomicReference<>();
+    Thread leader = startLeader(singleFlight, blockingFetch(sessionData, null), leaderResult);
+    // Release repository read once current thread waits for its result
+    releaseWhenWaiting(Thread.currentThread());
+    SessionData joined = singleFlight.fetch("1", false, AttributePrefetch.Selection.NONE,
+        blockingFetch(null, null));
+    leader.join();
+    assertEquals(1, reads.get());
+    assertSame(sessionData, leaderResult.get());
+    assertNotSame(sessionData, joined);
+    assertEquals("1", joined.getId());
+    assertEquals(100, joined.getLastAccessedTime());
+    assertEquals(1, shared.getCount());
+  }
+
+  @Test(timeout = 10000)
+  public void testSharedInstance() throws InterruptedException {
+    SessionData sessionData = new SessionData("1", 100, 10);
+    SingleFlightFetch singleFlight = new SingleFlightFetch(true, shared);
+    AtomicReference<Object> leaderResult = new AtomicReference<>();
+    Thread leader = startLeader(singleFlight, blockingFetch(sessionData, null), leaderResult);
+    // Release repository read once current thread waits for its result
+    releaseWhenWaiting(Thread.currentThread());
+    SessionData joined = singleFlight.fetch("1", false, AttributePrefetch.Selection.NONE,
+        blockingFetch(null, null));
+    leader.join();
+    assertSame(sessionData, joined);
+    assertEquals(1, reads.get());
+  }
+
+  @Test(timeout = 10000)
+  public void testFailureIsReportedToWaitingThreads() throws InterruptedException {
+    IllegalStateException failure = new IllegalStateException("test");
+    SingleFlightFetch singleFlight = new SingleFlightFetch(false, shared);
+    AtomicReference<Object> leaderResult = new AtomicReference<>();
+    Thread leader = startLeader(singleFlight, blockingFetch(null, failure), leaderResult);
+    // Release repository read once current thread waits for its result
+    releaseWhenWaiting(Thread.currentThread());
+    try {
+      singleFlight.fetch("1", false, AttributePrefetch.Selection.NONE, blockingFetch(null, null));
+      fail("Failure should be reported");
+    } catch (IllegalStateException e) {
+      assertSame(failure, e);
+    }
+    leader.join();
+    assertSame(failure, leaderResult.get());
+    assertEquals(1, reads.get());
+  }
+
+  @Test(timeout = 10000)
+  public void testDifferentRetrievalIsNotShared() throws InterruptedException {
+    SingleFlightFetch singleFlight = new SingleFlightFetch(false, shared);
+    AtomicReference<Object> leaderResult = new AtomicReference<>();
+    Thread leader = startLeader(singleFlight, blockingFetch(null, null), leaderResult);
+    release.countDown();
+    assertNull(singleFlight.fetch("1", true, AttributePrefetch.Selection.NONE, blockingFetch(null, null)));
+    leader.join();
+    assertEquals(2, reads.get());
+    assertEquals(0, shared.getCount());
+  }
+
+  @Test
+  public void testSequentialFetchesAreNotShared() {
+    release.countDown();
+    SingleFlightFetch singleFlight = new SingleFlightFetch(false, shared);
+    singleFlight.fetch("1", false, AttributePrefetch.Selection.NONE, blockingFetch(null, null));
+    singleFlight.fetch("1", false, AttributePrefetch.Selection.NONE, blockingFetch(null, null));
+    assertEquals(2, reads.get());
+    assertEquals(0, shared.getCount());
+  }
+}
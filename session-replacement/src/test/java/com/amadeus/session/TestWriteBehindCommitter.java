@@ -0,0 +1,287 @@
+package com.amadeus.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.codahale.metrics.MetricRegistry;
+
+@SuppressWarnings("javadoc")
+public class TestWriteBehindCommitter {
+  private SessionManager manager;
+  private MetricRegistry metrics;
+  private WriteBehindCommitter committer;
+
+  @Before
+  public void setup() {
+    manager = mock(SessionManager.class);
+    metrics = new MetricRegistry();
+    committer = new WriteBehindCommitter(manager, metrics);
+  }
+
+  private static RepositoryBackedSession session(String id) {
+    RepositoryBackedSession session = mock(RepositoryBackedSession.class);
+    when(session.getId()).thenReturn(id);
+    when(session.getCommitLock()).thenReturn(new ReentrantLock());
+    when(session.isValid()).thenReturn(true);
+    when(session.getCommitter(any(WriteBehindCommitter.MergedTransaction.class))).thenReturn(mock(Runnable.class));
+    return session;
+  }
+
+  /**
+   * Session whose committer stores passed attributes and removes passed
+   * attribute using the merged transaction.
+   */
+  private static RepositoryBackedSession storing(String id, final String removed, final Object... stored) {
+    RepositoryBackedSession session = session(id);
+    final SessionData sessionData = new SessionData(id, 100, 10);
+    when(session.getCommitter(any(WriteBehindCommitter.MergedTransaction.class))).thenAnswer(new Answer<Runnable>() {
+      @Override
+      public Runnable answer(InvocationOnMock invocation) throws Throwable {
+        final WriteBehindCommitter.MergedTransaction merged = invocation.getArgument(0);
+        return new Runnable() {
+          @Override
+          public void run() {
+            SessionRepository.CommitTransaction transaction = merged.startCommit(sessionData);
+            for (int i = 0; i < stored.length; i += 2) {
+              transaction.addAttribute((String)stored[i], stored[i + 1]);
+            }
+            if (removed != null) {
+              transaction.removeAttribute(removed);
+            }
+            transaction.commit();
+          }
+        };
+      }
+    });
+    return session;
+  }
+
+  private void runCommitters() {
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        ((Runnable)invocation.getArgument(1)).run();
+        return null;
+      }
+    }).when(manager).commitNow(any(RepositoryBackedSession.class), any(Runnable.class));
+  }
+
+  private Runnable submittedTask(int times) {
+    ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+    verify(manager, times(times)).submit((String)isNull(), task.capture());
+    return task.getValue();
+  }
+
+  @Test
+  public void testCommitsJoinPendingTaskAndAreOrdered() {
+    RepositoryBackedSession first = session("1");
+    RepositoryBackedSession second = session("1");
+    RepositoryBackedSession other = session("2");
+    committer.enqueue(first);
+    committer.enqueue(second);
+    committer.enqueue(other);
+    assertEquals(3, committer.queued());
+    assertEquals(1, metrics.meter(WriteBehindCommitter.JOINED_METRIC).getCount());
+    verify(manager, never()).commitNow(any(RepositoryBackedSession.class));
+    ArgumentCaptor<Runnable> tasks = ArgumentCaptor.forClass(Runnable.class);
+    verify(manager, times(2)).submit((String)isNull(), tasks.capture());
+    tasks.getAllValues().get(0).run();
+    InOrder inOrder = inOrder(manager);
+    inOrder.verify(manager).commitNow(eq(first), any(Runnable.class));
+    inOrder.verify(manager).commitNow(eq(second), any(Runnable.class));
+    inOrder.verify(manager).requestFinished();
+    verify(manager, never()).commitNow(eq(other), any(Runnable.class));
+    verify(manager, never()).commitNow(other);
+    assertEquals(1, committer.queued());
+    assertEquals(2, metrics.timer(WriteBehindCommitter.LAG_METRIC).getCount());
+    assertEquals(1, metrics.getGauges().get(WriteBehindCommitter.QUEUED_METRIC).getValue());
+  }
+
+  @Test
+  public void testNewTaskAfterCompletion() {
+    RepositoryBackedSession first = session("1");
+    committer.enqueue(first);
+    submittedTask(1).run();
+    RepositoryBackedSession second = session("1");
+    committer.enqueue(second);
+    submittedTask(2).run();
+    verify(manager).commitNow(second);
+    assertEquals(0, metrics.meter(WriteBehindCommitter.JOINED_METRIC).getCount());
+  }
+
+  @Test
+  public void testFailedCommitDoesntStopOthers() {
+    RepositoryBackedSession first = session("1");
+    RepositoryBackedSession second = session("1");
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        throw new IllegalStateException("test");
+      }
+    }).when(manager).commitNow(eq(first), any(Runnable.class));
+    committer.enqueue(first);
+    committer.enqueue(second);
+    submittedTask(1).run();
+    verify(manager).commitNow(eq(second), any(Runnable.class));
+    assertEquals(0, committer.queued());
+  }
+
+  @Test
+  public void testPendingCommitsAreMerged() {
+    SessionRepository repository = mock(SessionRepository.class);
+    when(manager.getRepository()).thenReturn(repository);
+    SessionRepository.CommitTransaction firstTransaction = mock(SessionRepository.CommitTransaction.class);
+    SessionRepository.CommitTransaction secondTransaction = mock(SessionRepository.CommitTransaction.class);
+    when(repository.startCommit(any(SessionData.class))).thenReturn(firstTransaction, secondTransaction);
+    runCommitters();
+    committer.enqueue(storing("1", "c", "a", 1, "b", 1));
+    committer.enqueue(storing("1", "b", "a", 2));
+    submittedTask(1).run();
+    verify(firstTransaction, never()).commit();
+    verify(firstTransaction, never()).addAttribute(any(String.class), any());
+    verify(secondTransaction).removeAttribute("c");
+    verify(secondTransaction).removeAttribute("b");
+    verify(secondTransaction).addAttribute("a", 2);
+    verify(secondTransaction, never()).addAttribute("a", 1);
+    verify(secondTransaction, never()).addAttribute(eq("b"), any());
+    verify(secondTransaction).commit();
+    verify(manager, never()).commitNow(any(RepositoryBackedSession.class));
+    assertEquals(1, metrics.meter(WriteBehindCommitter.COALESCED_METRIC).getCount());
+    assertEquals(0, committer.queued());
+  }
+
+  @Test
+  public void testMergedRemovalIsOverriddenByLaterStore() {
+    SessionRepository repository = mock(SessionRepository.class);
+    when(manager.getRepository()).thenReturn(repository);
+    SessionRepository.CommitTransaction transaction = mock(SessionRepository.CommitTransaction.class);
+    when(repository.startCommit(any(SessionData.class))).thenReturn(transaction);
+    runCommitters();
+    committer.enqueue(storing("1", "a"));
+    committer.enqueue(storing("1", null, "a", 2));
+    committer.enqueue(storing("1", null));
+    submittedTask(1).run();
+    verify(transaction, never()).removeAttribute("a");
+    verify(transaction).addAttribute("a", 2);
+    verify(transaction, times(1)).commit();
+    assertEquals(2, metrics.meter(WriteBehindCommitter.COALESCED_METRIC).getCount());
+  }
+
+  @Test
+  public void testInvalidationDiscardsMergedChanges() {
+    SessionRepository repository = mock(SessionRepository.class);
+    when(manager.getRepository()).thenReturn(repository);
+    SessionRepository.CommitTransaction firstTransaction = mock(SessionRepository.CommitTransaction.class);
+    SessionRepository.CommitTransaction secondTransaction = mock(SessionRepository.CommitTransaction.class);
+    when(repository.startCommit(any(SessionData.class))).thenReturn(firstTransaction, secondTransaction);
+    runCommitters();
+    RepositoryBackedSession invalidated = storing("1", null, "a", 1);
+    when(invalidated.isValid()).thenReturn(false);
+    committer.enqueue(invalidated);
+    committer.enqueue(storing("1", null, "b", 2));
+    submittedTask(1).run();
+    verify(firstTransaction, never()).commit();
+    verify(secondTransaction, never()).addAttribute(eq("a"), any());
+    verify(secondTransaction).addAttribute("b", 2);
+    verify(secondTransaction).commit();
+    assertEquals(0, metrics.meter(WriteBehindCommitter.COALESCED_METRIC).getCount());
+  }
+
+  @Test
+  public void testAwaitCommittedWithoutPendingCommits() {
+    committer.awaitCommitted("1");
+    verify(manager, never()).commitNow(any(RepositoryBackedSession.class));
+  }
+
+  @Test(timeout = 10000)
+  public void testAwaitCommittedWaitsForTask() throws InterruptedException {
+    final RepositoryBackedSession session = session("1");
+    committer.enqueue(session);
+    final Runnable task = submittedTask(1);
+    final CountDownLatch started = new CountDownLatch(1);
+    Thread waiting = new Thread() {
+      @Override
+      public void run() {
+        started.countDown();
+        committer.awaitCommitted("1");
+      }
+    };
+    waiting.start();
+    assertTrue(started.await(1, TimeUnit.SECONDS));
+    task.run();
+    waiting.join();
+    verify(manager, times(1)).commitNow(session);
+    verify(manager).requestFinished();
+  }
+
+  @Test(timeout = 10000)
+  public void testAwaitCommittedKeepsWaitingForDrainingTask() throws InterruptedException {
+    committer.maxWaitMillis = 20;
+    final RepositoryBackedSession session = session("1");
+    final CountDownLatch committing = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        committing.countDown();
+        release.await();
+        return null;
+      }
+    }).when(manager).commitNow(session);
+    committer.enqueue(session);
+    final Runnable task = submittedTask(1);
+    Thread executor = new Thread(task);
+    executor.start();
+    assertTrue(committing.await(1, TimeUnit.SECONDS));
+    Thread waiting = new Thread() {
+      @Override
+      public void run() {
+        committer.awaitCommitted("1");
+      }
+    };
+    waiting.start();
+    waiting.join(200);
+    // Executor thread is still committing, so waiting thread must not read the session
+    assertTrue(waiting.isAlive());
+    release.countDown();
+    waiting.join();
+    executor.join();
+    verify(manager, times(1)).commitNow(session);
+  }
+
+  @Test
+  public void testFlushCommitsInCurrentThread() {
+    RepositoryBackedSession session = session("1");
+    committer.enqueue(session);
+    committer.flush();
+    verify(manager).commitNow(session);
+    verify(manager, never()).requestFinished();
+    assertEquals(0, committer.queued());
+    // Submitted task has nothing left to do
+    submittedTask(1).run();
+    verify(manager, times(1)).commitNow(session);
+    assertFalse(metrics.getGauges().isEmpty());
+  }
+}
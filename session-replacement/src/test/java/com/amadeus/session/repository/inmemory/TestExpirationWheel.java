@@ -0,0 +1,88 @@
+package com.amadeus.session.repository.inmemory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class TestExpirationWheel {
+
+  private static final long START = 1000000L;
+  private ExpirationWheel wheel;
+
+  @Before
+  public void setup() {
+    wheel = new ExpirationWheel(1000, START);
+  }
+
+  @Test
+  public void testExpiresInOrder() {
+    wheel.schedule("a", START + 1500);
+    wheel.schedule("b", START + 30000);
+    wheel.schedule("c", START + 5000);
+    assertEquals(3, wheel.size());
+    assertTrue(wheel.advance(START + 1000).isEmpty());
+    assertEquals(Arrays.asList("a"), wheel.advance(START + 2000));
+    assertTrue(wheel.advance(START + 4999).isEmpty());
+    assertEquals(Arrays.asList("c"), wheel.advance(START + 5000));
+    assertEquals(Arrays.asList("b"), wheel.advance(START + 60000));
+    assertEquals(0, wheel.size());
+  }
+
+  @Test
+  public void testOverdue() {
+    wheel.schedule("a", START - 10000);
+    assertEquals(Arrays.asList("a"), wheel.advance(START));
+  }
+
+  @Test
+  public void testRescheduleAndCancel() {
+    wheel.schedule("a", START + 2000);
+    wheel.schedule("b", START + 2000);
+    wheel.schedule("a", START + 10000);
+    wheel.cancel("b");
+    assertTrue(wheel.advance(START + 5000).isEmpty());
+    assertEquals(Arrays.asList("a"), wheel.advance(START + 10000));
+    assertEquals(0, wheel.size());
+  }
+
+  @Test
+  public void testRename() {
+    wheel.schedule("a", START + 2000);
+    wheel.rename("a", "b");
+    assertEquals(1, wheel.size());
+    assertEquals(Arrays.asList("b"), wheel.advance(START + 2000));
+  }
+
+  @Test
+  public void testCascadeThroughAllLevels() {
+    long range = 1L;
+    for (int i = 0; i < ExpirationWheel.LEVELS; i++) {
+      range *= ExpirationWheel.SLOTS;
+    }
+    List<Long> deadlines = Arrays.asList(Long.valueOf(63000), Long.valueOf(64000), Long.valueOf(4097000),
+        Long.valueOf(1800000), Long.valueOf(range * 1000), Long.valueOf(range * 2000 + 7000));
+    for (Long deadline : deadlines) {
+      wheel.schedule(String.valueOf(deadline), START + deadline);
+    }
+    List<String> expired = new ArrayList<>();
+    long now = START;
+    // Advance in uneven steps and check that no session is returned early or late
+    while (expired.size() < deadlines.size()) {
+      now += 997000;
+      for (String id : wheel.advance(now)) {
+        long deadline = START + Long.parseLong(id);
+        assertTrue(id, deadline <= now && deadline > now - 997000 - 1000);
+        expired.add(id);
+      }
+    }
+    assertEquals(deadlines.size(), expired.size());
+    assertEquals(0, wheel.size());
+  }
+}
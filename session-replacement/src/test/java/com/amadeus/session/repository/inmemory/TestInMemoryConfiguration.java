@@ -0,0 +1,31 @@
+package com.amadeus.session.repository.inmemory;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.amadeus.session.SessionConfiguration;
+
+@SuppressWarnings("javadoc")
+public class TestInMemoryConfiguration {
+
+  @Test
+  public void testDefaultConfiguration() {
+    InMemoryConfiguration configuration = new InMemoryConfiguration(new SessionConfiguration());
+    assertEquals(Long.valueOf(0), configuration.getMaxBytes());
+    assertEquals(Boolean.FALSE, configuration.getSerialized());
+    assertEquals(Boolean.FALSE, configuration.getOffHeap());
+    assertEquals(Integer.valueOf(16777216), configuration.getSlabSize());
+  }
+
+  @Test
+  public void testParseConfiguration() {
+    SessionConfiguration sc = new SessionConfiguration();
+    sc.setProviderConfiguration("maxbytes=100000, serialized=true, offheap=true, slabsize=4096");
+    InMemoryConfiguration configuration = new InMemoryConfiguration(sc);
+    assertEquals(Long.valueOf(100000), configuration.getMaxBytes());
+    assertEquals(Boolean.TRUE, configuration.getSerialized());
+    assertEquals(Boolean.TRUE, configuration.getOffHeap());
+    assertEquals(Integer.valueOf(4096), configuration.getSlabSize());
+  }
+}
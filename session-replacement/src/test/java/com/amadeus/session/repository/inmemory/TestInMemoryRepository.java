@@ -12,20 +12,31 @@ import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import com.amadeus.session.AttributePrefetch;
+import com.amadeus.session.JdkSerializerDeserializer;
 import com.amadeus.session.SessionConfiguration;
 import com.amadeus.session.SessionData;
 import com.amadeus.session.SessionManager;
 import com.amadeus.session.SessionRepository;
 import com.amadeus.session.SessionRepository.CommitTransaction;
 import com.amadeus.session.repository.inmemory.InMemoryRepository.CleanupTask;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
 
 @SuppressWarnings("javadoc")
 public class TestInMemoryRepository {
@@ -51,6 +62,35 @@ public class TestInMemoryRepository {
     assertNull(repository.getSessionData("test"));
   }
 
+  @Test
+  public void testFetchAndTouchSessionData() {
+    assertNull(repository.fetchAndTouchSessionData("test", 5000, SessionConfiguration.TouchGranularity.NONE,
+        AttributePrefetch.Selection.NONE));
+    SessionData sessionData = new SessionData("test", 1000, 10);
+    repository.storeSessionData(sessionData);
+    assertSame(sessionData, repository.fetchAndTouchSessionData("test", 5000, SessionConfiguration.TouchGranularity.NONE,
+        AttributePrefetch.Selection.NONE));
+    assertEquals(5000, repository.getSessionData("test").getLastAccessedTime());
+    // Expired session is not touched
+    assertSame(sessionData, repository.fetchAndTouchSessionData("test", 20000, SessionConfiguration.TouchGranularity.NONE,
+        AttributePrefetch.Selection.NONE));
+    assertEquals(5000, repository.getSessionData("test").getLastAccessedTime());
+  }
+
+  @Test
+  public void testFetchAndTouchSessionDataWithinGranularity() {
+    SessionConfiguration configuration = new SessionConfiguration();
+    configuration.setTouchGranularity("2");
+    SessionData sessionData = new SessionData("test", 1000, 10);
+    repository.storeSessionData(sessionData);
+    assertSame(sessionData, repository.fetchAndTouchSessionData("test", 2000, configuration.getTouchGranularity(),
+        AttributePrefetch.Selection.NONE));
+    assertEquals(1000, repository.getSessionData("test").getLastAccessedTime());
+    assertSame(sessionData, repository.fetchAndTouchSessionData("test", 3000, configuration.getTouchGranularity(),
+        AttributePrefetch.Selection.NONE));
+    assertEquals(3000, repository.getSessionData("test").getLastAccessedTime());
+  }
+
   @Test
   public void testAllKeys() {
     SessionData sessionData = new SessionData("test", 1000, 10);
@@ -146,6 +186,124 @@ public class TestInMemoryRepository {
     assertTrue(repository.sessionDataCache.isEmpty());
   }
 
+  @Test
+  public void testCleanUpOnlyExpiredSessions() {
+    SessionManager sm = mock(SessionManager.class);
+    repository.setSessionManager(sm);
+    long now = System.currentTimeMillis();
+    SessionData expired = new SessionData("expired", now - 20000, 10);
+    repository.storeSessionData(expired);
+    SessionData active = new SessionData("active", now, 1800);
+    repository.storeSessionData(active);
+    SessionData touched = new SessionData("touched", now - 20000, 10);
+    repository.storeSessionData(touched);
+    // Session accessed without commit is indexed again when examined
+    touched.setLastAccessedTime(now);
+    SessionData eternal = new SessionData("eternal", now - 20000, 0);
+    repository.storeSessionData(eternal);
+    assertEquals(3, repository.expirations.size());
+
+    repository.new CleanupTask().run();
+    verify(sm).delete("expired", true);
+    verify(sm, never()).delete("touched", true);
+    assertNull(repository.getSessionData("expired"));
+    assertNotNull(repository.getSessionData("touched"));
+    assertNotNull(repository.getSessionData("active"));
+    assertNotNull(repository.getSessionData("eternal"));
+    assertEquals(2, repository.expirations.size());
+  }
+
+  private SessionManager managerWithSerializer() {
+    SessionManager sm = mock(SessionManager.class);
+    when(sm.getMetrics()).thenReturn(new MetricRegistry());
+    when(sm.getSessionClassLoader()).thenReturn(getClass().getClassLoader());
+    JdkSerializerDeserializer serializer = new JdkSerializerDeserializer();
+    serializer.setSessionManager(sm);
+    when(sm.getSerializerDeserializer()).thenReturn(serializer);
+    return sm;
+  }
+
+  @Test
+  public void testSerializedAttributes() {
+    SessionManager sm = managerWithSerializer();
+    repository.setSerialized(true);
+    repository.setSessionManager(sm);
+    SessionData sessionData = new SessionData("test", 1000, 10);
+    repository.storeSessionData(sessionData);
+    ArrayList<String> value = new ArrayList<>(Arrays.asList("a", "b"));
+    CommitTransaction transaction = repository.startCommit(sessionData);
+    assertTrue(transaction.isDistributing());
+    transaction.addAttribute("list", value);
+    transaction.commit();
+    value.add("c");
+    assertEquals(Arrays.asList("a", "b"), repository.getSessionAttribute(sessionData, "list"));
+    assertNotSame(repository.getSessionAttribute(sessionData, "list"),
+        repository.getSessionAttribute(sessionData, "list"));
+    assertTrue(repository.sessionAttributeCache.get("something:test").get("list") instanceof byte[]);
+    assertTrue(repository.budget.getBytes() > MemoryBudget.SESSION_OVERHEAD);
+    Gauge<?> bytes = sm.getMetrics().getGauges().get("com.amadeus.session.inmemory.bytes");
+    assertEquals(Long.valueOf(repository.budget.getBytes()), bytes.getValue());
+    repository.removeSessionAttribute(sessionData, "list");
+    assertNull(repository.getSessionAttribute(sessionData, "list"));
+  }
+
+  @Test
+  public void testOffHeapAttributes() {
+    SessionManager sm = managerWithSerializer();
+    repository.setOffHeap(1024);
+    repository.setSessionManager(sm);
+    verify(sm).schedule(anyString(), any(InMemoryRepository.CompactionTask.class), anyLong());
+    SessionData sessionData = new SessionData("test", 1000, 10);
+    repository.storeSessionData(sessionData);
+    repository.setSessionAttribute(sessionData, "a", "first");
+    repository.setSessionAttribute(sessionData, "a", "second");
+    repository.setSessionAttribute(sessionData, "b", Arrays.asList("x", "y"));
+    assertEquals("second", repository.getSessionAttribute(sessionData, "a"));
+    assertEquals(Arrays.asList("x", "y"), repository.getSessionAttribute(sessionData, "b"));
+    assertTrue(repository.sessionAttributeCache.get("something:test").get("a") instanceof Long);
+    assertEquals(2, repository.offHeapStore.size());
+    repository.removeSessionAttribute(sessionData, "a");
+    assertEquals(1, repository.offHeapStore.size());
+    repository.new CompactionTask().run();
+    assertEquals(Arrays.asList("x", "y"), repository.getSessionAttribute(sessionData, "b"));
+    repository.remove(sessionData);
+    assertEquals(0, repository.offHeapStore.size());
+    assertEquals(Long.valueOf(0), sm.getMetrics().getGauges().get("com.amadeus.session.inmemory.off-heap.live").getValue());
+  }
+
+  @Test
+  public void testEvictLeastRecentlyAccessed() {
+    SessionManager sm = managerWithSerializer();
+    repository.setMaxBytes(3 * (MemoryBudget.SESSION_OVERHEAD + 4));
+    repository.setSessionManager(sm);
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < 3; i++) {
+      repository.storeSessionData(new SessionData("s" + i, now, 10));
+    }
+    verify(sm, never()).deleteAsync(anyString(), anyBoolean());
+    repository.getSessionData("s0");
+    SessionData sessionData = repository.getSessionData("s2");
+    repository.setSessionAttribute(sessionData, "data", new byte[500]);
+    verify(sm).deleteAsync("s1", true);
+    verify(sm).deleteAsync("s0", true);
+    verify(sm, never()).deleteAsync("s2", true);
+    assertEquals(2, sm.getMetrics().getMeters().get("com.amadeus.session.inmemory.evictions").getCount());
+    assertEquals(3, sm.getMetrics().getGauges().get("com.amadeus.session.inmemory.sessions").getValue());
+    // Memory of evicted sessions is accounted until they are removed
+    Gauge<?> bytes = sm.getMetrics().getGauges().get("com.amadeus.session.inmemory.bytes");
+    long before = (Long)bytes.getValue();
+    repository.remove(new SessionData("s0", now, 10));
+    assertEquals(before - MemoryBudget.SESSION_OVERHEAD - 4, bytes.getValue());
+    repository.setSessionAttribute(sessionData, "other", "value");
+    verify(sm, times(1)).deleteAsync("s1", true);
+  }
+
+  @Test
+  public void testNotSerializedTransactionIsNotDistributing() {
+    repository.setSessionManager(managerWithSerializer());
+    assertFalse(repository.startCommit(new SessionData("test", 1000, 10)).isDistributing());
+  }
+
   @Test
   public void testInMemoryIsNotDistributable() {
     assertFalse(new InMemoryRepositoryFactory().isDistributed());
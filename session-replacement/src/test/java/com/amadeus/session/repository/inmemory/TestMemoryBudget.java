@@ -0,0 +1,82 @@
+package com.amadeus.session.repository.inmemory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class TestMemoryBudget {
+
+  private static long sessionBytes(String id) {
+    return MemoryBudget.SESSION_OVERHEAD + 2L * id.length();
+  }
+
+  @Test
+  public void testAccounting() {
+    MemoryBudget budget = new MemoryBudget(0);
+    budget.accessed("1");
+    assertEquals(sessionBytes("1"), budget.getBytes());
+    budget.attributeStored("1", "ab", 10);
+    assertEquals(sessionBytes("1") + 14, budget.getBytes());
+    budget.attributeStored("1", "ab", 20);
+    assertEquals(sessionBytes("1") + 24, budget.getBytes());
+    budget.attributeRemoved("1", "ab");
+    budget.attributeRemoved("1", "ab");
+    assertEquals(sessionBytes("1"), budget.getBytes());
+    budget.renamed("1", "22");
+    assertEquals(1, budget.getSessions());
+    assertEquals(sessionBytes("1"), budget.getBytes());
+    budget.removed("22");
+    assertEquals(0, budget.getBytes());
+    assertEquals(0, budget.getSessions());
+    budget.attributeStored("3", "a", 1000000);
+    assertTrue(budget.overBudget().isEmpty());
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyAccessed() {
+    MemoryBudget budget = new MemoryBudget(sessionBytes("1") * 2 + 200);
+    budget.attributeStored("1", "a", 100);
+    budget.attributeStored("2", "a", 100);
+    budget.attributeStored("3", "a", 100);
+    budget.accessed("1");
+    assertEquals(Arrays.asList("2", "3"), budget.overBudget());
+    // Evicted sessions are tracked until they are removed
+    assertEquals(3, budget.getSessions());
+    assertTrue(budget.overBudget().isEmpty());
+    budget.removed("2");
+    budget.removed("3");
+    assertEquals(1, budget.getSessions());
+    assertEquals(sessionBytes("1") + 102, budget.getBytes());
+  }
+
+  @Test
+  public void testDeferredEviction() {
+    MemoryBudget budget = new MemoryBudget(sessionBytes("1") + 200);
+    budget.attributeStored("1", "a", 100);
+    budget.attributeStored("2", "a", 100);
+    long bytes = budget.getBytes();
+    assertEquals(Arrays.asList("1"), budget.overBudget());
+    assertEquals(bytes, budget.getBytes());
+    // Session was in use and its removal was deferred
+    budget.attributeStored("1", "b", 100);
+    assertTrue(budget.overBudget().isEmpty());
+    assertEquals(bytes + 102, budget.getBytes());
+    budget.accessed("1");
+    assertEquals(Arrays.asList("2"), budget.overBudget());
+    budget.attributeStored("3", "a", 100);
+    assertEquals(Arrays.asList("1"), budget.overBudget());
+  }
+
+  @Test
+  public void testMostRecentSessionIsKept() {
+    MemoryBudget budget = new MemoryBudget(10);
+    budget.attributeStored("1", "a", 100);
+    assertTrue(budget.overBudget().isEmpty());
+    budget.attributeStored("2", "a", 100);
+    assertEquals(Arrays.asList("1"), budget.overBudget());
+  }
+}
@@ -0,0 +1,83 @@
+package com.amadeus.session.repository.inmemory;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class TestOffHeapStore {
+
+  private static byte[] data(int length, int seed) {
+    byte[] data = new byte[length];
+    for (int i = 0; i < length; i++) {
+      data[i] = (byte)(seed + i);
+    }
+    return data;
+  }
+
+  @Test
+  public void testPutGetFree() {
+    OffHeapStore store = new OffHeapStore(100);
+    long a = store.put(data(10, 1));
+    long b = store.put(data(20, 2));
+    assertArrayEquals(data(10, 1), store.get(a));
+    assertArrayEquals(data(20, 2), store.get(b));
+    assertEquals(30, store.getLiveBytes());
+    assertEquals(2, store.size());
+    store.free(a);
+    store.free(a);
+    assertNull(store.get(a));
+    assertEquals(20, store.getLiveBytes());
+    // Location is reused, but stale handle doesn't see new value
+    long c = store.put(data(5, 3));
+    assertEquals((int)a, (int)c);
+    assertNull(store.get(a));
+    assertArrayEquals(data(5, 3), store.get(c));
+  }
+
+  @Test
+  public void testSlabsAndOversizedValues() {
+    OffHeapStore store = new OffHeapStore(100);
+    long a = store.put(data(60, 1));
+    long b = store.put(data(60, 2));
+    assertEquals(200, store.getCapacity());
+    long big = store.put(data(500, 3));
+    assertEquals(708, store.getCapacity());
+    assertArrayEquals(data(500, 3), store.get(big));
+    store.free(big);
+    assertEquals(200, store.getCapacity());
+    // Empty slab other than current is released
+    store.free(a);
+    assertEquals(100, store.getCapacity());
+    assertArrayEquals(data(60, 2), store.get(b));
+  }
+
+  @Test
+  public void testCompaction() {
+    OffHeapStore store = new OffHeapStore(100);
+    long[] handles = new long[12];
+    for (int i = 0; i < handles.length; i++) {
+      handles[i] = store.put(data(17, i));
+    }
+    // 4 values of 25 bytes per slab, first two slabs become sparse
+    for (int i = 0; i < 8; i++) {
+      if (i % 4 != 0) {
+        store.free(handles[i]);
+      }
+    }
+    assertEquals(300, store.getCapacity());
+    assertEquals(2, store.compact());
+    assertEquals(200, store.getCapacity());
+    for (int i = 0; i < handles.length; i++) {
+      if (i >= 8 || i % 4 == 0) {
+        assertArrayEquals(data(17, i), store.get(handles[i]));
+      } else {
+        assertNull(store.get(handles[i]));
+      }
+    }
+    assertEquals(6 * 17, store.getLiveBytes());
+    assertEquals(0, store.compact());
+  }
+}
@@ -0,0 +1,100 @@
+package com.amadeus.session.repository.redis;
+
+import static com.amadeus.session.repository.redis.SafeEncoder.encode;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+@SuppressWarnings({ "javadoc", "unchecked" })
+public class TestCleanupLeases {
+
+  private static final String OWNER = "node";
+  private RedisFacade redis;
+  private CleanupLeases leases;
+  private int preferred;
+  private int other;
+
+  @Before
+  public void setup() {
+    redis = mock(RedisFacade.class);
+    leases = new CleanupLeases(redis, "test", OWNER, 2);
+    leases.setLeaseDuration(30);
+    preferred = (OWNER.hashCode() & Integer.MAX_VALUE) % 2;
+    other = 1 - preferred;
+  }
+
+  private List<byte[]> lastArgs() {
+    ArgumentCaptor<List<byte[]>> keys = ArgumentCaptor.forClass(List.class);
+    ArgumentCaptor<List<byte[]>> args = ArgumentCaptor.forClass(List.class);
+    verify(redis, atLeastOnce()).evalsha(eq(CleanupLeases.LEASE_SCRIPT), keys.capture(),
+        args.capture());
+    assertEquals("com.amadeus.session::{test}:cleanup:token", encode(keys.getValue().get(1)));
+    return args.getValue();
+  }
+
+  @Test
+  public void testAcquirePreferredLease() {
+    when(redis.evalsha(eq(CleanupLeases.LEASE_SCRIPT), any(List.class), any(List.class))).thenReturn(Long.valueOf(7));
+    assertEquals(7, leases.acquire(preferred));
+    List<byte[]> args = lastArgs();
+    assertEquals(OWNER, encode(args.get(0)));
+    assertEquals("30000", encode(args.get(1)));
+    assertEquals("1", encode(args.get(2)));
+    assertTrue(leases.isHeld(preferred, 7));
+  }
+
+  @Test
+  public void testOtherLeaseTakenOverWhenSeenFree() {
+    when(redis.evalsha(eq(CleanupLeases.LEASE_SCRIPT), any(List.class), any(List.class))).thenReturn(Long.valueOf(-1));
+    assertEquals(0, leases.acquire(other));
+    assertEquals("0", encode(lastArgs().get(2)));
+    when(redis.evalsha(eq(CleanupLeases.LEASE_SCRIPT), any(List.class), any(List.class))).thenReturn(Long.valueOf(8));
+    assertEquals(8, leases.acquire(other));
+    assertEquals("1", encode(lastArgs().get(2)));
+  }
+
+  @Test
+  public void testLeaseHeldByOtherNode() {
+    when(redis.evalsha(eq(CleanupLeases.LEASE_SCRIPT), any(List.class), any(List.class))).thenReturn(Long.valueOf(0));
+    assertEquals(0, leases.acquire(other));
+    assertEquals(0, leases.acquire(other));
+    assertEquals("0", encode(lastArgs().get(2)));
+  }
+
+  @Test
+  public void testFencingTokenChanged() {
+    when(redis.evalsha(eq(CleanupLeases.LEASE_SCRIPT), any(List.class), any(List.class))).thenReturn(Long.valueOf(3),
+        Long.valueOf(4));
+    long token = leases.acquire(preferred);
+    assertFalse(leases.isHeld(preferred, token));
+  }
+
+  @Test
+  public void testReleaseHeldLeases() {
+    leases.release();
+    verify(redis, never()).evalsha(eq(CleanupLeases.RELEASE_SCRIPT), any(List.class), any(List.class));
+    when(redis.evalsha(eq(CleanupLeases.LEASE_SCRIPT), any(List.class), any(List.class))).thenReturn(Long.valueOf(5));
+    leases.acquire(preferred);
+    leases.release();
+    ArgumentCaptor<List<byte[]>> keys = ArgumentCaptor.forClass(List.class);
+    ArgumentCaptor<List<byte[]>> args = ArgumentCaptor.forClass(List.class);
+    verify(redis).evalsha(eq(CleanupLeases.RELEASE_SCRIPT), keys.capture(), args.capture());
+    assertEquals("com.amadeus.session::{test}:cleanup:lease:" + preferred, encode(keys.getValue().get(0)));
+    assertEquals("5:" + OWNER, encode(args.getValue().get(0)));
+    leases.release();
+    verify(redis).evalsha(eq(CleanupLeases.RELEASE_SCRIPT), any(List.class), any(List.class));
+  }
+}
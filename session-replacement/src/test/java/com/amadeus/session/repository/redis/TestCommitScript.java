@@ -0,0 +1,85 @@
+package com.amadeus.session.repository.redis;
+
+import static com.amadeus.session.repository.redis.SafeEncoder.encode;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+@SuppressWarnings("javadoc")
+public class TestCommitScript {
+
+  @Test
+  public void testScriptSha() {
+    assertEquals("da39a3ee5e6b4b0d3255bfef95601890afd80709", RedisScript.sha1Hex(new byte[0]));
+    assertEquals(RedisScript.sha1Hex(CommitScript.SCRIPT.getScript()), encode(CommitScript.SCRIPT.getSha()));
+  }
+
+  @Test
+  public void testChunkIsEven() {
+    assertEquals(0, CommitScript.CHUNK % 2);
+  }
+
+  @Test
+  public void testArgumentsEncoding() {
+    CommitScript script = new CommitScript(encode("key"));
+    script.expiration(encode("set"), 100, encode("id"), 10);
+    assertEquals("[key, set]", strings(script.getKeys()).toString());
+    List<String> args = strings(script.getArgs(Arrays.asList(encode("a"), encode("b")),
+        Collections.singletonMap(encode("c"), encode("d"))));
+    assertEquals("[10, 100.0, id, 2, a, b, c, d]", args.toString());
+  }
+
+  @Test
+  public void testPersistEncoding() {
+    CommitScript script = new CommitScript(encode("key"));
+    script.expiration(encode("set"), Double.MAX_VALUE, encode("id"), -1);
+    List<String> args = strings(script.getArgs(Collections.<byte[]> emptyList(),
+        Collections.singletonMap(encode("c"), encode("d"))));
+    assertEquals("[0, " + Double.MAX_VALUE + ", id, 0, c, d]", args.toString());
+  }
+
+  @Test
+  public void testStrategyExpirationEncoding() {
+    CommitScript script = new CommitScript(encode("key"));
+    RedisScript lua = new RedisScript(CommitScript.storeAttributes("3") + "return removed\n");
+    script.expiration(lua, Arrays.asList(encode("k1"), encode("k2")), Arrays.asList(encode("x"), encode("y")));
+    assertEquals("[key, k1, k2]", strings(script.getKeys()).toString());
+    List<String> args = strings(script.getArgs(Arrays.asList(encode("a")),
+        Collections.singletonMap(encode("c"), encode("d"))));
+    assertEquals("[x, y, 1, a, c, d]", args.toString());
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testExecute() {
+    RedisFacade redis = mock(RedisFacade.class);
+    CommitScript script = new CommitScript(encode("key"));
+    assertFalse(script.canExecute(redis));
+    script.expiration(encode("set"), 100, encode("id"), 10);
+    when(redis.canRunScript(script.getKeys())).thenReturn(true);
+    assertTrue(script.canExecute(redis));
+    List<byte[]> removed = Collections.emptyList();
+    script.execute(redis, removed, Collections.singletonMap(encode("c"), encode("d")));
+    verify(redis).evalsha(eq(CommitScript.SCRIPT), eq(script.getKeys()), any(List.class));
+  }
+
+  private static List<String> strings(List<byte[]> values) {
+    List<String> result = new ArrayList<>();
+    for (byte[] value : values) {
+      result.add(encode(value));
+    }
+    return result;
+  }
+}
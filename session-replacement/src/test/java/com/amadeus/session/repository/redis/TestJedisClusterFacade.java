@@ -1,5 +1,11 @@
 package com.amadeus.session.repository.redis;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -8,6 +14,7 @@ import static org.mockito.Mockito.when;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -22,6 +29,7 @@ import com.amadeus.session.repository.redis.RedisFacade.TransactionRunner;
 
 import redis.clients.jedis.BinaryJedisPubSub;
 import redis.clients.jedis.Tuple;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
 
 @SuppressWarnings("javadoc")
 public class TestJedisClusterFacade {
@@ -215,6 +223,75 @@ public class TestJedisClusterFacade {
     verify(jedisCluster).transaction(transaction);
   }
   
+  @Test
+  public void testPipelineAsSequence() {
+    byte[] key = new byte[] {};
+    TransactionRunner<?> pipeline = mock(TransactionRunner.class);
+    rf.pipeline(key, pipeline);
+    verify(jedisCluster).transaction(pipeline);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testPipelinedTransactionsAsSequence() {
+    byte[] key = new byte[] {};
+    TransactionRunner<?> first = mock(TransactionRunner.class);
+    TransactionRunner<?> second = mock(TransactionRunner.class);
+    IllegalStateException failure = new IllegalStateException("test");
+    when(jedisCluster.transaction(second)).thenThrow(failure);
+    List<RedisFacade.ResponseFacade<Void>> responses = rf.pipelinedTransactions(key, Arrays.asList(first, second));
+    verify(jedisCluster).transaction(first);
+    assertNull(responses.get(0).get());
+    try {
+      responses.get(1).get();
+      fail("Failure of second transaction should be reported");
+    } catch (IllegalStateException e) {
+      assertSame(failure, e);
+    }
+  }
+
+  @Test
+  public void testCanRunScript() {
+    List<byte[]> sameSlot = new ArrayList<>();
+    sameSlot.add(SafeEncoder.encode("a{1}"));
+    sameSlot.add(SafeEncoder.encode("b{1}"));
+    assertTrue(rf.canRunScript(sameSlot));
+    List<byte[]> differentSlots = new ArrayList<>();
+    differentSlots.add(SafeEncoder.encode("a{1}"));
+    differentSlots.add(SafeEncoder.encode("a{2}"));
+    assertFalse(rf.canRunScript(differentSlots));
+    assertFalse(rf.canRunScript(new ArrayList<byte[]>()));
+    assertFalse(rf.isSingleServer());
+  }
+
+  @Test
+  public void testTransactionAsSequenceEvalshaNoScript() {
+    RedisScript script = new RedisScript("return 1");
+    List<byte[]> keys = new ArrayList<>();
+    keys.add(new byte[] { 65 });
+    List<byte[]> args = new ArrayList<>();
+    TransactionalJedisCluster.TransactionAsSequence sequence = new TransactionalJedisCluster.TransactionAsSequence(
+        jedisCluster);
+    when(jedisCluster.evalsha(script.getSha(), keys, args)).thenThrow(new JedisNoScriptException("NOSCRIPT"))
+        .thenReturn(1L);
+    RedisFacade.ResponseFacade<Object> response = sequence.evalsha(script, keys, args);
+    sequence.exec();
+    assertEquals(1L, response.get());
+    verify(jedisCluster).scriptLoad(script.getScript(), keys.get(0));
+  }
+
+  @Test
+  public void testEvalshaNoScript() {
+    RedisScript script = new RedisScript("return 1");
+    List<byte[]> keys = new ArrayList<>();
+    keys.add(new byte[] { 65 });
+    List<byte[]> args = new ArrayList<>();
+    when(jedisCluster.evalsha(script.getSha(), keys, args)).thenThrow(new JedisNoScriptException("NOSCRIPT"))
+        .thenReturn(1L);
+    rf.evalsha(script, keys, args);
+    verify(jedisCluster).scriptLoad(script.getScript(), keys.get(0));
+  }
+
   @Test
   public void testRenameString() {
     byte[] oldkey = new byte[] { 65 };
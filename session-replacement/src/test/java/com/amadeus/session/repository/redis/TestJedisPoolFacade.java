@@ -2,20 +2,27 @@ package com.amadeus.session.repository.redis;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 
 import com.amadeus.session.repository.redis.RedisFacade.TransactionRunner;
 import com.codahale.metrics.Gauge;
@@ -24,7 +31,11 @@ import com.codahale.metrics.MetricRegistry;
 import redis.clients.jedis.BinaryJedisPubSub;
 import redis.clients.jedis.Client;
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
 import redis.clients.jedis.Transaction;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
 import redis.clients.util.Pool;
 
 @SuppressWarnings("javadoc")
@@ -240,6 +251,98 @@ public class TestJedisPoolFacade {
     verify(jedisTransaction).exec();
   }
 
+  @Test
+  public void testPipeline() {
+    byte[] key = new byte[]{};
+    Pipeline jedisPipeline = mock(Pipeline.class);
+    when(jedis.pipelined()).thenReturn(jedisPipeline);
+    TransactionRunner<?> pipeline = mock(TransactionRunner.class);
+    rf.pipeline(key, pipeline);
+    verify(jedis).pipelined();
+    verify(pipeline).run(any(RedisFacade.TransactionFacade.class));
+    verify(jedisPipeline).sync();
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testPipelinedTransactions() {
+    byte[] key = new byte[]{};
+    Pipeline jedisPipeline = mock(Pipeline.class);
+    when(jedis.pipelined()).thenReturn(jedisPipeline);
+    Response<List<Object>> ok = mock(Response.class);
+    when(ok.get()).thenReturn(Arrays.<Object>asList("OK"));
+    Response<List<Object>> failed = mock(Response.class);
+    when(failed.get()).thenReturn(Arrays.<Object>asList("OK", new JedisDataException("WRONGTYPE")));
+    when(jedisPipeline.exec()).thenReturn(ok, failed);
+    TransactionRunner<?> first = mock(TransactionRunner.class);
+    TransactionRunner<?> second = mock(TransactionRunner.class);
+    List<RedisFacade.ResponseFacade<Void>> responses = rf.pipelinedTransactions(key, Arrays.asList(first, second));
+    InOrder inOrder = inOrder(jedisPipeline, first, second);
+    inOrder.verify(jedisPipeline).multi();
+    inOrder.verify(first).run(any(RedisFacade.TransactionFacade.class));
+    inOrder.verify(jedisPipeline).exec();
+    inOrder.verify(jedisPipeline).multi();
+    inOrder.verify(second).run(any(RedisFacade.TransactionFacade.class));
+    inOrder.verify(jedisPipeline).exec();
+    inOrder.verify(jedisPipeline).sync();
+    assertEquals(2, responses.size());
+    assertNull(responses.get(0).get());
+    try {
+      responses.get(1).get();
+      fail("Failure of second transaction should be reported");
+    } catch (JedisDataException e) {
+      assertEquals("WRONGTYPE", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testEvalsha() {
+    RedisScript script = new RedisScript("return 1");
+    List<byte[]> keys = Collections.singletonList(new byte[] { 65 });
+    List<byte[]> args = Collections.emptyList();
+    when(jedis.evalsha(script.getSha(), keys, args)).thenReturn(1L);
+    assertEquals(1L, rf.evalsha(script, keys, args));
+    verify(jedis, never()).scriptLoad(script.getScript());
+    assertTrue(rf.canRunScript(keys));
+    assertTrue(rf.isSingleServer());
+  }
+
+  @Test
+  public void testEvalshaNoScript() {
+    RedisScript script = new RedisScript("return 1");
+    List<byte[]> keys = Collections.singletonList(new byte[] { 65 });
+    List<byte[]> args = Collections.emptyList();
+    when(jedis.evalsha(script.getSha(), keys, args)).thenThrow(new JedisNoScriptException("NOSCRIPT"))
+        .thenReturn(1L);
+    assertEquals(1L, rf.evalsha(script, keys, args));
+    verify(jedis).scriptLoad(script.getScript());
+    verify(jedis, times(2)).evalsha(script.getSha(), keys, args);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testPipelineEvalshaNoScript() {
+    final RedisScript script = new RedisScript("return 1");
+    final List<byte[]> keys = Collections.singletonList(new byte[] { 65 });
+    final List<byte[]> args = Collections.emptyList();
+    Pipeline jedisPipeline = mock(Pipeline.class);
+    when(jedis.pipelined()).thenReturn(jedisPipeline);
+    Response<Object> noScript = mock(Response.class);
+    when(noScript.get()).thenThrow(new JedisNoScriptException("NOSCRIPT"));
+    when(jedisPipeline.evalsha(script.getSha(), keys, args)).thenReturn(noScript);
+    when(jedis.evalsha(script.getSha(), keys, args)).thenThrow(new JedisNoScriptException("NOSCRIPT"))
+        .thenReturn(1L);
+    RedisFacade.ResponseFacade<Object> response = rf.pipeline(new byte[] { 65 }, new TransactionRunner<Object>() {
+      @Override
+      public RedisFacade.ResponseFacade<Object> run(RedisFacade.TransactionFacade pipeline) {
+        return pipeline.evalsha(script, keys, args);
+      }
+    });
+    verify(jedisPipeline).sync();
+    assertEquals(1L, response.get());
+    verify(jedis).scriptLoad(script.getScript());
+  }
+
   @Test
   public void testSupportsMultiPopV999_999_999() {
     when(jedis.info("server")).thenReturn("# Server\r\nredis_version:999.999.999\r\nredis_git_sha1:ceaf58df\r\nredis_git_dirty:1");
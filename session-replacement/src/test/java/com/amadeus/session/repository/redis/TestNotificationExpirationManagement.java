@@ -7,12 +7,15 @@ import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
@@ -22,6 +25,8 @@ import static org.mockito.Mockito.when;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.junit.Before;
@@ -32,7 +37,9 @@ import org.mockito.stubbing.Answer;
 
 import com.amadeus.session.SessionData;
 import com.amadeus.session.SessionManager;
+import com.amadeus.session.repository.redis.NotificationExpirationManagement.CleanHangingSessionsTask;
 import com.amadeus.session.repository.redis.NotificationExpirationManagement.SubscriptionRunner;
+import com.amadeus.session.repository.redis.NotificationExpirationManagement.TriggerExpiredSessionsTask;
 import com.amadeus.session.repository.redis.RedisFacade.TransactionRunner;
 
 @SuppressWarnings("javadoc")
@@ -52,6 +59,105 @@ public class TestNotificationExpirationManagement {
     expiration = new NotificationExpirationManagement(redis, redisSession, "test", "this", "prefix", false);
   }
 
+  @SuppressWarnings("unchecked")
+  private void runPipelinesDirectly() {
+    when(redis.pipeline(any(byte[].class), any(TransactionRunner.class))).thenAnswer(new Answer<Object>() {
+      @Override
+      public Object answer(InvocationOnMock invocation) throws Throwable {
+        TransactionRunner<?> runner = invocation.getArgument(1);
+        return runner.run(new DirectTransactionFacade(redis));
+      }
+    });
+  }
+
+  private static Set<byte[]> sessions(int from, int to) {
+    Set<byte[]> sessions = new HashSet<>();
+    for (int i = from; i < to; i++) {
+      sessions.add(encode(String.valueOf(i)));
+    }
+    return sessions;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testTriggerExpiredSessionsInBatches() {
+    runPipelinesDirectly();
+    when(redis.supportsMultiSpop()).thenReturn(Boolean.TRUE);
+    when(redis.spop(any(byte[].class), anyLong())).thenReturn(sessions(0, 1000), sessions(1000, 1002));
+    expiration.new TriggerExpiredSessionsTask().run();
+    verify(redis, times(2)).spop(any(byte[].class), anyLong());
+    verify(redis, times(2)).pipeline(any(byte[].class), any(TransactionRunner.class));
+    verify(redis, times(1002)).exists(any(byte[].class));
+    verify(redis).exists(encode("com.amadeus.session:expire::test:{1001}"));
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testTriggerExpiredSessionsOnlyByLeaseHolder() {
+    runPipelinesDirectly();
+    expiration.setCleanupWorkers(1);
+    when(redis.supportsMultiSpop()).thenReturn(Boolean.TRUE);
+    when(redis.spop(any(byte[].class), anyLong())).thenReturn(sessions(0, 1000), sessions(1000, 1002));
+    when(redis.evalsha(eq(CleanupLeases.LEASE_SCRIPT), any(List.class), any(List.class))).thenReturn(Long.valueOf(0));
+    expiration.new TriggerExpiredSessionsTask().run();
+    verify(redis, never()).spop(any(byte[].class), anyLong());
+
+    // Lease is acquired, but taken over by other node after first batch
+    when(redis.evalsha(eq(CleanupLeases.LEASE_SCRIPT), any(List.class), any(List.class))).thenReturn(Long.valueOf(3),
+        Long.valueOf(4));
+    expiration.new TriggerExpiredSessionsTask().run();
+    verify(redis, times(1)).spop(any(byte[].class), anyLong());
+    verify(redis, times(1000)).exists(any(byte[].class));
+  }
+
+  @Test
+  public void testCleanHangingSessionsPipelined() {
+    expiration = new NotificationExpirationManagement(redis, redisSession, "test", "this", "prefix", true);
+    runPipelinesDirectly();
+    SessionManager sm = mock(SessionManager.class);
+    when(redis.supportsMultiSpop()).thenReturn(Boolean.TRUE);
+    when(redis.spop(any(byte[].class), anyLong())).thenReturn(sessions(0, 3));
+    when(redisSession.getSessionKey(any(byte[].class))).thenAnswer(new Answer<byte[]>() {
+      @Override
+      public byte[] answer(InvocationOnMock invocation) throws Throwable {
+        return invocation.getArgument(0);
+      }
+    });
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        ((Runnable)invocation.getArgument(0)).run();
+        return null;
+      }
+    }).when(redisSession).removeInBatch(any(Runnable.class));
+    when(redis.exists(encode("1"))).thenReturn(Boolean.TRUE);
+    when(redis.exists(encode("2"))).thenReturn(Boolean.TRUE);
+    when(redis.exists(encode("0"))).thenReturn(Boolean.FALSE);
+    doThrow(new IllegalStateException("test")).when(sm).delete("1", true);
+    expiration.new CleanHangingSessionsTask(sm).run();
+    // Sessions of the batch are deleted by single task
+    ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+    verify(sm).submit(eq("delete-async"), task.capture());
+    verify(sm, never()).deleteAsync(anyString(), eq(true));
+    verify(sm, never()).delete(anyString(), eq(true));
+    task.getValue().run();
+    verify(redisSession).removeInBatch(any(Runnable.class));
+    // Failure of one session doesn't prevent deletion of others
+    verify(sm).delete("1", true);
+    verify(sm).delete("2", true);
+    verify(sm, never()).delete("0", true);
+  }
+
+  @Test
+  public void testSessionDeletedInPipeline() {
+    RedisFacade.TransactionFacade pipeline = mock(RedisFacade.TransactionFacade.class);
+    expiration.sessionDeleted(session, pipeline);
+    verify(pipeline).srem(any(byte[].class), any(byte[].class));
+    verify(pipeline).del(any(byte[].class));
+    verify(redis, never()).srem(any(byte[].class), any(byte[].class));
+    verify(redis, never()).del(any(byte[].class));
+  }
+
   @Test
   public void testSessionDeleted() {
     expiration.sessionDeleted(session);
@@ -118,6 +224,37 @@ public class TestNotificationExpirationManagement {
     verify(redis, never()).srem(any(byte[].class), any(byte[].class));
   }
 
+  @Test
+  public void testSessionTouchedCoalescedSameExpiryMinute() {
+    expiration.setCoalesce(true);
+    session.setNew(false);
+    session.setLastAccessedTime(30000);
+    expiration.sessionTouched(session);
+    verify(redis, never()).sadd(any(byte[].class), any(byte[].class));
+    verify(redis, never()).srem(any(byte[].class), any(byte[].class));
+    verify(redis, never()).expireAt(any(byte[].class), anyLong());
+    verify(redis).setex(eq(encode("com.amadeus.session:expire::test:{1}")), eq(20), any(byte[].class));
+    verify(redis).expire(encode("key:{1}"), 320);
+  }
+
+  @Test
+  public void testSessionTouchedCoalescedChangeExpiryMinute() {
+    expiration.setCoalesce(true);
+    session = new SessionData("1", 50000, 20);
+    session.setNew(false);
+    session.setLastAccessedTime(110000);
+    expiration.sessionTouched(session);
+    verify(redis).srem(encode("prefixexpirations:120000"), encode("key:{1}"));
+    verify(redis).sadd(encode("prefixexpirations:180000"), encode("key:{1}"));
+  }
+
+  @Test
+  public void testSessionTouchedCoalescedNewSession() {
+    expiration.setCoalesce(true);
+    expiration.sessionTouched(session);
+    verify(redis).sadd(encode("prefixexpirations:60000"), encode("key:{1}"));
+  }
+
   NotificationExpirationManagement setUp() {
     return expiration;
   }
@@ -162,6 +299,86 @@ public class TestNotificationExpirationManagement {
     assertThat(captured, hasItem("key:{1}"));
   }
 
+  @Test
+  public void testCommitScriptSha() {
+    assertEquals(RedisScript.sha1Hex(NotificationExpirationManagement.COMMIT_SCRIPT.getScript()),
+        encode(NotificationExpirationManagement.COMMIT_SCRIPT.getSha()));
+  }
+
+  @Test
+  public void testSessionTouchedScript() {
+    CommitScript script = new CommitScript(encode("key:{1}"));
+    assertTrue(expiration.sessionTouched(session, script));
+    assertEquals("[key:{1}, com.amadeus.session:expire::test:{1}, prefixexpirations:60000]",
+        strings(script.getKeys()).toString());
+    assertEquals("[20, 0, 1, 0, 360, 0]", strings(script.getArgs(Collections.<byte[]> emptyList(),
+        Collections.<byte[], byte[]> emptyMap())).toString());
+    verify(redis, never()).sadd(any(byte[].class), any(byte[].class));
+    verify(redis, never()).setex(any(byte[].class), any(int.class), any(byte[].class));
+  }
+
+  @Test
+  public void testSessionTouchedScriptCoalescedChangeExpiryMinute() {
+    expiration.setCoalesce(true);
+    session = new SessionData("1", 50000, 20);
+    session.setNew(false);
+    session.setLastAccessedTime(110000);
+    CommitScript script = new CommitScript(encode("key:{1}"));
+    assertTrue(expiration.sessionTouched(session, script));
+    assertEquals("[key:{1}, com.amadeus.session:expire::test:{1}, prefixexpirations:120000, prefixexpirations:180000]",
+        strings(script.getKeys()).toString());
+    assertEquals("[20, 1, 1, 0, 480, 1, a]", strings(script.getArgs(Collections.singletonList(encode("a")),
+        Collections.<byte[], byte[]> emptyMap())).toString());
+  }
+
+  @Test
+  public void testSessionTouchedScriptCoalescedSameExpiryMinute() {
+    expiration.setCoalesce(true);
+    session.setNew(false);
+    session.setLastAccessedTime(30000);
+    CommitScript script = new CommitScript(encode("key:{1}"));
+    assertTrue(expiration.sessionTouched(session, script));
+    assertEquals("[key:{1}, com.amadeus.session:expire::test:{1}]", strings(script.getKeys()).toString());
+    assertEquals("[20, 0, 0, 0, 0]", strings(script.getArgs(Collections.<byte[]> emptyList(),
+        Collections.<byte[], byte[]> emptyMap())).toString());
+  }
+
+  @Test
+  public void testSessionTouchedScriptNeverExpires() {
+    session = new SessionData("1", 100, 0);
+    session.setNew(false);
+    CommitScript script = new CommitScript(encode("key:{1}"));
+    assertTrue(expiration.sessionTouched(session, script));
+    assertEquals("[key:{1}, com.amadeus.session:expire::test:{1}, prefixexpirations:60000]",
+        strings(script.getKeys()).toString());
+    assertEquals("[0, 1, 0, 0, 0]", strings(script.getArgs(Collections.<byte[]> emptyList(),
+        Collections.<byte[], byte[]> emptyMap())).toString());
+  }
+
+  @Test
+  public void testSessionTouchedScriptStickyFailover() {
+    NotificationExpirationManagement sticky = new NotificationExpirationManagement(redis, redisSession, "test", "this",
+        "prefix:", true);
+    session = new SessionData("1", 100, 20, 0, "other");
+    session.setNew(false);
+    session.setLastAccessedTime(70000);
+    CommitScript script = new CommitScript(encode("key:{1}"));
+    assertTrue(sticky.sessionTouched(session, script));
+    assertEquals("[key:{1}, com.amadeus.session:expire::this:test:{1}, prefix:expirations:60000, "
+        + "prefix:forced-expirations:180000, prefix:expirations:120000, prefix:forced-expirations:180000, "
+        + "com.amadeus.session:expire::other:test:{1}]", strings(script.getKeys()).toString());
+    assertEquals("[20, 2, 2, 1, 420, 480, 0]", strings(script.getArgs(Collections.<byte[]> emptyList(),
+        Collections.<byte[], byte[]> emptyMap())).toString());
+  }
+
+  private static List<String> strings(List<byte[]> values) {
+    List<String> result = new ArrayList<>();
+    for (byte[] value : values) {
+      result.add(encode(value));
+    }
+    return result;
+  }
+
   @Test
   public void testSubscriptionRunner() {
     SessionManager sessionManager = mock(SessionManager.class);
@@ -0,0 +1,196 @@
+package com.amadeus.session.repository.redis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.amadeus.session.repository.redis.RedisFacade.TransactionFacade;
+import com.amadeus.session.repository.redis.RedisFacade.TransactionRunner;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+
+@SuppressWarnings("javadoc")
+public class TestRedisCommitBatcher {
+  private static final byte[] KEY = SafeEncoder.encode("key");
+
+  private RedisFacade redis;
+  private TransactionFacade pipeline;
+  private Histogram batchSizes;
+  private List<List<TransactionRunner<?>>> executed;
+  private CountDownLatch firstBatchExecuting;
+  private CountDownLatch releaseFirstBatch;
+  private RuntimeException failure;
+  private Set<String> failedFields;
+
+  @SuppressWarnings("unchecked")
+  @Before
+  public void setup() {
+    redis = mock(RedisFacade.class);
+    pipeline = mock(TransactionFacade.class);
+    batchSizes = new MetricRegistry().histogram("batch-size");
+    executed = Collections.synchronizedList(new ArrayList<List<TransactionRunner<?>>>());
+    firstBatchExecuting = new CountDownLatch(1);
+    releaseFirstBatch = new CountDownLatch(0);
+    failedFields = new HashSet<>();
+    when(redis.pipelinedTransactions(any(byte[].class), any(List.class))).thenAnswer(new Answer<Object>() {
+      @Override
+      public Object answer(InvocationOnMock invocation) throws Throwable {
+        List<TransactionRunner<?>> runners = new ArrayList<>((List<TransactionRunner<?>>)invocation.getArgument(1));
+        executed.add(runners);
+        firstBatchExecuting.countDown();
+        releaseFirstBatch.await();
+        if (failure != null) {
+          throw failure;
+        }
+        List<RedisFacade.ResponseFacade<Void>> responses = new ArrayList<>();
+        for (TransactionRunner<?> runner : runners) {
+          runner.run(pipeline);
+          responses.add(response(((FieldRunner)runner).field));
+        }
+        return responses;
+      }
+    });
+  }
+
+  private RedisFacade.ResponseFacade<Void> response(final String field) {
+    return new RedisFacade.ResponseFacade<Void>() {
+      @Override
+      public Void get() {
+        if (failedFields.contains(field)) {
+          throw new IllegalStateException(field);
+        }
+        return null;
+      }
+    };
+  }
+
+  private RedisCommitBatcher batcher(int maxBatchSize, int windowMillis) {
+    RedisCommitBatcher batcher = new RedisCommitBatcher(redis, maxBatchSize, windowMillis);
+    batcher.setBatchSizes(batchSizes);
+    return batcher;
+  }
+
+  private static final class FieldRunner implements TransactionRunner<String> {
+    final String field;
+
+    FieldRunner(String field) {
+      this.field = field;
+    }
+
+    @Override
+    public RedisFacade.ResponseFacade<String> run(TransactionFacade transaction) {
+      transaction.hdel(KEY, SafeEncoder.encode(field));
+      return null;
+    }
+  }
+
+  private static Thread commitInThread(final RedisCommitBatcher batcher, final String field,
+      final AtomicReference<Exception> error) {
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          batcher.commit(KEY, new FieldRunner(field));
+        } catch (Exception e) {
+          error.set(e);
+        }
+      }
+    };
+    thread.start();
+    return thread;
+  }
+
+  private static void waitUntilWaiting(Thread thread) throws InterruptedException {
+    while (thread.getState() != Thread.State.TIMED_WAITING && thread.getState() != Thread.State.WAITING) {
+      Thread.sleep(1);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test(timeout = 10000)
+  public void testLoneCommitIsExecutedImmediately() {
+    batcher(10, 60000).commit(KEY, new FieldRunner("a"));
+    verify(redis).pipelinedTransactions(eq(KEY), any(List.class));
+    verify(pipeline).hdel(KEY, SafeEncoder.encode("a"));
+    assertEquals(1, batchSizes.getCount());
+    assertEquals(1, batchSizes.getSnapshot().getMax());
+  }
+
+  /**
+   * While first batch is executing, next commits are grouped in a single batch.
+   */
+  private List<Thread> commitWhileFirstBatchExecutes(RedisCommitBatcher batcher, AtomicReference<Exception> first,
+      AtomicReference<Exception> second, AtomicReference<Exception> third) throws InterruptedException {
+    releaseFirstBatch = new CountDownLatch(1);
+    Thread a = commitInThread(batcher, "a", first);
+    assertTrue(firstBatchExecuting.await(5, TimeUnit.SECONDS));
+    Thread b = commitInThread(batcher, "b", second);
+    waitUntilWaiting(b);
+    Thread c = commitInThread(batcher, "c", third);
+    waitUntilWaiting(c);
+    releaseFirstBatch.countDown();
+    a.join();
+    b.join();
+    c.join();
+    return Arrays.asList(a, b, c);
+  }
+
+  @Test(timeout = 10000)
+  public void testCommitsArrivingDuringExecutionAreBatched() throws InterruptedException {
+    AtomicReference<Exception> error = new AtomicReference<>();
+    commitWhileFirstBatchExecutes(batcher(10, 60000), error, error, error);
+    assertNull(error.get());
+    assertEquals(2, executed.size());
+    assertEquals(1, executed.get(0).size());
+    assertEquals(2, executed.get(1).size());
+    assertEquals(2, batchSizes.getSnapshot().getMax());
+    verify(pipeline).hdel(KEY, SafeEncoder.encode("b"));
+    verify(pipeline).hdel(KEY, SafeEncoder.encode("c"));
+  }
+
+  @Test(timeout = 10000)
+  public void testFailureIsReportedOnlyToFailedCommit() throws InterruptedException {
+    failedFields.add("b");
+    AtomicReference<Exception> first = new AtomicReference<>();
+    AtomicReference<Exception> second = new AtomicReference<>();
+    AtomicReference<Exception> third = new AtomicReference<>();
+    commitWhileFirstBatchExecutes(batcher(10, 60000), first, second, third);
+    assertEquals(2, executed.get(1).size());
+    assertNull(first.get());
+    assertEquals("b", second.get().getMessage());
+    assertNull(third.get());
+  }
+
+  @Test
+  public void testPipelineFailureIsReportedToCommit() {
+    failure = new IllegalStateException("test");
+    try {
+      batcher(10, 1).commit(KEY, new FieldRunner("a"));
+      fail("Failure should be reported");
+    } catch (IllegalStateException e) {
+      assertSame(failure, e);
+    }
+  }
+}
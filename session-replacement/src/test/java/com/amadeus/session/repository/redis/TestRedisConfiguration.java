@@ -58,6 +58,44 @@ public class TestRedisConfiguration {
     assertEquals(new Integer(5000), configuration.timeout);
   }
 
+  @Test
+  public void testExpirationShards() {
+    RedisConfiguration configuration = new RedisConfiguration(sc);
+    assertEquals(new Integer(1), configuration.expirationShards);
+    sc.setProviderConfiguration("expiration=ZRANGE,shards=8");
+    configuration = new RedisConfiguration(sc);
+    assertEquals(new Integer(8), configuration.expirationShards);
+  }
+
+  @Test
+  public void testCoalesceExpirations() {
+    RedisConfiguration configuration = new RedisConfiguration(sc);
+    assertEquals(Boolean.FALSE, configuration.coalesceExpirations);
+    sc.setProviderConfiguration("expiration=NOTIF,coalesce=true");
+    configuration = new RedisConfiguration(sc);
+    assertEquals(Boolean.TRUE, configuration.coalesceExpirations);
+  }
+
+  @Test
+  public void testCommitBatch() {
+    RedisConfiguration configuration = new RedisConfiguration(sc);
+    assertEquals(new Integer(0), configuration.commitBatch);
+    assertEquals(new Integer(1), configuration.commitBatchWindow);
+    sc.setProviderConfiguration("batch=50,batchwindow=2");
+    configuration = new RedisConfiguration(sc);
+    assertEquals(new Integer(50), configuration.commitBatch);
+    assertEquals(new Integer(2), configuration.commitBatchWindow);
+  }
+
+  @Test
+  public void testCleanupWorkers() {
+    RedisConfiguration configuration = new RedisConfiguration(sc);
+    assertEquals(new Integer(0), configuration.cleanupWorkers);
+    sc.setProviderConfiguration("cleanupworkers=3");
+    configuration = new RedisConfiguration(sc);
+    assertEquals(new Integer(3), configuration.cleanupWorkers);
+  }
+
   @Test
   public void testParseConfigurationPasswordAndSSLConfig() {
 
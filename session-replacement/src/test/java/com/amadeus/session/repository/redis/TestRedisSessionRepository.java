@@ -1,15 +1,20 @@
 package com.amadeus.session.repository.redis;
 
 import static com.amadeus.session.repository.redis.SafeEncoder.encode;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.CALLS_REAL_METHODS;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
@@ -18,6 +23,8 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -30,13 +37,21 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatcher;
+import org.mockito.InOrder;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import com.amadeus.session.AttributePrefetch;
 import com.amadeus.session.JdkSerializerDeserializer;
 import com.amadeus.session.RepositoryBackedSession;
 import com.amadeus.session.SessionConfiguration;
 import com.amadeus.session.SessionData;
+import com.amadeus.session.SessionFactory;
 import com.amadeus.session.SessionManager;
+import com.amadeus.session.SessionNotifier;
+import com.amadeus.session.SessionRepository;
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
 
@@ -60,6 +75,36 @@ public class TestRedisSessionRepository {
     }
   }
 
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testRemoveInBatch() {
+    RedisFacade facade = mock(RedisFacade.class);
+    SessionManager sm = mock(SessionManager.class);
+    try (final RedisSessionRepository rsr = new RedisSessionRepository(facade, "myapp", "localhost", ExpirationStrategy.NOTIF, false)) {
+      rsr.setSessionManager(sm);
+      rsr.removeInBatch(new Runnable() {
+        @Override
+        public void run() {
+          rsr.remove(new SessionData("1", 100, 10));
+          rsr.remove(new SessionData("2", 100, 10));
+        }
+      });
+      verify(facade, never()).del(any(byte[].class));
+      ArgumentCaptor<RedisFacade.TransactionRunner> runner = ArgumentCaptor
+          .forClass(RedisFacade.TransactionRunner.class);
+      verify(facade).pipeline(any(byte[].class), runner.capture());
+      RedisFacade.TransactionFacade pipeline = mock(RedisFacade.TransactionFacade.class);
+      runner.getValue().run(pipeline);
+      verify(pipeline).del(rsr.sessionKey("1"));
+      verify(pipeline).del(rsr.sessionKey("2"));
+      verify(pipeline, times(2)).srem(any(byte[].class), any(byte[].class));
+      // Removal outside of batch is sent directly
+      rsr.remove(new SessionData("3", 100, 10));
+      verify(facade).del(rsr.sessionKey("3"));
+      verify(facade, times(1)).pipeline(any(byte[].class), any(RedisFacade.TransactionRunner.class));
+    }
+  }
+
   @Test
   public void testSortedSetExpiration() {
     RedisFacade facade = mock(RedisFacade.class);
@@ -96,12 +141,12 @@ public class TestRedisSessionRepository {
       assertNull("Session should be inconsistent", rsr.getSessionData("200"));
       facade.hmget = Arrays.asList(byteArray(8, 100), byteArray(4, 4), null, new byte[]{ 1 });
       assertNull("Session should be invalid", rsr.getSessionData("200"));
-      facade.hmget = Arrays.asList(byteArray(8, 100), byteArray(4, 4), byteArray(8, 10), null);
+      facade.hmget = Arrays.asList(byteArray(8, 100), byteArray(4, 4), byteArray(8, 10), null, null);
       assertNotNull("Session should be valid", rsr.getSessionData("200"));
       assertEquals(100, rsr.getSessionData("200").getLastAccessedTime());
       assertEquals(4, rsr.getSessionData("200").getMaxInactiveInterval());
       assertEquals(10, rsr.getSessionData("200").getCreationTime());
-      facade.hmget = Arrays.asList(byteArray(8, 100), byteArray(4, 5), byteArray(8, 1, 1), new byte[]{ 0 });
+      facade.hmget = Arrays.asList(byteArray(8, 100), byteArray(4, 5), byteArray(8, 1, 1), new byte[]{ 0 }, null);
       assertNotNull("Session should be valid", rsr.getSessionData("200"));
       assertEquals(100, rsr.getSessionData("200").getLastAccessedTime());
       assertEquals(5, rsr.getSessionData("200").getMaxInactiveInterval());
@@ -117,13 +162,13 @@ public class TestRedisSessionRepository {
     SessionManager sm = mock(SessionManager.class);
     try (RedisSessionRepository rsr = new RedisSessionRepository(facade, "myapp", "localhost", ExpirationStrategy.NOTIF, true)) {
       rsr.setSessionManager(sm);
-      facade.hmget = Arrays.asList(byteArray(8, 100), byteArray(4, 5), byteArray(8, 1, 1), new byte[]{ 0 }, encode("old"));
+      facade.hmget = Arrays.asList(byteArray(8, 100), byteArray(4, 5), byteArray(8, 1, 1), new byte[]{ 0 }, null, encode("old"));
       assertNotNull(rsr.getSessionData("200"));
       assertEquals("old", rsr.getSessionData("200").getPreviousOwner());
-      facade.hmget = Arrays.asList(byteArray(8, 100), byteArray(4, 5), byteArray(8, 1, 1), new byte[]{ 0 }, null);
+      facade.hmget = Arrays.asList(byteArray(8, 100), byteArray(4, 5), byteArray(8, 1, 1), new byte[]{ 0 }, null, null);
       assertNotNull(rsr.getSessionData("200"));
       assertNull(rsr.getSessionData("200").getPreviousOwner());
-      facade.hmget = Arrays.asList(byteArray(8, 100), byteArray(4, 5), byteArray(8, 1, 1), new byte[]{ 0 });
+      facade.hmget = Arrays.asList(byteArray(8, 100), byteArray(4, 5), byteArray(8, 1, 1), new byte[]{ 0 }, null);
       thrown.expect(ArrayIndexOutOfBoundsException.class);
       rsr.getSessionData("200");
     }
@@ -382,6 +427,422 @@ public class TestRedisSessionRepository {
     }
   }
 
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testScriptedCommit() {
+    RedisFacade facade = mock(RedisFacade.class);
+    when(facade.canRunScript(any(List.class))).thenReturn(true);
+    SessionManager sm = mock(SessionManager.class);
+    SessionConfiguration conf = new SessionConfiguration();
+    when(sm.getConfiguration()).thenReturn(conf);
+    when(sm.getMetrics()).thenReturn(new MetricRegistry());
+    JdkSerializerDeserializer serializer = new JdkSerializerDeserializer();
+    when(sm.getSerializerDeserializer()).thenReturn(serializer);
+    serializer.setSessionManager(sm);
+    try (RedisSessionRepository rsr = new RedisSessionRepository(facade, "myapp", "localhost", ExpirationStrategy.ZRANGE, false)) {
+      rsr.setSessionManager(sm);
+      rsr.setScriptedCommit(true);
+      SessionData sessionData = new SessionData("id", 1000, 10);
+      SessionRepository.CommitTransaction transaction = rsr.startCommit(sessionData);
+      transaction.addAttribute("attr", "value");
+      transaction.removeAttribute("removed");
+      transaction.commit();
+      ArgumentCaptor<List> keys = ArgumentCaptor.forClass(List.class);
+      ArgumentCaptor<List> args = ArgumentCaptor.forClass(List.class);
+      verify(facade).evalsha(eq(CommitScript.SCRIPT), keys.capture(), args.capture());
+      verify(facade, never()).transaction(any(byte[].class), any(RedisFacade.TransactionRunner.class));
+      verify(facade, never()).zadd(any(byte[].class), any(Double.class), any(byte[].class));
+      List<byte[]> keyList = keys.getValue();
+      assertEquals(2, keyList.size());
+      assertArrayEquals(rsr.sessionKey("id"), keyList.get(0));
+      List<byte[]> argList = args.getValue();
+      assertEquals("1", encode(argList.get(3)));
+      assertEquals("removed", encode(argList.get(4)));
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testScriptedCommitFallback() {
+    RedisFacade facade = mock(RedisFacade.class);
+    when(facade.canRunScript(any(List.class))).thenReturn(false);
+    SessionManager sm = mock(SessionManager.class);
+    JdkSerializerDeserializer serializer = new JdkSerializerDeserializer();
+    when(sm.getSerializerDeserializer()).thenReturn(serializer);
+    SessionConfiguration conf = new SessionConfiguration();
+    when(sm.getConfiguration()).thenReturn(conf);
+    try (RedisSessionRepository rsr = new RedisSessionRepository(facade, "myapp", "localhost", ExpirationStrategy.ZRANGE, false)) {
+      rsr.setSessionManager(sm);
+      rsr.setScriptedCommit(true);
+      SessionData sessionData = new SessionData("id", 1000, 10);
+      rsr.startCommit(sessionData).commit();
+      verify(facade, never()).evalsha(eq(CommitScript.SCRIPT), any(List.class), any(List.class));
+      verify(facade).transaction(eq(rsr.sessionKey("id")), any(RedisFacade.TransactionRunner.class));
+      verify(facade).zadd(any(byte[].class), any(Double.class), any(byte[].class));
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testScriptedCommitWithNotifications() {
+    RedisFacade facade = mock(RedisFacade.class);
+    when(facade.canRunScript(any(List.class))).thenReturn(true);
+    SessionManager sm = mock(SessionManager.class);
+    JdkSerializerDeserializer serializer = new JdkSerializerDeserializer();
+    when(sm.getSerializerDeserializer()).thenReturn(serializer);
+    SessionConfiguration conf = new SessionConfiguration();
+    when(sm.getConfiguration()).thenReturn(conf);
+    try (RedisSessionRepository rsr = new RedisSessionRepository(facade, "myapp", "localhost", ExpirationStrategy.NOTIF, false)) {
+      rsr.setSessionManager(sm);
+      rsr.setScriptedCommit(true);
+      SessionData sessionData = new SessionData("id", 1000, 10);
+      rsr.startCommit(sessionData).commit();
+      ArgumentCaptor<List> keys = ArgumentCaptor.forClass(List.class);
+      verify(facade).evalsha(eq(NotificationExpirationManagement.COMMIT_SCRIPT), keys.capture(), any(List.class));
+      verify(facade, never()).transaction(any(byte[].class), any(RedisFacade.TransactionRunner.class));
+      verify(facade, never()).expire(any(byte[].class), any(Integer.class));
+      assertArrayEquals(rsr.sessionKey("id"), (byte[]) keys.getValue().get(0));
+      assertEquals("com.amadeus.session:expire::myapp:{id}", encode((byte[]) keys.getValue().get(1)));
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testScriptedCommitWithNotificationsOnCluster() {
+    RedisFacade facade = mock(RedisFacade.class);
+    when(facade.canRunScript(any(List.class))).thenReturn(false);
+    SessionManager sm = mock(SessionManager.class);
+    JdkSerializerDeserializer serializer = new JdkSerializerDeserializer();
+    when(sm.getSerializerDeserializer()).thenReturn(serializer);
+    SessionConfiguration conf = new SessionConfiguration();
+    when(sm.getConfiguration()).thenReturn(conf);
+    try (RedisSessionRepository rsr = new RedisSessionRepository(facade, "myapp", "localhost", ExpirationStrategy.NOTIF, false)) {
+      rsr.setSessionManager(sm);
+      rsr.setScriptedCommit(true);
+      SessionData sessionData = new SessionData("id", 1000, 10);
+      rsr.startCommit(sessionData).commit();
+      verify(facade, never()).evalsha(any(RedisScript.class), any(List.class), any(List.class));
+      verify(facade).transaction(eq(rsr.sessionKey("id")), any(RedisFacade.TransactionRunner.class));
+      verify(facade).expire(eq(rsr.sessionKey("id")), any(Integer.class));
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testBatchedCommit() {
+    RedisFacade facade = mock(RedisFacade.class);
+    final RedisFacade.TransactionFacade pipeline = mock(RedisFacade.TransactionFacade.class);
+    when(facade.pipelinedTransactions(any(byte[].class), any(List.class))).thenAnswer(new Answer<Object>() {
+      @Override
+      public Object answer(InvocationOnMock invocation) throws Throwable {
+        List<RedisFacade.TransactionRunner<?>> runners = invocation.getArgument(1);
+        for (RedisFacade.TransactionRunner<?> runner : runners) {
+          runner.run(pipeline);
+        }
+        return Collections.nCopies(runners.size(), mock(RedisFacade.ResponseFacade.class));
+      }
+    });
+    SessionManager sm = serializingSessionManager();
+    try (RedisSessionRepository rsr = new RedisSessionRepository(facade, "myapp", "localhost", ExpirationStrategy.ZRANGE,
+        false)) {
+      rsr.setCommitBatch(10, 0);
+      rsr.setSessionManager(sm);
+      SessionData sessionData = new SessionData("id", 1000, 10);
+      SessionRepository.CommitTransaction transaction = rsr.startCommit(sessionData);
+      transaction.addAttribute("attr", "value");
+      transaction.commit();
+      verify(facade, never()).transaction(any(byte[].class), any(RedisFacade.TransactionRunner.class));
+      verify(facade).pipelinedTransactions(eq(rsr.sessionKey("id")), any(List.class));
+      verify(pipeline).hmset(eq(rsr.sessionKey("id")), any(Map.class));
+      verify(pipeline).zadd(any(byte[].class), any(Double.class), any(byte[].class));
+      verify(facade, never()).zadd(any(byte[].class), any(Double.class), any(byte[].class));
+      assertEquals(1, sm.getMetrics().histogram("com.amadeus.session.myapp.redis.commit.batch-size").getCount());
+    }
+  }
+
+  private static SessionManager serializingSessionManager() {
+    SessionManager sm = mock(SessionManager.class);
+    SessionConfiguration conf = new SessionConfiguration();
+    when(sm.getConfiguration()).thenReturn(conf);
+    when(sm.getMetrics()).thenReturn(new MetricRegistry());
+    JdkSerializerDeserializer serializer = new JdkSerializerDeserializer();
+    when(sm.getSerializerDeserializer()).thenReturn(serializer);
+    serializer.setSessionManager(sm);
+    return sm;
+  }
+
+  @Test
+  public void testGetSessionDataPrefetchAll() {
+    RedisFacade facade = mock(RedisFacade.class);
+    SessionManager sm = serializingSessionManager();
+    long now = System.currentTimeMillis();
+    Map<byte[], byte[]> hash = new HashMap<>();
+    hash.put(RedisSessionRepository.LAST_ACCESSED, longBytes(now));
+    hash.put(RedisSessionRepository.MAX_INACTIVE_INTERVAL, intBytes(10));
+    hash.put(RedisSessionRepository.CREATION_TIME, longBytes(now - 1000));
+    hash.put(encode("attr"), sm.getSerializerDeserializer().serialize("value"));
+    try (RedisSessionRepository rsr = new RedisSessionRepository(facade, "myapp", "localhost", ExpirationStrategy.ZRANGE, false)) {
+      rsr.setSessionManager(sm);
+      when(facade.hgetAll(rsr.sessionKey("id"))).thenReturn(hash);
+      SessionData sessionData = rsr.getSessionData("id", AttributePrefetch.Selection.ALL);
+      assertEquals(now, sessionData.getLastAccessedTime());
+      assertEquals(10, sessionData.getMaxInactiveInterval());
+      assertEquals(now - 1000, sessionData.getCreationTime());
+      assertEquals("value", rsr.getSessionAttribute(sessionData, "attr"));
+      assertNull(rsr.getSessionAttribute(sessionData, "other"));
+      assertEquals(Collections.singleton("attr"), rsr.getAllKeys(sessionData));
+      verify(facade, never()).hmget(any(byte[].class), any(byte[].class));
+      verify(facade, never()).hkeys(any(byte[].class));
+    }
+  }
+
+  @Test
+  public void testGetSessionDataPrefetchMissingSession() {
+    RedisFacade facade = mock(RedisFacade.class);
+    try (RedisSessionRepository rsr = new RedisSessionRepository(facade, "myapp", "localhost", ExpirationStrategy.ZRANGE, false)) {
+      rsr.setSessionManager(serializingSessionManager());
+      when(facade.hgetAll(rsr.sessionKey("id"))).thenReturn(new HashMap<byte[], byte[]>());
+      assertNull(rsr.getSessionData("id", AttributePrefetch.Selection.ALL));
+    }
+  }
+
+  @Test
+  public void testGetSessionDataPrefetchList() {
+    RedisFacade facade = mock(RedisFacade.class);
+    SessionManager sm = serializingSessionManager();
+    long now = System.currentTimeMillis();
+    try (RedisSessionRepository rsr = new RedisSessionRepository(facade, "myapp", "localhost", ExpirationStrategy.ZRANGE, false)) {
+      rsr.setSessionManager(sm);
+      byte[] value = sm.getSerializerDeserializer().serialize("value");
+      when(facade.hmget(rsr.sessionKey("id"), RedisSessionRepository.LAST_ACCESSED,
+          RedisSessionRepository.MAX_INACTIVE_INTERVAL, RedisSessionRepository.CREATION_TIME,
+          RedisSessionRepository.INVALID_SESSION, RedisSessionRepository.BINDING_LISTENERS, encode("attr")))
+              .thenReturn(Arrays.asList(longBytes(now), intBytes(10), longBytes(now - 1000), null, null, value));
+      SessionData sessionData = rsr.getSessionData("id",
+          new AttributePrefetch.Selection(Collections.singleton("attr")));
+      assertEquals(now, sessionData.getLastAccessedTime());
+      assertTrue(sessionData.isPrefetched("attr"));
+      assertFalse(sessionData.isPrefetched("other"));
+      assertEquals("value", rsr.getSessionAttribute(sessionData, "attr"));
+      verify(facade, times(1)).hmget(any(byte[].class), any(byte[].class), any(byte[].class), any(byte[].class),
+          any(byte[].class), any(byte[].class), any(byte[].class));
+      when(facade.hmget(rsr.sessionKey("id"), encode("other"))).thenReturn(Arrays.asList((byte[]) null));
+      assertNull(rsr.getSessionAttribute(sessionData, "other"));
+      verify(facade).hmget(rsr.sessionKey("id"), encode("other"));
+    }
+  }
+
+  @Test
+  public void testFetchAndTouchPrefetchList() {
+    RedisFacade facade = mock(RedisFacade.class);
+    SessionManager sm = serializingSessionManager();
+    long now = System.currentTimeMillis();
+    RedisFacade.TransactionFacade pipeline = mockPipeline(facade,
+        Arrays.asList(longBytes(now - 1000), intBytes(sm.getConfiguration().getMaxInactiveInterval()),
+            longBytes(now - 2000), null, null));
+    @SuppressWarnings("unchecked")
+    RedisFacade.ResponseFacade<List<byte[]>> response = mock(RedisFacade.ResponseFacade.class);
+    when(response.get()).thenReturn(Arrays.asList((byte[]) null));
+    try (RedisSessionRepository rsr = new RedisSessionRepository(facade, "myapp", "localhost", ExpirationStrategy.ZRANGE, false)) {
+      rsr.setSessionManager(sm);
+      when(pipeline.hmget(rsr.sessionKey("id"), encode("attr"))).thenReturn(response);
+      SessionData sessionData = rsr.fetchAndTouchSessionData("id", now, SessionConfiguration.TouchGranularity.NONE,
+          new AttributePrefetch.Selection(Collections.singleton("attr")));
+      assertTrue(sessionData.isPrefetched("attr"));
+      assertNull(rsr.getSessionAttribute(sessionData, "attr"));
+      verify(facade, never()).hmget(any(byte[].class), any(byte[].class));
+    }
+  }
+
+  private static void mockStickyMeta(RedisFacade facade, RedisSessionRepository rsr, long now, String owner,
+      long version) {
+    when(facade.hmget(rsr.sessionKey("id"), RedisSessionRepository.LAST_ACCESSED,
+        RedisSessionRepository.MAX_INACTIVE_INTERVAL, RedisSessionRepository.CREATION_TIME,
+        RedisSessionRepository.INVALID_SESSION, RedisSessionRepository.BINDING_LISTENERS,
+        RedisSessionRepository.OWNER_NODE, RedisSessionRepository.VERSION))
+            .thenReturn(Arrays.asList(longBytes(now), intBytes(10), longBytes(now - 1000), null, null, encode(owner),
+                longBytes(version)));
+  }
+
+  @Test
+  public void testNearCache() {
+    RedisFacade facade = mock(RedisFacade.class);
+    SessionManager sm = serializingSessionManager();
+    long now = System.currentTimeMillis();
+    try (RedisSessionRepository rsr = new RedisSessionRepository(facade, "myapp", "localhost", ExpirationStrategy.ZRANGE, true)) {
+      rsr.setNearCacheSize(10);
+      rsr.setSessionManager(sm);
+      byte[] value = sm.getSerializerDeserializer().serialize("value");
+      when(facade.hmget(rsr.sessionKey("id"), encode("attr"))).thenReturn(Arrays.asList(value));
+      mockStickyMeta(facade, rsr, now, "localhost", 5);
+      assertEquals("value", rsr.getSessionAttribute(rsr.getSessionData("id"), "attr"));
+      // Same version, attribute is served from near-cache
+      assertEquals("value", rsr.getSessionAttribute(rsr.getSessionData("id"), "attr"));
+      verify(facade).hmget(rsr.sessionKey("id"), encode("attr"));
+      // Version changed, attribute is read again
+      mockStickyMeta(facade, rsr, now, "localhost", 6);
+      assertEquals("value", rsr.getSessionAttribute(rsr.getSessionData("id"), "attr"));
+      verify(facade, times(2)).hmget(rsr.sessionKey("id"), encode("attr"));
+      // Session was on other node, near-cache is discarded
+      mockStickyMeta(facade, rsr, now, "other", 6);
+      assertEquals("value", rsr.getSessionAttribute(rsr.getSessionData("id"), "attr"));
+      verify(facade, times(3)).hmget(rsr.sessionKey("id"), encode("attr"));
+      assertEquals(3, sm.getMetrics().meter("com.amadeus.session.myapp.redis.nearcache.misses").getCount());
+      assertEquals(1, sm.getMetrics().meter("com.amadeus.session.myapp.redis.nearcache.hits").getCount());
+    }
+  }
+
+  @Test
+  public void testNearCacheMutableValueDeserializedOncePerRequest() {
+    RedisFacade facade = mock(RedisFacade.class);
+    SessionManager sm = serializingSessionManager();
+    SessionNotifier notifier = mock(SessionNotifier.class);
+    when(sm.getNotifier()).thenReturn(notifier);
+    long now = System.currentTimeMillis();
+    try (RedisSessionRepository rsr = new RedisSessionRepository(facade, "myapp", "localhost", ExpirationStrategy.ZRANGE, true)) {
+      rsr.setNearCacheSize(10);
+      rsr.setSessionManager(sm);
+      when(sm.getRepository()).thenReturn(rsr);
+      ArrayList<String> list = new ArrayList<>(Arrays.asList("a", "b"));
+      byte[] value = sm.getSerializerDeserializer().serialize(list);
+      when(facade.hmget(rsr.sessionKey("id"), encode("attr"))).thenReturn(Arrays.asList(value));
+      mockStickyMeta(facade, rsr, now, "localhost", 5);
+      Histogram deserialized = sm.getMetrics().histogram("com.amadeus.session.deserialized.distribution");
+      RepositoryBackedSession first = new RepositoryBackedSession(rsr.getSessionData("id"), sm, mock(SessionFactory.class));
+      Object firstCopy = first.getAttribute("attr");
+      assertEquals(list, firstCopy);
+      assertEquals(1, deserialized.getCount());
+      // Next request gets its own copy from the near-cache, deserialized once for the whole request
+      RepositoryBackedSession second = new RepositoryBackedSession(rsr.getSessionData("id"), sm, mock(SessionFactory.class));
+      Object secondCopy = second.getAttribute("attr");
+      assertSame(secondCopy, second.getAttribute("attr"));
+      assertSame(secondCopy, second.getAttribute("attr"));
+      assertNotSame(firstCopy, secondCopy);
+      assertEquals(list, secondCopy);
+      assertEquals(2, deserialized.getCount());
+      verify(facade).hmget(rsr.sessionKey("id"), encode("attr"));
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testNearCacheCommit() {
+    RedisFacade facade = mock(RedisFacade.class);
+    SessionManager sm = serializingSessionManager();
+    long now = System.currentTimeMillis();
+    try (RedisSessionRepository rsr = new RedisSessionRepository(facade, "myapp", "localhost", ExpirationStrategy.ZRANGE, true)) {
+      rsr.setNearCacheSize(10);
+      rsr.setSessionManager(sm);
+      SessionData sessionData = new SessionData("id", now, 10);
+      SessionRepository.CommitTransaction transaction = rsr.startCommit(sessionData);
+      transaction.addAttribute("attr", "value");
+      transaction.commit();
+      ArgumentCaptor<RedisFacade.TransactionRunner> runner = ArgumentCaptor
+          .forClass(RedisFacade.TransactionRunner.class);
+      verify(facade).transaction(eq(rsr.sessionKey("id")), runner.capture());
+      RedisFacade.TransactionFacade tx = mock(RedisFacade.TransactionFacade.class);
+      runner.getValue().run(tx);
+      ArgumentCaptor<Map> hash = ArgumentCaptor.forClass(Map.class);
+      verify(tx).hmset(eq(rsr.sessionKey("id")), hash.capture());
+      byte[] version = null;
+      for (Map.Entry<byte[], byte[]> entry : ((Map<byte[], byte[]>) hash.getValue()).entrySet()) {
+        if (Arrays.equals(RedisSessionRepository.VERSION, entry.getKey())) {
+          version = entry.getValue();
+        }
+      }
+      assertNotNull(version);
+      mockStickyMeta(facade, rsr, now, "localhost", ByteBuffer.wrap(version).getLong());
+      assertEquals("value", rsr.getSessionAttribute(rsr.getSessionData("id"), "attr"));
+      verify(facade, never()).hmget(rsr.sessionKey("id"), encode("attr"));
+      rsr.remove(sessionData);
+      assertEquals(0, rsr.getNearCache().size());
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testIsActive() {
+    RedisFacade facade = mock(RedisFacade.class);
+    try (RedisSessionRepository rsr = new RedisSessionRepository(facade, "myapp", "localhost", ExpirationStrategy.ZRANGE, false)) {
+      byte[] key = rsr.sessionKey("id");
+      when(facade.hmget(key, RedisSessionRepository.LAST_ACCESSED, RedisSessionRepository.MAX_INACTIVE_INTERVAL))
+          .thenReturn(Arrays.asList((byte[])null, null));
+      assertFalse(rsr.isActive("id", 1000));
+      when(facade.hmget(key, RedisSessionRepository.LAST_ACCESSED, RedisSessionRepository.MAX_INACTIVE_INTERVAL))
+          .thenReturn(Arrays.asList(byteArray(8, 100), byteArray(4, 10)));
+      assertTrue(rsr.isActive("id", 5000));
+      assertFalse(rsr.isActive("id", 12000));
+      when(facade.hmget(key, RedisSessionRepository.LAST_ACCESSED, RedisSessionRepository.MAX_INACTIVE_INTERVAL))
+          .thenReturn(Arrays.asList(byteArray(8, 100), byteArray(4, 0)));
+      assertTrue(rsr.isActive("id", 12000));
+    }
+  }
+
+  @Test
+  public void testBindingListenersMarker() {
+    RedisFacade facade = mock(RedisFacade.class);
+    SessionManager sm = serializingSessionManager();
+    try (RedisSessionRepository rsr = new RedisSessionRepository(facade, "myapp", "localhost", ExpirationStrategy.ZRANGE, false)) {
+      rsr.setSessionManager(sm);
+      SessionData sessionData = new SessionData("id", System.currentTimeMillis(), 10);
+      sessionData.setBindingListeners(Boolean.FALSE);
+      assertFalse(rsr.mayHaveBindingListeners(sessionData));
+      rsr.startCommit(sessionData).commit();
+      ArgumentCaptor<RedisFacade.TransactionRunner> runner = ArgumentCaptor
+          .forClass(RedisFacade.TransactionRunner.class);
+      verify(facade).transaction(eq(rsr.sessionKey("id")), runner.capture());
+      RedisFacade.TransactionFacade tx = mock(RedisFacade.TransactionFacade.class);
+      runner.getValue().run(tx);
+      ArgumentCaptor<Map> hash = ArgumentCaptor.forClass(Map.class);
+      verify(tx).hmset(eq(rsr.sessionKey("id")), hash.capture());
+      byte[] marker = null;
+      for (Map.Entry<byte[], byte[]> entry : ((Map<byte[], byte[]>) hash.getValue()).entrySet()) {
+        if (Arrays.equals(RedisSessionRepository.BINDING_LISTENERS, entry.getKey())) {
+          marker = entry.getValue();
+        }
+      }
+      assertArrayEquals(RedisSessionRepository.BYTES_FALSE, marker);
+      // Session retrieved from redis uses marker read with other meta attributes
+      long now = System.currentTimeMillis();
+      byte[][] meta = { RedisSessionRepository.LAST_ACCESSED, RedisSessionRepository.MAX_INACTIVE_INTERVAL,
+          RedisSessionRepository.CREATION_TIME, RedisSessionRepository.INVALID_SESSION,
+          RedisSessionRepository.BINDING_LISTENERS };
+      when(facade.hmget(rsr.sessionKey("id"), meta)).thenReturn(
+          Arrays.asList(longBytes(now), intBytes(10), longBytes(now - 1000), null, RedisSessionRepository.BYTES_FALSE));
+      assertFalse(rsr.mayHaveBindingListeners(rsr.getSessionData("id")));
+      when(facade.hmget(rsr.sessionKey("id"), meta)).thenReturn(
+          Arrays.asList(longBytes(now), intBytes(10), longBytes(now - 1000), null, RedisSessionRepository.BYTES_TRUE));
+      assertTrue(rsr.mayHaveBindingListeners(rsr.getSessionData("id")));
+      // Sessions stored without marker may have listeners
+      when(facade.hmget(rsr.sessionKey("id"), meta))
+          .thenReturn(Arrays.asList(longBytes(now), intBytes(10), longBytes(now - 1000), null, null));
+      assertTrue(rsr.mayHaveBindingListeners(rsr.getSessionData("id")));
+      verify(facade, never()).hmget(rsr.sessionKey("id"), RedisSessionRepository.BINDING_LISTENERS);
+    }
+  }
+
+  @Test
+  public void testNearCacheRequiresSticky() {
+    RedisFacade facade = mock(RedisFacade.class);
+    try (RedisSessionRepository rsr = new RedisSessionRepository(facade, "myapp", "localhost", ExpirationStrategy.ZRANGE, false)) {
+      rsr.setNearCacheSize(10);
+      assertNull(rsr.getNearCache());
+    }
+  }
+
+  @Test
+  public void testClassDescriptorDictionary() {
+    RedisFacade facade = mock(RedisFacade.class);
+    byte[] descriptor = new byte[] { 1, 2, 3 };
+    byte[] key = encode("com.amadeus.session::myapp:classes");
+    when(facade.hmget(key, longBytes(42))).thenReturn(Arrays.asList(descriptor));
+    try (RedisSessionRepository rsr = new RedisSessionRepository(facade, "myapp", "localhost", ExpirationStrategy.ZRANGE, false)) {
+      assertArrayEquals(descriptor, rsr.getClassDescriptor(42));
+      rsr.storeClassDescriptor(43, descriptor);
+      verify(facade).hsetnx(key, longBytes(43), descriptor);
+    }
+  }
+
   @Test
   public void testGetSessionKey() {
     RedisFacade facade = mock(RedisFacade.class);
@@ -428,4 +889,270 @@ public class TestRedisSessionRepository {
       verify(metrics).meter("com.amadeus.session.myapp.redis.failover");
     }
   }
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private static RedisFacade.TransactionFacade mockPipeline(RedisFacade facade, final List<byte[]> meta) {
+    final RedisFacade.TransactionFacade pipeline = mock(RedisFacade.TransactionFacade.class);
+    RedisFacade.ResponseFacade<Object> response = mock(RedisFacade.ResponseFacade.class);
+    when(response.get()).thenReturn(meta);
+    when(pipeline.evalsha(any(RedisScript.class), any(List.class), any(List.class))).thenReturn(response);
+    when(facade.pipeline(any(byte[].class), any(RedisFacade.TransactionRunner.class))).thenAnswer(new Answer() {
+      @Override
+      public Object answer(InvocationOnMock invocation) throws Throwable {
+        return ((RedisFacade.TransactionRunner) invocation.getArgument(1)).run(pipeline);
+      }
+    });
+    return pipeline;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testFetchAndTouchSortedSet() {
+    RedisFacade facade = mock(RedisFacade.class);
+    SessionManager sm = mock(SessionManager.class);
+    SessionConfiguration conf = new SessionConfiguration();
+    when(sm.getConfiguration()).thenReturn(conf);
+    long now = System.currentTimeMillis();
+    RedisFacade.TransactionFacade pipeline = mockPipeline(facade,
+        Arrays.asList(longBytes(now - 1000), intBytes(conf.getMaxInactiveInterval()), longBytes(now - 2000), null,
+            null));
+    try (RedisSessionRepository rsr = new RedisSessionRepository(facade, "myapp", "localhost", ExpirationStrategy.ZRANGE, false)) {
+      rsr.setSessionManager(sm);
+      assertFalse(rsr.isFetchAndTouchSupported());
+      rsr.setPipelinedFetch(true);
+      assertTrue(rsr.isFetchAndTouchSupported());
+      SessionData sessionData = rsr.fetchAndTouchSessionData("id", now, SessionConfiguration.TouchGranularity.NONE,
+          AttributePrefetch.Selection.NONE);
+      assertNotNull(sessionData);
+      assertEquals(now - 1000, sessionData.getLastAccessedTime());
+      assertEquals(now - 2000, sessionData.getCreationTime());
+      verify(facade, times(1)).pipeline(eq(rsr.sessionKey("id")), any(RedisFacade.TransactionRunner.class));
+      ArgumentCaptor<List> keys = ArgumentCaptor.forClass(List.class);
+      ArgumentCaptor<List> args = ArgumentCaptor.forClass(List.class);
+      verify(pipeline).evalsha(eq(RedisSessionRepository.FETCH_AND_TOUCH_SCRIPT), keys.capture(), args.capture());
+      assertEquals(1, keys.getValue().size());
+      assertArrayEquals(rsr.sessionKey("id"), (byte[]) keys.getValue().get(0));
+      assertEquals(5, args.getValue().size());
+      assertEquals(Long.toString(now), encode((byte[]) args.getValue().get(0)));
+      assertArrayEquals(longBytes(now), (byte[]) args.getValue().get(1));
+      assertEquals(0, ((byte[]) args.getValue().get(2)).length);
+      assertEquals("0", encode((byte[]) args.getValue().get(3)));
+      assertEquals("0", encode((byte[]) args.getValue().get(4)));
+      verify(pipeline).zadd(any(byte[].class), eq((double) (now + conf.getMaxInactiveInterval() * 1000L)),
+          eq(encode("id")));
+      verify(facade, never()).hmget(any(byte[].class), any(byte[].class));
+      verify(facade, never()).hmset(any(byte[].class), any(Map.class));
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testFetchAndTouchSortedSetCustomInterval() {
+    RedisFacade facade = mock(RedisFacade.class);
+    SessionManager sm = mock(SessionManager.class);
+    SessionConfiguration conf = new SessionConfiguration();
+    when(sm.getConfiguration()).thenReturn(conf);
+    long now = System.currentTimeMillis();
+    RedisFacade.TransactionFacade pipeline = mockPipeline(facade,
+        Arrays.asList(longBytes(now - 1000), intBytes(60), longBytes(now - 2000), null, null));
+    try (RedisSessionRepository rsr = new RedisSessionRepository(facade, "myapp", "localhost", ExpirationStrategy.ZRANGE, false)) {
+      rsr.setSessionManager(sm);
+      rsr.setPipelinedFetch(true);
+      SessionData sessionData = rsr.fetchAndTouchSessionData("id", now, SessionConfiguration.TouchGranularity.NONE,
+          AttributePrefetch.Selection.NONE);
+      assertEquals(60, sessionData.getMaxInactiveInterval());
+      verify(facade, times(2)).pipeline(eq(rsr.sessionKey("id")), any(RedisFacade.TransactionRunner.class));
+      verify(pipeline).zadd(any(byte[].class), eq((double) (now + 60000L)), eq(encode("id")));
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testFetchAndTouchSortedSetWithinGranularity() {
+    RedisFacade facade = mock(RedisFacade.class);
+    SessionManager sm = mock(SessionManager.class);
+    SessionConfiguration conf = new SessionConfiguration();
+    conf.setTouchGranularity("10%");
+    when(sm.getConfiguration()).thenReturn(conf);
+    long now = System.currentTimeMillis();
+    RedisFacade.TransactionFacade pipeline = mockPipeline(facade,
+        Arrays.asList(longBytes(now - 1000), intBytes(60), longBytes(now - 2000), null, null));
+    try (RedisSessionRepository rsr = new RedisSessionRepository(facade, "myapp", "localhost", ExpirationStrategy.ZRANGE, false)) {
+      rsr.setSessionManager(sm);
+      rsr.setPipelinedFetch(true);
+      SessionData sessionData = rsr.fetchAndTouchSessionData("id", now, conf.getTouchGranularity(),
+          AttributePrefetch.Selection.NONE);
+      assertEquals(now - 1000, sessionData.getLastAccessedTime());
+      ArgumentCaptor<List> args = ArgumentCaptor.forClass(List.class);
+      verify(pipeline).evalsha(eq(RedisSessionRepository.FETCH_AND_TOUCH_SCRIPT), any(List.class), args.capture());
+      assertEquals("10", encode((byte[]) args.getValue().get(3)));
+      assertEquals("1", encode((byte[]) args.getValue().get(4)));
+      // Touch was not needed, expiration data is neither assumed nor updated
+      verify(facade, times(1)).pipeline(eq(rsr.sessionKey("id")), any(RedisFacade.TransactionRunner.class));
+      verify(pipeline, never()).zadd(any(byte[].class), any(Double.class), any(byte[].class));
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testFetchAndTouchSortedSetAfterGranularity() {
+    RedisFacade facade = mock(RedisFacade.class);
+    SessionManager sm = mock(SessionManager.class);
+    SessionConfiguration conf = new SessionConfiguration();
+    conf.setTouchGranularity("10%");
+    when(sm.getConfiguration()).thenReturn(conf);
+    long now = System.currentTimeMillis();
+    RedisFacade.TransactionFacade pipeline = mockPipeline(facade,
+        Arrays.asList(longBytes(now - 10000), intBytes(60), longBytes(now - 20000), null, null));
+    try (RedisSessionRepository rsr = new RedisSessionRepository(facade, "myapp", "localhost", ExpirationStrategy.ZRANGE, false)) {
+      rsr.setSessionManager(sm);
+      rsr.setPipelinedFetch(true);
+      rsr.fetchAndTouchSessionData("id", now, conf.getTouchGranularity(), AttributePrefetch.Selection.NONE);
+      verify(facade, times(2)).pipeline(eq(rsr.sessionKey("id")), any(RedisFacade.TransactionRunner.class));
+      verify(pipeline, times(1)).zadd(any(byte[].class), eq((double) (now + 60000L)), eq(encode("id")));
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testFetchAndTouchMissingSession() {
+    RedisFacade facade = mock(RedisFacade.class);
+    SessionManager sm = mock(SessionManager.class);
+    SessionConfiguration conf = new SessionConfiguration();
+    when(sm.getConfiguration()).thenReturn(conf);
+    mockPipeline(facade, Arrays.asList((byte[]) null, null, null, null, null));
+    try (RedisSessionRepository rsr = new RedisSessionRepository(facade, "myapp", "localhost", ExpirationStrategy.ZRANGE, false)) {
+      rsr.setSessionManager(sm);
+      rsr.setPipelinedFetch(true);
+      assertNull(rsr.fetchAndTouchSessionData("id", System.currentTimeMillis(), SessionConfiguration.TouchGranularity.NONE,
+          AttributePrefetch.Selection.NONE));
+      verify(facade, times(1)).pipeline(eq(rsr.sessionKey("id")), any(RedisFacade.TransactionRunner.class));
+      verify(facade).zrem(any(byte[].class), eq(encode("id")));
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testFetchAndTouchExpiredSession() {
+    RedisFacade facade = mock(RedisFacade.class);
+    SessionManager sm = mock(SessionManager.class);
+    SessionConfiguration conf = new SessionConfiguration();
+    when(sm.getConfiguration()).thenReturn(conf);
+    long now = System.currentTimeMillis();
+    RedisFacade.TransactionFacade pipeline = mockPipeline(facade,
+        Arrays.asList(longBytes(now - 61000), intBytes(60), longBytes(now - 62000), null, null));
+    try (RedisSessionRepository rsr = new RedisSessionRepository(facade, "myapp", "localhost", ExpirationStrategy.ZRANGE, false)) {
+      rsr.setSessionManager(sm);
+      rsr.setPipelinedFetch(true);
+      SessionData sessionData = rsr.fetchAndTouchSessionData("id", now, SessionConfiguration.TouchGranularity.NONE,
+          AttributePrefetch.Selection.NONE);
+      assertEquals(now - 61000, sessionData.getLastAccessedTime());
+      // Expiration data assumed during fetch is replaced by the stored one
+      verify(facade, times(2)).pipeline(eq(rsr.sessionKey("id")), any(RedisFacade.TransactionRunner.class));
+      InOrder inOrder = inOrder(pipeline);
+      inOrder.verify(pipeline).zadd(any(byte[].class), eq((double) (now + conf.getMaxInactiveInterval() * 1000L)),
+          eq(encode("id")));
+      inOrder.verify(pipeline).zadd(any(byte[].class), eq((double) (now - 1000)), eq(encode("id")));
+      verify(facade, never()).zrem(any(byte[].class), any(byte[].class));
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testFetchAndTouchNotifCluster() {
+    RedisFacade facade = mock(RedisFacade.class);
+    SessionManager sm = mock(SessionManager.class);
+    SessionConfiguration conf = new SessionConfiguration();
+    when(sm.getConfiguration()).thenReturn(conf);
+    long now = System.currentTimeMillis();
+    RedisFacade.TransactionFacade pipeline = mockPipeline(facade,
+        Arrays.asList(longBytes(now - 1000), intBytes(conf.getMaxInactiveInterval()), longBytes(now - 2000), null,
+            null));
+    try (RedisSessionRepository rsr = new RedisSessionRepository(facade, "myapp", "localhost", ExpirationStrategy.NOTIF, false)) {
+      rsr.setSessionManager(sm);
+      rsr.setPipelinedFetch(true);
+      assertNotNull(rsr.fetchAndTouchSessionData("id", now, SessionConfiguration.TouchGranularity.NONE,
+          AttributePrefetch.Selection.NONE));
+      verify(facade, times(2)).pipeline(eq(rsr.sessionKey("id")), any(RedisFacade.TransactionRunner.class));
+      verify(pipeline).sadd(any(byte[].class), eq(rsr.sessionKey("id")));
+      verify(pipeline).expire(rsr.sessionKey("id"),
+          conf.getMaxInactiveInterval() + NotificationExpirationManagement.SESSION_PERSISTENCE_SAFETY_MARGIN);
+      verify(facade, never()).sadd(any(byte[].class), any(byte[].class));
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testFetchAndTouchNotif() {
+    RedisFacade facade = mock(RedisFacade.class);
+    when(facade.isSingleServer()).thenReturn(true);
+    SessionManager sm = mock(SessionManager.class);
+    SessionConfiguration conf = new SessionConfiguration();
+    when(sm.getConfiguration()).thenReturn(conf);
+    long now = System.currentTimeMillis();
+    RedisFacade.TransactionFacade pipeline = mockPipeline(facade,
+        Arrays.asList(longBytes(now - 1000), intBytes(60), longBytes(now - 2000), null, null));
+    try (RedisSessionRepository rsr = new RedisSessionRepository(facade, "myapp", "localhost", ExpirationStrategy.NOTIF, false)) {
+      rsr.setSessionManager(sm);
+      rsr.setPipelinedFetch(true);
+      assertNotNull(rsr.fetchAndTouchSessionData("id", now, SessionConfiguration.TouchGranularity.NONE,
+          AttributePrefetch.Selection.NONE));
+      verify(facade, times(1)).pipeline(eq(rsr.sessionKey("id")), any(RedisFacade.TransactionRunner.class));
+      ArgumentCaptor<List> keys = ArgumentCaptor.forClass(List.class);
+      ArgumentCaptor<List> args = ArgumentCaptor.forClass(List.class);
+      verify(pipeline).evalsha(eq(NotificationExpirationManagement.FETCH_AND_TOUCH_SCRIPT), keys.capture(),
+          args.capture());
+      assertEquals(2, keys.getValue().size());
+      assertArrayEquals(rsr.sessionKey("id"), (byte[]) keys.getValue().get(0));
+      assertEquals("com.amadeus.session:expire::myapp:{id}", encode((byte[]) keys.getValue().get(1)));
+      assertEquals(10, args.getValue().size());
+      assertEquals("0", encode((byte[]) args.getValue().get(5)));
+      assertEquals("com.amadeus.session::myapp:expirations:", encode((byte[]) args.getValue().get(6)));
+      assertEquals("", encode((byte[]) args.getValue().get(7)));
+      // Expiration data is updated by the script
+      verify(pipeline, never()).sadd(any(byte[].class), any(byte[].class));
+      verify(pipeline, never()).expire(any(byte[].class), anyInt());
+      verify(facade, never()).sadd(any(byte[].class), any(byte[].class));
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testFetchAndTouchNotifSticky() {
+    RedisFacade facade = mock(RedisFacade.class);
+    when(facade.isSingleServer()).thenReturn(true);
+    SessionManager sm = mock(SessionManager.class);
+    SessionConfiguration conf = new SessionConfiguration();
+    when(sm.getConfiguration()).thenReturn(conf);
+    long now = System.currentTimeMillis();
+    RedisFacade.TransactionFacade pipeline = mockPipeline(facade,
+        Arrays.asList(longBytes(now - 1000), intBytes(60), longBytes(now - 2000), null, null, encode("other")));
+    try (RedisSessionRepository rsr = new RedisSessionRepository(facade, "myapp", "localhost", ExpirationStrategy.NOTIF, true)) {
+      rsr.setSessionManager(sm);
+      rsr.setPipelinedFetch(true);
+      SessionData sessionData = rsr.fetchAndTouchSessionData("id", now, SessionConfiguration.TouchGranularity.NONE,
+          AttributePrefetch.Selection.NONE);
+      assertEquals("other", sessionData.getPreviousOwner());
+      verify(facade, times(1)).pipeline(eq(rsr.sessionKey("id")), any(RedisFacade.TransactionRunner.class));
+      ArgumentCaptor<List> keys = ArgumentCaptor.forClass(List.class);
+      ArgumentCaptor<List> args = ArgumentCaptor.forClass(List.class);
+      verify(pipeline).evalsha(eq(NotificationExpirationManagement.FETCH_AND_TOUCH_SCRIPT), keys.capture(),
+          args.capture());
+      assertEquals("com.amadeus.session:expire::localhost:myapp:{id}", encode((byte[]) keys.getValue().get(1)));
+      assertEquals("localhost", encode((byte[]) args.getValue().get(2)));
+      assertEquals("com.amadeus.session::myapp:forced-expirations:", encode((byte[]) args.getValue().get(7)));
+      // Session expire key of previous owner is built from these parts
+      assertEquals("com.amadeus.session:expire::other:myapp:{id}", encode((byte[]) args.getValue().get(8)) + "other"
+          + encode((byte[]) args.getValue().get(9)));
+      verify(pipeline, never()).del(any(byte[].class));
+    }
+  }
+
+  private static byte[] longBytes(long value) {
+    return ByteBuffer.allocate(8).putLong(value).array();
+  }
+
+  private static byte[] intBytes(int value) {
+    return ByteBuffer.allocate(4).putInt(value).array();
+  }
 }
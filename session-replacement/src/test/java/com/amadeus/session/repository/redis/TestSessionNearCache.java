@@ -0,0 +1,105 @@
+package com.amadeus.session.repository.redis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.amadeus.session.JdkSerializerDeserializer;
+import com.amadeus.session.SerializerDeserializer;
+import com.amadeus.session.SessionConfiguration;
+import com.amadeus.session.SessionManager;
+import com.codahale.metrics.MetricRegistry;
+
+@SuppressWarnings("javadoc")
+public class TestSessionNearCache {
+  private final SerializerDeserializer serializer = serializer();
+
+  private static SerializerDeserializer serializer() {
+    SessionManager sm = mock(SessionManager.class);
+    when(sm.getConfiguration()).thenReturn(new SessionConfiguration());
+    when(sm.getMetrics()).thenReturn(new MetricRegistry());
+    JdkSerializerDeserializer serializer = new JdkSerializerDeserializer();
+    serializer.setSessionManager(sm);
+    return serializer;
+  }
+
+  @Test
+  public void testValidate() {
+    SessionNearCache cache = new SessionNearCache(10);
+    assertFalse(cache.validate("id", 1L, false));
+    cache.attributeRead("id", 1L, "attr", "value", null);
+    assertTrue(cache.validate("id", 1L, false));
+    assertEquals("value", cache.get("id", "attr", serializer));
+    assertFalse(cache.validate("id", 2L, false));
+    assertNull(cache.get("id", "attr", serializer));
+    cache.attributeRead("id", 2L, "attr", "value", null);
+    assertFalse(cache.validate("id", 2L, true));
+    assertNull(cache.get("id", "attr", serializer));
+    assertFalse(cache.validate("id", null, false));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testCommitted() {
+    SessionNearCache cache = new SessionNearCache(10);
+    cache.committed("id", 3L, Collections.<String, Object> singletonMap("attr", "value"),
+        Collections.<String> emptyList());
+    assertTrue(cache.validate("id", 3L, false));
+    assertTrue(cache.contains("id", "attr"));
+    cache.committed("id", 4L, Collections.<String, Object> emptyMap(), Collections.singletonList("attr"));
+    assertFalse(cache.contains("id", "attr"));
+    assertTrue(cache.validate("id", 4L, false));
+  }
+
+  @Test
+  public void testReadIgnoredAfterConcurrentCommit() {
+    SessionNearCache cache = new SessionNearCache(10);
+    cache.validate("id", 1L, false);
+    cache.committed("id", 2L, Collections.<String, Object> emptyMap(), Collections.<String> emptyList());
+    // Value was read by request that validated version 1
+    cache.attributeRead("id", 1L, "attr", "old", null);
+    assertFalse(cache.contains("id", "attr"));
+    cache.attributeRead("id", null, "attr", "old", null);
+    assertFalse(cache.contains("id", "attr"));
+  }
+
+  @Test
+  public void testMutableValuesAreCopied() {
+    SessionNearCache cache = new SessionNearCache(10);
+    cache.validate("id", 1L, false);
+    List<String> list = new ArrayList<>(Collections.singletonList("a"));
+    cache.attributeRead("id", 1L, "list", list, serializer.serialize(list));
+    cache.attributeRead("id", 1L, "string", "value", serializer.serialize("value"));
+    Object first = cache.get("id", "list", serializer);
+    assertEquals(list, first);
+    assertNotSame(list, first);
+    assertNotSame(first, cache.get("id", "list", serializer));
+    list.add("b");
+    assertEquals(Collections.singletonList("a"), cache.get("id", "list", serializer));
+    String value = "value";
+    assertSame(value, cache.get("id", "string", serializer));
+  }
+
+  @Test
+  public void testBounded() {
+    SessionNearCache cache = new SessionNearCache(2);
+    cache.validate("1", 1L, false);
+    cache.validate("2", 1L, false);
+    cache.attributeRead("1", 1L, "attr", "value", null);
+    cache.validate("3", 1L, false);
+    assertEquals(2, cache.size());
+    assertTrue(cache.contains("1", "attr"));
+    assertFalse(cache.validate("2", 1L, false));
+  }
+}
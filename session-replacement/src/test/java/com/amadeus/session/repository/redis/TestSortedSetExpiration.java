@@ -15,12 +15,16 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import com.amadeus.session.SessionConfiguration;
 import com.amadeus.session.SessionData;
@@ -107,6 +111,57 @@ public class TestSortedSetExpiration {
     assertEquals("2", encode(captureValue.getValue()));
   }
 
+  @Test
+  public void testShards() {
+    expiration.setShards(4);
+    Set<String> keys = new HashSet<>();
+    for (int i = 0; i < 100; i++) {
+      String id = String.valueOf(i);
+      byte[] key = expiration.sessionToExpireKey(id);
+      assertArrayEquals(key, expiration.sessionToExpireKey(id));
+      keys.add(encode(key));
+    }
+    assertEquals(4, keys.size());
+    assertTrue(keys.contains("com.amadeus.session:all-sessions-set:test"));
+    assertTrue(keys.contains("com.amadeus.session:all-sessions-set:test:3"));
+
+    SessionManager manager = mock(SessionManager.class);
+    expiration.new CleanupTask(manager).run();
+    ArgumentCaptor<byte[]> captureExpireKey = ArgumentCaptor.forClass(byte[].class);
+    verify(redis, times(4)).zrangeByScore(captureExpireKey.capture(), any(double.class), any(double.class));
+    Set<String> cleaned = new HashSet<>();
+    for (byte[] key : captureExpireKey.getAllValues()) {
+      cleaned.add(encode(key));
+    }
+    assertEquals(keys, cleaned);
+  }
+
+  @Test
+  public void testShardsSplitBetweenCleanupWorkers() {
+    expiration = new SortedSetSessionExpirationManagement(redis, redisSession, "test", false, "node");
+    expiration.setShards(4);
+    expiration.setCleanupWorkers(2);
+    when(redis.evalsha(eq(CleanupLeases.LEASE_SCRIPT), any(List.class), any(List.class)))
+        .thenAnswer(new Answer<Object>() {
+          @Override
+          public Object answer(InvocationOnMock invocation) throws Throwable {
+            List<byte[]> keys = invocation.getArgument(1);
+            return encode(keys.get(0)).endsWith("lease:0") ? Long.valueOf(5) : Long.valueOf(0);
+          }
+        });
+
+    SessionManager manager = mock(SessionManager.class);
+    expiration.new CleanupTask(manager).run();
+    ArgumentCaptor<byte[]> captureExpireKey = ArgumentCaptor.forClass(byte[].class);
+    verify(redis, times(2)).zrangeByScore(captureExpireKey.capture(), any(double.class), any(double.class));
+    Set<String> cleaned = new HashSet<>();
+    for (byte[] key : captureExpireKey.getAllValues()) {
+      cleaned.add(encode(key));
+    }
+    assertTrue(cleaned.contains("com.amadeus.session:all-sessions-set:test"));
+    assertTrue(cleaned.contains("com.amadeus.session:all-sessions-set:test:2"));
+  }
+
   @Test
   public void testSessionCleanupEmptyZrange() {
     SessionManager manager = mock(SessionManager.class);
@@ -151,6 +206,58 @@ public class TestSortedSetExpiration {
     verify(manager, never()).delete("2", true);
   }
 
+  @Test
+  public void testSessionCleanupSkipsActiveSessionInOldShard() {
+    expiration.setShards(2);
+    SessionManager manager = mock(SessionManager.class);
+    CleanupTask task = expiration.new CleanupTask(manager);
+    Set<byte[]> zrange = new LinkedHashSet<>();
+    byte[] key1 = new byte[]{'1'};
+    zrange.add(key1);
+    byte[] key2 = new byte[]{'2'};
+    zrange.add(key2);
+    when(redis.zrangeByScore(any(byte[].class), any(double.class), any(double.class))).thenReturn(zrange);
+    when(redis.zrem(any(byte[].class), any(byte[].class))).thenReturn(Long.valueOf(1L));
+    when(redisSession.isActive(eq("1"), anyLong())).thenReturn(true);
+    task.run();
+    verify(manager, never()).delete("1", true);
+    verify(manager, times(2)).delete("2", true);
+  }
+
+  @Test
+  public void testStartCleanupUsesRecordedShards() {
+    expiration.setShards(2);
+    when(redis.evalsha(eq(SortedSetSessionExpirationManagement.RECORD_SHARDS_SCRIPT), any(List.class),
+        any(List.class))).thenReturn(Long.valueOf(4));
+    SessionManager manager = mock(SessionManager.class);
+    when(manager.getConfiguration()).thenReturn(new SessionConfiguration());
+    expiration.startExpiredSessionsTask(manager);
+    ArgumentCaptor<List> captureArgs = ArgumentCaptor.forClass(List.class);
+    verify(redis).evalsha(eq(SortedSetSessionExpirationManagement.RECORD_SHARDS_SCRIPT), any(List.class),
+        captureArgs.capture());
+    assertEquals("2", encode((byte[])captureArgs.getValue().get(0)));
+    Set<String> keys = new HashSet<>();
+    for (int i = 0; i < 100; i++) {
+      keys.add(encode(expiration.sessionToExpireKey(String.valueOf(i))));
+    }
+    assertEquals(4, keys.size());
+  }
+
+  @Test
+  public void testStartCleanupKeepsHigherConfiguredShards() {
+    expiration.setShards(4);
+    when(redis.evalsha(eq(SortedSetSessionExpirationManagement.RECORD_SHARDS_SCRIPT), any(List.class),
+        any(List.class))).thenReturn(Long.valueOf(4));
+    SessionManager manager = mock(SessionManager.class);
+    when(manager.getConfiguration()).thenReturn(new SessionConfiguration());
+    expiration.startExpiredSessionsTask(manager);
+    Set<String> keys = new HashSet<>();
+    for (int i = 0; i < 100; i++) {
+      keys.add(encode(expiration.sessionToExpireKey(String.valueOf(i))));
+    }
+    assertEquals(4, keys.size());
+  }
+
   @Test
   public void testStartCleanup() {
     SessionManager manager = mock(SessionManager.class);
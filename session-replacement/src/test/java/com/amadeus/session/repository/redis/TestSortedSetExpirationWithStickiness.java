@@ -15,12 +15,17 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.Arrays;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import com.amadeus.session.SessionConfiguration;
 import com.amadeus.session.SessionData;
@@ -185,6 +190,44 @@ public class TestSortedSetExpirationWithStickiness {
     verify(manager, never()).delete("2", true);
   }
 
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testSessionCleanupClaimedPages() {
+    SessionManager manager = mock(SessionManager.class);
+    when(manager.submit(anyString(), any(Runnable.class))).thenAnswer(new Answer<Object>() {
+      @Override
+      public Object answer(InvocationOnMock invocation) throws Throwable {
+        ((Runnable)invocation.getArgument(1)).run();
+        return CompletableFuture.completedFuture(null);
+      }
+    });
+    CleanupTask task = expiration.new CleanupTask(manager);
+    List<Object> fullPage = Arrays.<Object> asList(Long.valueOf(SortedSetSessionExpirationManagement.CLEANUP_PAGE_SIZE),
+        ONE_WITH_NODE, encode("2:node"));
+    List<Object> emptyPage = Arrays.<Object> asList(Long.valueOf(0));
+    List<Object> otherNodePage = Arrays.<Object> asList(Long.valueOf(1), encode("3:nod2"));
+    when(redis.canRunScript(any(List.class))).thenReturn(Boolean.TRUE);
+    when(redis.evalsha(eq(SortedSetSessionExpirationManagement.CLAIM_EXPIRED_SCRIPT), any(List.class),
+        any(List.class))).thenReturn(fullPage, emptyPage, otherNodePage);
+    task.run();
+    ArgumentCaptor<List> captureArgs = ArgumentCaptor.forClass(List.class);
+    verify(redis, times(3)).evalsha(eq(SortedSetSessionExpirationManagement.CLAIM_EXPIRED_SCRIPT), any(List.class),
+        captureArgs.capture());
+    List<byte[]> first = captureArgs.getAllValues().get(0);
+    assertEquals("0", encode(first.get(2)));
+    assertEquals(":node", encode(first.get(4)));
+    List<byte[]> second = captureArgs.getAllValues().get(1);
+    assertEquals(String.valueOf(SortedSetSessionExpirationManagement.CLEANUP_PAGE_SIZE - 2), encode(second.get(2)));
+    List<byte[]> third = captureArgs.getAllValues().get(2);
+    assertEquals("0", encode(third.get(0)));
+    assertEquals(0, third.get(4).length);
+    verify(manager).delete("1", true);
+    verify(manager).delete("2", true);
+    verify(manager).delete("3", true);
+    verify(redis, never()).zrangeByScore(any(byte[].class), any(double.class), any(double.class));
+    verify(redis, never()).zrem(any(byte[].class), any(byte[].class));
+  }
+
   @Test
   public void testStartCleanup() {
     SessionManager manager = mock(SessionManager.class);
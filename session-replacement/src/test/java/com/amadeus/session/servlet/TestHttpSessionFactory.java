@@ -6,9 +6,13 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import javax.servlet.ServletContext;
 
 import org.junit.Before;
@@ -134,6 +138,64 @@ public class TestHttpSessionFactory {
     factory.committed(session);
   }
 
+  @Test
+  public void testCommittedRetiresSessionWhenNotUsed() {
+    sessionConfiguration.setAllowedCachedSessionReuse(true);
+    factory.setSessionManager(sessionManager);
+    RepositoryBackedSession session = factory.build(sessionData);
+    // Request starts using the session
+    session.setAttribute("A", "B");
+    RepositoryBackedSession sessionConcurrent = factory.build(new SessionData("1", 1000, 500));
+    sessionConcurrent.setAttribute("A", "C");
+    assertEquals(2, session.getConcurrentUses());
+    // Concurrent request still uses the session
+    factory.committed(session);
+    RepositoryBackedSession third = factory.build(new SessionData("1", 1000, 500));
+    third.setAttribute("A", "D");
+    assertEquals(3, third.getConcurrentUses());
+  }
+
+  @Test(timeout = 60000)
+  public void testConcurrentRequestsOnSameSession() throws InterruptedException {
+    SessionRepository repository = mock(SessionRepository.class);
+    when(repository.startCommit(any(SessionData.class))).thenReturn(mock(SessionRepository.CommitTransaction.class));
+    when(sessionManager.getRepository()).thenReturn(repository);
+    sessionConfiguration.setAllowedCachedSessionReuse(true);
+    factory.setSessionManager(sessionManager);
+    final AtomicInteger notAcquired = new AtomicInteger();
+    final CountDownLatch start = new CountDownLatch(1);
+    Thread[] threads = new Thread[16];
+    for (int i = 0; i < threads.length; i++) {
+      final String value = String.valueOf(i);
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          for (int j = 0; j < 1000; j++) {
+            RepositoryBackedSession session = factory.build(new SessionData("1", 1000, 500));
+            session.setAttribute("A", value);
+            if (session.getConcurrentUses() <= 0) {
+              notAcquired.incrementAndGet();
+            }
+            session.getCommitter().run();
+          }
+        }
+      };
+      threads[i].start();
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(0, notAcquired.get());
+    // Last request has removed session from cache
+    assertEquals(0, factory.build(sessionData).getConcurrentUses());
+  }
+
   public void testSessionIdChange() {
     fail("Not yet implemented");
   }
@@ -1,5 +1,7 @@
 package com.amadeus.session.servlet;
 
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -109,6 +111,15 @@ public class TestHttpSessionNotifier {
     verify(object).sessionDidActivate(any(HttpSessionEvent.class));
   }
 
+  @Test
+  public void testListenersOfAttributes() {
+    assertTrue(notifier.isBindingListener(mock(HttpSessionBindingListener.class)));
+    assertFalse(notifier.isBindingListener("dummy"));
+    assertFalse(notifier.hasAttributeListeners());
+    descriptor.addHttpSessionAttributeListener(mock(HttpSessionAttributeListener.class));
+    assertTrue(notifier.hasAttributeListeners());
+  }
+
   @Test
   public void testSessionDestroyed() {
     HttpSessionBindingListener bindingListener = mock(HttpSessionBindingListener.class);